@@ -0,0 +1,76 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import com.sachinhandiekar.sqltools.excel.model.NumericMode;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading and converting rows from a ResultSet into a RowBatch: the typed getters, the BigDecimal and
+ * Timestamp conversions and the NULL checks, without writing a workbook.
+ * <p>
+ * An operation is one row, so the score is rows per second and gc.alloc.rate.norm of -prof gc is
+ * the bytes allocated per row.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ColumnReaderBenchmark {
+
+    private static final int BATCH_ROWS = 1000;
+
+    @Param({"20"})
+    public int width;
+
+    @Param({"DECIMAL0,DECIMAL2,DECIMAL6,DATE,TIMESTAMP,VARCHAR", "DECIMAL2", "VARCHAR", "DATE"})
+    public String typeMix;
+
+    @Param({"0", "0.2"})
+    public double nullRatio;
+
+    @Param({"STRICT", "LOSSY"})
+    public NumericMode numericMode;
+
+    private SyntheticResultSet resultSet;
+
+    private ColumnReader[] readers;
+
+    private RowBatch batch;
+
+    @Setup
+    public void setUp() throws SQLException {
+        resultSet = new SyntheticResultSet(width, SyntheticResultSet.parseTypeMix(typeMix), nullRatio, Long.MAX_VALUE);
+        readers = ColumnReader.forMetaData(resultSet.getMetaData(), numericMode);
+        batch = new RowBatch(width, BATCH_ROWS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_ROWS)
+    public RowBatch readBatch() throws SQLException {
+        batch.clear();
+        for (int i = 0; i < BATCH_ROWS; i++) {
+            resultSet.next();
+            int row = batch.addRow();
+            for (int column = 0; column < readers.length; column++) {
+                readers[column].read(resultSet, batch, row);
+            }
+        }
+        return batch;
+    }
+}
@@ -0,0 +1,116 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import com.sachinhandiekar.sqltools.excel.model.Engine;
+import com.sachinhandiekar.sqltools.excel.model.ExcelFile;
+import com.sachinhandiekar.sqltools.excel.model.NumericMode;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exporting a synthetic result set end to end into a workbook file with each engine: HSSF (xls),
+ * XSSF (xlsx in memory), SXSSF (large xlsx) and the direct xlsx engine.
+ * <p>
+ * An operation is one workbook of rows rows. The rows counter reports rows per second; the bytes
+ * allocated per row are gc.alloc.rate.norm of -prof gc divided by rows.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class SheetWriteBenchmark {
+
+    @Param({"HSSF", "XSSF", "SXSSF", "DIRECT"})
+    public String engine;
+
+    @Param({"10000"})
+    public int rows;
+
+    @Param({"20"})
+    public int width;
+
+    @Param({"DECIMAL0,DECIMAL2,DECIMAL6,DATE,TIMESTAMP,VARCHAR"})
+    public String typeMix;
+
+    @Param({"0.1"})
+    public double nullRatio;
+
+    private SyntheticResultSet resultSet;
+
+    private ColumnLayout layout;
+
+    private ColumnReader[] readers;
+
+    private ExcelFile excelFile;
+
+    private TypeFormatMapping typeFormatMapping;
+
+    private File file;
+
+    /**
+     * The rows written, reported as rows per second.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class RowCounter {
+
+        public long rows;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            rows = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() throws SQLException, IOException {
+        resultSet = new SyntheticResultSet(width, SyntheticResultSet.parseTypeMix(typeMix), nullRatio, rows);
+        typeFormatMapping = TypeFormatMapping.defaults();
+        layout = ColumnLayout.fromMetaData(resultSet.getMetaData(), typeFormatMapping);
+        readers = ColumnReader.forMetaData(resultSet.getMetaData(), NumericMode.STRICT);
+        excelFile = new ExcelFile();
+        excelFile.setLarge("SXSSF".equals(engine));
+        excelFile.setEngine("DIRECT".equals(engine) ? Engine.DIRECT : Engine.POI);
+        file = File.createTempFile("benchmark", "HSSF".equals(engine) ? ".xls" : ".xlsx");
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public long writeWorkbook(RowCounter counter) throws SQLException, IOException {
+        resultSet.beforeFirst();
+        WorkbookWriter workbookWriter = ExcelFileExporter.createWorkbookWriter(excelFile, typeFormatMapping, file);
+        try {
+            SheetWriter sheetWriter = workbookWriter.startSheet("Data", layout);
+            new RowPipeline(width, excelFile.getBatchSize(), 0).run(resultSet, readers, sheetWriter);
+            sheetWriter.finish();
+            workbookWriter.finish();
+            counter.rows += sheetWriter.getRowsWritten();
+        } finally {
+            workbookWriter.close();
+        }
+        return file.length();
+    }
+}
@@ -0,0 +1,78 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolving the Excel format and the cell style of a column, done once per column of every worksheet.
+ * <p>
+ * resolveNew uses a new TypeFormatMapping for every column, which matches the regular expressions,
+ * resolveCached the shared mapping of an export.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StyleLookupBenchmark {
+
+    private static final String[] COLUMN_TYPES = {
+            "NUMBER(10,0)", "NUMBER(12,2)", "NUMBER(20,6)", "DATE(7,0)", "TIMESTAMP(11,6)", "VARCHAR2(100,0)"
+    };
+
+    @Param({"HSSF", "XSSF"})
+    public String workbookType;
+
+    private Workbook workbook;
+
+    private TypeFormatMapping typeFormatMapping;
+
+    private StyleRegistry styleRegistry;
+
+    @Setup
+    public void setUp() {
+        workbook = "HSSF".equals(workbookType) ? new HSSFWorkbook() : new XSSFWorkbook();
+        typeFormatMapping = TypeFormatMapping.defaults();
+        styleRegistry = new StyleRegistry(workbook, typeFormatMapping);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        workbook.close();
+    }
+
+    @Benchmark
+    public void resolveCached(Blackhole blackhole) {
+        for (String columnType : COLUMN_TYPES) {
+            CellStyle style = styleRegistry.getStyle(typeFormatMapping.getExcelFormat(columnType), null);
+            blackhole.consume(style);
+        }
+    }
+
+    @Benchmark
+    public void resolveNew(Blackhole blackhole) {
+        TypeFormatMapping mapping = TypeFormatMapping.defaults();
+        for (String columnType : COLUMN_TYPES) {
+            blackhole.consume(mapping.getExcelFormat(columnType));
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.sachinhandiekar.sqltools.excel.loadtest;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+
+/**
+ * End to end load test: generates the ORDERS table in an embedded H2 database, runs every scenario
+ * in its own JVM and compares the measurements with a saved baseline.
+ * <p>
+ * The run fails (exit code 1) when an export fails or a measurement exceeds the baseline by more
+ * than the tolerance, with a minimum absolute difference so short scenarios do not fail on noise.
+ * Wall time depends on the machine, so the baseline should be recorded with -update on the machine
+ * the load test runs on.
+ * <p>
+ * Options: -rows n (default 1000000), -scenario name (default all), -workDir dir, -baseline file,
+ * -tolerance fraction (default 0.25), -update to save the results as the new baseline.
+ */
+public class LoadTest {
+
+    private static final long MIN_MILLIS_DIFFERENCE = 1000;
+
+    private static final long MIN_BYTES_DIFFERENCE = 32L << 20;
+
+    private static final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+
+    public static void main(String[] args) throws Exception {
+        long rows = 1000000;
+        String scenarioFilter = null;
+        File workDir = new File("target/loadtest");
+        File baselineFile = new File("src/loadtest/baseline.json");
+        double tolerance = 0.25;
+        boolean update = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-rows":
+                    rows = Long.parseLong(args[++i]);
+                    break;
+                case "-scenario":
+                    scenarioFilter = args[++i];
+                    break;
+                case "-workDir":
+                    workDir = new File(args[++i]);
+                    break;
+                case "-baseline":
+                    baselineFile = new File(args[++i]);
+                    break;
+                case "-tolerance":
+                    tolerance = Double.parseDouble(args[++i]);
+                    break;
+                case "-update":
+                    update = true;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        File outputDir = new File(workDir, "output");
+        outputDir.mkdirs();
+        String jdbcUrl = LoadTestData.jdbcUrl(new File(workDir, "orders-" + rows).getAbsolutePath());
+        LoadTestData.createOrders(jdbcUrl, rows);
+
+        List<Scenario> scenarios = readScenarios();
+        Map<String, ScenarioResult> results = new LinkedHashMap<String, ScenarioResult>();
+        for (Scenario scenario : scenarios) {
+            if (scenarioFilter != null && !scenarioFilter.equals(scenario.getName())) {
+                continue;
+            }
+            results.put(scenario.getName(), run(scenario, workDir, outputDir, jdbcUrl, rows));
+        }
+
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(new File(workDir, "results.json")),
+                StandardCharsets.UTF_8)) {
+            gson.toJson(results, out);
+        }
+        Map<String, ScenarioResult> baseline = readBaseline(baselineFile);
+        boolean failed = report(results, baseline, tolerance);
+        if (update) {
+            Map<String, ScenarioResult> saved = baseline != null ? baseline : new LinkedHashMap<String, ScenarioResult>();
+            saved.putAll(results);
+            try (Writer out = new OutputStreamWriter(new FileOutputStream(baselineFile), StandardCharsets.UTF_8)) {
+                gson.toJson(saved, out);
+            }
+            System.out.println("Baseline saved to " + baselineFile);
+        } else if (failed) {
+            System.out.println("Load test FAILED");
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    private static List<Scenario> readScenarios() throws IOException {
+        try (Reader in = new InputStreamReader(resource("loadtest-scenarios.json"), StandardCharsets.UTF_8)) {
+            return gson.fromJson(in, new TypeToken<List<Scenario>>() { }.getType());
+        }
+    }
+
+    private static Map<String, ScenarioResult> readBaseline(File baselineFile) throws IOException {
+        if (!baselineFile.exists()) {
+            return null;
+        }
+        try (Reader in = new InputStreamReader(new FileInputStream(baselineFile), StandardCharsets.UTF_8)) {
+            return gson.fromJson(in, new TypeToken<LinkedHashMap<String, ScenarioResult>>() { }.getType());
+        }
+    }
+
+    private static InputStream resource(String name) throws IOException {
+        InputStream in = LoadTest.class.getClassLoader().getResourceAsStream(name);
+        if (in == null) {
+            throw new IOException("Resource " + name + " not found");
+        }
+        return in;
+    }
+
+    /**
+     * Run a scenario in a new JVM with the classpath of this one.
+     */
+    private static ScenarioResult run(Scenario scenario, File workDir, File outputDir, String jdbcUrl, long rows)
+            throws IOException, InterruptedException {
+        String config;
+        try (Scanner scanner = new Scanner(resource(scenario.getConfig()), "UTF-8")) {
+            config = scanner.useDelimiter("\\A").next();
+        }
+        config = config.replace("${jdbcUrl}", jdbcUrl)
+                .replace("${outputDir}", outputDir.getAbsolutePath().replace('\\', '/'))
+                .replace("${rows}", String.valueOf(rows));
+        File configFile = new File(workDir, scenario.getName() + ".json");
+        Files.write(configFile.toPath(), config.getBytes(StandardCharsets.UTF_8));
+        File resultFile = new File(workDir, scenario.getName() + ".result.json");
+        resultFile.delete();
+
+        List<String> command = new ArrayList<String>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        command.addAll(scenario.getJvmArgs());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ScenarioRunner.class.getName());
+        command.add(scenario.getName());
+        command.add(configFile.getPath());
+        command.add(resultFile.getPath());
+        File logFile = new File(workDir, scenario.getName() + ".log");
+        System.out.println("Running " + scenario.getName() + " " + scenario.getJvmArgs() + ", log in " + logFile);
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(logFile).start();
+        int exitCode = process.waitFor();
+
+        if (exitCode != 0 || !resultFile.exists()) {
+            ScenarioResult result = new ScenarioResult();
+            result.setName(scenario.getName());
+            result.setError("Scenario JVM exited with " + exitCode + ", see " + logFile);
+            return result;
+        }
+        try (Reader in = new InputStreamReader(new FileInputStream(resultFile), StandardCharsets.UTF_8)) {
+            return gson.fromJson(in, ScenarioResult.class);
+        }
+    }
+
+    /**
+     * Print the results next to the baseline.
+     *
+     * @return true if a scenario failed or regressed
+     */
+    private static boolean report(Map<String, ScenarioResult> results, Map<String, ScenarioResult> baseline,
+                                  double tolerance) {
+        boolean failed = false;
+        System.out.println(String.format("%-24s %10s %10s %12s %10s %10s %8s %8s  %s", "scenario", "rows",
+                "wall ms", "output", "heap MB", "rss MB", "gc ms", "max gc", "status"));
+        for (ScenarioResult result : results.values()) {
+            ScenarioResult base = baseline != null ? baseline.get(result.getName()) : null;
+            List<String> regressions = new ArrayList<String>();
+            if (base != null && result.isSuccess()) {
+                check(regressions, "wall time", result.getWallMillis(), base.getWallMillis(), tolerance, MIN_MILLIS_DIFFERENCE);
+                check(regressions, "peak heap", result.getPeakHeapBytes(), base.getPeakHeapBytes(), tolerance, MIN_BYTES_DIFFERENCE);
+                check(regressions, "peak rss", result.getPeakRssBytes(), base.getPeakRssBytes(), tolerance, MIN_BYTES_DIFFERENCE);
+                check(regressions, "max gc pause", result.getMaxGcPauseMillis(), base.getMaxGcPauseMillis(), tolerance, MIN_MILLIS_DIFFERENCE);
+                check(regressions, "output size", result.getOutputBytes(), base.getOutputBytes(), tolerance, 0);
+            }
+            String status = !result.isSuccess() ? "FAILED " + result.getError()
+                    : !regressions.isEmpty() ? "REGRESSED " + regressions
+                    : base == null ? "ok (no baseline)" : "ok";
+            failed |= !result.isSuccess() || !regressions.isEmpty();
+            System.out.println(String.format("%-24s %10d %10d %12d %10d %10d %8d %8d  %s", result.getName(),
+                    result.getRows(), result.getWallMillis(), result.getOutputBytes(), result.getPeakHeapBytes() >> 20,
+                    result.getPeakRssBytes() >> 20, result.getGcPauseMillis(), result.getMaxGcPauseMillis(), status));
+        }
+        return failed;
+    }
+
+    private static void check(List<String> regressions, String name, long value, long baseline, double tolerance,
+                              long minDifference) {
+        if (baseline <= 0 || value < 0) {
+            return;
+        }
+        if (value > baseline * (1 + tolerance) && value - baseline > minDifference) {
+            regressions.add(name + " " + value + " > " + baseline);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.sachinhandiekar.sqltools.excel.loadtest;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Creates the ORDERS table of the load tests in an embedded H2 database in Oracle mode.
+ * <p>
+ * The rows are generated from their ID, so a table of the same size always has the same content and
+ * is reused between runs. The columns cover the types of the production exports: NUMBER with
+ * scales 0, 2 and 6, DATE, TIMESTAMP and VARCHAR2, with NULLs in several columns.
+ */
+public class LoadTestData {
+
+    private static final long CHUNK_ROWS = 1000000;
+
+    private LoadTestData() {
+    }
+
+    /**
+     * @param databaseFile the database file without the .mv.db extension
+     * @return the JDBC URL of the embedded database
+     */
+    public static String jdbcUrl(String databaseFile) {
+        return "jdbc:h2:" + databaseFile + ";MODE=Oracle;DEFAULT_NULL_ORDERING=HIGH";
+    }
+
+    /**
+     * Create the ORDERS table with the given number of rows, unless it already has them.
+     *
+     * @param jdbcUrl the URL of the database
+     * @param rows the number of rows
+     * @throws SQLException if the table can not be created
+     */
+    public static void createOrders(String jdbcUrl, long rows) throws SQLException {
+        try (Connection connection = DriverManager.getConnection(jdbcUrl, "sa", "");
+             Statement statement = connection.createStatement()) {
+            if (countOrders(statement) == rows) {
+                System.out.println("Reusing ORDERS with " + rows + " rows");
+                return;
+            }
+            statement.execute("DROP TABLE IF EXISTS ORDERS");
+            statement.execute("CREATE TABLE ORDERS ("
+                    + "ID NUMBER(19,0) PRIMARY KEY, "
+                    + "CUSTOMER_ID NUMBER(10,0), "
+                    + "AMOUNT NUMBER(12,2), "
+                    + "DISCOUNT NUMBER(12,2), "
+                    + "RATE NUMBER(20,6), "
+                    + "QUANTITY NUMBER(10,0), "
+                    + "ORDER_DATE DATE, "
+                    + "SHIPPED_AT TIMESTAMP, "
+                    + "STATUS VARCHAR2(20), "
+                    + "NOTE VARCHAR2(200))");
+            long start = System.currentTimeMillis();
+            for (long from = 1; from <= rows; from += CHUNK_ROWS) {
+                long to = Math.min(rows, from + CHUNK_ROWS - 1);
+                statement.execute("INSERT INTO ORDERS SELECT X, "
+                        + "MOD(X * 7919, 100000), "
+                        + "MOD(X * 104729, 100000000) / 100.0, "
+                        + "CASE WHEN MOD(X, 3) = 0 THEN NULL ELSE MOD(X, 5000) / 100.0 END, "
+                        + "CASE WHEN MOD(X, 10) = 0 THEN NULL ELSE CAST(X / 7.0 AS NUMBER(20,6)) END, "
+                        + "MOD(X, 1000), "
+                        + "DATEADD('DAY', MOD(X, 9000), DATE '2000-01-01'), "
+                        + "CASE WHEN MOD(X, 7) = 0 THEN NULL "
+                        + "ELSE DATEADD('MILLISECOND', MOD(X * 997, 800000000000), TIMESTAMP '2000-01-01 00:00:00') END, "
+                        + "CASEWHEN(MOD(X, 4) = 0, 'CANCELLED', CASEWHEN(MOD(X, 4) = 1, 'OPEN', 'SHIPPED')), "
+                        + "CASE WHEN MOD(X, 5) = 0 THEN NULL "
+                        + "ELSE CONCAT('Order ', X, ' for customer ', MOD(X * 7919, 100000), ' ', REPEAT('x', MOD(X, 40))) END "
+                        + "FROM SYSTEM_RANGE(" + from + ", " + to + ")");
+                System.out.println("Generated " + to + " of " + rows + " rows");
+            }
+            System.out.println("ORDERS created in " + (System.currentTimeMillis() - start) + " ms");
+        }
+    }
+
+    private static long countOrders(Statement statement) {
+        try (ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM ORDERS")) {
+            rs.next();
+            return rs.getLong(1);
+        } catch (SQLException e) {
+            return -1;
+        }
+    }
+}
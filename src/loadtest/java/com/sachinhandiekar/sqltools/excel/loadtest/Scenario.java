@@ -0,0 +1,53 @@
+package com.sachinhandiekar.sqltools.excel.loadtest;
+
+import com.google.gson.annotations.SerializedName;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A load test scenario: an exporter config run against the generated ORDERS table in its own JVM.
+ * <p>
+ * The config is a resource with the placeholders ${jdbcUrl}, ${outputDir} and ${rows}.
+ */
+public class Scenario {
+
+    @SerializedName("name")
+    private String name;
+
+    @SerializedName("config")
+    private String config;
+
+    @SerializedName("jvmArgs")
+    private List<String> jvmArgs = new ArrayList<String>();
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return the classpath resource of the exporter config
+     */
+    public String getConfig() {
+        return config;
+    }
+
+    public void setConfig(String config) {
+        this.config = config;
+    }
+
+    /**
+     * @return the options of the JVM running the scenario, e.g. -Xmx512m
+     */
+    public List<String> getJvmArgs() {
+        return jvmArgs;
+    }
+
+    public void setJvmArgs(List<String> jvmArgs) {
+        this.jvmArgs = jvmArgs;
+    }
+}
@@ -0,0 +1,145 @@
+package com.sachinhandiekar.sqltools.excel.loadtest;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * The measurements of one scenario run, also the format of the saved baseline.
+ */
+public class ScenarioResult {
+
+    @SerializedName("name")
+    private String name;
+
+    @SerializedName("success")
+    private boolean success;
+
+    @SerializedName("error")
+    private String error;
+
+    @SerializedName("rows")
+    private long rows;
+
+    @SerializedName("outputBytes")
+    private long outputBytes;
+
+    @SerializedName("wallMillis")
+    private long wallMillis;
+
+    @SerializedName("peakHeapBytes")
+    private long peakHeapBytes;
+
+    @SerializedName("peakRssBytes")
+    private long peakRssBytes;
+
+    @SerializedName("gcCount")
+    private long gcCount;
+
+    @SerializedName("gcPauseMillis")
+    private long gcPauseMillis;
+
+    @SerializedName("maxGcPauseMillis")
+    private long maxGcPauseMillis;
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public void setSuccess(boolean success) {
+        this.success = success;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public void setRows(long rows) {
+        this.rows = rows;
+    }
+
+    /**
+     * @return the size of all written files
+     */
+    public long getOutputBytes() {
+        return outputBytes;
+    }
+
+    public void setOutputBytes(long outputBytes) {
+        this.outputBytes = outputBytes;
+    }
+
+    /**
+     * @return the time of the export, without starting the JVM
+     */
+    public long getWallMillis() {
+        return wallMillis;
+    }
+
+    public void setWallMillis(long wallMillis) {
+        this.wallMillis = wallMillis;
+    }
+
+    /**
+     * @return the sum of the peak usage of the heap memory pools
+     */
+    public long getPeakHeapBytes() {
+        return peakHeapBytes;
+    }
+
+    public void setPeakHeapBytes(long peakHeapBytes) {
+        this.peakHeapBytes = peakHeapBytes;
+    }
+
+    /**
+     * @return the peak resident set size of the JVM, -1 where /proc/self/status is not available
+     */
+    public long getPeakRssBytes() {
+        return peakRssBytes;
+    }
+
+    public void setPeakRssBytes(long peakRssBytes) {
+        this.peakRssBytes = peakRssBytes;
+    }
+
+    public long getGcCount() {
+        return gcCount;
+    }
+
+    public void setGcCount(long gcCount) {
+        this.gcCount = gcCount;
+    }
+
+    /**
+     * @return the total time of the stop the world collections
+     */
+    public long getGcPauseMillis() {
+        return gcPauseMillis;
+    }
+
+    public void setGcPauseMillis(long gcPauseMillis) {
+        this.gcPauseMillis = gcPauseMillis;
+    }
+
+    public long getMaxGcPauseMillis() {
+        return maxGcPauseMillis;
+    }
+
+    public void setMaxGcPauseMillis(long maxGcPauseMillis) {
+        this.maxGcPauseMillis = maxGcPauseMillis;
+    }
+}
@@ -0,0 +1,132 @@
+package com.sachinhandiekar.sqltools.excel.loadtest;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.sachinhandiekar.sqltools.excel.ExportResult;
+import com.sachinhandiekar.sqltools.excel.SQLExcelExporter;
+import com.sachinhandiekar.sqltools.excel.model.SQLExcelExporterConfig;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+/**
+ * Runs the export of one scenario in a fresh JVM and writes its measurements as JSON.
+ * <p>
+ * Usage: ScenarioRunner [name] [config file] [result file]
+ */
+public class ScenarioRunner {
+
+    private static final AtomicLong maxPauseMillis = new AtomicLong();
+
+    private static final AtomicLong pauseMillis = new AtomicLong();
+
+    private static final AtomicLong pauseCount = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        ScenarioResult result = new ScenarioResult();
+        result.setName(args[0]);
+        SQLExcelExporterConfig config;
+        try (Reader in = new InputStreamReader(new FileInputStream(args[1]), StandardCharsets.UTF_8)) {
+            config = new Gson().fromJson(in, SQLExcelExporterConfig.class);
+        }
+        listenToPauses();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+
+        long start = System.nanoTime();
+        List<ExportResult> exportResults = SQLExcelExporter.performBatchExport(config);
+        result.setWallMillis((System.nanoTime() - start) / 1000000);
+
+        result.setSuccess(true);
+        for (ExportResult exportResult : exportResults) {
+            result.setRows(result.getRows() + exportResult.getRows());
+            result.setOutputBytes(result.getOutputBytes() + exportResult.getBytes());
+            if (!exportResult.isSuccess()) {
+                result.setSuccess(false);
+                result.setError(exportResult.getError());
+            }
+        }
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peakHeap += pool.getPeakUsage().getUsed();
+            }
+        }
+        result.setPeakHeapBytes(peakHeap);
+        result.setPeakRssBytes(peakRss());
+        result.setGcCount(pauseCount.get());
+        result.setGcPauseMillis(pauseMillis.get());
+        result.setMaxGcPauseMillis(maxPauseMillis.get());
+
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(args[2]), StandardCharsets.UTF_8)) {
+            new GsonBuilder().setPrettyPrinting().create().toJson(result, out);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Record the duration of every stop the world collection. The concurrent cycles of G1, ZGC and
+     * Shenandoah are reported by their own collector beans and are not pauses.
+     */
+    private static void listenToPauses() {
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (!(bean instanceof NotificationEmitter) || bean.getName().contains("Concurrent")
+                    || bean.getName().contains("Cycles")) {
+                continue;
+            }
+            ((NotificationEmitter) bean).addNotificationListener((notification, handback) -> {
+                if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                    return;
+                }
+                GarbageCollectionNotificationInfo info =
+                        GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+                long duration = info.getGcInfo().getDuration();
+                pauseCount.incrementAndGet();
+                pauseMillis.addAndGet(duration);
+                maxPauseMillis.accumulateAndGet(duration, Math::max);
+            }, null, null);
+        }
+    }
+
+    /**
+     * @return VmHWM of /proc/self/status in bytes, -1 if not available
+     */
+    private static long peakRss() {
+        File status = new File("/proc/self/status");
+        if (!status.exists()) {
+            return -1;
+        }
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(status),
+                StandardCharsets.US_ASCII))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith("VmHWM:")) {
+                    return Long.parseLong(line.substring(6).replace("kB", "").trim()) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            return -1;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,17 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import java.io.IOException;
+
+/**
+ * Receives filled RowBatches, e.g. to write them to a worksheet.
+ * <p>
+ * The batch is only valid during the call, it is cleared and refilled afterwards.
+ */
+public interface BatchConsumer {
+
+    /**
+     * @param batch the rows to consume
+     * @throws IOException if the rows can not be written
+     */
+    void accept(RowBatch batch) throws IOException;
+}
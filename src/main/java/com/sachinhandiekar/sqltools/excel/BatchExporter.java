@@ -0,0 +1,153 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import com.sachinhandiekar.sqltools.excel.model.ExcelFile;
+import com.sachinhandiekar.sqltools.excel.model.SQLExcelExporterConfig;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Exports all excel files of a configuration on a bounded pool of worker threads.
+ * <p>
+ * Every file gets its own workbook and connection of the pool and runs its own preparation procedure;
+ * at most maxParallelFiles files are exported at the same time.
+ */
+public class BatchExporter {
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchExporter.class);
+
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+
+    private BatchExporter() {
+    }
+
+    /**
+     * Export on connections which are closed afterwards, see ExportEngine to keep them open.
+     *
+     * @param config the configuration with the datasource and the excel files
+     * @return one result per excel file and parameter set, in the configured order
+     */
+    public static List<ExportResult> exportAll(SQLExcelExporterConfig config) {
+        try (ExportEngine engine = new ExportEngine()) {
+            return engine.export(config);
+        }
+    }
+
+    /**
+     * @param config the configuration with the datasource and the excel files
+     * @param pool the connections of the datasource
+     * @return one result per excel file and parameter set, in the configured order
+     */
+    static List<ExportResult> exportAll(SQLExcelExporterConfig config, ConnectionPool pool) {
+        TypeFormatMapping typeFormatMapping = new TypeFormatMapping(config.getTypeFormats());
+        List<ExcelFile> excelFiles = config.getExcelFiles();
+        int threads = Math.max(1, Math.min(config.getMaxParallelFiles(), excelFiles.size()));
+        logger.info("Exporting " + excelFiles.size() + " excel files, " + threads + " at a time");
+        ResultCache resultCache = openResultCache(config);
+
+        List<ExportResult> results = new ArrayList<ExportResult>();
+        if (threads == 1) {
+            for (ExcelFile excelFile : excelFiles) {
+                results.addAll(new ExcelFileExporter(pool, config.getDatasource(), typeFormatMapping, excelFile,
+                        resultCache).exportAll());
+            }
+        } else {
+            ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "excel-file-exporter-" + threadCounter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            try {
+                List<Future<List<ExportResult>>> futures = new ArrayList<Future<List<ExportResult>>>();
+                for (ExcelFile excelFile : excelFiles) {
+                    ExcelFileExporter exporter = new ExcelFileExporter(pool, config.getDatasource(),
+                            typeFormatMapping, excelFile, resultCache);
+                    futures.add(executor.submit(exporter::exportAll));
+                }
+                for (int i = 0; i < futures.size(); i++) {
+                    results.addAll(get(futures.get(i), excelFiles.get(i)));
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        logReport(results);
+        if (resultCache != null) {
+            logger.info(resultCache.statistics());
+        }
+        return results;
+    }
+
+    /**
+     * @param config the configuration with the datasource and a single excel file
+     * @param pool the connections of the datasource
+     * @param out the stream to write the excel file to, closed when the export is done
+     * @return the result of the excel file
+     */
+    static ExportResult exportTo(SQLExcelExporterConfig config, ConnectionPool pool, OutputStream out) {
+        TypeFormatMapping typeFormatMapping = new TypeFormatMapping(config.getTypeFormats());
+        ResultCache resultCache = openResultCache(config);
+        ExportResult result = new ExcelFileExporter(pool, config.getDatasource(), typeFormatMapping,
+                config.getExcelFiles().get(0), resultCache).exportTo(out);
+        logReport(Collections.singletonList(result));
+        if (resultCache != null) {
+            logger.info(resultCache.statistics());
+        }
+        return result;
+    }
+
+    private static ResultCache openResultCache(SQLExcelExporterConfig config) {
+        try {
+            return ResultCache.forSettings(config.getResultCache());
+        } catch (IOException e) {
+            logger.warn("Exporting without the result cache, its directory can not be created: " + e);
+            return null;
+        }
+    }
+
+    private static List<ExportResult> get(Future<List<ExportResult>> future, ExcelFile excelFile) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Collections.singletonList(failed(excelFile, e));
+        } catch (ExecutionException e) {
+            return Collections.singletonList(failed(excelFile, e.getCause()));
+        }
+    }
+
+    private static ExportResult failed(ExcelFile excelFile, Throwable cause) {
+        ExportResult result = new ExportResult(excelFile.getId());
+        result.setStatus(ExportResult.Status.FAILED);
+        result.setError(String.valueOf(cause));
+        return result;
+    }
+
+    private static void logReport(List<ExportResult> results) {
+        long rows = 0;
+        long bytes = 0;
+        int failed = 0;
+        for (ExportResult result : results) {
+            logger.info(result.toString());
+            rows += result.getRows();
+            bytes += result.getBytes();
+            if (!result.isSuccess()) {
+                failed++;
+            }
+        }
+        logger.info("Exported " + (results.size() - failed) + " of " + results.size() + " excel files, "
+                + rows + " rows, " + bytes + " bytes");
+    }
+}
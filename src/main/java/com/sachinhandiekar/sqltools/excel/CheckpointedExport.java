@@ -0,0 +1,355 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.annotations.SerializedName;
+import com.sachinhandiekar.sqltools.excel.model.Datasource;
+import com.sachinhandiekar.sqltools.excel.model.ExcelFile;
+import com.sachinhandiekar.sqltools.excel.model.ParameterSet;
+import com.sachinhandiekar.sqltools.excel.model.Worksheet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Exports the worksheets of an excel file through a checkpoint directory, so a failed export is
+ * resumed instead of repeated.
+ * <p>
+ * The rows of every worksheet are fetched into spool files of the directory, the key ranges of a
+ * partitioned worksheet into one part each. When all queries of a worksheet are done, it is recorded
+ * in the manifest checkpoint.json with its columns, parts and row counts. The workbook is written from
+ * the parts once all worksheets are done, and the directory is removed after the file was written.
+ * <p>
+ * A retry reuses the worksheets of the manifest and only runs the queries of the failed and the
+ * pending ones. The directory is named after the excel file and a hash of the datasource, the excel
+ * file and its parameter set, so a changed configuration starts a new checkpoint and configurations
+ * with the same excel file id never share one; the checkpoint of a configuration which changed after
+ * a failure is left behind. A worksheet query with other parameters (e.g. a new incremental range) is
+ * fetched again. The queries run one after another on the connection of the
+ * export, after the preparation procedure.
+ */
+public class CheckpointedExport {
+
+    private static final Logger logger = LoggerFactory.getLogger(CheckpointedExport.class);
+
+    private static final String MANIFEST = "checkpoint.json";
+
+    private final ExcelFile excelFile;
+
+    private final Datasource datasource;
+
+    private final File directory;
+
+    private final String configHash;
+
+    private Manifest manifest;
+
+    /**
+     * @param excelFile the excel file with a checkpoint directory
+     * @param datasource the datasource of the excel file
+     * @param parameterSet the parameter set of the file or null
+     */
+    public CheckpointedExport(ExcelFile excelFile, Datasource datasource, ParameterSet parameterSet) {
+        this.excelFile = excelFile;
+        this.datasource = datasource;
+        Gson gson = new Gson();
+        this.configHash = hash(datasource.getJdbcUrl() + "\n" + datasource.getUserName() + "\n"
+                + gson.toJson(excelFile) + "\n" + (parameterSet != null ? gson.toJson(parameterSet) : ""));
+        // the hash keeps apart the checkpoints of configurations sharing an excel file id and directory
+        String name = "excelFile-" + excelFile.getId();
+        if (parameterSet != null) {
+            name += "-" + parameterSet.getName().replaceAll("[^A-Za-z0-9_.-]", "_");
+        }
+        this.directory = new File(excelFile.getCheckpointDirectory(), name + "-" + configHash.substring(0, 16));
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Fetch the worksheets missing from the checkpoint, then write all worksheets to the workbook.
+     *
+     * @param worksheets the worksheets to export, with their parameter sets expanded
+     * @param workbookWriter the writer of the workbook
+     * @param connection the connection of the export
+     * @param statements the open statements of the connection
+     * @param metrics the metrics of the export
+     * @return the number of rows written to all worksheets
+     * @throws SQLException if a query fails
+     * @throws IOException if the checkpoint can not be read or written
+     */
+    public long export(List<Worksheet> worksheets, WorkbookWriter workbookWriter, Connection connection,
+                       StatementCache statements, ExportMetrics metrics) throws SQLException, IOException {
+        load();
+        TypeFormatMapping typeFormatMapping = workbookWriter.getTypeFormatMapping();
+        List<Sheet> sheets = new ArrayList<Sheet>(worksheets.size());
+        int reused = 0;
+        for (int i = 0; i < worksheets.size(); i++) {
+            Worksheet workSheet = worksheets.get(i);
+            WorksheetQuery query = WorksheetQuery.of(workSheet);
+            String key = hash(i + "\n" + workSheet.getWorkSheetName() + "\n" + query.getSql() + "\n"
+                    + query.getParameters());
+            Sheet sheet = manifest.find(i);
+            if (sheet != null && key.equals(sheet.key) && sheet.isIntact(directory)) {
+                logger.info("**Worksheet " + workSheet.getId() + " restored from the checkpoint (" + sheet.rows
+                        + " rows)");
+                reused++;
+            } else {
+                sheet = fetch(i, key, workSheet, connection, statements, typeFormatMapping,
+                        metrics.worksheet(workSheet));
+                manifest.put(sheet);
+                save();
+            }
+            sheets.add(sheet);
+        }
+        if (reused > 0) {
+            logger.info("Resumed ExcelFile " + excelFile.getId() + " from " + directory + ": " + reused + " of "
+                    + worksheets.size() + " worksheets were checkpointed");
+        }
+
+        long rows = 0;
+        for (int i = 0; i < worksheets.size(); i++) {
+            Sheet sheet = sheets.get(i);
+            WorksheetMetrics sheetMetrics = metrics.worksheet(worksheets.get(i));
+            ColumnLayout layout = new ColumnLayout(sheet.names, new String[sheet.names.length], sheet.columnTypes)
+                    .withTypeFormatMapping(typeFormatMapping);
+            SheetWriter rowWriter = workbookWriter.startSheet(sheet.name, layout);
+            long writeStart = System.nanoTime();
+            for (Part part : sheet.parts) {
+                rows += RowSpool.open(new File(directory, part.file)).replay(rowWriter);
+            }
+            long finishStart = System.nanoTime();
+            sheetMetrics.addWrite(finishStart - writeStart);
+            rowWriter.finish();
+            sheetMetrics.addFinish(System.nanoTime() - finishStart);
+        }
+        return rows;
+    }
+
+    private Sheet fetch(int index, String key, Worksheet workSheet, Connection connection, StatementCache statements,
+                        TypeFormatMapping typeFormatMapping, WorksheetMetrics metrics) throws SQLException, IOException {
+        logger.info("**Worksheet " + workSheet.getId());
+        List<WorksheetQuery> queries;
+        if (workSheet.getPartition() != null) {
+            queries = KeyRangePartitioner.plan(connection, workSheet);
+        } else {
+            queries = Collections.singletonList(WorksheetQuery.of(workSheet));
+        }
+        Sheet sheet = new Sheet();
+        sheet.index = index;
+        sheet.key = key;
+        sheet.name = workSheet.getWorkSheetName();
+        sheet.parts = new ArrayList<Part>();
+        for (int p = 0; p < queries.size(); p++) {
+            QueryCursor cursor = QueryCursor.open(connection, datasource, workSheet, queries.get(p), statements);
+            metrics.addExecute(cursor.getExecuteNanos());
+            try {
+                ResultSetMetaData metaData = cursor.getResultSet().getMetaData();
+                if (sheet.names == null) {
+                    ColumnLayout layout = ColumnLayout.fromMetaData(metaData, typeFormatMapping);
+                    sheet.names = layout.getNames();
+                    sheet.columnTypes = layout.getColumnTypes();
+                }
+                ColumnReader[] readers = ColumnReader.forMetaData(metaData, excelFile.getNumericMode());
+                RowSpool spool = RowSpool.create(new File(directory, "sheet" + index + "-" + p + ".spool"),
+                        sheet.names.length, excelFile.getBatchSize());
+                try {
+                    RowPipeline pipeline = new RowPipeline(sheet.names.length, excelFile.getBatchSize(),
+                            excelFile.isPipelined() ? excelFile.getQueueDepth() : 0);
+                    pipeline.setMetrics(metrics);
+                    long rows = pipeline.run(cursor.getResultSet(), readers, spool);
+                    spool.finish();
+                    cursor.logStatistics(rows);
+                    Part part = new Part();
+                    part.file = spool.getFile().getName();
+                    part.rows = rows;
+                    part.bytes = spool.getFile().length();
+                    sheet.parts.add(part);
+                    sheet.rows += rows;
+                } catch (SQLException | IOException | RuntimeException e) {
+                    spool.delete();
+                    throw e;
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return sheet;
+    }
+
+    private void load() throws IOException {
+        File file = new File(directory, MANIFEST);
+        if (file.exists()) {
+            try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+                manifest = new Gson().fromJson(reader, Manifest.class);
+            } catch (JsonParseException e) {
+                logger.warn("Ignoring the invalid checkpoint " + file + " : " + e.getMessage());
+                manifest = null;
+            }
+            if (manifest != null && !configHash.equals(manifest.configHash)) {
+                logger.warn("The checkpoint " + directory + " belongs to another configuration of ExcelFile "
+                        + excelFile.getId() + ", discarding it");
+                manifest = null;
+            }
+        }
+        if (manifest == null) {
+            delete();
+            if (!directory.mkdirs()) {
+                throw new IOException("Could not create the checkpoint directory " + directory);
+            }
+            manifest = new Manifest();
+            manifest.configHash = configHash;
+            manifest.sheets = new ArrayList<Sheet>();
+        }
+    }
+
+    private void save() throws IOException {
+        manifest.updatedAt = LocalDateTime.now().withNano(0).toString();
+        File file = new File(directory, MANIFEST);
+        File temp = new File(directory, MANIFEST + ".tmp");
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+            new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create().toJson(manifest, out);
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Remove the checkpoint, after the file was written.
+     */
+    public void delete() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.delete()) {
+                    logger.warn("Could not delete " + file);
+                }
+            }
+        }
+        if (directory.exists() && !directory.delete()) {
+            logger.warn("Could not delete the checkpoint directory " + directory);
+        }
+    }
+
+    private static String hash(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The content of checkpoint.json.
+     */
+    static class Manifest {
+
+        @SerializedName("configHash")
+        private String configHash;
+
+        @SerializedName("updatedAt")
+        private String updatedAt;
+
+        @SerializedName("worksheets")
+        private List<Sheet> sheets;
+
+        Sheet find(int index) {
+            for (Sheet sheet : sheets) {
+                if (sheet.index == index) {
+                    return sheet;
+                }
+            }
+            return null;
+        }
+
+        void put(Sheet sheet) {
+            Sheet previous = find(sheet.index);
+            if (previous != null) {
+                sheets.remove(previous);
+            }
+            sheets.add(sheet);
+        }
+    }
+
+    /**
+     * A finished worksheet: its columns and the spool files of its rows.
+     */
+    static class Sheet {
+
+        @SerializedName("index")
+        private int index;
+
+        @SerializedName("key")
+        private String key;
+
+        @SerializedName("name")
+        private String name;
+
+        @SerializedName("columns")
+        private String[] names;
+
+        @SerializedName("columnTypes")
+        private String[] columnTypes;
+
+        @SerializedName("rows")
+        private long rows;
+
+        @SerializedName("parts")
+        private List<Part> parts;
+
+        /**
+         * @return true if all parts are still there with the size they were written with
+         */
+        boolean isIntact(File directory) {
+            for (Part part : parts) {
+                if (new File(directory, part.file).length() != part.bytes) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A spool file with the rows of a worksheet query or key range.
+     */
+    static class Part {
+
+        @SerializedName("file")
+        private String file;
+
+        @SerializedName("rows")
+        private long rows;
+
+        @SerializedName("bytes")
+        private long bytes;
+    }
+}
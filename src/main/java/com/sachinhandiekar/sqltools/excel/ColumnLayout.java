@@ -0,0 +1,92 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * The column names and Excel formats of a query result.
+ * <p>
+ * Resolved once from the ResultSetMetaData, so a worksheet can be written after the result set
+ * has been closed (e.g. from a RowSpool).
+ */
+public class ColumnLayout {
+
+    private static final Logger logger = LoggerFactory.getLogger(ColumnLayout.class);
+
+    private final String[] names;
+
+    private final String[] excelFormats;
+
+    private final String[] columnTypes;
+
+    public ColumnLayout(String[] names, String[] excelFormats) {
+        this(names, excelFormats, null);
+    }
+
+    public ColumnLayout(String[] names, String[] excelFormats, String[] columnTypes) {
+        this.names = names;
+        this.excelFormats = excelFormats;
+        this.columnTypes = columnTypes;
+    }
+
+    /**
+     * @param metaData the metadata of the result set
+     * @param typeFormatMapping the mapping of column types to Excel formats
+     * @return the layout of the result set
+     * @throws SQLException if any error occurs
+     */
+    public static ColumnLayout fromMetaData(ResultSetMetaData metaData, TypeFormatMapping typeFormatMapping) throws SQLException {
+        int columnCount = metaData.getColumnCount();
+        String[] names = new String[columnCount];
+        String[] excelFormats = new String[columnCount];
+        String[] columnTypes = new String[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            names[i] = metaData.getColumnName(i + 1);
+            String columnType = metaData.getColumnTypeName(i + 1).toUpperCase();
+            columnType += "(" + metaData.getPrecision(i + 1);
+            columnType += "," + metaData.getScale(i + 1) + ")";
+            columnTypes[i] = columnType;
+            excelFormats[i] = typeFormatMapping.getExcelFormat(columnType);
+            logger.info("Column " + i + " columnType " + columnType + " excelFormat=" + excelFormats[i]);
+        }
+        return new ColumnLayout(names, excelFormats, columnTypes);
+    }
+
+    /**
+     * @param typeFormatMapping the mapping of column types to Excel formats
+     * @return the same columns with the formats of the mapping, e.g. for a result cached by an export
+     * with another mapping; this layout if the column types are not known
+     */
+    public ColumnLayout withTypeFormatMapping(TypeFormatMapping typeFormatMapping) {
+        if (columnTypes == null) {
+            return this;
+        }
+        String[] formats = new String[columnTypes.length];
+        for (int i = 0; i < columnTypes.length; i++) {
+            formats[i] = typeFormatMapping.getExcelFormat(columnTypes[i]);
+        }
+        return new ColumnLayout(names, formats, columnTypes);
+    }
+
+    public int getColumnCount() {
+        return names.length;
+    }
+
+    public String[] getNames() {
+        return names;
+    }
+
+    public String[] getExcelFormats() {
+        return excelFormats;
+    }
+
+    /**
+     * @return the column types with precision and scale, e.g. NUMBER(10,2), or null if not known
+     */
+    public String[] getColumnTypes() {
+        return columnTypes;
+    }
+}
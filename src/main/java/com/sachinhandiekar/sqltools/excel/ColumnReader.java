@@ -0,0 +1,366 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import com.sachinhandiekar.sqltools.excel.model.NumericMode;
+
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Reads one column of the current row of a ResultSet into a RowBatch.
+ * <p>
+ * The reader for a column is chosen once per worksheet from the column class name reported by the
+ * ResultSetMetaData, so the row loop uses the typed getters of the driver instead of
+ * getObject and an instanceof chain. Columns with an unknown class use the generic reader which
+ * keeps the original getObject based conversion. Decimal columns get a reader matching the
+ * NumericConversion strategy of the column.
+ */
+public abstract class ColumnReader {
+
+    private static final Logger logger = LoggerFactory.getLogger(ColumnReader.class);
+
+    /** the JDBC column index (1 based) */
+    protected final int column;
+
+    /** the index of the column in the RowBatch (0 based) */
+    protected final int index;
+
+    protected ColumnReader(int index) {
+        this.index = index;
+        this.column = index + 1;
+    }
+
+    /**
+     * Read the value of the column from the current row.
+     *
+     * @param rs the result set positioned on a row
+     * @param batch the batch to store the value in
+     * @param row the row of the batch
+     * @throws SQLException if any error occurs
+     */
+    public abstract void read(ResultSet rs, RowBatch batch, int row) throws SQLException;
+
+    /**
+     * Resolve the readers for all columns of a result set.
+     *
+     * @param metaData the metadata of the result set
+     * @param numericMode the conversion mode for decimal columns
+     * @return one reader per column
+     * @throws SQLException if any error occurs
+     */
+    public static ColumnReader[] forMetaData(ResultSetMetaData metaData, NumericMode numericMode) throws SQLException {
+        int columnCount = metaData.getColumnCount();
+        ColumnReader[] readers = new ColumnReader[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            String columnClassName = metaData.getColumnClassName(i + 1);
+            if ("java.math.BigDecimal".equals(columnClassName)) {
+                NumericConversion.Strategy strategy = NumericConversion.strategyFor(metaData.getPrecision(i + 1),
+                        metaData.getScale(i + 1), numericMode);
+                logger.debug("Column " + i + " numeric strategy " + strategy);
+                readers[i] = forDecimalColumn(strategy, i);
+            } else {
+                readers[i] = forColumn(columnClassName, i);
+            }
+        }
+        return readers;
+    }
+
+    private static ColumnReader forDecimalColumn(NumericConversion.Strategy strategy, int index) {
+        switch (strategy) {
+            case DOUBLE:
+                return new DecimalDoubleReader(index);
+            case LONG:
+                return new DecimalLongReader(index);
+            case LOSSY:
+                return new LossyDecimalReader(index);
+            default:
+                return new BigDecimalReader(index);
+        }
+    }
+
+    private static ColumnReader forColumn(String columnClassName, int index) {
+        if (columnClassName == null) {
+            return new GenericReader(index);
+        }
+        switch (columnClassName) {
+            case "java.lang.String":
+                return new StringReader(index);
+            case "java.lang.Integer":
+                return new IntegerReader(index);
+            case "java.lang.Long":
+                return new LongReader(index);
+            case "java.lang.Double":
+                return new DoubleReader(index);
+            case "java.lang.Boolean":
+                return new BooleanReader(index);
+            case "java.sql.Timestamp":
+                return new TimestampReader(index);
+            case "java.sql.Date":
+                return new DateReader(index);
+            default:
+                return new GenericReader(index);
+        }
+    }
+
+    /**
+     * Store a BigDecimal as number if it can be represented as double, as plain string otherwise.
+     */
+    static void storeBigDecimal(BigDecimal bd, RowBatch batch, int row, int index) {
+        double dbd = bd.doubleValue();
+        if (NumericConversion.isNumber(bd, dbd)) {
+            batch.setNumber(row, index, dbd);
+        } else {
+            batch.setText(row, index, bd.toPlainString());
+        }
+    }
+
+    static class StringReader extends ColumnReader {
+
+        StringReader(int index) {
+            super(index);
+        }
+
+        @Override
+        public void read(ResultSet rs, RowBatch batch, int row) throws SQLException {
+            String value = rs.getString(column);
+            if (value == null) {
+                batch.setNull(row, index);
+            } else {
+                batch.setText(row, index, value);
+            }
+        }
+    }
+
+    static class IntegerReader extends ColumnReader {
+
+        IntegerReader(int index) {
+            super(index);
+        }
+
+        @Override
+        public void read(ResultSet rs, RowBatch batch, int row) throws SQLException {
+            int value = rs.getInt(column);
+            if (rs.wasNull()) {
+                batch.setNull(row, index);
+            } else {
+                batch.setNumber(row, index, value);
+            }
+        }
+    }
+
+    static class LongReader extends ColumnReader {
+
+        LongReader(int index) {
+            super(index);
+        }
+
+        @Override
+        public void read(ResultSet rs, RowBatch batch, int row) throws SQLException {
+            long value = rs.getLong(column);
+            if (rs.wasNull()) {
+                batch.setNull(row, index);
+            } else {
+                batch.setNumber(row, index, value);
+            }
+        }
+    }
+
+    static class DoubleReader extends ColumnReader {
+
+        DoubleReader(int index) {
+            super(index);
+        }
+
+        @Override
+        public void read(ResultSet rs, RowBatch batch, int row) throws SQLException {
+            double value = rs.getDouble(column);
+            if (rs.wasNull()) {
+                batch.setNull(row, index);
+            } else {
+                batch.setNumber(row, index, value);
+            }
+        }
+    }
+
+    static class BooleanReader extends ColumnReader {
+
+        BooleanReader(int index) {
+            super(index);
+        }
+
+        @Override
+        public void read(ResultSet rs, RowBatch batch, int row) throws SQLException {
+            boolean value = rs.getBoolean(column);
+            if (rs.wasNull()) {
+                batch.setNull(row, index);
+            } else {
+                batch.setBoolean(row, index, value);
+            }
+        }
+    }
+
+    static class BigDecimalReader extends ColumnReader {
+
+        BigDecimalReader(int index) {
+            super(index);
+        }
+
+        @Override
+        public void read(ResultSet rs, RowBatch batch, int row) throws SQLException {
+            BigDecimal value = rs.getBigDecimal(column);
+            if (value == null) {
+                batch.setNull(row, index);
+            } else {
+                storeBigDecimal(value, batch, row, index);
+            }
+        }
+    }
+
+    /**
+     * Decimal column with less than 16 digits of precision, every value is a number.
+     */
+    static class DecimalDoubleReader extends ColumnReader {
+
+        DecimalDoubleReader(int index) {
+            super(index);
+        }
+
+        @Override
+        public void read(ResultSet rs, RowBatch batch, int row) throws SQLException {
+            BigDecimal value = rs.getBigDecimal(column);
+            if (value == null) {
+                batch.setNull(row, index);
+            } else {
+                batch.setNumber(row, index, value.doubleValue());
+            }
+        }
+    }
+
+    /**
+     * Integer decimal column of up to 18 digits, read as long without a BigDecimal.
+     */
+    static class DecimalLongReader extends ColumnReader {
+
+        DecimalLongReader(int index) {
+            super(index);
+        }
+
+        @Override
+        public void read(ResultSet rs, RowBatch batch, int row) throws SQLException {
+            long value = rs.getLong(column);
+            if (rs.wasNull()) {
+                batch.setNull(row, index);
+            } else if (NumericConversion.isExactDouble(value)) {
+                batch.setNumber(row, index, value);
+            } else {
+                batch.setText(row, index, Long.toString(value));
+            }
+        }
+    }
+
+    /**
+     * Decimal column in lossy mode, every finite value is a number.
+     */
+    static class LossyDecimalReader extends ColumnReader {
+
+        LossyDecimalReader(int index) {
+            super(index);
+        }
+
+        @Override
+        public void read(ResultSet rs, RowBatch batch, int row) throws SQLException {
+            double value = rs.getDouble(column);
+            if (rs.wasNull()) {
+                batch.setNull(row, index);
+            } else if (Double.isFinite(value)) {
+                batch.setNumber(row, index, value);
+            } else {
+                batch.setText(row, index, rs.getBigDecimal(column).toPlainString());
+            }
+        }
+    }
+
+    static class TimestampReader extends ColumnReader {
+
+        private final TimeZone timeZone = TimeZone.getDefault();
+
+        TimestampReader(int index) {
+            super(index);
+        }
+
+        @Override
+        public void read(ResultSet rs, RowBatch batch, int row) throws SQLException {
+            Timestamp value = rs.getTimestamp(column);
+            if (value == null) {
+                batch.setNull(row, index);
+            } else {
+                batch.setDate(row, index, ExcelDates.toExcelDate(value.getTime(), timeZone));
+            }
+        }
+    }
+
+    static class DateReader extends ColumnReader {
+
+        private final TimeZone timeZone = TimeZone.getDefault();
+
+        DateReader(int index) {
+            super(index);
+        }
+
+        @Override
+        public void read(ResultSet rs, RowBatch batch, int row) throws SQLException {
+            java.sql.Date value = rs.getDate(column);
+            if (value == null) {
+                batch.setNull(row, index);
+            } else {
+                batch.setDate(row, index, ExcelDates.toExcelDate(value.getTime(), timeZone));
+            }
+        }
+    }
+
+    /**
+     * Fallback for driver specific classes, converts the value returned by getObject.
+     */
+    static class GenericReader extends ColumnReader {
+
+        private final TimeZone timeZone = TimeZone.getDefault();
+
+        GenericReader(int index) {
+            super(index);
+        }
+
+        @Override
+        public void read(ResultSet rs, RowBatch batch, int row) throws SQLException {
+            Object value = rs.getObject(column);
+            if (value == null) {
+                batch.setNull(row, index);
+            } else if (value instanceof Calendar) {
+                batch.setDate(row, index, DateUtil.getExcelDate((Calendar) value, false));
+            } else if (value instanceof java.sql.Date || value instanceof Timestamp) {
+                batch.setDate(row, index, ExcelDates.toExcelDate(((java.util.Date) value).getTime(), timeZone));
+            } else if (value instanceof String) {
+                batch.setText(row, index, (String) value);
+            } else if (value instanceof Boolean) {
+                batch.setBoolean(row, index, (Boolean) value);
+            } else if (value instanceof Double) {
+                batch.setNumber(row, index, (Double) value);
+            } else if (value instanceof Integer) {
+                batch.setNumber(row, index, (Integer) value);
+            } else if (value instanceof Long) {
+                batch.setNumber(row, index, (Long) value);
+            } else if (value instanceof BigDecimal) {
+                storeBigDecimal((BigDecimal) value, batch, row, index);
+            } else {
+                batch.setText(row, index, rs.getString(column));
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import org.apache.poi.ss.usermodel.Sheet;
+
+/**
+ * Estimates column widths from the values written to a sheet instead of measuring every cell with
+ * font metrics like Sheet.autoSizeColumn.
+ * <p>
+ * The display width of a value is derived from its kind and the Excel format of the column
+ * (e.g. "0.00" adds three characters to the integer digits, a date shows as long as its pattern).
+ * Only the first sampleRows rows are looked at, a negative sample size looks at all rows.
+ */
+public class ColumnWidthEstimator {
+
+    /** Excel column widths are in 1/256 of a character */
+    private static final int CHARACTER_WIDTH = 256;
+
+    /** Excel does not allow columns wider than 255 characters */
+    private static final int MAX_CHARACTERS = 255;
+
+    /** Space for the cell padding and the filter button of the header */
+    private static final int PADDING = 2;
+
+    /** Maximum number of characters of a number shown with the General format */
+    private static final int GENERAL_NUMBER_CHARACTERS = 11;
+
+    private static final double[] POWERS_OF_TEN = {
+            1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15
+    };
+
+    private final int columnCount;
+
+    private final int sampleRows;
+
+    private final int[] widths;
+
+    /** true if the column has no number or date format, numbers are shown as General */
+    private final boolean[] general;
+
+    /** number of fixed decimals of the column format, -1 for General */
+    private final int[] decimals;
+
+    /** number of optional decimals (#) of the column format */
+    private final int[] optionalDecimals;
+
+    /** true if the format groups thousands */
+    private final boolean[] grouping;
+
+    /** display width of a date in the column format */
+    private final int[] dateWidths;
+
+    private int sampledRows;
+
+    /**
+     * @param headers the header labels
+     * @param excelFormats the Excel format of each column
+     * @param sampleRows the number of rows to sample, negative for all rows
+     */
+    public ColumnWidthEstimator(String[] headers, String[] excelFormats, int sampleRows) {
+        this.columnCount = excelFormats.length;
+        this.sampleRows = sampleRows;
+        this.widths = new int[columnCount];
+        this.general = new boolean[columnCount];
+        this.decimals = new int[columnCount];
+        this.optionalDecimals = new int[columnCount];
+        this.grouping = new boolean[columnCount];
+        this.dateWidths = new int[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            widths[i] = headers[i] == null ? 0 : headers[i].length();
+            parseFormat(i, excelFormats[i]);
+        }
+    }
+
+    private void parseFormat(int column, String format) {
+        dateWidths[column] = displayLength(format);
+        decimals[column] = -1;
+        if (format == null || format.equals("General") || format.equals("text") || format.equals("@")) {
+            general[column] = true;
+            return;
+        }
+        grouping[column] = format.indexOf(',') >= 0;
+        int point = format.indexOf('.');
+        if (format.indexOf('0') < 0 && format.indexOf('#') < 0) {
+            return;
+        }
+        decimals[column] = 0;
+        if (point >= 0) {
+            for (int i = point + 1; i < format.length(); i++) {
+                char c = format.charAt(i);
+                if (c == '0') {
+                    decimals[column]++;
+                } else if (c == '#') {
+                    optionalDecimals[column]++;
+                } else {
+                    break;
+                }
+            }
+        }
+    }
+
+    private static int displayLength(String format) {
+        if (format == null) {
+            return 0;
+        }
+        int length = 0;
+        for (int i = 0; i < format.length(); i++) {
+            char c = format.charAt(i);
+            if (c != '\\' && c != '"') {
+                length++;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * @return true while rows are still sampled
+     */
+    public boolean isSampling() {
+        return sampleRows < 0 || sampledRows < sampleRows;
+    }
+
+    /**
+     * Account for the values of one row.
+     *
+     * @param batch the batch holding the row
+     * @param row the row of the batch
+     */
+    public void sample(RowBatch batch, int row) {
+        if (!isSampling()) {
+            return;
+        }
+        sampledRows++;
+        for (int i = 0; i < columnCount; i++) {
+            int width;
+            switch (batch.getKind(row, i)) {
+                case RowBatch.NULL:
+                    continue;
+                case RowBatch.NUMBER:
+                    width = numberWidth(i, batch.getNumber(row, i));
+                    break;
+                case RowBatch.DATE:
+                    width = general[i] ? numberWidth(i, batch.getNumber(row, i)) : dateWidths[i];
+                    break;
+                case RowBatch.BOOLEAN:
+                    width = 5;
+                    break;
+                default:
+                    String text = batch.getText(row, i);
+                    width = text == null ? 0 : text.length();
+                    break;
+            }
+            if (width > widths[i]) {
+                widths[i] = width;
+            }
+        }
+    }
+
+    private int numberWidth(int column, double value) {
+        double abs = Math.abs(value);
+        int digits = integerDigits(abs);
+        int width = digits + (value < 0 ? 1 : 0);
+        if (general[column] || decimals[column] < 0) {
+            // General shows up to 11 characters including the decimal point
+            if (abs != Math.floor(abs)) {
+                width = GENERAL_NUMBER_CHARACTERS;
+            }
+            return Math.min(width, GENERAL_NUMBER_CHARACTERS);
+        }
+        if (grouping[column]) {
+            width += (digits - 1) / 3;
+        }
+        int fraction = decimals[column];
+        if (optionalDecimals[column] > 0 && abs != Math.floor(abs)) {
+            fraction += optionalDecimals[column];
+        }
+        return fraction > 0 ? width + 1 + fraction : width;
+    }
+
+    private static int integerDigits(double abs) {
+        for (int i = 0; i < POWERS_OF_TEN.length; i++) {
+            if (abs < POWERS_OF_TEN[i]) {
+                return i + 1;
+            }
+        }
+        return POWERS_OF_TEN.length + 1;
+    }
+
+    /**
+     * @param column the column index
+     * @return the estimated width in characters
+     */
+    public int getWidth(int column) {
+        return widths[column];
+    }
+
+    /**
+     * @param column the column index
+     * @return the width to set on the column in 1/256 of a character, including the padding
+     */
+    public int getColumnWidth(int column) {
+        return Math.min(widths[column] + PADDING, MAX_CHARACTERS) * CHARACTER_WIDTH;
+    }
+
+    public int getColumnCount() {
+        return columnCount;
+    }
+
+    /**
+     * Set the estimated widths on the sheet.
+     *
+     * @param sheet the sheet the rows were written to
+     */
+    public void apply(Sheet sheet) {
+        for (int i = 0; i < columnCount; i++) {
+            sheet.setColumnWidth(i, getColumnWidth(i));
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import com.sachinhandiekar.sqltools.excel.model.Datasource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded pool of connections to one datasource, each with its open prepared statements.
+ * <p>
+ * At most maxPoolSize connections of the datasource are open; a caller waits up to
+ * connectionTimeoutSeconds for one to be returned. The most recently returned connection is handed
+ * out first, so the warm connections are reused and the others become idle. A connection idle for
+ * more than 30 seconds is validated before it is handed out, and connections idle for more than
+ * idleTimeoutSeconds are closed on the next borrow or return, or by evictIdle.
+ * <p>
+ * A returned connection is rolled back and switched to auto commit if it was left in a transaction.
+ * Session state, e.g. temporary tables created by a preparation procedure, stays with the connection.
+ * <p>
+ * The pool only uses the connection and pool settings of its datasource; the fetch settings, e.g.
+ * streaming, fetchSize or maxConnections, are taken from the configuration of each export.
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConnectionPool.class);
+
+    private static final long VALIDATE_AFTER_IDLE_MILLIS = 30000;
+
+    private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+    private final Datasource datasource;
+
+    private final int maxSize;
+
+    private final long timeoutMillis;
+
+    private final long idleTimeoutMillis;
+
+    /** the idle connections, most recently returned first */
+    private final Deque<PooledConnection> idle = new ArrayDeque<PooledConnection>();
+
+    private int open;
+
+    private boolean closed;
+
+    private long created;
+
+    private long borrowed;
+
+    private long waited;
+
+    /**
+     * @param datasource the datasource with the connection and pool settings
+     */
+    public ConnectionPool(Datasource datasource) {
+        this.datasource = datasource;
+        this.maxSize = Math.max(1, datasource.getMaxPoolSize());
+        this.timeoutMillis = TimeUnit.SECONDS.toMillis(datasource.getConnectionTimeoutSeconds());
+        this.idleTimeoutMillis = TimeUnit.SECONDS.toMillis(datasource.getIdleTimeoutSeconds());
+    }
+
+    /**
+     * @param datasource the datasource of a configuration
+     * @return the pool settings of the datasource, to compare them with those of the pool
+     */
+    public static String poolSettings(Datasource datasource) {
+        return "maxPoolSize=" + Math.max(1, datasource.getMaxPoolSize())
+                + ", connectionTimeoutSeconds=" + datasource.getConnectionTimeoutSeconds()
+                + ", idleTimeoutSeconds=" + datasource.getIdleTimeoutSeconds()
+                + ", statementCacheSize=" + datasource.getStatementCacheSize();
+    }
+
+    /**
+     * @return the settings the pool was created with
+     */
+    public String getPoolSettings() {
+        return poolSettings(datasource);
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Take an idle connection or open a new one, waiting while maxPoolSize connections are in use.
+     *
+     * @return the connection, to be closed to return it
+     * @throws SQLException if no connection can be opened or none was returned in time
+     */
+    public PooledConnection borrow() throws SQLException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (true) {
+            PooledConnection candidate = null;
+            List<PooledConnection> expired;
+            synchronized (this) {
+                if (closed) {
+                    throw new SQLException("The connection pool of " + datasource.getJdbcUrl() + " is closed");
+                }
+                expired = removeExpired();
+                if (!idle.isEmpty()) {
+                    candidate = idle.pollFirst();
+                } else if (open < maxSize) {
+                    open++;
+                } else {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        throw new SQLException("No connection of " + datasource.getJdbcUrl() + " available within "
+                                + timeoutMillis / 1000 + " s, all " + maxSize + " connections of maxPoolSize are in use");
+                    }
+                    waited++;
+                    try {
+                        wait(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Interrupted while waiting for a connection", e);
+                    }
+                    continue;
+                }
+            }
+            discardAll(expired);
+            if (candidate == null) {
+                return create();
+            }
+            if (isUsable(candidate)) {
+                synchronized (this) {
+                    borrowed++;
+                }
+                candidate.inUse = true;
+                return candidate;
+            }
+            discard(candidate);
+        }
+    }
+
+    private PooledConnection create() throws SQLException {
+        try {
+            PooledConnection connection = new PooledConnection(this, JdbcDialect.connect(datasource), datasource);
+            synchronized (this) {
+                created++;
+                borrowed++;
+            }
+            return connection;
+        } catch (SQLException | RuntimeException e) {
+            synchronized (this) {
+                open--;
+                notifyAll();
+            }
+            throw e;
+        }
+    }
+
+    private static boolean isUsable(PooledConnection connection) {
+        try {
+            if (connection.connection.isClosed()) {
+                return false;
+            }
+            if (System.currentTimeMillis() - connection.returnedAt > VALIDATE_AFTER_IDLE_MILLIS) {
+                return connection.connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+            }
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Return a connection, closing it if it is broken or the pool is closed.
+     */
+    void release(PooledConnection connection) {
+        boolean keep = !connection.invalid && reset(connection.connection);
+        List<PooledConnection> expired;
+        synchronized (this) {
+            expired = removeExpired();
+            if (keep && !closed) {
+                connection.returnedAt = System.currentTimeMillis();
+                idle.addFirst(connection);
+                notifyAll();
+            } else {
+                expired.add(connection);
+            }
+        }
+        discardAll(expired);
+    }
+
+    private static boolean reset(Connection connection) {
+        try {
+            if (connection.isClosed()) {
+                return false;
+            }
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+            return true;
+        } catch (SQLException e) {
+            logger.debug("Discarding a connection which can not be reset: " + e);
+            return false;
+        }
+    }
+
+    /**
+     * @return the idle connections past the idle timeout, removed from the pool
+     */
+    private List<PooledConnection> removeExpired() {
+        List<PooledConnection> expired = new ArrayList<PooledConnection>();
+        long now = System.currentTimeMillis();
+        Iterator<PooledConnection> iterator = idle.descendingIterator();
+        while (iterator.hasNext()) {
+            PooledConnection connection = iterator.next();
+            if (now - connection.returnedAt <= idleTimeoutMillis) {
+                break;
+            }
+            iterator.remove();
+            expired.add(connection);
+        }
+        return expired;
+    }
+
+    private void discardAll(List<PooledConnection> connections) {
+        for (PooledConnection connection : connections) {
+            discard(connection);
+        }
+    }
+
+    /**
+     * Close a connection which left the pool and free its place.
+     */
+    private void discard(PooledConnection connection) {
+        connection.statements.close();
+        try {
+            connection.connection.close();
+        } catch (SQLException e) {
+            logger.debug("Could not close a pooled connection: " + e);
+        }
+        synchronized (this) {
+            open--;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Close the connections idle for more than idleTimeoutSeconds.
+     */
+    public void evictIdle() {
+        List<PooledConnection> expired;
+        synchronized (this) {
+            expired = removeExpired();
+        }
+        if (!expired.isEmpty()) {
+            logger.debug("Closing " + expired.size() + " idle connections of " + datasource.getJdbcUrl());
+        }
+        discardAll(expired);
+    }
+
+    /**
+     * @return the open and idle connections and how often a caller had to wait, for the log
+     */
+    public synchronized String statistics() {
+        return "Connection pool " + datasource.getJdbcUrl() + ": " + open + " open, " + idle.size() + " idle, "
+                + created + " created, " + borrowed + " borrowed, " + waited + " waits";
+    }
+
+    /**
+     * Close the idle connections; connections in use are closed when they are returned.
+     */
+    @Override
+    public void close() {
+        List<PooledConnection> connections;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            connections = new ArrayList<PooledConnection>(idle);
+            idle.clear();
+            notifyAll();
+        }
+        discardAll(connections);
+        logger.info(statistics());
+    }
+
+    /**
+     * A connection borrowed from the pool with its open statements, returned by close.
+     */
+    public static class PooledConnection implements AutoCloseable {
+
+        private final ConnectionPool pool;
+
+        private final Connection connection;
+
+        private final StatementCache statements;
+
+        private long returnedAt;
+
+        private boolean invalid;
+
+        private boolean inUse = true;
+
+        PooledConnection(ConnectionPool pool, Connection connection, Datasource datasource) {
+            this.pool = pool;
+            this.connection = connection;
+            this.statements = new StatementCache(connection, datasource);
+        }
+
+        public Connection getConnection() {
+            return connection;
+        }
+
+        /**
+         * @return the prepared statements kept open on the connection
+         */
+        public StatementCache getStatements() {
+            return statements;
+        }
+
+        /**
+         * Check the connection after a failed query, so a broken connection is not returned to the pool.
+         */
+        public void validate() {
+            try {
+                if (!connection.isValid(VALIDATION_TIMEOUT_SECONDS)) {
+                    invalid = true;
+                }
+            } catch (SQLException e) {
+                invalid = true;
+            }
+        }
+
+        /**
+         * Close the connection instead of returning it, e.g. after it broke.
+         */
+        public void invalidate() {
+            invalid = true;
+        }
+
+        /**
+         * Return the connection to the pool.
+         */
+        @Override
+        public void close() {
+            if (inUse) {
+                inUse = false;
+                pool.release(this);
+            }
+        }
+    }
+}
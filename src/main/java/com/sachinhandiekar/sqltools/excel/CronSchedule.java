@@ -0,0 +1,185 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.BitSet;
+import java.util.Locale;
+
+/**
+ * A cron expression with the five fields minute, hour, day of month, month and day of week, in the
+ * local time zone.
+ * <p>
+ * A field is *, a value, a range (1-5), a step (*&#47;15 or 0-30/10) or a list of them (0,15,30).
+ * Months and days of week may be given by their English abbreviations (JAN, MON); 0 and 7 are Sunday.
+ * As in cron, when both the day of month and the day of week are restricted, a day matching
+ * either of them runs. A field counts as restricted when it leaves out some of its values, so 1-31 and
+ * 0-6 (or SUN-SAT) are unrestricted like * and ?, while *&#47;2 is restricted. The shortcuts @hourly, @daily, @weekly and @monthly are accepted.
+ */
+public class CronSchedule {
+
+    private static final String[] MONTHS = {"JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL", "AUG", "SEP", "OCT",
+            "NOV", "DEC"};
+
+    private static final String[] DAYS = {"SUN", "MON", "TUE", "WED", "THU", "FRI", "SAT"};
+
+    /** no match within this many years means the expression never fires, e.g. 31 2 */
+    private static final int MAX_YEARS = 5;
+
+    private final String expression;
+
+    private final BitSet minutes;
+
+    private final BitSet hours;
+
+    private final BitSet daysOfMonth;
+
+    private final BitSet months;
+
+    private final BitSet daysOfWeek;
+
+    private final boolean anyDayOfMonth;
+
+    private final boolean anyDayOfWeek;
+
+    private CronSchedule(String expression, String[] fields) {
+        this.expression = expression;
+        this.minutes = parseField(fields[0], 0, 59, null, expression);
+        this.hours = parseField(fields[1], 0, 23, null, expression);
+        this.daysOfMonth = parseField(fields[2], 1, 31, null, expression);
+        this.months = parseField(fields[3], 1, 12, MONTHS, expression);
+        BitSet days = parseField(fields[4], 0, 7, DAYS, expression);
+        if (days.get(7)) {
+            days.set(0);
+        }
+        this.daysOfWeek = days;
+        this.anyDayOfMonth = daysOfMonth.cardinality() == 31;
+        this.anyDayOfWeek = days.nextClearBit(0) > 6;
+    }
+
+    /**
+     * @param expression the cron expression
+     * @return the schedule
+     * @throws IllegalArgumentException if the expression is invalid
+     */
+    public static CronSchedule parse(String expression) {
+        String trimmed = expression == null ? "" : expression.trim();
+        switch (trimmed.toLowerCase(Locale.ENGLISH)) {
+            case "@hourly":
+                return new CronSchedule(trimmed, "0 * * * *".split(" "));
+            case "@daily":
+            case "@midnight":
+                return new CronSchedule(trimmed, "0 0 * * *".split(" "));
+            case "@weekly":
+                return new CronSchedule(trimmed, "0 0 * * 0".split(" "));
+            case "@monthly":
+                return new CronSchedule(trimmed, "0 0 1 * *".split(" "));
+            default:
+                break;
+        }
+        String[] fields = trimmed.split("\\s+");
+        if (fields.length != 5) {
+            throw new IllegalArgumentException("Cron expression '" + expression
+                    + "' must have 5 fields: minute hour day-of-month month day-of-week");
+        }
+        return new CronSchedule(trimmed, fields);
+    }
+
+    private static BitSet parseField(String field, int min, int max, String[] names, String expression) {
+        BitSet values = new BitSet(max + 1);
+        for (String part : field.split(",")) {
+            int step = 1;
+            String range = part;
+            int slash = part.indexOf('/');
+            if (slash >= 0) {
+                step = parseValue(part.substring(slash + 1), 1, max, null, expression);
+                range = part.substring(0, slash);
+            }
+            int from;
+            int to;
+            if (range.equals("*") || range.equals("?")) {
+                from = min;
+                to = max;
+            } else {
+                int dash = range.indexOf('-');
+                if (dash > 0) {
+                    from = parseValue(range.substring(0, dash), min, max, names, expression);
+                    to = parseValue(range.substring(dash + 1), min, max, names, expression);
+                } else {
+                    from = parseValue(range, min, max, names, expression);
+                    to = slash >= 0 ? max : from;
+                }
+            }
+            if (from > to) {
+                throw new IllegalArgumentException("Invalid range '" + part + "' in cron expression '" + expression + "'");
+            }
+            for (int value = from; value <= to; value += step) {
+                values.set(value);
+            }
+        }
+        return values;
+    }
+
+    private static int parseValue(String text, int min, int max, String[] names, String expression) {
+        if (names != null) {
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equalsIgnoreCase(text)) {
+                    // months start at 1, days of week at 0
+                    return names.length == 12 ? i + 1 : i;
+                }
+            }
+        }
+        try {
+            int value = Integer.parseInt(text);
+            if (value < min || value > max) {
+                throw new IllegalArgumentException("Value " + value + " out of range " + min + "-" + max
+                        + " in cron expression '" + expression + "'");
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value '" + text + "' in cron expression '" + expression + "'");
+        }
+    }
+
+    /**
+     * @param after the time after which the next run is searched
+     * @return the first minute after the given time matching the expression, null if there is none
+     */
+    public LocalDateTime next(LocalDateTime after) {
+        LocalDateTime time = after.truncatedTo(ChronoUnit.MINUTES).plusMinutes(1);
+        LocalDateTime limit = time.plusYears(MAX_YEARS);
+        while (time.isBefore(limit)) {
+            if (!months.get(time.getMonthValue())) {
+                time = time.withDayOfMonth(1).withHour(0).withMinute(0).plusMonths(1);
+                continue;
+            }
+            if (!matchesDay(time)) {
+                time = time.withHour(0).withMinute(0).plusDays(1);
+                continue;
+            }
+            if (!hours.get(time.getHour())) {
+                time = time.withMinute(0).plusHours(1);
+                continue;
+            }
+            if (!minutes.get(time.getMinute())) {
+                time = time.plusMinutes(1);
+                continue;
+            }
+            return time;
+        }
+        return null;
+    }
+
+    private boolean matchesDay(LocalDateTime time) {
+        boolean dayOfMonth = daysOfMonth.get(time.getDayOfMonth());
+        boolean dayOfWeek = daysOfWeek.get(time.getDayOfWeek().getValue() % 7);
+        if (anyDayOfMonth || anyDayOfWeek) {
+            return dayOfMonth && dayOfWeek;
+        }
+        return dayOfMonth || dayOfWeek;
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+}
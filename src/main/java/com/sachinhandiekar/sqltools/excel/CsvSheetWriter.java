@@ -0,0 +1,130 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+/**
+ * Writes the rows of one worksheet as delimited text, one record per row after a header record.
+ * <p>
+ * The Excel format of each column decides how its values are written: dates with their date
+ * format (ISO for columns without one), numbers with fixed fraction digits for formats like 0.00
+ * and otherwise in the shortest plain notation.
+ */
+public class CsvSheetWriter implements SheetWriter {
+
+    private static final Pattern FIXED_FORMAT = Pattern.compile("0(\\.0{1,9})?");
+
+    private final TextWorkbookWriter workbookWriter;
+
+    private final DelimitedWriter out;
+
+    private final ExcelDateFormat[] dateFormats;
+
+    /** fraction digits per column, -1 for the shortest notation */
+    private final int[] fractionDigits;
+
+    private long rows;
+
+    /**
+     * @param workbookWriter the writer of the excel file
+     * @param out the writer of the file, closed when the sheet is finished
+     * @param layout the columns of the worksheet
+     * @param delimiter the field delimiter
+     * @param header false to leave out the header record, e.g. when appending to a file which has one
+     * @throws IOException if the header can not be written
+     */
+    CsvSheetWriter(TextWorkbookWriter workbookWriter, DelimitedWriter out, ColumnLayout layout, char delimiter,
+                   boolean header) throws IOException {
+        this.workbookWriter = workbookWriter;
+        this.out = out;
+        String[] excelFormats = layout.getExcelFormats();
+        this.dateFormats = new ExcelDateFormat[excelFormats.length];
+        this.fractionDigits = new int[excelFormats.length];
+        for (int i = 0; i < excelFormats.length; i++) {
+            ExcelDateFormat dateFormat = ExcelDateFormat.compile(excelFormats[i]);
+            if (dateFormat != null && !dateFormat.containsLiteral(delimiter) && !dateFormat.containsLiteral('"')) {
+                dateFormats[i] = dateFormat;
+            }
+            fractionDigits[i] = FIXED_FORMAT.matcher(excelFormats[i]).matches()
+                    ? Math.max(excelFormats[i].length() - 2, 0) : -1;
+        }
+        if (header) {
+            writeHeader(layout.getNames());
+        }
+    }
+
+    private void writeHeader(String[] names) throws IOException {
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0) {
+                out.delimiter();
+            }
+            out.appendField(names[i] == null ? "" : names[i]);
+        }
+        out.endRecord();
+    }
+
+    @Override
+    public void accept(RowBatch batch) throws IOException {
+        accept(batch, 0, batch.size());
+    }
+
+    @Override
+    public void accept(RowBatch batch, int from, int to) throws IOException {
+        int columnCount = batch.getColumnCount();
+        for (int r = from; r < to; r++) {
+            for (int i = 0; i < columnCount; i++) {
+                if (i > 0) {
+                    out.delimiter();
+                }
+                writeField(batch, r, i);
+            }
+            out.endRecord();
+        }
+        rows += to - from;
+    }
+
+    private void writeField(RowBatch batch, int row, int column) throws IOException {
+        switch (batch.getKind(row, column)) {
+            case RowBatch.NULL:
+                break;
+            case RowBatch.NUMBER:
+                if (fractionDigits[column] >= 0) {
+                    out.appendFixed(batch.getNumber(row, column), fractionDigits[column]);
+                } else {
+                    out.append(batch.getNumber(row, column));
+                }
+                break;
+            case RowBatch.DATE:
+                double excelDate = batch.getNumber(row, column);
+                if (excelDate < 0) {
+                    // dates before 1900 have no Excel value
+                    break;
+                }
+                if (dateFormats[column] != null) {
+                    dateFormats[column].write(out, excelDate);
+                } else {
+                    ExcelDateFormat.writeIso(out, excelDate);
+                }
+                break;
+            case RowBatch.BOOLEAN:
+                out.appendField(batch.getBoolean(row, column) ? "true" : "false");
+                break;
+            default:
+                String text = batch.getText(row, column);
+                if (text != null) {
+                    out.appendField(text);
+                }
+                break;
+        }
+    }
+
+    @Override
+    public long getRowsWritten() {
+        return rows;
+    }
+
+    @Override
+    public void finish() throws IOException {
+        workbookWriter.finishSheet();
+    }
+}
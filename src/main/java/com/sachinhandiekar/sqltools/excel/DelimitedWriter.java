@@ -0,0 +1,286 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes delimited text records as UTF-8 into a large byte buffer which is written to a channel
+ * when full.
+ * <p>
+ * Texts are encoded and quoted (RFC 4180, or as JSON strings) straight into the buffer, integers,
+ * fixed point and most decimal numbers are formatted without creating strings, so writing a row
+ * does not allocate.
+ */
+public class DelimitedWriter {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private static final long[] POWERS_OF_TEN = {
+            1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L
+    };
+
+    /** Numbers are written with at most this many fraction digits without falling back to Double.toString */
+    private static final int MAX_FRACTION_DIGITS = 9;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    private final ByteBuffer view = ByteBuffer.wrap(buffer);
+
+    private final WritableByteChannel channel;
+
+    private final char delimiter;
+
+    private int position;
+
+    /**
+     * @param channel the channel to write to, closed when the writer is closed
+     * @param delimiter the field delimiter
+     */
+    public DelimitedWriter(WritableByteChannel channel, char delimiter) {
+        this.channel = channel;
+        this.delimiter = delimiter;
+    }
+
+    public void delimiter() throws IOException {
+        append(delimiter);
+    }
+
+    /**
+     * End the record with CRLF.
+     */
+    public void endRecord() throws IOException {
+        append('\r');
+        append('\n');
+    }
+
+    /**
+     * Append a character of the ASCII range.
+     */
+    public void append(char c) throws IOException {
+        if (position == buffer.length) {
+            flushBuffer();
+        }
+        buffer[position++] = (byte) c;
+    }
+
+    /**
+     * Append a text field, enclosed in quotes if it contains the delimiter, a quote or a line break.
+     */
+    public void appendField(String text) throws IOException {
+        int length = text.length();
+        boolean quoted = false;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c == delimiter || c == '"' || c == '\n' || c == '\r') {
+                quoted = true;
+                break;
+            }
+        }
+        if (quoted) {
+            append('"');
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer.length - position < 8) {
+                flushBuffer();
+            }
+            char c = text.charAt(i);
+            if (c == '"') {
+                buffer[position++] = '"';
+            }
+            i = encode(text, i);
+        }
+        if (quoted) {
+            append('"');
+        }
+    }
+
+    /**
+     * Append a JSON string literal, with quotes and the escapes JSON requires.
+     */
+    public void appendJson(String text) throws IOException {
+        append('"');
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            if (buffer.length - position < 8) {
+                flushBuffer();
+            }
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                buffer[position++] = '\\';
+                buffer[position++] = (byte) c;
+            } else if (c < 0x20) {
+                buffer[position++] = '\\';
+                switch (c) {
+                    case '\n':
+                        buffer[position++] = 'n';
+                        break;
+                    case '\r':
+                        buffer[position++] = 'r';
+                        break;
+                    case '\t':
+                        buffer[position++] = 't';
+                        break;
+                    default:
+                        buffer[position++] = 'u';
+                        buffer[position++] = '0';
+                        buffer[position++] = '0';
+                        buffer[position++] = HEX[c >> 4];
+                        buffer[position++] = HEX[c & 0xF];
+                        break;
+                }
+            } else {
+                i = encode(text, i);
+            }
+        }
+        append('"');
+    }
+
+    /**
+     * Encode the character at index i of the text as UTF-8, the buffer has room for 4 bytes.
+     *
+     * @return the index of the last character used, i + 1 for a surrogate pair
+     */
+    private int encode(String text, int i) {
+        char c = text.charAt(i);
+        if (c < 0x80) {
+            buffer[position++] = (byte) c;
+        } else if (c < 0x800) {
+            buffer[position++] = (byte) (0xC0 | (c >> 6));
+            buffer[position++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+            int codePoint = Character.toCodePoint(c, text.charAt(++i));
+            buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+            buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+            buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+        } else if (Character.isSurrogate(c)) {
+            // an unpaired surrogate can not be encoded
+            buffer[position++] = '?';
+        } else {
+            buffer[position++] = (byte) (0xE0 | (c >> 12));
+            buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buffer[position++] = (byte) (0x80 | (c & 0x3F));
+        }
+        return i;
+    }
+
+    public void append(long value) throws IOException {
+        appendPadded(value, 1);
+    }
+
+    /**
+     * Append an integer with leading zeros up to the given number of digits.
+     */
+    public void appendPadded(long value, int width) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            appendField(Long.toString(value));
+            return;
+        }
+        if (buffer.length - position < 21 + width) {
+            flushBuffer();
+        }
+        if (value < 0) {
+            buffer[position++] = '-';
+            value = -value;
+        }
+        int end = position + Math.max(digits(value), width);
+        int i = end;
+        do {
+            buffer[--i] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (i > position);
+        position = end;
+    }
+
+    private static int digits(long value) {
+        int digits = 1;
+        for (long limit = 10; digits < 19 && value >= limit; limit *= 10) {
+            digits++;
+        }
+        return digits;
+    }
+
+    /**
+     * Append a number in plain notation with the fewest fraction digits which read back to the same
+     * double. Values which need more than 9 fraction digits are written with Double.toString.
+     */
+    public void append(double value) throws IOException {
+        if (Math.abs(value) < 1e15) {
+            for (int scale = 0; scale <= MAX_FRACTION_DIGITS; scale++) {
+                double scaled = value * POWERS_OF_TEN[scale];
+                if (Math.abs(scaled) >= 1e15) {
+                    break;
+                }
+                long unscaled = Math.round(scaled);
+                if (unscaled / (double) POWERS_OF_TEN[scale] == value) {
+                    appendDecimal(unscaled, scale);
+                    return;
+                }
+            }
+        }
+        appendField(Double.toString(value));
+    }
+
+    /**
+     * Append a number rounded to the given number of fraction digits, like the Excel format 0.00.
+     */
+    public void appendFixed(double value, int fractionDigits) throws IOException {
+        double scaled = value * POWERS_OF_TEN[fractionDigits];
+        if (Double.isNaN(scaled) || Math.abs(scaled) >= 1e15) {
+            append(value);
+            return;
+        }
+        // halves are rounded away from zero like Excel does
+        appendDecimal(scaled < 0 ? -Math.round(-scaled) : Math.round(scaled), fractionDigits);
+    }
+
+    /**
+     * Append unscaled / 10^scale.
+     */
+    private void appendDecimal(long unscaled, int scale) throws IOException {
+        if (unscaled < 0) {
+            append('-');
+            unscaled = -unscaled;
+        }
+        append(unscaled / POWERS_OF_TEN[scale]);
+        if (scale > 0) {
+            append('.');
+            appendPadded(unscaled % POWERS_OF_TEN[scale], scale);
+        }
+    }
+
+    /**
+     * Write the buffered bytes to the channel.
+     *
+     * @throws IOException if any error occurs
+     */
+    public void flush() throws IOException {
+        flushBuffer();
+    }
+
+    private void flushBuffer() throws IOException {
+        view.clear();
+        view.limit(position);
+        while (view.hasRemaining()) {
+            channel.write(view);
+        }
+        position = 0;
+    }
+
+    /**
+     * Write the buffered bytes and close the channel.
+     *
+     * @throws IOException if any error occurs
+     */
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import org.apache.poi.ss.util.CellReference;
+
+import java.io.BufferedOutputStream;
+import java.io.CharArrayWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes the rows of one worksheet as SpreadsheetML into the zip entry of the sheet.
+ * <p>
+ * The column widths precede the rows in the sheet XML, so the rows are kept in memory until the
+ * width estimator has seen its sample rows. Only when the sample is larger than the memory buffer
+ * (e.g. columnWidthSampleRows -1 on a big result) the rows are spilled to a temporary file.
+ * Texts are written as inline strings, so nothing is kept per row after it was written, except the
+ * texts of the columns which the first batch shows to have few distinct values: those reference
+ * the bounded shared strings table of the workbook.
+ */
+public class DirectSheetWriter implements SheetWriter {
+
+    private static final String SHEET_START = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+            + "<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\""
+            + " xmlns:r=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships\">";
+
+    private static final String FROZEN_HEADER = "<pane ySplit=\"1\" topLeftCell=\"A2\" activePane=\"bottomLeft\""
+            + " state=\"frozen\"/><selection pane=\"bottomLeft\"/></sheetView></sheetViews>";
+
+    /** Characters of rows kept in memory before they are spilled to a temporary file */
+    private static final int MAX_BUFFERED_CHARS = 8 << 20;
+
+    private final DirectWorkbookWriter workbookWriter;
+
+    private final String entryName;
+
+    private final boolean selected;
+
+    private final int[] styles;
+
+    private final char[][] columnReferences;
+
+    private final ColumnWidthEstimator widthEstimator;
+
+    private final XmlWriter xml;
+
+    private final SharedStrings sharedStrings;
+
+    /** per column true if its texts are shared, null until the first batch was sampled */
+    private boolean[] sharedColumns;
+
+    private CharArrayWriter memoryBuffer;
+
+    private File spillFile;
+
+    private Writer spillWriter;
+
+    private int nextRow;
+
+    private boolean streaming;
+
+    DirectSheetWriter(DirectWorkbookWriter workbookWriter, String entryName, boolean selected, String[] names,
+                      int[] styles, ColumnWidthEstimator widthEstimator) throws IOException {
+        this.workbookWriter = workbookWriter;
+        this.entryName = entryName;
+        this.selected = selected;
+        this.styles = styles;
+        this.widthEstimator = widthEstimator;
+        this.sharedStrings = workbookWriter.getSharedStrings();
+        this.columnReferences = new char[names.length][];
+        for (int i = 0; i < names.length; i++) {
+            columnReferences[i] = CellReference.convertNumToColString(i).toCharArray();
+        }
+        this.memoryBuffer = new CharArrayWriter(1 << 16);
+        this.xml = new XmlWriter(memoryBuffer);
+        writeHeader(names);
+    }
+
+    private void writeHeader(String[] names) throws IOException {
+        nextRow = 1;
+        startRow();
+        for (int i = 0; i < names.length; i++) {
+            startCell(i, -1);
+            writeInlineString(names[i]);
+        }
+        xml.append("</row>");
+        nextRow++;
+    }
+
+    @Override
+    public void accept(RowBatch batch) throws IOException {
+        accept(batch, 0, batch.size());
+    }
+
+    @Override
+    public void accept(RowBatch batch, int from, int to) throws IOException {
+        if (sharedStrings != null && sharedColumns == null && to > from) {
+            sharedColumns = SharedStrings.sampleColumns(batch, from, to);
+        }
+        int columnCount = batch.getColumnCount();
+        for (int r = from; r < to; r++) {
+            startRow();
+            for (int i = 0; i < columnCount; i++) {
+                writeCell(batch, r, i);
+            }
+            xml.append("</row>");
+            nextRow++;
+            widthEstimator.sample(batch, r);
+        }
+        if (!streaming) {
+            if (!widthEstimator.isSampling()) {
+                startStreaming();
+            } else if (spillWriter == null && memoryBuffer.size() > MAX_BUFFERED_CHARS) {
+                spill();
+            }
+        }
+    }
+
+    private void startRow() throws IOException {
+        xml.append("<row r=\"").append(nextRow).append("\">");
+    }
+
+    private void startCell(int column, int style) throws IOException {
+        xml.append("<c r=\"").append(columnReferences[column]).append(nextRow).append('"');
+        if (style > 0) {
+            xml.append(" s=\"").append(style).append('"');
+        }
+    }
+
+    private void writeCell(RowBatch batch, int row, int column) throws IOException {
+        switch (batch.getKind(row, column)) {
+            case RowBatch.NULL:
+                // an empty text without style, like the POI engine
+                startCell(column, -1);
+                xml.append(" t=\"inlineStr\"><is><t></t></is></c>");
+                break;
+            case RowBatch.NUMBER:
+            case RowBatch.DATE:
+                startCell(column, styles[column]);
+                double value = batch.getNumber(row, column);
+                if (Double.isNaN(value)) {
+                    xml.append(" t=\"e\"><v>#NUM!</v></c>");
+                } else if (Double.isInfinite(value)) {
+                    xml.append(" t=\"e\"><v>#DIV/0!</v></c>");
+                } else {
+                    xml.append("><v>").append(value).append("</v></c>");
+                }
+                break;
+            case RowBatch.BOOLEAN:
+                startCell(column, styles[column]);
+                xml.append(batch.getBoolean(row, column) ? " t=\"b\"><v>1</v></c>" : " t=\"b\"><v>0</v></c>");
+                break;
+            default:
+                startCell(column, styles[column]);
+                String text = batch.getText(row, column);
+                if (text == null) {
+                    xml.append("/>");
+                } else if (sharedColumns != null && sharedColumns[column]) {
+                    writeSharedString(text);
+                } else {
+                    writeInlineString(text);
+                }
+                break;
+        }
+    }
+
+    private void writeSharedString(String text) throws IOException {
+        int index = sharedStrings.indexOf(text);
+        if (index < 0) {
+            // the table is full
+            writeInlineString(text);
+        } else {
+            xml.append(" t=\"s\"><v>").append(index).append("</v></c>");
+        }
+    }
+
+    private void writeInlineString(String text) throws IOException {
+        if (text == null) {
+            text = "";
+        }
+        xml.append(" t=\"inlineStr\"><is>");
+        if (!text.isEmpty() && (Character.isWhitespace(text.charAt(0))
+                || Character.isWhitespace(text.charAt(text.length() - 1)))) {
+            xml.append("<t xml:space=\"preserve\">");
+        } else {
+            xml.append("<t>");
+        }
+        xml.appendEscaped(text).append("</t></is></c>");
+    }
+
+    @Override
+    public long getRowsWritten() {
+        return nextRow - 2;
+    }
+
+    /**
+     * Keep the rows in a temporary file instead of memory until the sample is complete.
+     */
+    private void spill() throws IOException {
+        spillFile = File.createTempFile("sqlexport", ".sheet.xml");
+        spillWriter = new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(spillFile), 1 << 16),
+                StandardCharsets.UTF_8);
+        xml.setTarget(spillWriter);
+        memoryBuffer.writeTo(spillWriter);
+        memoryBuffer = null;
+    }
+
+    /**
+     * Write the start of the sheet with the estimated column widths, the rows written so far and
+     * write all further rows directly to the zip entry.
+     */
+    private void startStreaming() throws IOException {
+        Writer zipWriter = workbookWriter.openSheetEntry(entryName);
+        // the rows written so far go to the current target, the sheet start has to come first
+        xml.flush();
+        writeSheetStart(zipWriter);
+        if (spillWriter != null) {
+            spillWriter.close();
+            spillWriter = null;
+            zipWriter.flush();
+            try (InputStream in = new FileInputStream(spillFile)) {
+                workbookWriter.copyToEntry(in);
+            }
+            deleteSpillFile();
+        } else {
+            memoryBuffer.writeTo(zipWriter);
+            memoryBuffer = null;
+        }
+        xml.setTarget(zipWriter);
+        streaming = true;
+    }
+
+    private void writeSheetStart(Writer out) throws IOException {
+        out.write(SHEET_START);
+        out.write(selected ? "<sheetViews><sheetView tabSelected=\"1\" workbookViewId=\"0\">"
+                : "<sheetViews><sheetView workbookViewId=\"0\">");
+        out.write(FROZEN_HEADER);
+        if (widthEstimator.getColumnCount() > 0) {
+            out.write("<cols>");
+            for (int i = 0; i < widthEstimator.getColumnCount(); i++) {
+                String column = String.valueOf(i + 1);
+                out.write("<col min=\"" + column + "\" max=\"" + column + "\" width=\""
+                        + (widthEstimator.getColumnWidth(i) / 256) + "\" customWidth=\"1\"/>");
+            }
+            out.write("</cols>");
+        }
+        out.write("<sheetData>");
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (!streaming) {
+            startStreaming();
+        }
+        xml.append("</sheetData></worksheet>");
+        xml.flush();
+        workbookWriter.closeEntry();
+    }
+
+    /**
+     * Remove the temporary file of an unfinished sheet.
+     */
+    void discard() {
+        if (spillWriter != null) {
+            try {
+                spillWriter.close();
+            } catch (IOException e) {
+                // the file is removed anyway
+            }
+            spillWriter = null;
+        }
+        deleteSpillFile();
+    }
+
+    private void deleteSpillFile() {
+        if (spillFile != null) {
+            if (!spillFile.delete()) {
+                spillFile.deleteOnExit();
+            }
+            spillFile = null;
+        }
+    }
+}
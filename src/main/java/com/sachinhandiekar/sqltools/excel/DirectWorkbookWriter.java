@@ -0,0 +1,331 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import com.sachinhandiekar.sqltools.excel.model.ExcelFile;
+
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.usermodel.BuiltinFormats;
+import org.apache.poi.ss.util.WorkbookUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes an xlsx file without the POI object model: the sheet XML is generated from the row
+ * batches straight into the zip stream, with inline strings and the style index of each column
+ * resolved when the sheet is started. Text columns with few distinct values reference a bounded
+ * shared strings table instead, see SharedStrings.
+ * <p>
+ * The workbook parts (workbook, relationships, content types and styles) are small and written
+ * after the last sheet, when all sheet names and number formats are known. The zip is deflated
+ * with the compression level and threads of the excel file.
+ * <p>
+ * The zip is written front to back without seeking, so it can go to a pipe or socket: the rows of a
+ * sheet are streamed once the column widths were sampled, and each sheet is flushed when it is
+ * finished.
+ */
+public class DirectWorkbookWriter implements WorkbookWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(DirectWorkbookWriter.class);
+
+    private static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n";
+
+    private static final String MAIN_NAMESPACE = "http://schemas.openxmlformats.org/spreadsheetml/2006/main";
+
+    private static final String RELATIONSHIPS = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+
+    private static final int FIRST_CUSTOM_FORMAT = 164;
+
+    /** Excel does not allow sheet names longer than 31 characters */
+    private static final int MAX_SHEET_NAME = 31;
+
+    private final ExcelFile excelFile;
+
+    private final TypeFormatMapping typeFormatMapping;
+
+    private final File file;
+
+    private final ParallelZipOutputStream zip;
+
+    private final Writer zipWriter;
+
+    private final List<String> sheetNames = new ArrayList<String>();
+
+    /** cell style index by Excel format, index 0 is the default style */
+    private final Map<String, Integer> styleIndexes = new LinkedHashMap<String, Integer>();
+
+    private final List<Integer> styleFormatIds = new ArrayList<Integer>();
+
+    private final Map<String, Integer> customFormatIds = new LinkedHashMap<String, Integer>();
+
+    /** the shared strings of the workbook, null to write all texts inline */
+    private final SharedStrings sharedStrings;
+
+    private DirectSheetWriter currentSheet;
+
+    private boolean closed;
+
+    /**
+     * @param excelFile the excel file
+     * @param typeFormatMapping the mapping of column types to Excel formats
+     * @param out the stream to write the xlsx file to, closed when the writer is closed
+     * @param file the file written by the stream, null if it is not a file
+     */
+    public DirectWorkbookWriter(ExcelFile excelFile, TypeFormatMapping typeFormatMapping, OutputStream out,
+                                File file) {
+        this.excelFile = excelFile;
+        this.typeFormatMapping = typeFormatMapping;
+        this.file = file;
+        this.zip = new ParallelZipOutputStream(new BufferedOutputStream(out, 1 << 16),
+                excelFile.getCompressionLevel(), excelFile.getCompressionThreads());
+        this.zipWriter = new OutputStreamWriter(zip, StandardCharsets.UTF_8);
+        this.sharedStrings = excelFile.getSharedStrings() > 0 ? new SharedStrings(excelFile.getSharedStrings()) : null;
+        styleFormatIds.add(0);
+    }
+
+    @Override
+    public TypeFormatMapping getTypeFormatMapping() {
+        return typeFormatMapping;
+    }
+
+    @Override
+    public long getMaxSheetRows() {
+        return SpreadsheetVersion.EXCEL2007.getMaxRows() - 1;
+    }
+
+    @Override
+    public List<File> getFiles() {
+        return file == null ? Collections.<File>emptyList() : Collections.singletonList(file);
+    }
+
+    @Override
+    public DirectSheetWriter startSheet(String workSheetName, ColumnLayout layout) throws IOException {
+        String sheetName = workSheetName == null ? "Sheet" + sheetNames.size() : workSheetName;
+        if (sheetName.length() > MAX_SHEET_NAME) {
+            sheetName = sheetName.substring(0, MAX_SHEET_NAME);
+        }
+        WorkbookUtil.validateSheetName(sheetName);
+        for (String existing : sheetNames) {
+            if (existing.equalsIgnoreCase(sheetName)) {
+                throw new IllegalArgumentException("The workbook already contains a sheet named '" + sheetName + "'");
+            }
+        }
+        sheetNames.add(sheetName);
+
+        String[] excelFormats = layout.getExcelFormats();
+        int[] styles = new int[excelFormats.length];
+        for (int i = 0; i < excelFormats.length; i++) {
+            styles[i] = getStyleIndex(excelFormats[i]);
+        }
+        ColumnWidthEstimator widthEstimator = new ColumnWidthEstimator(layout.getNames(), excelFormats,
+                excelFile.getColumnWidthSampleRows());
+        currentSheet = new DirectSheetWriter(this, "xl/worksheets/sheet" + sheetNames.size() + ".xml",
+                sheetNames.size() == 1, layout.getNames(), styles, widthEstimator);
+        return currentSheet;
+    }
+
+    private int getStyleIndex(String excelFormat) {
+        Integer index = styleIndexes.get(excelFormat);
+        if (index == null) {
+            int formatId = BuiltinFormats.getBuiltinFormat(excelFormat);
+            if (formatId < 0) {
+                Integer customId = customFormatIds.get(excelFormat);
+                if (customId == null) {
+                    customId = FIRST_CUSTOM_FORMAT + customFormatIds.size();
+                    customFormatIds.put(excelFormat, customId);
+                }
+                formatId = customId;
+            }
+            index = styleFormatIds.size();
+            styleFormatIds.add(formatId);
+            styleIndexes.put(excelFormat, index);
+        }
+        return index;
+    }
+
+    /**
+     * @return the shared strings table or null if all texts are written inline
+     */
+    SharedStrings getSharedStrings() {
+        return sharedStrings;
+    }
+
+    /**
+     * Start a zip entry of the workbook parts.
+     *
+     * @return the writer for the content of the entry
+     */
+    Writer openEntry(String name) throws IOException {
+        zip.putNextEntry(name);
+        return zipWriter;
+    }
+
+    /**
+     * Start the zip entry of a sheet. The sheets of a large excel file are Zip64 entries, so they
+     * may exceed 4 GB.
+     *
+     * @return the writer for the content of the entry
+     */
+    Writer openSheetEntry(String name) throws IOException {
+        zip.putNextEntry(name, excelFile.isLarge());
+        return zipWriter;
+    }
+
+    /**
+     * Copy already encoded content to the current entry. The writer has to be flushed before.
+     */
+    void copyToEntry(InputStream in) throws IOException {
+        byte[] buffer = new byte[1 << 16];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            zip.write(buffer, 0, read);
+        }
+    }
+
+    void closeEntry() throws IOException {
+        zipWriter.flush();
+        zip.closeEntry();
+        // a finished sheet reaches a consumer reading the stream before the next sheet is started
+        zip.flush();
+        currentSheet = null;
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (currentSheet != null) {
+            throw new IllegalStateException("The last worksheet was not finished");
+        }
+        writeEntry("[Content_Types].xml", contentTypes());
+        writeEntry("_rels/.rels", XML_DECLARATION
+                + "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+                + "<Relationship Id=\"rId1\" Type=\"" + RELATIONSHIPS + "/officeDocument\" Target=\"xl/workbook.xml\"/>"
+                + "</Relationships>");
+        writeEntry("xl/workbook.xml", workbook());
+        writeEntry("xl/_rels/workbook.xml.rels", workbookRelationships());
+        writeEntry("xl/styles.xml", styles());
+        if (hasSharedStrings()) {
+            sharedStrings.write(openEntry("xl/sharedStrings.xml"));
+            closeEntry();
+            logger.info("Shared " + sharedStrings.size() + " strings by " + sharedStrings.getReferences() + " cells");
+        }
+        zip.finish();
+        zip.close();
+        closed = true;
+    }
+
+    private boolean hasSharedStrings() {
+        return sharedStrings != null && sharedStrings.size() > 0;
+    }
+
+    private void writeEntry(String name, String content) throws IOException {
+        openEntry(name).write(content);
+        closeEntry();
+    }
+
+    private String contentTypes() {
+        StringBuilder xml = new StringBuilder(XML_DECLARATION)
+                .append("<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">")
+                .append("<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>")
+                .append("<Default Extension=\"xml\" ContentType=\"application/xml\"/>")
+                .append("<Override PartName=\"/xl/workbook.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml\"/>")
+                .append("<Override PartName=\"/xl/styles.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.styles+xml\"/>");
+        if (hasSharedStrings()) {
+            xml.append("<Override PartName=\"/xl/sharedStrings.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sharedStrings+xml\"/>");
+        }
+        for (int i = 1; i <= sheetNames.size(); i++) {
+            xml.append("<Override PartName=\"/xl/worksheets/sheet").append(i)
+                    .append(".xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.worksheet+xml\"/>");
+        }
+        return xml.append("</Types>").toString();
+    }
+
+    private String workbook() throws IOException {
+        StringWriter out = new StringWriter();
+        XmlWriter xml = new XmlWriter(out);
+        xml.append(XML_DECLARATION).append("<workbook xmlns=\"").append(MAIN_NAMESPACE)
+                .append("\" xmlns:r=\"").append(RELATIONSHIPS).append("\">")
+                .append("<bookViews><workbookView activeTab=\"0\"/></bookViews><sheets>");
+        for (int i = 1; i <= sheetNames.size(); i++) {
+            xml.append("<sheet name=\"").appendEscaped(sheetNames.get(i - 1)).append("\" sheetId=\"").append(i)
+                    .append("\" r:id=\"rId").append(i).append("\"/>");
+        }
+        xml.append("</sheets></workbook>");
+        xml.flush();
+        return out.toString();
+    }
+
+    private String workbookRelationships() {
+        StringBuilder xml = new StringBuilder(XML_DECLARATION)
+                .append("<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">");
+        for (int i = 1; i <= sheetNames.size(); i++) {
+            xml.append("<Relationship Id=\"rId").append(i).append("\" Type=\"").append(RELATIONSHIPS)
+                    .append("/worksheet\" Target=\"worksheets/sheet").append(i).append(".xml\"/>");
+        }
+        xml.append("<Relationship Id=\"rId").append(sheetNames.size() + 1).append("\" Type=\"").append(RELATIONSHIPS)
+                .append("/styles\" Target=\"styles.xml\"/>");
+        if (hasSharedStrings()) {
+            xml.append("<Relationship Id=\"rId").append(sheetNames.size() + 2).append("\" Type=\"").append(RELATIONSHIPS)
+                    .append("/sharedStrings\" Target=\"sharedStrings.xml\"/>");
+        }
+        return xml.append("</Relationships>").toString();
+    }
+
+    private String styles() throws IOException {
+        StringWriter out = new StringWriter();
+        XmlWriter xml = new XmlWriter(out);
+        xml.append(XML_DECLARATION).append("<styleSheet xmlns=\"").append(MAIN_NAMESPACE).append("\">");
+        if (!customFormatIds.isEmpty()) {
+            xml.append("<numFmts count=\"").append(customFormatIds.size()).append("\">");
+            for (Map.Entry<String, Integer> format : customFormatIds.entrySet()) {
+                xml.append("<numFmt numFmtId=\"").append(format.getValue()).append("\" formatCode=\"")
+                        .appendEscaped(format.getKey()).append("\"/>");
+            }
+            xml.append("</numFmts>");
+        }
+        xml.append("<fonts count=\"1\"><font><sz val=\"11\"/><color indexed=\"8\"/><name val=\"Calibri\"/>"
+                + "<family val=\"2\"/></font></fonts>")
+                .append("<fills count=\"2\"><fill><patternFill patternType=\"none\"/></fill>"
+                        + "<fill><patternFill patternType=\"gray125\"/></fill></fills>")
+                .append("<borders count=\"1\"><border><left/><right/><top/><bottom/><diagonal/></border></borders>")
+                .append("<cellStyleXfs count=\"1\"><xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\"/></cellStyleXfs>")
+                .append("<cellXfs count=\"").append(styleFormatIds.size()).append("\">");
+        for (int formatId : styleFormatIds) {
+            xml.append("<xf numFmtId=\"").append(formatId).append("\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\"");
+            xml.append(formatId > 0 ? " applyNumberFormat=\"1\"/>" : "/>");
+        }
+        xml.append("</cellXfs><cellStyles count=\"1\"><cellStyle name=\"Normal\" xfId=\"0\" builtinId=\"0\"/></cellStyles>")
+                .append("</styleSheet>");
+        xml.flush();
+        return out.toString();
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (currentSheet != null) {
+            currentSheet.discard();
+            currentSheet = null;
+        }
+        try {
+            zip.close();
+        } catch (IOException e) {
+            logger.warn("Could not close the workbook: " + e);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An Excel date format like dd.MM.yyyy h:mm:ss.000, compiled once to write Excel serial dates as
+ * text without Calendar or formatter objects.
+ * <p>
+ * Supported are the year, month, day, hour, minute, second, fraction of second and AM/PM codes;
+ * m is a minute after an hour or before a second code as in Excel. Quoted and other
+ * characters are copied, [..] sections are skipped.
+ */
+public class ExcelDateFormat {
+
+    private static final long DAY_MILLISECONDS = 24L * 60 * 60 * 1000;
+
+    private static final int LITERAL = 0;
+
+    private static final int YEAR = 1;
+
+    private static final int MONTH = 2;
+
+    private static final int DAY = 3;
+
+    private static final int HOUR = 4;
+
+    private static final int MINUTE = 5;
+
+    private static final int SECOND = 6;
+
+    private static final int FRACTION = 7;
+
+    private static final int AM_PM = 8;
+
+    private static final int[] FRACTION_DIVISORS = {1000, 100, 10, 1};
+
+    /** ISO formats used for dates in columns without a date format */
+    private static final ExcelDateFormat ISO_DATE = compile("yyyy-mm-dd");
+
+    private static final ExcelDateFormat ISO_DATE_TIME = compile("yyyy-mm-dd hh:mm:ss");
+
+    private static final ExcelDateFormat ISO_DATE_TIME_MILLIS = compile("yyyy-mm-dd hh:mm:ss.000");
+
+    private final int[] codes;
+
+    private final int[] widths;
+
+    private final String[] literals;
+
+    private final boolean twelveHours;
+
+    private ExcelDateFormat(int[] codes, int[] widths, String[] literals, boolean twelveHours) {
+        this.codes = codes;
+        this.widths = widths;
+        this.literals = literals;
+        this.twelveHours = twelveHours;
+    }
+
+    /**
+     * @param excelFormat an Excel format
+     * @return the compiled format or null if the format has no date or time codes
+     */
+    public static ExcelDateFormat compile(String excelFormat) {
+        List<Integer> codes = new ArrayList<Integer>();
+        List<Integer> widths = new ArrayList<Integer>();
+        List<String> literals = new ArrayList<String>();
+        boolean dateOrTime = false;
+        boolean twelveHours = false;
+        int length = excelFormat.length();
+        int i = 0;
+        while (i < length) {
+            char c = excelFormat.charAt(i);
+            char lower = Character.toLowerCase(c);
+            if (c == '"') {
+                int end = excelFormat.indexOf('"', i + 1);
+                end = end < 0 ? length : end;
+                addLiteral(codes, widths, literals, excelFormat.substring(i + 1, end));
+                i = end + 1;
+            } else if (c == '\\' && i + 1 < length) {
+                addLiteral(codes, widths, literals, excelFormat.substring(i + 1, i + 2));
+                i += 2;
+            } else if (excelFormat.regionMatches(true, i, "AM/PM", 0, 5)) {
+                codes.add(AM_PM);
+                widths.add(0);
+                literals.add(null);
+                twelveHours = true;
+                i += 5;
+            } else if (c == '[') {
+                int end = excelFormat.indexOf(']', i);
+                i = end < 0 ? length : end + 1;
+            } else if (c == '.' && !codes.isEmpty() && codes.get(codes.size() - 1) == SECOND
+                    && i + 1 < length && excelFormat.charAt(i + 1) == '0') {
+                int end = i + 1;
+                while (end < length && excelFormat.charAt(end) == '0') {
+                    end++;
+                }
+                addLiteral(codes, widths, literals, ".");
+                codes.add(FRACTION);
+                widths.add(Math.min(end - i - 1, 3));
+                literals.add(null);
+                i = end;
+            } else if (lower == 'y' || lower == 'm' || lower == 'd' || lower == 'h' || lower == 's') {
+                int end = i + 1;
+                while (end < length && Character.toLowerCase(excelFormat.charAt(end)) == lower) {
+                    end++;
+                }
+                int count = end - i;
+                int code = lower == 'y' ? YEAR : lower == 'm' ? MONTH : lower == 'd' ? DAY : lower == 'h' ? HOUR : SECOND;
+                codes.add(code);
+                widths.add(code == YEAR ? (count <= 2 ? 2 : 4) : Math.min(count, 2));
+                literals.add(null);
+                dateOrTime = true;
+                i = end;
+            } else {
+                addLiteral(codes, widths, literals, String.valueOf(c));
+                i++;
+            }
+        }
+        if (!dateOrTime) {
+            return null;
+        }
+        resolveMinutes(codes);
+        int[] codeArray = new int[codes.size()];
+        int[] widthArray = new int[widths.size()];
+        for (int k = 0; k < codeArray.length; k++) {
+            codeArray[k] = codes.get(k);
+            widthArray[k] = widths.get(k);
+        }
+        return new ExcelDateFormat(codeArray, widthArray, literals.toArray(new String[0]), twelveHours);
+    }
+
+    private static void addLiteral(List<Integer> codes, List<Integer> widths, List<String> literals, String text) {
+        codes.add(LITERAL);
+        widths.add(0);
+        literals.add(text);
+    }
+
+    /**
+     * @param c a character
+     * @return true if the character is copied into the dates
+     */
+    public boolean containsLiteral(char c) {
+        for (String literal : literals) {
+            if (literal != null && literal.indexOf(c) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * An m code after an hour or before a second code is a minute.
+     */
+    private static void resolveMinutes(List<Integer> codes) {
+        int previous = LITERAL;
+        for (int k = 0; k < codes.size(); k++) {
+            int code = codes.get(k);
+            if (code == MONTH) {
+                int next = LITERAL;
+                for (int n = k + 1; n < codes.size() && next == LITERAL; n++) {
+                    next = codes.get(n);
+                }
+                if (previous == HOUR || next == SECOND) {
+                    codes.set(k, MINUTE);
+                    code = MINUTE;
+                }
+            }
+            if (code != LITERAL) {
+                previous = code;
+            }
+        }
+    }
+
+    /**
+     * Write a date of a column without a date format: the date only at midnight, otherwise with
+     * the time and the milliseconds if there are any.
+     */
+    public static void writeIso(DelimitedWriter out, double excelDate) throws IOException {
+        long millisOfDay = Math.floorMod(ExcelDates.toLocalMillis(excelDate), DAY_MILLISECONDS);
+        ExcelDateFormat format = millisOfDay == 0 ? ISO_DATE
+                : millisOfDay % 1000 == 0 ? ISO_DATE_TIME : ISO_DATE_TIME_MILLIS;
+        format.write(out, excelDate);
+    }
+
+    /**
+     * @param out the writer to append to
+     * @param excelDate the Excel serial date
+     * @throws IOException if any error occurs
+     */
+    public void write(DelimitedWriter out, double excelDate) throws IOException {
+        long localMillis = ExcelDates.toLocalMillis(excelDate);
+        long days = Math.floorDiv(localMillis, DAY_MILLISECONDS);
+        long millisOfDay = Math.floorMod(localMillis, DAY_MILLISECONDS);
+
+        // civil date of the day number, see http://howardhinnant.github.io/date_algorithms.html
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        long day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        long month = mp < 10 ? mp + 3 : mp - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        for (int k = 0; k < codes.length; k++) {
+            switch (codes[k]) {
+                case YEAR:
+                    out.appendPadded(widths[k] == 2 ? year % 100 : year, widths[k]);
+                    break;
+                case MONTH:
+                    out.appendPadded(month, widths[k]);
+                    break;
+                case DAY:
+                    out.appendPadded(day, widths[k]);
+                    break;
+                case HOUR:
+                    long hour = millisOfDay / 3600000;
+                    out.appendPadded(twelveHours ? (hour + 11) % 12 + 1 : hour, widths[k]);
+                    break;
+                case MINUTE:
+                    out.appendPadded(millisOfDay / 60000 % 60, widths[k]);
+                    break;
+                case SECOND:
+                    out.appendPadded(millisOfDay / 1000 % 60, widths[k]);
+                    break;
+                case FRACTION:
+                    out.appendPadded(millisOfDay % 1000 / FRACTION_DIVISORS[widths[k]], widths[k]);
+                    break;
+                case AM_PM:
+                    out.appendField(millisOfDay < 12 * 3600000 ? "AM" : "PM");
+                    break;
+                default:
+                    out.appendField(literals[k]);
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import java.util.TimeZone;
+
+/**
+ * Conversion of epoch milliseconds to Excel serial dates without going through Calendar objects.
+ * <p>
+ * The arithmetic follows DateUtil.getExcelDate of Apache POI (1900 date system, including the
+ * 29/02/1900 leap year bug) so the cell values are identical.
+ */
+public final class ExcelDates {
+
+    private static final long DAY_MILLISECONDS = 24L * 60 * 60 * 1000;
+
+    /** Excel day number of 01/01/1970 before the leap year correction */
+    private static final long EPOCH_ABSOLUTE_DAY = 25568;
+
+    /** Returned for dates before 01/01/1900 */
+    public static final double BAD_DATE = -1;
+
+    private ExcelDates() {
+    }
+
+    /**
+     * @param epochMillis the instant in milliseconds since 01/01/1970 UTC
+     * @param timeZone the zone defining the wall clock time written to the cell
+     * @return the Excel serial date
+     */
+    public static double toExcelDate(long epochMillis, TimeZone timeZone) {
+        return localMillisToExcelDate(epochMillis + timeZone.getOffset(epochMillis));
+    }
+
+    /**
+     * @param localMillis wall clock milliseconds since 01/01/1970 00:00
+     * @return the Excel serial date
+     */
+    public static double localMillisToExcelDate(long localMillis) {
+        long days = Math.floorDiv(localMillis, DAY_MILLISECONDS);
+        long millisOfDay = Math.floorMod(localMillis, DAY_MILLISECONDS);
+        long absoluteDay = days + EPOCH_ABSOLUTE_DAY;
+        if (absoluteDay < 1) {
+            return BAD_DATE;
+        }
+        double value = millisOfDay / (double) DAY_MILLISECONDS + absoluteDay;
+        if (value >= 60) {
+            value++;
+        }
+        return value;
+    }
+
+    /**
+     * The inverse of localMillisToExcelDate.
+     *
+     * @param excelDate an Excel serial date from 01/01/1900 on
+     * @return wall clock milliseconds since 01/01/1970 00:00
+     */
+    public static long toLocalMillis(double excelDate) {
+        double value = excelDate >= 61 ? excelDate - 1 : excelDate;
+        return Math.round((value - EPOCH_ABSOLUTE_DAY) * DAY_MILLISECONDS);
+    }
+}
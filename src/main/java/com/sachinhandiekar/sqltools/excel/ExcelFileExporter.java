@@ -0,0 +1,513 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import com.sachinhandiekar.sqltools.excel.model.Datasource;
+import com.sachinhandiekar.sqltools.excel.model.Engine;
+import com.sachinhandiekar.sqltools.excel.model.ExcelFile;
+import com.sachinhandiekar.sqltools.excel.model.ParameterSet;
+import com.sachinhandiekar.sqltools.excel.model.Worksheet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Exports one excel file: takes a connection of the pool, runs the preparation procedure, fills a worksheet per
+ * query and writes the workbook. Rows beyond the sheet or file limits continue on further sheets
+ * and files, see RollingWorkbookWriter.
+ * <p>
+ * Failures are not thrown but reported in the ExportResult, so the other files of a batch are
+ * still exported.
+ * <p>
+ * An excel file with parameter sets is exported once per set, one after another on the same
+ * connection, so the worksheet queries are prepared once and re-executed with the values of each set.
+ * The preparation procedure runs for every file.
+ * <p>
+ * Incremental worksheets export only the rows added since the previous run, see IncrementalPlanner;
+ * their watermarks are saved when the file was written.
+ * <p>
+ * Instead of the file, the excel file can be written to a stream, e.g. stdout, a named pipe or a
+ * socket, which receives the xlsx zip or the text as the rows are fetched, see exportTo.
+ * <p>
+ * With a checkpoint directory, the finished worksheets are kept until the file was written and a
+ * failed export resumes with the remaining worksheets, see CheckpointedExport; the result cache and
+ * the parallel queries are not used then.
+ */
+public class ExcelFileExporter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExcelFileExporter.class);
+
+    private final ConnectionPool pool;
+
+    private final Datasource datasource;
+
+    private final TypeFormatMapping typeFormatMapping;
+
+    private final ExcelFile excelFile;
+
+    private final ResultCache resultCache;
+
+    public ExcelFileExporter(ConnectionPool pool, Datasource datasource, TypeFormatMapping typeFormatMapping,
+                             ExcelFile excelFile) {
+        this(pool, datasource, typeFormatMapping, excelFile, null);
+    }
+
+    /**
+     * @param pool the connections of the datasource to query
+     * @param datasource the datasource of the configuration, with its fetch settings
+     * @param typeFormatMapping the mapping of column types to Excel formats
+     * @param excelFile the excel file to export
+     * @param resultCache the cache of query results shared with other exports, null for none
+     */
+    public ExcelFileExporter(ConnectionPool pool, Datasource datasource, TypeFormatMapping typeFormatMapping,
+                             ExcelFile excelFile, ResultCache resultCache) {
+        this.pool = pool;
+        this.datasource = datasource;
+        this.typeFormatMapping = typeFormatMapping;
+        this.excelFile = excelFile;
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * @return the result of the export
+     */
+    public ExportResult export() {
+        return export(null, null, null);
+    }
+
+    /**
+     * Export the excel file to a stream instead of its fileName, which only selects the format. An
+     * xlsx file is written with the direct engine, whose zip does not need to seek; text formats take
+     * a single worksheet. The further outputs of the excel file are still written to their files.
+     *
+     * @param out the stream, closed when the export is done
+     * @return the result of the export
+     * @throws IllegalArgumentException if the excel file has parameter sets or maxRowsPerFile, which
+     * write several files
+     */
+    public ExportResult exportTo(OutputStream out) {
+        if (excelFile.getParameterSets() != null && !excelFile.getParameterSets().isEmpty()) {
+            throw new IllegalArgumentException("ExcelFile " + excelFile.getId()
+                    + " has parameter sets and can not be written to a single stream");
+        }
+        if (excelFile.getMaxRowsPerFile() > 0) {
+            throw new IllegalArgumentException("ExcelFile " + excelFile.getId()
+                    + " has maxRowsPerFile and can not be written to a single stream");
+        }
+        return export(null, null, out);
+    }
+
+    /**
+     * Export the excel file, once per parameter set if it has some.
+     *
+     * @return the results of the files, in the order of the parameter sets
+     */
+    public List<ExportResult> exportAll() {
+        List<ParameterSet> parameterSets = excelFile.getParameterSets();
+        if (parameterSets == null || parameterSets.isEmpty()) {
+            return Collections.singletonList(export());
+        }
+        logger.info("*ExcelFile " + excelFile.getId() + " exporting " + parameterSets.size() + " parameter sets");
+        List<ExportResult> results = new ArrayList<ExportResult>();
+        ConnectionPool.PooledConnection connection = null;
+        try {
+            connection = pool.borrow();
+        } catch (SQLException e) {
+            // every parameter set tries on its own and reports the failure
+            logger.warn("Could not open the connection for the parameter sets of ExcelFile " + excelFile.getId()
+                    + " : " + e);
+        }
+        try {
+            for (ParameterSet parameterSet : parameterSets) {
+                results.add(export(parameterSet, connection, null));
+            }
+        } finally {
+            if (connection != null) {
+                connection.close();
+            }
+        }
+        return results;
+    }
+
+    /**
+     * @param parameterSet the parameter set of the file or null
+     * @param sharedConnection the connection to export on, null to borrow one
+     * @param stream the stream to write to instead of the file, or null
+     * @return the result of the export
+     */
+    private ExportResult export(ParameterSet parameterSet, ConnectionPool.PooledConnection sharedConnection,
+                                OutputStream stream) {
+        ExportResult result = new ExportResult(excelFile.getId());
+        long start = System.currentTimeMillis();
+        result.setStartedAt(start);
+        ExportMetrics metrics = new ExportMetrics(excelFile.getId());
+        result.setMetrics(metrics);
+        if (excelFile.isJmx()) {
+            metrics.registerMBean();
+        }
+        logger.info("*ExcelFile " + excelFile.getId() + (parameterSet != null ? " " + parameterSet.getName() : "")
+                + " Large: " + excelFile.isLarge() + " Engine: " + excelFile.getEngine());
+
+        WorkbookWriter workbookWriter = null;
+        CheckpointedExport checkpoint = excelFile.getCheckpointDirectory() != null
+                ? new CheckpointedExport(excelFile, datasource, parameterSet) : null;
+        CountingOutputStream countingStream = stream != null ? new CountingOutputStream(stream) : null;
+        ConnectionPool.PooledConnection pooledConnection = sharedConnection;
+        String reportFileName = null;
+        try {
+            if (pooledConnection == null) {
+                pooledConnection = pool.borrow();
+            }
+            Connection connection = pooledConnection.getConnection();
+            StatementCache statements = pooledConnection.getStatements();
+            metrics.startPhase("preparation");
+            String fullFilePath = resolveFileName(fileName(excelFile.getFileName(), parameterSet));
+            // a stream export has no file, its report goes next to the configured file name
+            reportFileName = RollingWorkbookWriter.partFileName(fullFilePath, 1);
+            if (stream == null) {
+                result.setFileName(reportFileName);
+            }
+            workbookWriter = openWorkbookWriter(fullFilePath, parameterSet, countingStream);
+
+            if (excelFile.getPreparationProcedureStatement() != null &&
+                    !excelFile.getPreparationProcedureStatement().trim().isEmpty()) {
+                logger.info("**Stored procedure " + excelFile.getPreparationProcedureStatement());
+                executeStoredProcedure(excelFile.getPreparationProcedureStatement(), connection);
+            }
+
+            metrics.startPhase("generate");
+            long rows = 0;
+            List<Worksheet> worksheets = NamedParameters.expand(excelFile.getWorksheets(), parameterSet);
+            IncrementalPlanner incremental = new IncrementalPlanner(excelFile);
+            worksheets = incremental.plan(connection, worksheets);
+            if (checkpoint != null) {
+                rows = checkpoint.export(worksheets, workbookWriter, connection, statements, metrics);
+            } else if (excelFile.isParallel()) {
+                rows = ParallelWorksheetExporter.export(pool, datasource, excelFile, worksheets, workbookWriter, connection,
+                        metrics, resultCache);
+            } else {
+                // Iterate through the list of worksheet for each excelFile
+                for (Worksheet workSheet : worksheets) {
+                    logger.info("**Worksheet " + workSheet.getId());
+                    if (workSheet.getPartition() != null) {
+                        rows += ParallelWorksheetExporter.exportPartitioned(pool, datasource, excelFile, workSheet,
+                                workbookWriter, connection, metrics, resultCache);
+                        continue;
+                    }
+                    WorksheetMetrics sheetMetrics = metrics.worksheet(workSheet);
+                    WorksheetQuery query = WorksheetQuery.of(workSheet);
+                    String cacheKey = null;
+                    if (resultCache != null && resultCache.covers(excelFile, workSheet)) {
+                        cacheKey = ResultCache.key(datasource, query, excelFile.getNumericMode());
+                        ResultCache.Entry cached = resultCache.acquire(cacheKey);
+                        if (cached != null) {
+                            rows += writeCachedWorksheet(workSheet, workbookWriter, cached, sheetMetrics);
+                            continue;
+                        }
+                    }
+                    QueryCursor cursor = QueryCursor.open(connection, datasource, workSheet, query, statements);
+                    sheetMetrics.addExecute(cursor.getExecuteNanos());
+                    try {
+                        long sheetRows = generateWorksheet(workSheet.getWorkSheetName(), workbookWriter,
+                                cursor.getResultSet(), sheetMetrics, cacheKey);
+                        cursor.logStatistics(sheetRows);
+                        rows += sheetRows;
+                    } finally {
+                        cursor.close();
+                    }
+                }
+            }
+            result.setRows(rows);
+            long generated = System.currentTimeMillis();
+            result.setGenerateMillis(generated - start);
+
+            metrics.startPhase("write");
+            workbookWriter.finish();
+            incremental.commit();
+            if (checkpoint != null) {
+                checkpoint.delete();
+            }
+            result.setWriteMillis(System.currentTimeMillis() - generated);
+            long bytes = countingStream != null ? countingStream.count : 0;
+            List<String> fileNames = new ArrayList<String>();
+            for (File file : workbookWriter.getFiles()) {
+                bytes += file.length();
+                fileNames.add(file.getPath());
+            }
+            result.setBytes(bytes);
+            result.setFileNames(fileNames);
+            if (!fileNames.isEmpty()) {
+                result.setFileName(fileNames.get(0));
+            }
+            result.setStatus(ExportResult.Status.SUCCESS);
+        } catch (Exception e) {
+            logger.error("Export of ExcelFile " + excelFile.getId() + " failed : " + e.toString(), e);
+            result.setStatus(ExportResult.Status.FAILED);
+            result.setError(e.toString());
+            if (e instanceof SQLException && pooledConnection != null) {
+                pooledConnection.validate();
+            }
+        } finally {
+            if (workbookWriter != null) {
+                workbookWriter.close();
+            } else if (stream != null) {
+                closeQuietly(stream);
+            }
+            if (pooledConnection != null && sharedConnection == null) {
+                pooledConnection.close();
+            }
+            result.setTotalMillis(System.currentTimeMillis() - start);
+            metrics.finish();
+            metrics.unregisterMBean();
+        }
+        logger.info(metrics.summary());
+        if (excelFile.isReport() && reportFileName != null) {
+            writeReport(metrics, result, result.getFileName() != null ? result.getFileName() : reportFileName);
+        }
+        return result;
+    }
+
+    /**
+     * Counts the bytes written to a stream, which has no file to take the size from.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            out.write(bytes, offset, length);
+            count += length;
+        }
+    }
+
+    private static void closeQuietly(OutputStream stream) {
+        try {
+            stream.close();
+        } catch (IOException e) {
+            logger.warn("Could not close the stream: " + e);
+        }
+    }
+
+    private static String fileName(String fileName, ParameterSet parameterSet) {
+        return parameterSet == null ? fileName : NamedParameters.fileName(fileName, parameterSet.getName());
+    }
+
+    /**
+     * Write the metrics as [first file].report.json, for failed exports as well.
+     *
+     * @param fileName the first file, or the resolved file name of a stream export
+     */
+    private static void writeReport(ExportMetrics metrics, ExportResult result, String fileName) {
+        File reportFile = new File(fileName + ".report.json");
+        try {
+            metrics.writeReport(reportFile, result);
+            logger.info("Export report written to " + reportFile);
+        } catch (IOException e) {
+            logger.warn("Could not write the export report " + reportFile + " : " + e);
+        }
+    }
+
+    /**
+     * @param fullFilePath the resolved file name of the excel file
+     * @param parameterSet the parameter set of the file or null
+     * @param stream the stream to write to instead of the file, or null
+     * @return the writer of the file, writing also all further outputs when the excel file has some
+     * @throws IOException if a file can not be created
+     */
+    private WorkbookWriter openWorkbookWriter(String fullFilePath, ParameterSet parameterSet, OutputStream stream)
+            throws IOException {
+        List<String> outputs = excelFile.getOutputs();
+        if (outputs == null || outputs.isEmpty()) {
+            return stream != null ? createStreamWriter(excelFile, typeFormatMapping, stream)
+                    : new RollingWorkbookWriter(excelFile, typeFormatMapping, fullFilePath);
+        }
+        List<WorkbookWriter> writers = new ArrayList<WorkbookWriter>();
+        try {
+            writers.add(stream != null ? createStreamWriter(excelFile, typeFormatMapping, stream)
+                    : new RollingWorkbookWriter(excelFile, typeFormatMapping, fullFilePath));
+            for (String output : outputs) {
+                writers.add(new RollingWorkbookWriter(excelFile, typeFormatMapping, resolveFileName(fileName(output, parameterSet))));
+            }
+        } catch (IOException | RuntimeException e) {
+            for (WorkbookWriter writer : writers) {
+                writer.close();
+            }
+            throw e;
+        }
+        logger.info("Writing " + writers.size() + " outputs from one pass over the rows");
+        return new FanOutWorkbookWriter(writers, excelFile.getQueueDepth());
+    }
+
+    /**
+     * @param excelFile the excel file
+     * @param typeFormatMapping the mapping of column types to Excel formats
+     * @param file the file to write
+     * @return the writer for a delimited text file or of the engine selected for the excel file
+     * @throws IOException if the file can not be created
+     */
+    static WorkbookWriter createWorkbookWriter(ExcelFile excelFile, TypeFormatMapping typeFormatMapping, File file)
+            throws IOException {
+        if (TextWorkbookWriter.isText(file.getName())) {
+            return new TextWorkbookWriter(excelFile, typeFormatMapping, file);
+        }
+        if (excelFile.isAppend()) {
+            throw new IllegalArgumentException("Append is supported for csv, tsv and jsonl files only: " + file);
+        }
+        if (excelFile.getEngine() == Engine.DIRECT) {
+            if (!file.getName().toLowerCase().endsWith(".xlsx")) {
+                throw new IllegalArgumentException("The direct engine writes xlsx files only: " + file);
+            }
+            return new DirectWorkbookWriter(excelFile, typeFormatMapping, new FileOutputStream(file), file);
+        }
+        return PoiWorkbookWriter.create(excelFile, typeFormatMapping, file);
+    }
+
+    /**
+     * @param excelFile the excel file, whose fileName selects the format
+     * @param typeFormatMapping the mapping of column types to Excel formats
+     * @param out the stream to write to, closed when the writer is closed
+     * @return the writer for a delimited text stream or an xlsx stream of the direct engine
+     */
+    static WorkbookWriter createStreamWriter(ExcelFile excelFile, TypeFormatMapping typeFormatMapping,
+                                             OutputStream out) {
+        File file = new File(excelFile.getFileName());
+        if (TextWorkbookWriter.isText(file.getName())) {
+            return new TextWorkbookWriter(excelFile, typeFormatMapping, file, Channels.newChannel(out));
+        }
+        if (!file.getName().toLowerCase().endsWith(".xlsx")) {
+            throw new IllegalArgumentException("Only xlsx, csv, tsv and jsonl files can be written to a stream: " + file);
+        }
+        if (excelFile.getEngine() != Engine.DIRECT) {
+            // the POI engines write the zip only when the workbook is complete
+            logger.info("Writing the stream with the direct engine instead of " + excelFile.getEngine());
+        }
+        return new DirectWorkbookWriter(excelFile, typeFormatMapping, out, null);
+    }
+
+    /**
+     * Replace the ##Date## placeholder of the file name with the current date as yyyyMMdd and the
+     * ##DateTime## placeholder with the current time as yyyyMMdd-HHmmss.
+     */
+    static String resolveFileName(String fileName) {
+        LocalDateTime now = LocalDateTime.now();
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyyMMdd", Locale.ENGLISH);
+        DateTimeFormatter timeFormatter = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss", Locale.ENGLISH);
+        return fileName.replace("##DateTime##", timeFormatter.format(now)).replace("##Date##", formatter.format(now));
+    }
+
+    private static void executeStoredProcedure(String query, Connection connection) throws SQLException {
+        // Example "{ call proc3 }";
+        try (CallableStatement cs = connection.prepareCall(query)) {
+            cs.execute();
+        }
+    }
+
+    /**
+     * Generate a worksheet and populate it with a header row and data rows
+     *
+     * @param workSheetName name of the worksheet
+     * @param workbookWriter creates the worksheets of the workbook
+     * @param resultSet a JDBC resultset containing the data
+     * @param metrics the metrics of the worksheet
+     * @param cacheKey the key to store the rows in the result cache with, null to not cache them
+     * @return the number of data rows written
+     * @throws SQLException if any error occurs
+     * @throws IOException if the rows can not be written
+     */
+    private long generateWorksheet(String workSheetName, WorkbookWriter workbookWriter, ResultSet resultSet,
+                                   WorksheetMetrics metrics, String cacheKey)
+            throws SQLException, IOException {
+        long allocatedAtStart = ExportMetrics.threadAllocatedBytes();
+        // Resolve the column metadata once: the header, a style and a typed reader per column
+        ResultSetMetaData metaData = resultSet.getMetaData();
+        ColumnLayout layout = ColumnLayout.fromMetaData(metaData, typeFormatMapping);
+        ColumnReader[] readers = ColumnReader.forMetaData(metaData, excelFile.getNumericMode());
+
+        SheetWriter rowWriter = workbookWriter.startSheet(workSheetName, layout);
+
+        // Populate the data in the rows
+        RowPipeline pipeline = new RowPipeline(layout.getColumnCount(), excelFile.getBatchSize(),
+                excelFile.isPipelined() ? excelFile.getQueueDepth() : 0);
+        pipeline.setMetrics(metrics);
+        if (cacheKey == null) {
+            pipeline.run(resultSet, readers, rowWriter);
+        } else {
+            // write the rows to the worksheet and the cache in the same pass
+            RowSpool spool = resultCache.createSpool(layout.getColumnCount(), excelFile.getBatchSize());
+            try {
+                pipeline.run(resultSet, readers, batch -> {
+                    rowWriter.accept(batch);
+                    spool.accept(batch);
+                });
+                spool.finish();
+            } catch (SQLException | IOException | RuntimeException e) {
+                spool.delete();
+                throw e;
+            }
+            resultCache.release(resultCache.put(cacheKey, layout, spool));
+        }
+        long finishStart = System.nanoTime();
+        rowWriter.finish();
+        metrics.addFinish(System.nanoTime() - finishStart);
+        metrics.addAllocated(ExportMetrics.threadAllocatedBytes() - allocatedAtStart);
+        return rowWriter.getRowsWritten();
+    }
+
+    /**
+     * Fill a worksheet with a result from the cache.
+     *
+     * @param workSheet the worksheet
+     * @param workbookWriter creates the worksheets of the workbook
+     * @param cached the acquired result, released when the rows are written
+     * @param metrics the metrics of the worksheet
+     * @return the number of data rows written
+     * @throws IOException if the rows can not be written
+     */
+    private long writeCachedWorksheet(Worksheet workSheet, WorkbookWriter workbookWriter, ResultCache.Entry cached,
+                                      WorksheetMetrics metrics) throws IOException {
+        logger.info("**Worksheet " + workSheet.getId() + " served from the result cache (" + cached + ")");
+        metrics.addCacheHit();
+        long allocatedAtStart = ExportMetrics.threadAllocatedBytes();
+        try {
+            SheetWriter rowWriter = workbookWriter.startSheet(workSheet.getWorkSheetName(),
+                    cached.getLayout(typeFormatMapping));
+            long writeStart = System.nanoTime();
+            cached.getSpool().replay(rowWriter);
+            long finishStart = System.nanoTime();
+            metrics.addWrite(finishStart - writeStart);
+            rowWriter.finish();
+            metrics.addFinish(System.nanoTime() - finishStart);
+            return rowWriter.getRowsWritten();
+        } finally {
+            resultCache.release(cached);
+            metrics.addAllocated(ExportMetrics.threadAllocatedBytes() - allocatedAtStart);
+        }
+    }
+}
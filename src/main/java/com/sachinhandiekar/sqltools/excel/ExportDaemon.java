@@ -0,0 +1,435 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import com.google.gson.GsonBuilder;
+import com.sachinhandiekar.sqltools.excel.model.ExcelFile;
+import com.sachinhandiekar.sqltools.excel.model.SQLExcelExporterConfig;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the configurations of a directory on their cron schedules in one long running JVM, so the
+ * classes, the JIT compiled code, the connection pools and the result cache stay warm between runs.
+ * <p>
+ * Every *.json file of the directory with a schedule is a job, except the files the daemon writes itself:
+ * the status file, the watermark files of the jobs (and the default one) and the *.report.json
+ * performance reports, which may all end up in the directory with relative paths. The directory is watched and a
+ * changed file is reloaded before its next run; a file which can not be parsed keeps its previous
+ * version. Due runs go to a bounded pool of threads; a run is skipped when the previous run of the
+ * same file is still queued or running, and when the queue is full.
+ * <p>
+ * The status file lists the jobs with their next run, the files which are no valid configuration, the
+ * queued and running jobs and the recent runs with their durations. It is rewritten every few seconds and replaced atomically.
+ */
+public class ExportDaemon {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExportDaemon.class);
+
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+
+    private static final long TICK_MILLIS = 1000;
+
+    private static final long STATUS_INTERVAL_MILLIS = 5000;
+
+    private static final long RESCAN_INTERVAL_MILLIS = 60000;
+
+    private static final int RECENT_RUNS = 50;
+
+    private static final int QUEUE_CAPACITY = 100;
+
+    private final File configDirectory;
+
+    private final File statusFile;
+
+    private final ExportEngine engine;
+
+    private final ThreadPoolExecutor executor;
+
+    private final Map<String, Job> jobs = new TreeMap<String, Job>();
+
+    /** the modification times of the files which could not be loaded, so they are reported once */
+    private final Map<String, Long> invalidFiles = new TreeMap<String, Long>();
+
+    private final Deque<Map<String, Object>> recentRuns = new ArrayDeque<Map<String, Object>>();
+
+    private final long startedAt = System.currentTimeMillis();
+
+    private volatile boolean running = true;
+
+    private volatile Thread schedulerThread;
+
+    /**
+     * @param configDirectory the directory with the configuration files
+     * @param statusFile the file to write the status to, null for none
+     * @param threads the number of exports running at the same time
+     */
+    public ExportDaemon(File configDirectory, File statusFile, int threads) {
+        this.configDirectory = configDirectory;
+        this.statusFile = statusFile;
+        this.engine = new ExportEngine();
+        int size = Math.max(1, threads);
+        this.executor = new ThreadPoolExecutor(size, size, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY), runnable -> {
+            Thread thread = new Thread(runnable, "scheduled-export-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Run the scheduler on the current thread until stop is called.
+     *
+     * @throws IOException if the directory can not be watched
+     */
+    public void run() throws IOException {
+        if (!configDirectory.isDirectory()) {
+            throw new IOException("Not a directory: " + configDirectory);
+        }
+        schedulerThread = Thread.currentThread();
+        logger.info("Daemon started on " + configDirectory + " with " + executor.getCorePoolSize() + " threads");
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            configDirectory.toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            scan();
+            long lastStatus = 0;
+            long lastScan = System.currentTimeMillis();
+            while (running) {
+                WatchKey key = watchService.poll(TICK_MILLIS, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    // the events only tell that something changed, the scan compares the modification times
+                    key.pollEvents();
+                    key.reset();
+                    scan();
+                    lastScan = System.currentTimeMillis();
+                } else if (System.currentTimeMillis() - lastScan > RESCAN_INTERVAL_MILLIS) {
+                    scan();
+                    lastScan = System.currentTimeMillis();
+                }
+                runDueJobs(LocalDateTime.now());
+                if (System.currentTimeMillis() - lastStatus > STATUS_INTERVAL_MILLIS) {
+                    writeStatus();
+                    lastStatus = System.currentTimeMillis();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            if (running) {
+                Thread.currentThread().interrupt();
+            }
+        } finally {
+            shutdown();
+        }
+    }
+
+    /**
+     * Stop scheduling; the scheduler waits for the running exports before it returns.
+     */
+    public void stop() {
+        running = false;
+        Thread thread = schedulerThread;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    private void shutdown() {
+        logger.info("Daemon stopping, waiting for " + executor.getActiveCount() + " running exports");
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.MINUTES)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+        }
+        writeStatus();
+        engine.close();
+    }
+
+    /**
+     * Load new and changed configuration files and drop the removed ones.
+     */
+    void scan() {
+        File[] files = configDirectory.listFiles((dir, name) -> name.toLowerCase().endsWith(".json")
+                && !name.toLowerCase().endsWith(".report.json"));
+        Map<String, File> current = new TreeMap<String, File>();
+        synchronized (jobs) {
+            Set<Path> ownFiles = ownFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (!ownFiles.contains(normalized(file))) {
+                        current.put(file.getName(), file);
+                    }
+                }
+            }
+            jobs.keySet().removeIf(name -> {
+                if (!current.containsKey(name)) {
+                    logger.info("Configuration " + name + " removed");
+                    return true;
+                }
+                return false;
+            });
+            invalidFiles.keySet().retainAll(current.keySet());
+            for (File file : current.values()) {
+                Job job = jobs.get(file.getName());
+                Long invalid = invalidFiles.get(file.getName());
+                if (invalid != null && invalid == file.lastModified()) {
+                    continue;
+                }
+                if (job == null || job.lastModified != file.lastModified()) {
+                    load(file, job);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the status file and the watermark files of the loaded jobs, which are no configurations
+     */
+    private Set<Path> ownFiles() {
+        Set<Path> ownFiles = new HashSet<Path>();
+        if (statusFile != null) {
+            ownFiles.add(normalized(statusFile));
+        }
+        ownFiles.add(normalized(new File(ExcelFile.DEFAULT_STATE_FILE)));
+        for (Job job : jobs.values()) {
+            if (job.config.getExcelFiles() != null) {
+                for (ExcelFile excelFile : job.config.getExcelFiles()) {
+                    if (excelFile.getStateFile() != null) {
+                        ownFiles.add(normalized(new File(excelFile.getStateFile())));
+                    }
+                }
+            }
+        }
+        return ownFiles;
+    }
+
+    private static Path normalized(File file) {
+        return file.toPath().toAbsolutePath().normalize();
+    }
+
+    private void load(File file, Job previous) {
+        try {
+            SQLExcelExporterConfig config = ExportEngine.readConfig(file);
+            if (config.getSchedule() == null || config.getSchedule().trim().isEmpty()) {
+                logger.warn("Configuration " + file.getName() + " has no schedule and is not run");
+                jobs.remove(file.getName());
+                invalidFiles.put(file.getName(), file.lastModified());
+                return;
+            }
+            CronSchedule schedule = CronSchedule.parse(config.getSchedule());
+            Job job = previous != null ? previous : new Job(file.getName());
+            job.config = config;
+            job.schedule = schedule;
+            job.lastModified = file.lastModified();
+            job.nextRun = schedule.next(LocalDateTime.now());
+            job.error = null;
+            jobs.put(file.getName(), job);
+            invalidFiles.remove(file.getName());
+            logger.info((previous != null ? "Reloaded " : "Loaded ") + file.getName() + ", schedule " + schedule
+                    + ", next run " + job.nextRun);
+        } catch (IOException | IllegalArgumentException e) {
+            logger.error("Configuration " + file.getName() + " can not be loaded"
+                    + (previous != null ? ", keeping the previous version" : "") + ": " + e.getMessage());
+            if (previous != null) {
+                previous.lastModified = file.lastModified();
+                previous.error = e.getMessage();
+            } else {
+                invalidFiles.put(file.getName(), file.lastModified());
+            }
+        }
+    }
+
+    private void runDueJobs(LocalDateTime now) {
+        synchronized (jobs) {
+            for (Job job : jobs.values()) {
+                if (job.nextRun == null || job.nextRun.isAfter(now)) {
+                    continue;
+                }
+                LocalDateTime due = job.nextRun;
+                job.nextRun = job.schedule.next(now);
+                if (job.busy) {
+                    job.skipped++;
+                    logger.warn("Skipping the run of " + job.name + " due at " + due + ", the previous run is not done");
+                    continue;
+                }
+                SQLExcelExporterConfig config = job.config;
+                job.busy = true;
+                job.queuedAt = System.currentTimeMillis();
+                try {
+                    executor.execute(() -> runJob(job, config));
+                } catch (RejectedExecutionException e) {
+                    job.busy = false;
+                    job.skipped++;
+                    logger.warn("Skipping the run of " + job.name + " due at " + due + ", the queue is full");
+                }
+            }
+        }
+    }
+
+    private void runJob(Job job, SQLExcelExporterConfig config) {
+        long start = System.currentTimeMillis();
+        synchronized (jobs) {
+            job.runningSince = start;
+        }
+        logger.info("Running " + job.name);
+        Map<String, Object> run = new LinkedHashMap<String, Object>();
+        run.put("config", job.name);
+        run.put("startedAt", start);
+        run.put("waitMillis", start - job.queuedAt);
+        try {
+            List<ExportResult> results = engine.export(config);
+            int failed = 0;
+            long rows = 0;
+            List<String> files = new ArrayList<String>();
+            for (ExportResult result : results) {
+                rows += result.getRows();
+                if (result.isSuccess()) {
+                    files.add(result.getFileName());
+                } else {
+                    failed++;
+                    run.put("error", result.getError());
+                }
+            }
+            run.put("status", failed == 0 ? "SUCCESS" : "FAILED");
+            run.put("files", files);
+            run.put("rows", rows);
+        } catch (RuntimeException e) {
+            logger.error("Run of " + job.name + " failed : " + e, e);
+            run.put("status", "FAILED");
+            run.put("error", e.toString());
+        }
+        long millis = System.currentTimeMillis() - start;
+        run.put("durationMillis", millis);
+        logger.info("Run of " + job.name + " " + run.get("status") + " in " + millis + " ms");
+        synchronized (jobs) {
+            job.busy = false;
+            job.runningSince = 0;
+            job.lastRun = run;
+            recentRuns.addFirst(run);
+            while (recentRuns.size() > RECENT_RUNS) {
+                recentRuns.removeLast();
+            }
+        }
+    }
+
+    /**
+     * @return the jobs, the queue, the running exports and the recent runs as a tree of maps and lists
+     */
+    Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<String, Object>();
+        status.put("startedAt", startedAt);
+        status.put("updatedAt", System.currentTimeMillis());
+        status.put("threads", executor.getCorePoolSize());
+        status.put("queued", executor.getQueue().size());
+        status.put("running", executor.getActiveCount());
+        List<Object> jobList = new ArrayList<Object>();
+        List<Object> runningList = new ArrayList<Object>();
+        synchronized (jobs) {
+            for (Job job : jobs.values()) {
+                Map<String, Object> entry = new LinkedHashMap<String, Object>();
+                entry.put("config", job.name);
+                entry.put("schedule", job.schedule.toString());
+                entry.put("nextRun", String.valueOf(job.nextRun));
+                entry.put("state", job.runningSince != 0 ? "running" : job.busy ? "queued" : "idle");
+                entry.put("skippedRuns", job.skipped);
+                if (job.error != null) {
+                    entry.put("reloadError", job.error);
+                }
+                if (job.lastRun != null) {
+                    entry.put("lastRun", job.lastRun);
+                }
+                jobList.add(entry);
+                if (job.runningSince != 0) {
+                    Map<String, Object> runningEntry = new LinkedHashMap<String, Object>();
+                    runningEntry.put("config", job.name);
+                    runningEntry.put("runningMillis", System.currentTimeMillis() - job.runningSince);
+                    runningList.add(runningEntry);
+                }
+            }
+            status.put("jobs", jobList);
+            status.put("invalidConfigs", new ArrayList<String>(invalidFiles.keySet()));
+            status.put("runningJobs", runningList);
+            status.put("recentRuns", new ArrayList<Object>(recentRuns));
+        }
+        status.put("connectionPools", engine.statistics());
+        return status;
+    }
+
+    private void writeStatus() {
+        if (statusFile == null) {
+            return;
+        }
+        File temp = new File(statusFile.getPath() + ".tmp");
+        try {
+            try (Writer out = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+                new GsonBuilder().setPrettyPrinting().create().toJson(status(), out);
+            }
+            Files.move(temp.toPath(), statusFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Could not write the status file " + statusFile + " : " + e);
+        }
+    }
+
+    /**
+     * A configuration file with its schedule and the state of its runs, guarded by the jobs map.
+     */
+    private static class Job {
+
+        final String name;
+
+        SQLExcelExporterConfig config;
+
+        CronSchedule schedule;
+
+        long lastModified;
+
+        LocalDateTime nextRun;
+
+        boolean busy;
+
+        long queuedAt;
+
+        long runningSince;
+
+        long skipped;
+
+        String error;
+
+        Map<String, Object> lastRun;
+
+        Job(String name) {
+            this.name = name;
+        }
+    }
+}
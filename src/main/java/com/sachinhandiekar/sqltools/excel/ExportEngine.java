@@ -0,0 +1,279 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import com.google.gson.Gson;
+import com.sachinhandiekar.sqltools.excel.model.Datasource;
+import com.sachinhandiekar.sqltools.excel.model.ExcelFile;
+import com.sachinhandiekar.sqltools.excel.model.SQLExcelExporterConfig;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs exports inside an application, keeping the connections of every datasource open between them.
+ * <p>
+ * The engine is created once and shared; export may be called from several threads at the same
+ * time. Each datasource (url, user and password) gets a ConnectionPool on first use, whose warm
+ * connections and prepared statements are reused by all later exports, and the JDBC driver class is
+ * loaded once. The pool keeps the pool settings of the first configuration, the fetch settings of
+ * every configuration apply to its own exports. The configuration is taken as object, e.g. built in
+ * code or read with readConfig.
+ * Failures are reported in the results, nothing is thrown and the JVM is never exited.
+ * <p>
+ * A single excel file can be exported to a stream or channel instead of its file.
+ * <p>
+ * Idle connections are closed by a background thread after idleTimeoutSeconds of their datasource;
+ * close closes all pools.
+ */
+public class ExportEngine implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExportEngine.class);
+
+    private static final long EVICT_INTERVAL_SECONDS = 30;
+
+    private final Map<String, ConnectionPool> pools = new LinkedHashMap<String, ConnectionPool>();
+
+    private final Set<String> loadedDrivers = new HashSet<String>();
+
+    /** the differing pool settings already logged, so a daemon logs them once */
+    private final Set<String> ignoredPoolSettings = new HashSet<String>();
+
+    private final ScheduledExecutorService evictor;
+
+    private boolean closed;
+
+    public ExportEngine() {
+        evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "connection-pool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        evictor.scheduleWithFixedDelay(this::evictIdle, EVICT_INTERVAL_SECONDS, EVICT_INTERVAL_SECONDS,
+                TimeUnit.SECONDS);
+    }
+
+    /**
+     * Read a configuration file.
+     *
+     * @param file the JSON configuration
+     * @return the configuration
+     * @throws IOException if the file can not be read
+     */
+    public static SQLExcelExporterConfig readConfig(File file) throws IOException {
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            SQLExcelExporterConfig config = new Gson().fromJson(reader, SQLExcelExporterConfig.class);
+            if (config == null) {
+                throw new IOException("Empty configuration " + file);
+            }
+            return config;
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid configuration " + file + " : " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Export all excel files of a configuration on the pooled connections of its datasource.
+     *
+     * @param config the configuration
+     * @return one result per excel file and parameter set, in the configured order
+     */
+    public List<ExportResult> export(SQLExcelExporterConfig config) {
+        if (config.getExcelFiles() == null || config.getExcelFiles().isEmpty()) {
+            logger.warn("The configuration has no excel files");
+            return new ArrayList<ExportResult>();
+        }
+        ConnectionPool pool;
+        try {
+            pool = pool(config);
+        } catch (IllegalStateException e) {
+            return failed(config, e.getMessage());
+        }
+        Datasource datasource = config.getDatasource();
+        int needed = Math.min(config.getMaxParallelFiles(), config.getExcelFiles().size())
+                * (datasource.getMaxConnections() + 1);
+        if (needed > pool.getMaxSize()) {
+            logger.warn("maxPoolSize " + pool.getMaxSize() + " of " + datasource.getJdbcUrl() + " is below the "
+                    + needed + " connections maxParallelFiles and maxConnections may use, exports wait for connections");
+        }
+        return BatchExporter.exportAll(config, pool);
+    }
+
+    /**
+     * Export the single excel file of a configuration to a stream, e.g. a socket or a pipe, which
+     * receives the file while the rows are fetched. The fileName of the excel file selects the
+     * format: xlsx, written with the direct engine, or csv, tsv and jsonl with a single worksheet.
+     *
+     * @param config the configuration
+     * @param out the stream, closed when the export is done
+     * @return the result of the excel file, its files are the further outputs if it has some
+     * @throws IllegalArgumentException if the configuration has not exactly one excel file, or it has
+     * parameter sets or maxRowsPerFile
+     */
+    public ExportResult export(SQLExcelExporterConfig config, OutputStream out) {
+        if (config.getExcelFiles() == null || config.getExcelFiles().size() != 1) {
+            throw new IllegalArgumentException("A stream takes the configuration of exactly one excel file");
+        }
+        ConnectionPool pool;
+        try {
+            pool = pool(config);
+        } catch (IllegalStateException e) {
+            closeQuietly(out);
+            return failed(config, e.getMessage()).get(0);
+        }
+        return BatchExporter.exportTo(config, pool, out);
+    }
+
+    /**
+     * Export the single excel file of a configuration to a channel, see export with a stream.
+     *
+     * @param config the configuration
+     * @param channel the channel, closed when the export is done
+     * @return the result of the excel file
+     * @throws IllegalArgumentException if the configuration has not exactly one excel file
+     */
+    public ExportResult export(SQLExcelExporterConfig config, WritableByteChannel channel) {
+        return export(config, Channels.newOutputStream(channel));
+    }
+
+    /**
+     * @return the pool of the datasource of the configuration, with its driver loaded
+     * @throws IllegalStateException if the datasource is missing, its driver is not found or the
+     * engine is closed
+     */
+    private ConnectionPool pool(SQLExcelExporterConfig config) {
+        Datasource datasource = config.getDatasource();
+        if (datasource == null || datasource.getJdbcUrl() == null) {
+            throw new IllegalStateException("The configuration has no datasource with a jdbcUrl");
+        }
+        try {
+            loadDriver(datasource.getClassName());
+        } catch (ClassNotFoundException e) {
+            logger.error("JDBC driver " + datasource.getClassName() + " not found");
+            throw new IllegalStateException("JDBC driver not found: " + e.getMessage());
+        }
+        return pool(datasource);
+    }
+
+    private static void closeQuietly(OutputStream out) {
+        try {
+            out.close();
+        } catch (IOException e) {
+            logger.warn("Could not close the stream: " + e);
+        }
+    }
+
+    private static List<ExportResult> failed(SQLExcelExporterConfig config, String error) {
+        List<ExportResult> results = new ArrayList<ExportResult>();
+        if (config.getExcelFiles() != null) {
+            for (ExcelFile excelFile : config.getExcelFiles()) {
+                ExportResult result = new ExportResult(excelFile.getId());
+                result.setStatus(ExportResult.Status.FAILED);
+                result.setError(error);
+                results.add(result);
+            }
+        }
+        return results;
+    }
+
+    private synchronized void loadDriver(String className) throws ClassNotFoundException {
+        // drivers on the class path register themselves, the class name is optional
+        if (className == null || className.trim().isEmpty() || loadedDrivers.contains(className)) {
+            return;
+        }
+        logger.debug("Loading driver class : " + className);
+        Class.forName(className);
+        loadedDrivers.add(className);
+    }
+
+    /**
+     * @param datasource the datasource
+     * @return the pool of the datasource, created on first use with its pool settings; configurations
+     * of the same database share it, and other pool settings are logged since the pool keeps its own
+     */
+    synchronized ConnectionPool pool(Datasource datasource) {
+        if (closed) {
+            throw new IllegalStateException("The export engine is closed");
+        }
+        String key = datasource.getJdbcUrl() + '\u0000' + datasource.getUserName() + '\u0000' + datasource.getPassword();
+        ConnectionPool pool = pools.get(key);
+        if (pool == null) {
+            pool = new ConnectionPool(datasource);
+            pools.put(key, pool);
+            logger.info("Connection pool for " + datasource.getJdbcUrl() + " with up to " + pool.getMaxSize()
+                    + " connections");
+        } else if (!pool.getPoolSettings().equals(ConnectionPool.poolSettings(datasource))
+                && ignoredPoolSettings.add(key + '\u0000' + ConnectionPool.poolSettings(datasource))) {
+            logger.warn("The connection pool of " + datasource.getJdbcUrl() + " keeps its settings "
+                    + pool.getPoolSettings() + " instead of " + ConnectionPool.poolSettings(datasource)
+                    + ", they apply after a restart");
+        }
+        return pool;
+    }
+
+    private void evictIdle() {
+        List<ConnectionPool> current;
+        synchronized (this) {
+            current = new ArrayList<ConnectionPool>(pools.values());
+        }
+        for (ConnectionPool pool : current) {
+            try {
+                pool.evictIdle();
+            } catch (RuntimeException e) {
+                logger.warn("Closing idle connections failed: " + e);
+            }
+        }
+    }
+
+    /**
+     * @return the statistics of all connection pools, one line each
+     */
+    public synchronized String statistics() {
+        StringBuilder statistics = new StringBuilder();
+        for (ConnectionPool pool : pools.values()) {
+            if (statistics.length() > 0) {
+                statistics.append('\n');
+            }
+            statistics.append(pool.statistics());
+        }
+        return statistics.toString();
+    }
+
+    /**
+     * Close all connection pools; exports still running return their connections to closed pools,
+     * which close them.
+     */
+    @Override
+    public void close() {
+        List<ConnectionPool> current;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            current = new ArrayList<ConnectionPool>(pools.values());
+            pools.clear();
+        }
+        evictor.shutdownNow();
+        for (ConnectionPool pool : current) {
+            pool.close();
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import com.google.gson.GsonBuilder;
+import com.sachinhandiekar.sqltools.excel.model.Worksheet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Instrumentation of one excel file export: the time of each phase, per worksheet the time spent
+ * executing, fetching, converting and writing, rows per second, and the memory allocated by the
+ * export threads and the garbage collections during the export.
+ * <p>
+ * The clock is read twice per fetched row, after ResultSet.next and after reading the columns, and
+ * counters are updated once per batch, so the metrics are always collected. They are logged at the end of the export, written as a JSON report next to
+ * the output with the report option and registered as MBean while the export runs with the jmx
+ * option. Allocations are measured per thread where the JVM supports it; garbage collections are
+ * counted for the whole JVM, so they include other exports running at the same time.
+ */
+public class ExportMetrics implements ExportMetricsMBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExportMetrics.class);
+
+    private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+    private final long excelFileId;
+
+    private final long startNanos = System.nanoTime();
+
+    private final long startedAt = System.currentTimeMillis();
+
+    private final long gcCountAtStart;
+
+    private final long gcMillisAtStart;
+
+    private final Map<String, Long> phaseNanos = new LinkedHashMap<String, Long>();
+
+    private final List<WorksheetMetrics> worksheets = new ArrayList<WorksheetMetrics>();
+
+    private final AtomicLong otherThreadAllocatedBytes = new AtomicLong();
+
+    private final long exportThreadId = Thread.currentThread().getId();
+
+    private final long exportThreadAllocatedAtStart = threadAllocatedBytes();
+
+    private volatile String phase = "connect";
+
+    private volatile long phaseStartNanos = startNanos;
+
+    private volatile String currentWorksheet;
+
+    private volatile long endNanos;
+
+    private long gcCount;
+
+    private long gcMillis;
+
+    private long exportThreadAllocatedBytes;
+
+    private ObjectName objectName;
+
+    /**
+     * Start measuring an export on the current thread.
+     *
+     * @param excelFileId the id of the excel file
+     */
+    public ExportMetrics(long excelFileId) {
+        this.excelFileId = excelFileId;
+        long[] gc = gcTotals();
+        this.gcCountAtStart = gc[0];
+        this.gcMillisAtStart = gc[1];
+    }
+
+    /**
+     * @return the bytes allocated by the current thread so far, 0 if the JVM does not measure it
+     */
+    static long threadAllocatedBytes() {
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threadBean;
+            if (bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled()) {
+                return Math.max(0, bean.getThreadAllocatedBytes(Thread.currentThread().getId()));
+            }
+        }
+        return 0;
+    }
+
+    private static long[] gcTotals() {
+        long count = 0;
+        long millis = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, bean.getCollectionCount());
+            millis += Math.max(0, bean.getCollectionTime());
+        }
+        return new long[]{count, millis};
+    }
+
+    static long perSecond(long count, long nanos) {
+        return nanos <= 0 ? 0 : (long) (count * 1e9 / nanos);
+    }
+
+    /**
+     * End the current phase and start the next one.
+     *
+     * @param next the name of the next phase
+     */
+    public synchronized void startPhase(String next) {
+        long now = System.nanoTime();
+        Long spent = phaseNanos.get(phase);
+        phaseNanos.put(phase, (spent == null ? 0 : spent) + now - phaseStartNanos);
+        phase = next;
+        phaseStartNanos = now;
+    }
+
+    /**
+     * @param workSheet the worksheet
+     * @return the metrics of the worksheet, created on the first call, which becomes the current
+     * worksheet
+     */
+    public synchronized WorksheetMetrics worksheet(Worksheet workSheet) {
+        currentWorksheet = workSheet.getWorkSheetName();
+        for (WorksheetMetrics metrics : worksheets) {
+            if (metrics.getId() == workSheet.getId() && same(metrics.getName(), workSheet.getWorkSheetName())) {
+                return metrics;
+            }
+        }
+        WorksheetMetrics metrics = new WorksheetMetrics(workSheet.getId(), workSheet.getWorkSheetName(), this);
+        worksheets.add(metrics);
+        return metrics;
+    }
+
+    private static boolean same(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    void addOtherThreadAllocated(long bytes) {
+        if (bytes > 0) {
+            otherThreadAllocatedBytes.addAndGet(bytes);
+        }
+    }
+
+    /**
+     * End the measurement, on the thread which created the metrics.
+     */
+    public synchronized void finish() {
+        if (endNanos != 0) {
+            return;
+        }
+        startPhase("done");
+        endNanos = System.nanoTime();
+        long[] gc = gcTotals();
+        gcCount = gc[0] - gcCountAtStart;
+        gcMillis = gc[1] - gcMillisAtStart;
+        if (Thread.currentThread().getId() == exportThreadId) {
+            exportThreadAllocatedBytes = threadAllocatedBytes() - exportThreadAllocatedAtStart;
+        }
+    }
+
+    /**
+     * Register the metrics as MBean com.sachinhandiekar.sqltools:type=ExcelFileExport,id=[excelFileId].
+     */
+    public void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("com.sachinhandiekar.sqltools:type=ExcelFileExport,id=" + excelFileId);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+            objectName = name;
+        } catch (Exception e) {
+            logger.warn("Could not register the export metrics with JMX: " + e);
+        }
+    }
+
+    public void unregisterMBean() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (Exception e) {
+            logger.debug("Could not unregister the export metrics: " + e);
+        }
+        objectName = null;
+    }
+
+    @Override
+    public long getExcelFileId() {
+        return excelFileId;
+    }
+
+    @Override
+    public String getPhase() {
+        return phase;
+    }
+
+    @Override
+    public String getCurrentWorksheet() {
+        return currentWorksheet;
+    }
+
+    @Override
+    public synchronized long getRows() {
+        long rows = 0;
+        for (WorksheetMetrics metrics : worksheets) {
+            rows += metrics.getRows();
+        }
+        return rows;
+    }
+
+    @Override
+    public long getElapsedMillis() {
+        return WorksheetMetrics.millis(elapsedNanos());
+    }
+
+    private long elapsedNanos() {
+        return (endNanos != 0 ? endNanos : System.nanoTime()) - startNanos;
+    }
+
+    @Override
+    public long getRowsPerSecond() {
+        return perSecond(getRows(), elapsedNanos());
+    }
+
+    @Override
+    public long getAllocatedBytes() {
+        long exportThread = endNanos != 0 ? exportThreadAllocatedBytes
+                : Thread.currentThread().getId() == exportThreadId ? threadAllocatedBytes() - exportThreadAllocatedAtStart : 0;
+        return exportThread + otherThreadAllocatedBytes.get();
+    }
+
+    /**
+     * @param result the result of the export
+     * @return the metrics as a tree of maps and lists for the JSON report
+     */
+    public synchronized Map<String, Object> toReport(ExportResult result) {
+        Map<String, Object> report = new LinkedHashMap<String, Object>();
+        report.put("excelFileId", excelFileId);
+        report.put("status", String.valueOf(result.getStatus()));
+        if (result.getError() != null) {
+            report.put("error", result.getError());
+        }
+        report.put("files", result.getFileNames());
+        report.put("startedAt", startedAt);
+        report.put("elapsedMillis", getElapsedMillis());
+        report.put("rows", result.getRows());
+        report.put("bytes", result.getBytes());
+        report.put("rowsPerSecond", perSecond(result.getRows(), elapsedNanos()));
+        Map<String, Object> phases = new LinkedHashMap<String, Object>();
+        for (Map.Entry<String, Long> entry : phaseNanos.entrySet()) {
+            if (!"done".equals(entry.getKey())) {
+                phases.put(entry.getKey() + "Millis", WorksheetMetrics.millis(entry.getValue()));
+            }
+        }
+        report.put("phases", phases);
+        report.put("allocatedBytes", getAllocatedBytes());
+        report.put("gcCount", gcCount);
+        report.put("gcMillis", gcMillis);
+        List<Object> worksheetReports = new ArrayList<Object>();
+        for (WorksheetMetrics metrics : worksheets) {
+            worksheetReports.add(metrics.toReport());
+        }
+        report.put("worksheets", worksheetReports);
+        return report;
+    }
+
+    /**
+     * Write the JSON report.
+     *
+     * @param file the report file
+     * @param result the result of the export
+     * @throws IOException if the file can not be written
+     */
+    public void writeReport(File file, ExportResult result) throws IOException {
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            new GsonBuilder().setPrettyPrinting().create().toJson(toReport(result), out);
+        }
+    }
+
+    /**
+     * @return a one line summary of the phases
+     */
+    public synchronized String summary() {
+        StringBuilder summary = new StringBuilder("ExcelFile " + excelFileId + " phases:");
+        for (Map.Entry<String, Long> entry : phaseNanos.entrySet()) {
+            if (!"done".equals(entry.getKey())) {
+                summary.append(' ').append(entry.getKey()).append('=')
+                        .append(WorksheetMetrics.millis(entry.getValue())).append("ms");
+            }
+        }
+        summary.append(", allocated ").append(getAllocatedBytes() >> 20).append(" MB, ")
+                .append(gcCount).append(" GCs (").append(gcMillis).append(" ms)");
+        return summary.toString();
+    }
+}
@@ -0,0 +1,34 @@
+package com.sachinhandiekar.sqltools.excel;
+
+/**
+ * The progress of a running excel file export, registered with JMX when the excel file has the jmx
+ * option.
+ */
+public interface ExportMetricsMBean {
+
+    long getExcelFileId();
+
+    /**
+     * @return the current phase: connect, preparation, generate, write or done
+     */
+    String getPhase();
+
+    /**
+     * @return the name of the worksheet being exported, with parallel queries the one being written
+     */
+    String getCurrentWorksheet();
+
+    /**
+     * @return the rows fetched so far
+     */
+    long getRows();
+
+    long getElapsedMillis();
+
+    long getRowsPerSecond();
+
+    /**
+     * @return the memory allocated so far by the threads of the export
+     */
+    long getAllocatedBytes();
+}
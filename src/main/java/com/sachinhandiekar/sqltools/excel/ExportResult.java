@@ -0,0 +1,177 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The outcome of exporting one excel file.
+ */
+public class ExportResult {
+
+    public enum Status {
+        SUCCESS, FAILED
+    }
+
+    private final long excelFileId;
+
+    private Status status;
+
+    private String fileName;
+
+    private List<String> fileNames = new ArrayList<String>();
+
+    private long rows;
+
+    private long bytes;
+
+    private long startedAt;
+
+    private long generateMillis;
+
+    private long writeMillis;
+
+    private long totalMillis;
+
+    private String error;
+
+    private ExportMetrics metrics;
+
+    public ExportResult(long excelFileId) {
+        this.excelFileId = excelFileId;
+    }
+
+    public long getExcelFileId() {
+        return excelFileId;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    public boolean isSuccess() {
+        return status == Status.SUCCESS;
+    }
+
+    /**
+     * @return the full path of the written file, null if the export failed before it was resolved
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    /**
+     * @return the full paths of all written files, more than one when the rows rolled over to further files
+     */
+    public List<String> getFileNames() {
+        return fileNames;
+    }
+
+    public void setFileNames(List<String> fileNames) {
+        this.fileNames = fileNames;
+    }
+
+    /**
+     * @return the number of data rows written to all worksheets
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    public void setRows(long rows) {
+        this.rows = rows;
+    }
+
+    /**
+     * @return the size of the written files
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    public void setBytes(long bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * @return the start of the export in milliseconds since the epoch
+     */
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    public void setStartedAt(long startedAt) {
+        this.startedAt = startedAt;
+    }
+
+    /**
+     * @return the time spent running the queries and filling the worksheets
+     */
+    public long getGenerateMillis() {
+        return generateMillis;
+    }
+
+    public void setGenerateMillis(long generateMillis) {
+        this.generateMillis = generateMillis;
+    }
+
+    /**
+     * @return the time spent writing the workbook to the file
+     */
+    public long getWriteMillis() {
+        return writeMillis;
+    }
+
+    public void setWriteMillis(long writeMillis) {
+        this.writeMillis = writeMillis;
+    }
+
+    public long getTotalMillis() {
+        return totalMillis;
+    }
+
+    public void setTotalMillis(long totalMillis) {
+        this.totalMillis = totalMillis;
+    }
+
+    /**
+     * @return the error message of a failed export
+     */
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    /**
+     * @return the timers and counters of the export
+     */
+    public ExportMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(ExportMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public String toString() {
+        return "ExcelFile " + excelFileId + " " + status +
+                " rows=" + rows +
+                " bytes=" + bytes +
+                " total=" + totalMillis + "ms" +
+                " (generate " + generateMillis + "ms, write " + writeMillis + "ms)" +
+                (fileName != null ? " file=" + fileName : "") +
+                (fileNames.size() > 1 ? " (+" + (fileNames.size() - 1) + " more)" : "") +
+                (error != null ? " error=" + error : "");
+    }
+}
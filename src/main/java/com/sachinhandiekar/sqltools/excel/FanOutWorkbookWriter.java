@@ -0,0 +1,377 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Writes the same worksheets to several outputs, e.g. an xlsx file and a csv file, from one pass
+ * over the query results.
+ * <p>
+ * The rows are decoded once. Each batch is copied into one of a fixed number of shared batches
+ * which all outputs read, every output on its own thread. A shared batch is reused when the last
+ * output has written it, so a slow output lets the others run ahead by at most that many batches
+ * before the fetch waits for it. When an output fails, the others stop and the error is thrown to
+ * the caller.
+ */
+public class FanOutWorkbookWriter implements WorkbookWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(FanOutWorkbookWriter.class);
+
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+
+    private static final long POLL_MILLIS = 100;
+
+    /** how long close waits for an output to stop before leaving the close of its writer to its thread */
+    private static final long JOIN_TIMEOUT_MILLIS = 30000;
+
+    private final List<WorkbookWriter> targets;
+
+    private final List<Output> outputs = new ArrayList<Output>();
+
+    private final int bufferBatches;
+
+    private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+    private BlockingQueue<RowBatch> freeBatches;
+
+    private int batchColumns;
+
+    private int batchCapacity;
+
+    private boolean finished;
+
+    /**
+     * @param targets the writers of the outputs, closed when this writer is closed
+     * @param bufferBatches the number of batches an output may fall behind the fastest one
+     */
+    public FanOutWorkbookWriter(List<WorkbookWriter> targets, int bufferBatches) {
+        this.targets = targets;
+        this.bufferBatches = Math.max(1, bufferBatches);
+        for (WorkbookWriter target : targets) {
+            Output output = new Output(target);
+            outputs.add(output);
+            output.thread.start();
+        }
+    }
+
+    @Override
+    public TypeFormatMapping getTypeFormatMapping() {
+        return targets.get(0).getTypeFormatMapping();
+    }
+
+    /**
+     * Every output starts its continuation sheets on its own.
+     */
+    @Override
+    public long getMaxSheetRows() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public List<File> getFiles() {
+        List<File> files = new ArrayList<File>();
+        for (WorkbookWriter target : targets) {
+            files.addAll(target.getFiles());
+        }
+        return files;
+    }
+
+    @Override
+    public List<File> getCreatedFiles() {
+        List<File> files = new ArrayList<File>();
+        for (WorkbookWriter target : targets) {
+            files.addAll(target.getCreatedFiles());
+        }
+        return files;
+    }
+
+    @Override
+    public SheetWriter startSheet(String workSheetName, ColumnLayout layout) throws IOException {
+        checkFailure();
+        for (Output output : outputs) {
+            output.tasks.add(new Task(Task.START, workSheetName, layout, null));
+        }
+        return new FanOutSheetWriter();
+    }
+
+    /**
+     * Wait until every output has written its file, however long that takes.
+     */
+    @Override
+    public void finish() throws IOException {
+        for (Output output : outputs) {
+            output.tasks.add(new Task(Task.FINISH, null, null, null));
+        }
+        try {
+            for (Output output : outputs) {
+                output.thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the outputs", e);
+        }
+        checkFailure();
+        finished = true;
+    }
+
+    /**
+     * Stop the outputs and close their writers. A writer whose thread is still busy, e.g. writing a
+     * large workbook, is closed by that thread when it is done, never while it writes.
+     */
+    @Override
+    public void close() {
+        if (!finished) {
+            failure.compareAndSet(null, new IOException("Export cancelled"));
+            for (Output output : outputs) {
+                output.tasks.add(new Task(Task.FINISH, null, null, null));
+            }
+        }
+        for (Output output : outputs) {
+            try {
+                output.thread.join(JOIN_TIMEOUT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            output.close();
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable t = failure.get();
+        if (t == null) {
+            return;
+        }
+        if (t instanceof IOException) {
+            throw (IOException) t;
+        } else if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        }
+        throw new IOException("Writing an output failed", t);
+    }
+
+    /**
+     * Take a free shared batch, waiting for the slowest output if all of them are in use.
+     */
+    private RowBatch takeFreeBatch(RowBatch like) throws IOException {
+        if (freeBatches == null || batchColumns != like.getColumnCount() || batchCapacity != like.getCapacity()) {
+            // batches still read by the outputs go back to the previous pool
+            batchColumns = like.getColumnCount();
+            batchCapacity = like.getCapacity();
+            freeBatches = new ArrayBlockingQueue<RowBatch>(bufferBatches);
+            for (int i = 0; i < bufferBatches; i++) {
+                freeBatches.add(new RowBatch(batchColumns, batchCapacity));
+            }
+        }
+        try {
+            while (true) {
+                checkFailure();
+                RowBatch batch = freeBatches.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (batch != null) {
+                    return batch;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for an output", e);
+        }
+    }
+
+    /**
+     * A batch read by all outputs, returned to the free batches by the last one.
+     */
+    private class SharedBatch {
+
+        final RowBatch batch;
+
+        final BlockingQueue<RowBatch> pool;
+
+        final AtomicInteger pending = new AtomicInteger(outputs.size());
+
+        SharedBatch(RowBatch batch, BlockingQueue<RowBatch> pool) {
+            this.batch = batch;
+            this.pool = pool;
+        }
+
+        void release() {
+            if (pending.decrementAndGet() == 0) {
+                batch.clear();
+                pool.offer(batch);
+            }
+        }
+    }
+
+    /**
+     * A step of an output, run on the thread of the output.
+     */
+    private static class Task {
+
+        static final int START = 0;
+
+        static final int ROWS = 1;
+
+        static final int FINISH_SHEET = 2;
+
+        static final int FINISH = 3;
+
+        final int type;
+
+        final String workSheetName;
+
+        final ColumnLayout layout;
+
+        final SharedBatch rows;
+
+        Task(int type, String workSheetName, ColumnLayout layout, SharedBatch rows) {
+            this.type = type;
+            this.workSheetName = workSheetName;
+            this.layout = layout;
+            this.rows = rows;
+        }
+    }
+
+    /**
+     * An output with its writer, its thread and the steps it still has to run.
+     */
+    private class Output {
+
+        final WorkbookWriter target;
+
+        final BlockingQueue<Task> tasks = new LinkedBlockingQueue<Task>();
+
+        final Thread thread;
+
+        SheetWriter sheet;
+
+        private boolean running = true;
+
+        private boolean closeRequested;
+
+        Output(WorkbookWriter target) {
+            this.target = target;
+            this.thread = new Thread(this::run, "output-writer-" + threadCounter.incrementAndGet());
+            this.thread.setDaemon(true);
+        }
+
+        /**
+         * Close the writer now, or when the thread of the output stops.
+         */
+        synchronized void close() {
+            if (running) {
+                logger.warn("Output thread " + thread.getName() + " is still writing, its writer is closed when it is done");
+                closeRequested = true;
+            } else {
+                target.close();
+            }
+        }
+
+        private void run() {
+            try {
+                runTasks();
+            } finally {
+                synchronized (this) {
+                    running = false;
+                    if (closeRequested) {
+                        target.close();
+                    }
+                }
+            }
+        }
+
+        private void runTasks() {
+            while (true) {
+                Task task;
+                try {
+                    task = tasks.take();
+                } catch (InterruptedException e) {
+                    failure.compareAndSet(null, e);
+                    return;
+                }
+                try {
+                    if (failure.get() == null) {
+                        runTask(task);
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                } finally {
+                    if (task.rows != null) {
+                        task.rows.release();
+                    }
+                }
+                if (task.type == Task.FINISH) {
+                    return;
+                }
+            }
+        }
+
+        private void runTask(Task task) throws IOException {
+            switch (task.type) {
+                case Task.START:
+                    sheet = target.startSheet(task.workSheetName, task.layout);
+                    break;
+                case Task.ROWS:
+                    sheet.accept(task.rows.batch);
+                    break;
+                case Task.FINISH_SHEET:
+                    sheet.finish();
+                    sheet = null;
+                    break;
+                default:
+                    target.finish();
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Hands the rows of a worksheet to all outputs.
+     */
+    private class FanOutSheetWriter implements SheetWriter {
+
+        private long rows;
+
+        @Override
+        public void accept(RowBatch batch) throws IOException {
+            accept(batch, 0, batch.size());
+        }
+
+        @Override
+        public void accept(RowBatch batch, int from, int to) throws IOException {
+            if (from == to) {
+                return;
+            }
+            RowBatch copy = takeFreeBatch(batch);
+            copy.copyRows(batch, from, to);
+            SharedBatch shared = new SharedBatch(copy, freeBatches);
+            for (Output output : outputs) {
+                output.tasks.add(new Task(Task.ROWS, null, null, shared));
+            }
+            rows += to - from;
+        }
+
+        @Override
+        public long getRowsWritten() {
+            return rows;
+        }
+
+        @Override
+        public void finish() throws IOException {
+            checkFailure();
+            for (Output output : outputs) {
+                output.tasks.add(new Task(Task.FINISH_SHEET, null, null, null));
+            }
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import com.sachinhandiekar.sqltools.excel.model.ExcelFile;
+import com.sachinhandiekar.sqltools.excel.model.Incremental;
+import com.sachinhandiekar.sqltools.excel.model.Worksheet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Restricts the incremental worksheets of an excel file to the rows added since the previous run.
+ * <p>
+ * The largest value of the watermark column is queried first, then the worksheet query is wrapped
+ * to fetch the rows above the stored watermark up to that value. Rows inserted while the export
+ * runs are left for the next run instead of being lost, and the new watermark is the exact value
+ * read from the database. The new watermarks are saved only after the file was written, so a
+ * failed export is repeated with the same rows.
+ * <p>
+ * Rows with a null watermark, and rows committed later with a value below the watermark, are
+ * never exported.
+ */
+public class IncrementalPlanner {
+
+    private static final Logger logger = LoggerFactory.getLogger(IncrementalPlanner.class);
+
+    private static final String FROM_PARAMETER = "_watermarkFrom";
+
+    private static final String TO_PARAMETER = "_watermarkTo";
+
+    private final ExcelFile excelFile;
+
+    private final Map<String, WatermarkStore.Watermark> pending = new LinkedHashMap<String, WatermarkStore.Watermark>();
+
+    private WatermarkStore store;
+
+    /**
+     * @param excelFile the excel file
+     */
+    public IncrementalPlanner(ExcelFile excelFile) {
+        this.excelFile = excelFile;
+    }
+
+    /**
+     * @param connection the connection to query the watermarks on
+     * @param worksheets the worksheets to export
+     * @return the worksheets, the incremental ones replaced by copies fetching the new rows only
+     * @throws SQLException if a watermark can not be queried
+     * @throws IOException if the state file can not be read
+     */
+    public List<Worksheet> plan(Connection connection, List<Worksheet> worksheets) throws SQLException, IOException {
+        List<Worksheet> planned = new ArrayList<Worksheet>(worksheets.size());
+        for (Worksheet workSheet : worksheets) {
+            planned.add(workSheet.getIncremental() != null ? plan(connection, workSheet) : workSheet);
+        }
+        return planned;
+    }
+
+    private Worksheet plan(Connection connection, Worksheet workSheet) throws SQLException, IOException {
+        Incremental incremental = workSheet.getIncremental();
+        String column = incremental.getColumn();
+        if (column == null || column.trim().isEmpty()) {
+            throw new IllegalArgumentException("Incremental worksheet " + workSheet.getId() + " has no column");
+        }
+        if (store == null) {
+            store = new WatermarkStore(new File(excelFile.getStateFile()));
+        }
+        String key = key(workSheet);
+        WatermarkStore.Watermark stored = store.get(key);
+        if (stored != null && !column.equalsIgnoreCase(stored.getColumn())) {
+            throw new IllegalArgumentException("Incremental worksheet " + workSheet.getId() + " has the watermark column "
+                    + column + " but " + stored.getColumn() + " in " + store.getFile()
+                    + ", remove its entry to export it from the beginning");
+        }
+
+        String baseQuery = stripTerminator(workSheet.getSqlQuery());
+        long start = System.currentTimeMillis();
+        Object from;
+        Object to;
+        boolean dateColumn;
+        // the bound query has the parameters of the worksheet query and no others
+        WorksheetQuery boundQuery = WorksheetQuery.of(copy(workSheet,
+                "SELECT MAX(" + column + ") FROM (" + baseQuery + ") w", null));
+        try (PreparedStatement statement = connection.prepareStatement(boundQuery.getSql())) {
+            for (int i = 0; i < boundQuery.getParameters().size(); i++) {
+                statement.setObject(i + 1, boundQuery.getParameters().get(i));
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                ResultSetMetaData metaData = resultSet.getMetaData();
+                boolean timeKey = isTimeKey(metaData.getColumnType(1), column, workSheet);
+                dateColumn = timeKey && "DATE".equalsIgnoreCase(metaData.getColumnTypeName(1));
+                resultSet.next();
+                to = timeKey ? resultSet.getTimestamp(1) : resultSet.getBigDecimal(1);
+                if (stored != null) {
+                    from = stored.getValue();
+                } else if (incremental.getInitialValue() != null) {
+                    from = parseValue(incremental.getInitialValue(), timeKey);
+                } else {
+                    from = null;
+                }
+            }
+        }
+
+        String placeholder = dateColumn ? "CAST(:%s AS DATE)" : ":%s";
+        String condition;
+        Map<String, Object> parameters = new LinkedHashMap<String, Object>();
+        if (workSheet.getParameters() != null) {
+            parameters.putAll(workSheet.getParameters());
+        }
+        if (to == null || from != null && compare(to, from) <= 0) {
+            condition = "1 = 0";
+            logger.info("Incremental worksheet " + workSheet.getId() + ": no new rows"
+                    + (from != null ? " after " + column + " " + from : "")
+                    + " (" + (System.currentTimeMillis() - start) + " ms)");
+        } else {
+            condition = column + " <= " + String.format(placeholder, TO_PARAMETER);
+            parameters.put(TO_PARAMETER, to);
+            if (from != null) {
+                condition = column + " > " + String.format(placeholder, FROM_PARAMETER) + " AND " + condition;
+                parameters.put(FROM_PARAMETER, from);
+            }
+            pending.put(key, new WatermarkStore.Watermark(column, to));
+            logger.info("Incremental worksheet " + workSheet.getId() + ": " + column
+                    + (from != null ? " after " + from : "") + " up to " + to
+                    + " (" + (System.currentTimeMillis() - start) + " ms)");
+        }
+        return copy(workSheet, "SELECT * FROM (" + baseQuery + ") w WHERE " + condition, parameters);
+    }
+
+    private static Worksheet copy(Worksheet workSheet, String sqlQuery, Map<String, Object> parameters) {
+        Worksheet copy = workSheet.copy();
+        copy.setSqlQuery(sqlQuery);
+        if (parameters != null) {
+            copy.setParameters(parameters);
+        }
+        return copy;
+    }
+
+    /**
+     * @return the key of the worksheet in the state file, with the values of its parameter set
+     */
+    private String key(Worksheet workSheet) {
+        String key = excelFile.getId() + "/" + workSheet.getId();
+        Map<String, Object> parameters = workSheet.getParameters();
+        if (parameters != null && !parameters.isEmpty()) {
+            key += " " + new TreeMap<String, Object>(parameters);
+        }
+        return key;
+    }
+
+    /**
+     * Save the watermarks of the exported worksheets, after the file was written.
+     *
+     * @throws IOException if the state file can not be written
+     */
+    public void commit() throws IOException {
+        if (store != null) {
+            store.save(pending);
+        }
+        pending.clear();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compare(Object value, Object other) {
+        return ((Comparable<Object>) value).compareTo(other);
+    }
+
+    private static boolean isTimeKey(int columnType, String column, Worksheet workSheet) {
+        switch (columnType) {
+            case Types.DATE:
+            case Types.TIMESTAMP:
+            case Types.TIMESTAMP_WITH_TIMEZONE:
+                return true;
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+                return false;
+            default:
+                throw new IllegalArgumentException("Watermark column " + column + " of worksheet " + workSheet.getId()
+                        + " must be numeric or a date");
+        }
+    }
+
+    private static Object parseValue(String text, boolean timeKey) {
+        String value = text.trim();
+        if (!timeKey) {
+            return new BigDecimal(value);
+        }
+        return value.length() <= 10 ? new Timestamp(Date.valueOf(value).getTime()) : Timestamp.valueOf(value);
+    }
+
+    private static String stripTerminator(String sql) {
+        String query = sql.trim();
+        while (query.endsWith(";")) {
+            query = query.substring(0, query.length() - 1).trim();
+        }
+        return query;
+    }
+}
@@ -0,0 +1,164 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import com.sachinhandiekar.sqltools.excel.model.Datasource;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+/**
+ * Database specific settings used when a query result is fetched in streaming mode.
+ * <p>
+ * The dialect is detected from the JDBC url of the datasource:
+ * <ul>
+ * <li>Oracle - rows are fetched in batches of the configured fetch size instead of the driver default of 10</li>
+ * <li>PostgreSQL - the driver only uses a server side cursor when auto commit is off and a fetch size is set</li>
+ * <li>MySQL / MariaDB - a fetch size of Integer.MIN_VALUE makes the driver stream row by row
+ * unless useCursorFetch=true is part of the url</li>
+ * </ul>
+ * Connections are opened with the statement cache of the driver enabled where it is off by default
+ * (Oracle implicit statement caching, MySQL cachePrepStmts), sized by statementCacheSize of the
+ * datasource. PostgreSQL caches prepared statements by default.
+ */
+public enum JdbcDialect {
+
+    ORACLE(5000) {
+        @Override
+        void addStatementCacheProperties(Properties properties, int statementCacheSize) {
+            properties.setProperty("oracle.jdbc.implicitStatementCacheSize", String.valueOf(statementCacheSize));
+        }
+    },
+
+    POSTGRESQL(5000) {
+        @Override
+        boolean requiresManualCommit() {
+            return true;
+        }
+    },
+
+    MYSQL(1000) {
+        @Override
+        int streamingFetchSize(String jdbcUrl, int configuredFetchSize) {
+            if (configuredFetchSize > 0 && jdbcUrl.toLowerCase().contains("usecursorfetch=true")) {
+                return configuredFetchSize;
+            }
+            return Integer.MIN_VALUE;
+        }
+
+        @Override
+        void addStatementCacheProperties(Properties properties, int statementCacheSize) {
+            properties.setProperty("cachePrepStmts", "true");
+            properties.setProperty("prepStmtCacheSize", String.valueOf(statementCacheSize));
+        }
+    },
+
+    GENERIC(1000);
+
+    private final int defaultFetchSize;
+
+    JdbcDialect(int defaultFetchSize) {
+        this.defaultFetchSize = defaultFetchSize;
+    }
+
+    /**
+     * @param jdbcUrl the url of the datasource
+     * @return the dialect for the url, GENERIC if the database is not known
+     */
+    public static JdbcDialect forJdbcUrl(String jdbcUrl) {
+        String url = jdbcUrl == null ? "" : jdbcUrl.toLowerCase();
+        if (url.startsWith("jdbc:oracle:")) {
+            return ORACLE;
+        } else if (url.startsWith("jdbc:postgresql:")) {
+            return POSTGRESQL;
+        } else if (url.startsWith("jdbc:mysql:") || url.startsWith("jdbc:mariadb:")) {
+            return MYSQL;
+        }
+        return GENERIC;
+    }
+
+    /**
+     * Open a connection to the datasource with the statement cache of the driver enabled.
+     *
+     * @param datasource the datasource
+     * @return the connection
+     * @throws SQLException if the connection can not be opened
+     */
+    public static Connection connect(Datasource datasource) throws SQLException {
+        Properties properties = new Properties();
+        if (datasource.getUserName() != null) {
+            properties.setProperty("user", datasource.getUserName());
+        }
+        if (datasource.getPassword() != null) {
+            properties.setProperty("password", datasource.getPassword());
+        }
+        if (datasource.getStatementCacheSize() > 0) {
+            forJdbcUrl(datasource.getJdbcUrl()).addStatementCacheProperties(properties,
+                    datasource.getStatementCacheSize());
+        }
+        return DriverManager.getConnection(datasource.getJdbcUrl(), properties);
+    }
+
+    /**
+     * Add the connection properties enabling the statement cache of the driver.
+     */
+    void addStatementCacheProperties(Properties properties, int statementCacheSize) {
+    }
+
+    /**
+     * @return true if auto commit has to be switched off while a streaming cursor is open
+     */
+    boolean requiresManualCommit() {
+        return false;
+    }
+
+    /**
+     * @return the fetch size to set on the statement when streaming is enabled
+     */
+    int streamingFetchSize(String jdbcUrl, int configuredFetchSize) {
+        return configuredFetchSize > 0 ? configuredFetchSize : defaultFetchSize;
+    }
+
+    /**
+     * Create a forward only, read only statement and apply the fetch settings of this dialect.
+     *
+     * @param connection the connection to create the statement on
+     * @param jdbcUrl the url of the datasource
+     * @param streaming true if the result should be streamed
+     * @param configuredFetchSize the fetch size from the configuration, 0 for the default
+     * @return the statement
+     * @throws SQLException if any error occurs
+     */
+    Statement createStatement(Connection connection, String jdbcUrl, boolean streaming, int configuredFetchSize)
+            throws SQLException {
+        Statement statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY,
+                ResultSet.CONCUR_READ_ONLY);
+        applyFetchSize(statement, jdbcUrl, streaming, configuredFetchSize);
+        return statement;
+    }
+
+    /**
+     * Prepare a forward only, read only statement and apply the fetch settings of this dialect.
+     *
+     * @see #createStatement(Connection, String, boolean, int)
+     */
+    PreparedStatement prepareStatement(Connection connection, String jdbcUrl, String sql, boolean streaming,
+                                       int configuredFetchSize) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY,
+                ResultSet.CONCUR_READ_ONLY);
+        applyFetchSize(statement, jdbcUrl, streaming, configuredFetchSize);
+        return statement;
+    }
+
+    private void applyFetchSize(Statement statement, String jdbcUrl, boolean streaming, int configuredFetchSize)
+            throws SQLException {
+        if (streaming) {
+            statement.setFetchSize(streamingFetchSize(jdbcUrl, configuredFetchSize));
+        } else if (configuredFetchSize > 0) {
+            statement.setFetchSize(configuredFetchSize);
+        }
+    }
+}
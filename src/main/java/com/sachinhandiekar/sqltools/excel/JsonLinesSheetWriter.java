@@ -0,0 +1,107 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import java.io.IOException;
+
+/**
+ * Writes the rows of one worksheet as JSON Lines, an object per row with the column names as keys.
+ * <p>
+ * Numbers are written as JSON numbers (null for NaN and infinity), dates as ISO strings, so a
+ * loader does not depend on the Excel formats of the columns.
+ */
+public class JsonLinesSheetWriter implements SheetWriter {
+
+    private final TextWorkbookWriter workbookWriter;
+
+    private final DelimitedWriter out;
+
+    private final String[] names;
+
+    private long rows;
+
+    /**
+     * @param workbookWriter the writer of the excel file
+     * @param out the writer of the file, closed when the sheet is finished
+     * @param layout the columns of the worksheet
+     */
+    JsonLinesSheetWriter(TextWorkbookWriter workbookWriter, DelimitedWriter out, ColumnLayout layout) {
+        this.workbookWriter = workbookWriter;
+        this.out = out;
+        this.names = new String[layout.getColumnCount()];
+        for (int i = 0; i < names.length; i++) {
+            String name = layout.getNames()[i];
+            names[i] = name == null ? "" : name;
+        }
+    }
+
+    @Override
+    public void accept(RowBatch batch) throws IOException {
+        accept(batch, 0, batch.size());
+    }
+
+    @Override
+    public void accept(RowBatch batch, int from, int to) throws IOException {
+        int columnCount = batch.getColumnCount();
+        for (int r = from; r < to; r++) {
+            out.append('{');
+            for (int i = 0; i < columnCount; i++) {
+                if (i > 0) {
+                    out.append(',');
+                }
+                out.appendJson(names[i]);
+                out.append(':');
+                writeValue(batch, r, i);
+            }
+            out.append('}');
+            out.append('\n');
+        }
+        rows += to - from;
+    }
+
+    private void writeValue(RowBatch batch, int row, int column) throws IOException {
+        switch (batch.getKind(row, column)) {
+            case RowBatch.NUMBER:
+                double value = batch.getNumber(row, column);
+                if (Double.isNaN(value) || Double.isInfinite(value)) {
+                    out.appendField("null");
+                } else {
+                    out.append(value);
+                }
+                break;
+            case RowBatch.DATE:
+                double excelDate = batch.getNumber(row, column);
+                if (excelDate < 0) {
+                    // dates before 1900 have no Excel value
+                    out.appendField("null");
+                } else {
+                    out.append('"');
+                    ExcelDateFormat.writeIso(out, excelDate);
+                    out.append('"');
+                }
+                break;
+            case RowBatch.BOOLEAN:
+                out.appendField(batch.getBoolean(row, column) ? "true" : "false");
+                break;
+            case RowBatch.TEXT:
+                String text = batch.getText(row, column);
+                if (text == null) {
+                    out.appendField("null");
+                } else {
+                    out.appendJson(text);
+                }
+                break;
+            default:
+                out.appendField("null");
+                break;
+        }
+    }
+
+    @Override
+    public long getRowsWritten() {
+        return rows;
+    }
+
+    @Override
+    public void finish() throws IOException {
+        workbookWriter.finishSheet();
+    }
+}
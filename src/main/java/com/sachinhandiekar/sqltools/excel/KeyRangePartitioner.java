@@ -0,0 +1,210 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import com.sachinhandiekar.sqltools.excel.model.Partition;
+import com.sachinhandiekar.sqltools.excel.model.Worksheet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Splits the query of a worksheet into key ranges that can be fetched on separate connections.
+ * <p>
+ * The range between the lower and upper bound of the key column is divided into equal strides.
+ * The first and the last range are open ended, so rows outside the bounds are not lost, and rows
+ * with a null key get a range of their own at the end. Every range is sorted by the key, so
+ * writing the ranges one after another writes all rows in key order.
+ * <p>
+ * Without configured bounds the minimum and maximum of the key are queried first, which costs an
+ * additional execution of the query.
+ */
+public class KeyRangePartitioner {
+
+    private static final Logger logger = LoggerFactory.getLogger(KeyRangePartitioner.class);
+
+    private KeyRangePartitioner() {
+    }
+
+    /**
+     * @param connection the connection to query the bounds on
+     * @param workSheet the worksheet with a partition
+     * @return the queries of the key ranges, in key order
+     * @throws SQLException if the bounds can not be queried
+     */
+    public static List<WorksheetQuery> plan(Connection connection, Worksheet workSheet) throws SQLException {
+        Partition partition = workSheet.getPartition();
+        String column = partition.getColumn();
+        if (column == null || column.trim().isEmpty()) {
+            throw new IllegalArgumentException("Partition of worksheet " + workSheet.getId() + " has no column");
+        }
+        if (partition.getCount() < 1) {
+            throw new IllegalArgumentException("Partition count of worksheet " + workSheet.getId() + " must be positive");
+        }
+        WorksheetQuery base = WorksheetQuery.of(workSheet);
+        String baseQuery = stripTerminator(base.getSql());
+        boolean queryBounds = partition.getLowerBound() == null || partition.getUpperBound() == null;
+        String boundsQuery = queryBounds
+                ? "SELECT MIN(" + column + "), MAX(" + column + "), COUNT(*) - COUNT(" + column + ") FROM (" + baseQuery + ") p"
+                : "SELECT " + column + " FROM (" + baseQuery + ") p WHERE 1 = 0";
+
+        long start = System.currentTimeMillis();
+        boolean timeKey;
+        boolean dateColumn;
+        Object lower;
+        Object upper;
+        boolean hasNulls = true;
+        try (PreparedStatement statement = connection.prepareStatement(boundsQuery);
+             ResultSet resultSet = executeQuery(statement, base.getParameters())) {
+            ResultSetMetaData metaData = resultSet.getMetaData();
+            timeKey = isTimeKey(metaData.getColumnType(1), column, workSheet);
+            dateColumn = "DATE".equalsIgnoreCase(metaData.getColumnTypeName(1));
+            if (queryBounds) {
+                resultSet.next();
+                lower = timeKey ? resultSet.getTimestamp(1) : resultSet.getBigDecimal(1);
+                upper = timeKey ? resultSet.getTimestamp(2) : resultSet.getBigDecimal(2);
+                hasNulls = resultSet.getLong(3) > 0;
+            } else {
+                lower = parseBound(partition.getLowerBound(), timeKey);
+                upper = parseBound(partition.getUpperBound(), timeKey);
+            }
+        }
+        if (queryBounds) {
+            logger.info("Partition bounds of worksheet " + workSheet.getId() + ": " + column + " from " + lower + " to "
+                    + upper + (hasNulls ? " and nulls" : "") + " (" + (System.currentTimeMillis() - start) + " ms)");
+        }
+        if (lower == null) {
+            // no rows or only nulls, nothing to split
+            return Collections.singletonList(base);
+        }
+
+        List<Object> splitPoints = timeKey
+                ? splitPoints(((Timestamp) lower).getTime(), ((Timestamp) upper).getTime(), partition.getCount())
+                : splitPoints((BigDecimal) lower, (BigDecimal) upper, partition.getCount());
+        String placeholder = timeKey && dateColumn ? "CAST(? AS DATE)" : "?";
+        String prefix = "SELECT * FROM (" + baseQuery + ") p WHERE ";
+        String orderBy = " ORDER BY " + column;
+
+        int total = splitPoints.size() + 1 + (hasNulls ? 1 : 0);
+        List<WorksheetQuery> queries = new ArrayList<WorksheetQuery>(total);
+        for (int i = 0; i <= splitPoints.size(); i++) {
+            List<Object> parameters = new ArrayList<Object>(base.getParameters());
+            String condition;
+            String range;
+            if (splitPoints.isEmpty()) {
+                condition = column + " IS NOT NULL";
+                range = condition;
+            } else if (i == 0) {
+                condition = column + " < " + placeholder;
+                range = column + " < " + splitPoints.get(0);
+                parameters.add(splitPoints.get(0));
+            } else if (i == splitPoints.size()) {
+                condition = column + " >= " + placeholder;
+                range = column + " >= " + splitPoints.get(i - 1);
+                parameters.add(splitPoints.get(i - 1));
+            } else {
+                condition = column + " >= " + placeholder + " AND " + column + " < " + placeholder;
+                range = column + " >= " + splitPoints.get(i - 1) + " AND " + column + " < " + splitPoints.get(i);
+                parameters.add(splitPoints.get(i - 1));
+                parameters.add(splitPoints.get(i));
+            }
+            queries.add(new WorksheetQuery(prefix + condition + orderBy, parameters,
+                    "partition " + (i + 1) + "/" + total + " (" + range + ")"));
+        }
+        if (hasNulls) {
+            queries.add(new WorksheetQuery(prefix + column + " IS NULL", base.getParameters(),
+                    "partition " + total + "/" + total + " (" + column + " IS NULL)"));
+        }
+        return queries;
+    }
+
+    private static ResultSet executeQuery(PreparedStatement statement, List<Object> parameters) throws SQLException {
+        for (int i = 0; i < parameters.size(); i++) {
+            statement.setObject(i + 1, parameters.get(i));
+        }
+        return statement.executeQuery();
+    }
+
+    private static boolean isTimeKey(int columnType, String column, Worksheet workSheet) {
+        switch (columnType) {
+            case Types.DATE:
+            case Types.TIMESTAMP:
+            case Types.TIMESTAMP_WITH_TIMEZONE:
+                return true;
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+                return false;
+            default:
+                throw new IllegalArgumentException("Partition column " + column + " of worksheet " + workSheet.getId()
+                        + " must be numeric or a date");
+        }
+    }
+
+    private static Object parseBound(String bound, boolean timeKey) {
+        String value = bound.trim();
+        if (!timeKey) {
+            return new BigDecimal(value);
+        }
+        return value.length() <= 10 ? new Timestamp(Date.valueOf(value).getTime()) : Timestamp.valueOf(value);
+    }
+
+    /**
+     * @return the strictly increasing keys above the lower bound where a new range starts
+     */
+    static List<Object> splitPoints(BigDecimal lower, BigDecimal upper, int count) {
+        int scale = Math.max(0, Math.max(lower.scale(), upper.scale()));
+        BigDecimal range = upper.subtract(lower);
+        BigDecimal divisor = BigDecimal.valueOf(count);
+        List<Object> points = new ArrayList<Object>(count - 1);
+        BigDecimal previous = lower;
+        for (int i = 1; i < count; i++) {
+            BigDecimal point = lower.add(range.multiply(BigDecimal.valueOf(i)).divide(divisor, scale, RoundingMode.FLOOR));
+            if (point.compareTo(previous) > 0) {
+                points.add(point);
+                previous = point;
+            }
+        }
+        return points;
+    }
+
+    static List<Object> splitPoints(long lowerMillis, long upperMillis, int count) {
+        long range = upperMillis - lowerMillis;
+        List<Object> points = new ArrayList<Object>(count - 1);
+        long previous = lowerMillis;
+        for (int i = 1; i < count; i++) {
+            long point = lowerMillis + range / count * i + range % count * i / count;
+            if (point > previous) {
+                points.add(new Timestamp(point));
+                previous = point;
+            }
+        }
+        return points;
+    }
+
+    private static String stripTerminator(String sql) {
+        String query = sql.trim();
+        while (query.endsWith(";")) {
+            query = query.substring(0, query.length() - 1).trim();
+        }
+        return query;
+    }
+}
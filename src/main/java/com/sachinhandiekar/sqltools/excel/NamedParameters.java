@@ -0,0 +1,183 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import com.sachinhandiekar.sqltools.excel.model.ParameterSet;
+import com.sachinhandiekar.sqltools.excel.model.Worksheet;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bind parameters of the worksheet queries, written as :name in the SQL.
+ * <p>
+ * The placeholders are replaced with ? so every parameter set runs the same statement text, which
+ * the database parses once and the driver can keep prepared. Placeholders inside quotes and
+ * comments and PostgreSQL casts (::type) are left alone. Queries of worksheets without parameter
+ * values are not rewritten at all.
+ * <p>
+ * JSON numbers arrive as doubles; whole numbers are bound as Long, other numbers as BigDecimal.
+ * Numbers beyond 2^53 lose digits in the JSON parser and should be given as strings.
+ */
+public class NamedParameters {
+
+    /** the placeholder of a sheet or file name replaced with the name of the parameter set */
+    public static final String NAME_PLACEHOLDER = "##Param##";
+
+    private NamedParameters() {
+    }
+
+    /**
+     * @param workSheet the worksheet
+     * @return the query of the worksheet with ? placeholders and the values to bind, in order
+     * @throws IllegalArgumentException if a placeholder has no value
+     */
+    public static WorksheetQuery query(Worksheet workSheet) {
+        Map<String, Object> values = workSheet.getParameters();
+        if (values == null || values.isEmpty()) {
+            return new WorksheetQuery(workSheet.getSqlQuery(), Collections.emptyList(), "query");
+        }
+        List<String> names = new ArrayList<String>();
+        String sql = parse(workSheet.getSqlQuery(), names);
+        List<Object> parameters = new ArrayList<Object>(names.size());
+        Map<String, Object> bound = new LinkedHashMap<String, Object>();
+        for (String name : names) {
+            if (!values.containsKey(name)) {
+                throw new IllegalArgumentException("Parameter :" + name + " of worksheet " + workSheet.getId()
+                        + " has no value");
+            }
+            Object value = bindValue(values.get(name));
+            parameters.add(value);
+            bound.put(name, value);
+        }
+        return new WorksheetQuery(sql, parameters, "query " + bound);
+    }
+
+    /**
+     * Replace the :name placeholders with ?.
+     *
+     * @param sql the query
+     * @param names receives the names of the placeholders, in order
+     * @return the query for a PreparedStatement
+     */
+    static String parse(String sql, List<String> names) {
+        StringBuilder jdbcSql = new StringBuilder(sql.length());
+        int length = sql.length();
+        int i = 0;
+        while (i < length) {
+            char c = sql.charAt(i);
+            int end = i + 1;
+            if (c == '\'' || c == '"') {
+                end = sql.indexOf(c, i + 1);
+                end = end < 0 ? length : end + 1;
+            } else if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+                end = sql.indexOf('\n', i);
+                end = end < 0 ? length : end + 1;
+            } else if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+                end = sql.indexOf("*/", i + 2);
+                end = end < 0 ? length : end + 2;
+            } else if (c == ':' && i + 1 < length && sql.charAt(i + 1) == ':') {
+                end = i + 2;
+            } else if (c == ':' && i + 1 < length && Character.isJavaIdentifierStart(sql.charAt(i + 1))) {
+                while (end < length && Character.isJavaIdentifierPart(sql.charAt(end))) {
+                    end++;
+                }
+                names.add(sql.substring(i + 1, end));
+                jdbcSql.append('?');
+                i = end;
+                continue;
+            }
+            jdbcSql.append(sql, i, end);
+            i = end;
+        }
+        return jdbcSql.toString();
+    }
+
+    static Object bindValue(Object value) {
+        if (value instanceof Double) {
+            double number = (Double) value;
+            if (number == Math.rint(number) && Math.abs(number) < 9.007199254740992E15) {
+                return (long) number;
+            }
+            return BigDecimal.valueOf(number);
+        }
+        return value;
+    }
+
+    /**
+     * Expand the worksheets with parameter sets into a worksheet per set.
+     *
+     * @param worksheets the configured worksheets
+     * @param fileSet the parameter set of the excel file, whose values apply to all worksheets, or null
+     * @return the worksheets to export, with their parameter values merged
+     */
+    public static List<Worksheet> expand(List<Worksheet> worksheets, ParameterSet fileSet) {
+        List<Worksheet> expanded = new ArrayList<Worksheet>();
+        for (Worksheet workSheet : worksheets) {
+            Map<String, Object> values = merge(workSheet.getParameters(),
+                    fileSet != null ? fileSet.getValues() : null);
+            List<ParameterSet> sets = workSheet.getParameterSets();
+            if (sets == null || sets.isEmpty()) {
+                if (fileSet == null) {
+                    expanded.add(workSheet);
+                } else {
+                    Worksheet copy = workSheet.copy();
+                    copy.setParameters(values);
+                    expanded.add(copy);
+                }
+                continue;
+            }
+            for (ParameterSet set : sets) {
+                Worksheet copy = workSheet.copy();
+                copy.setWorkSheetName(sheetName(workSheet.getWorkSheetName(), set.getName()));
+                copy.setParameters(merge(values, set.getValues()));
+                copy.setParameterSets(null);
+                expanded.add(copy);
+            }
+        }
+        return expanded;
+    }
+
+    /**
+     * @param workSheetName the configured sheet name
+     * @param setName the name of the parameter set
+     * @return the name with ##Param## replaced, or the set name appended if it has no placeholder
+     */
+    static String sheetName(String workSheetName, String setName) {
+        String value = setName == null ? "" : setName;
+        if (workSheetName == null) {
+            return value;
+        }
+        if (workSheetName.contains(NAME_PLACEHOLDER)) {
+            return workSheetName.replace(NAME_PLACEHOLDER, value);
+        }
+        return workSheetName + " " + value;
+    }
+
+    /**
+     * @param fileName the configured file name
+     * @param setName the name of the parameter set
+     * @return the name with ##Param## replaced, or _[set name] inserted before the extension if it has
+     * no placeholder (report_EU.csv.gz for report.csv.gz)
+     */
+    static String fileName(String fileName, String setName) {
+        String value = setName == null ? "" : setName;
+        if (fileName.contains(NAME_PLACEHOLDER)) {
+            return fileName.replace(NAME_PLACEHOLDER, value);
+        }
+        return TextWorkbookWriter.insertBeforeExtension(fileName, "_" + value);
+    }
+
+    private static Map<String, Object> merge(Map<String, Object> defaults, Map<String, Object> overrides) {
+        Map<String, Object> values = new LinkedHashMap<String, Object>();
+        if (defaults != null) {
+            values.putAll(defaults);
+        }
+        if (overrides != null) {
+            values.putAll(overrides);
+        }
+        return values;
+    }
+}
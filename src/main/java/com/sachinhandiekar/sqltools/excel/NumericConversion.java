@@ -0,0 +1,108 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import com.sachinhandiekar.sqltools.excel.model.NumericMode;
+
+import java.math.BigDecimal;
+
+/**
+ * Decides once per column how DECIMAL / NUMERIC values are converted to cell values.
+ * <p>
+ * A value is written as number when it has less than 16 significant digits or when its double
+ * value is exactly the same decimal number, otherwise it is written as plain string. The column
+ * precision and scale from the ResultSetMetaData are used to decide this for the whole column where
+ * possible, only columns without a usable precision are checked value by value.
+ */
+public final class NumericConversion {
+
+    /** Decimal numbers with fewer significant digits always survive a round trip through double */
+    static final int DOUBLE_DIGITS = 16;
+
+    /** Decimal numbers with up to 18 digits always fit into a long */
+    static final int LONG_DIGITS = 18;
+
+    public enum Strategy {
+        /** every value of the column has less than 16 digits and is written as double */
+        DOUBLE,
+        /** integer column which fits into a long, only values beyond 2^53 need a check */
+        LONG,
+        /** precision unknown or too large, every value is checked */
+        CHECKED,
+        /** every finite value is written as double */
+        LOSSY
+    }
+
+    private NumericConversion() {
+    }
+
+    /**
+     * @param precision the column precision, 0 if unknown
+     * @param scale the column scale
+     * @param mode the configured numeric mode
+     * @return the conversion strategy of the column
+     */
+    public static Strategy strategyFor(int precision, int scale, NumericMode mode) {
+        if (precision > 0 && precision < DOUBLE_DIGITS) {
+            return Strategy.DOUBLE;
+        }
+        if (mode == NumericMode.LOSSY) {
+            return Strategy.LOSSY;
+        }
+        if (precision > 0 && precision <= LONG_DIGITS && scale == 0) {
+            return Strategy.LONG;
+        }
+        return Strategy.CHECKED;
+    }
+
+    /**
+     * @param value a long
+     * @return true if the value is exactly representable as double
+     */
+    public static boolean isExactDouble(long value) {
+        return value == (long) (double) value && value != Long.MAX_VALUE;
+    }
+
+    /**
+     * Equivalent to {@code bd.equals(new BigDecimal(d))} without expanding the double in the common
+     * case where the scales already differ.
+     *
+     * @param bd the decimal value
+     * @param d the double value of bd
+     * @return true if the double is exactly the same number with the same scale
+     */
+    public static boolean isExactDouble(BigDecimal bd, double d) {
+        if (bd.scale() != binaryScale(d)) {
+            return false;
+        }
+        if (bd.scale() == 0 && bd.precision() <= LONG_DIGITS) {
+            return bd.longValue() == (long) d;
+        }
+        return bd.equals(new BigDecimal(d));
+    }
+
+    /**
+     * @param d a finite double
+     * @return the scale of {@code new BigDecimal(d)}
+     */
+    static int binaryScale(double d) {
+        if (d == 0) {
+            return 0;
+        }
+        long bits = Double.doubleToLongBits(d);
+        int exponent = (int) ((bits >> 52) & 0x7ffL);
+        long significand = exponent == 0 ? (bits & ((1L << 52) - 1)) << 1 : (bits & ((1L << 52) - 1)) | (1L << 52);
+        exponent -= 1075;
+        int trailingZeros = Long.numberOfTrailingZeros(significand);
+        exponent += trailingZeros;
+        return exponent < 0 ? -exponent : 0;
+    }
+
+    /**
+     * The conversion used for values of CHECKED columns, identical to the original cell conversion.
+     *
+     * @return true if the value is written as number
+     */
+    public static boolean isNumber(BigDecimal bd, double d) {
+        return !Double.isNaN(d) && Double.isFinite(d) &&
+                (bd.precision() < DOUBLE_DIGITS || isExactDouble(bd, d));
+    }
+}
@@ -0,0 +1,333 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import com.sachinhandiekar.sqltools.excel.model.Datasource;
+import com.sachinhandiekar.sqltools.excel.model.ExcelFile;
+import com.sachinhandiekar.sqltools.excel.model.Worksheet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Exports the worksheets of an excel file with their queries running concurrently.
+ * <p>
+ * Every worksheet query, or every key range of a partitioned worksheet, runs on its own connection
+ * of the pool, at most maxConnections of the datasource at a time. The decoded rows are spooled to a temporary
+ * file, since a POI workbook can not be written from several threads. The worksheets are then written in the configured order, each as soon as
+ * its queries are done, while the remaining queries are still running. The key ranges of a
+ * partitioned worksheet are written one after another in key order.
+ * <p>
+ * The queries run in separate database sessions, so session state created by the preparation
+ * procedure (e.g. temporary tables) is not visible to them.
+ */
+public class ParallelWorksheetExporter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ParallelWorksheetExporter.class);
+
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+
+    private ParallelWorksheetExporter() {
+    }
+
+    /**
+     * Fetched rows of a worksheet waiting to be written, in a temporary spool or the result cache.
+     */
+    static class SpooledWorksheet {
+
+        final ColumnLayout layout;
+
+        final RowSpool spool;
+
+        final ResultCache cache;
+
+        final ResultCache.Entry cached;
+
+        SpooledWorksheet(ColumnLayout layout, RowSpool spool) {
+            this(layout, spool, null, null);
+        }
+
+        SpooledWorksheet(ColumnLayout layout, RowSpool spool, ResultCache cache, ResultCache.Entry cached) {
+            this.layout = layout;
+            this.spool = spool;
+            this.cache = cache;
+            this.cached = cached;
+        }
+
+        /**
+         * Delete the temporary spool or release the cached result after the rows were written.
+         */
+        void release() {
+            if (cached != null) {
+                cache.release(cached);
+            } else {
+                spool.delete();
+            }
+        }
+    }
+
+    /**
+     * A submitted fetch. Cancelling does not stop a query blocked in the driver, so a fetch which
+     * completes after the export gave up on it releases its rows itself.
+     */
+    static class PendingFetch {
+
+        private Future<SpooledWorksheet> future;
+
+        private SpooledWorksheet result;
+
+        private boolean discarded;
+
+        /**
+         * @return false if the fetch was discarded and the caller must release the rows
+         */
+        synchronized boolean complete(SpooledWorksheet fetched) {
+            if (discarded) {
+                return false;
+            }
+            result = fetched;
+            return true;
+        }
+
+        /**
+         * @return the fetched rows, released by the caller from now on
+         */
+        SpooledWorksheet get() throws SQLException, IOException {
+            SpooledWorksheet fetched = ParallelWorksheetExporter.get(future);
+            synchronized (this) {
+                result = null;
+            }
+            return fetched;
+        }
+
+        /**
+         * Cancel the fetch and release its rows, now if it is done or when it completes.
+         */
+        void discard() {
+            future.cancel(true);
+            synchronized (this) {
+                discarded = true;
+                if (result != null) {
+                    result.release();
+                    result = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Export a worksheet with a partition, fetching its key ranges concurrently.
+     *
+     * @param pool the connections of the datasource
+     * @param datasource the datasource of the configuration, with its fetch settings
+     * @param excelFile the excel file
+     * @param workSheet the worksheet with a partition
+     * @param workbookWriter the writer of the workbook
+     * @param connection the connection to query the partition bounds on
+     * @param metrics the metrics of the export
+     * @param cache the result cache or null
+     * @return the number of rows written
+     * @throws SQLException if a query fails
+     * @throws IOException if spooling or writing the rows fails
+     */
+    public static long exportPartitioned(ConnectionPool pool, Datasource datasource, ExcelFile excelFile,
+                                         Worksheet workSheet, WorkbookWriter workbookWriter, Connection connection,
+                                         ExportMetrics metrics, ResultCache cache)
+            throws SQLException, IOException {
+        return export(pool, datasource, excelFile, Collections.singletonList(workSheet), workbookWriter, connection,
+                metrics, cache);
+    }
+
+    /**
+     * Export the worksheets of the excel file.
+     *
+     * @param pool the connections of the datasource
+     * @param datasource the datasource of the configuration, with its fetch settings
+     * @param excelFile the excel file
+     * @param worksheets the worksheets to export, with their parameter sets expanded
+     * @param workbookWriter the writer of the workbook
+     * @param planningConnection the connection to query the partition bounds on
+     * @param metrics the metrics of the export
+     * @param cache the result cache or null
+     * @return the number of rows written to all worksheets
+     * @throws SQLException if a query fails
+     * @throws IOException if spooling or writing the rows fails
+     */
+    public static long export(ConnectionPool pool, Datasource datasource, ExcelFile excelFile,
+                              List<Worksheet> worksheets, WorkbookWriter workbookWriter,
+                              Connection planningConnection, ExportMetrics metrics, ResultCache cache)
+            throws SQLException, IOException {
+        int queryCount = 0;
+        for (Worksheet workSheet : worksheets) {
+            queryCount += workSheet.getPartition() != null ? workSheet.getPartition().getCount() + 1 : 1;
+        }
+        int threads = Math.max(1, Math.min(datasource.getMaxConnections(), queryCount));
+        logger.info("Running the queries of " + worksheets.size() + " worksheets on up to " + threads + " connections");
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "worksheet-fetcher-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        TypeFormatMapping typeFormatMapping = workbookWriter.getTypeFormatMapping();
+        // the fetches of all worksheets in order, partitionStart[i] is the first fetch of worksheet i
+        List<PendingFetch> futures = new ArrayList<PendingFetch>();
+        int[] partitionStart = new int[worksheets.size() + 1];
+        int written = 0;
+        long rows = 0;
+        try {
+            for (int i = 0; i < worksheets.size(); i++) {
+                Worksheet workSheet = worksheets.get(i);
+                WorksheetMetrics sheetMetrics = metrics.worksheet(workSheet);
+                ResultCache sheetCache = cache != null && cache.covers(excelFile, workSheet) ? cache : null;
+                partitionStart[i] = futures.size();
+                List<WorksheetQuery> queries;
+                if (workSheet.getPartition() != null) {
+                    queries = KeyRangePartitioner.plan(planningConnection, workSheet);
+                } else {
+                    queries = Collections.singletonList(WorksheetQuery.of(workSheet));
+                }
+                for (WorksheetQuery query : queries) {
+                    PendingFetch pending = new PendingFetch();
+                    pending.future = executor.submit(() -> {
+                        SpooledWorksheet fetched = fetch(pool, datasource, excelFile, workSheet, query,
+                                typeFormatMapping, sheetMetrics, sheetCache);
+                        if (!pending.complete(fetched)) {
+                            fetched.release();
+                        }
+                        return fetched;
+                    });
+                    futures.add(pending);
+                }
+            }
+            partitionStart[worksheets.size()] = futures.size();
+            executor.shutdown();
+
+            for (int i = 0; i < worksheets.size(); i++) {
+                Worksheet workSheet = worksheets.get(i);
+                SheetWriter rowWriter = null;
+                for (; written < partitionStart[i + 1]; written++) {
+                    SpooledWorksheet fetched = futures.get(written).get();
+                    WorksheetMetrics sheetMetrics = metrics.worksheet(workSheet);
+                    long allocatedAtStart = ExportMetrics.threadAllocatedBytes();
+                    try {
+                        if (rowWriter == null) {
+                            rowWriter = workbookWriter.startSheet(workSheet.getWorkSheetName(), fetched.layout);
+                        }
+                        logger.info("**Worksheet " + workSheet.getId() + " writing " + fetched.spool.getRows()
+                                + " spooled rows");
+                        long replayStart = System.nanoTime();
+                        rows += fetched.spool.replay(rowWriter);
+                        sheetMetrics.addWrite(System.nanoTime() - replayStart);
+                    } finally {
+                        fetched.release();
+                        sheetMetrics.addAllocated(ExportMetrics.threadAllocatedBytes() - allocatedAtStart);
+                    }
+                }
+                if (rowWriter != null) {
+                    long finishStart = System.nanoTime();
+                    rowWriter.finish();
+                    metrics.worksheet(workSheet).addFinish(System.nanoTime() - finishStart);
+                }
+            }
+        } finally {
+            if (written < futures.size()) {
+                discard(futures.subList(written, futures.size()));
+            }
+            executor.shutdownNow();
+        }
+        return rows;
+    }
+
+    private static SpooledWorksheet fetch(ConnectionPool pool, Datasource datasource, ExcelFile excelFile,
+                                          Worksheet workSheet, WorksheetQuery query,
+                                          TypeFormatMapping typeFormatMapping, WorksheetMetrics metrics,
+                                          ResultCache cache)
+            throws SQLException, IOException {
+        String cacheKey = null;
+        if (cache != null) {
+            cacheKey = ResultCache.key(datasource, query, excelFile.getNumericMode());
+            ResultCache.Entry cached = cache.acquire(cacheKey);
+            if (cached != null) {
+                logger.info("**Worksheet " + workSheet.getId() + " " + query + " served from the result cache ("
+                        + cached + ")");
+                metrics.addCacheHit();
+                return new SpooledWorksheet(cached.getLayout(typeFormatMapping), cached.getSpool(), cache, cached);
+            }
+        }
+        logger.info("**Worksheet " + workSheet.getId() + " " + query + " started");
+        long allocatedAtStart = ExportMetrics.threadAllocatedBytes();
+        try (ConnectionPool.PooledConnection connection = pool.borrow()) {
+            QueryCursor cursor = QueryCursor.open(connection.getConnection(), datasource, workSheet, query,
+                    connection.getStatements());
+            metrics.addExecute(cursor.getExecuteNanos());
+            try {
+                ResultSetMetaData metaData = cursor.getResultSet().getMetaData();
+                ColumnLayout layout = ColumnLayout.fromMetaData(metaData, typeFormatMapping);
+                ColumnReader[] readers = ColumnReader.forMetaData(metaData, excelFile.getNumericMode());
+                RowSpool spool = cache != null ? cache.createSpool(layout.getColumnCount(), excelFile.getBatchSize())
+                        : RowSpool.createTemp(null, layout.getColumnCount(), excelFile.getBatchSize());
+                try {
+                    RowPipeline pipeline = new RowPipeline(layout.getColumnCount(), excelFile.getBatchSize(),
+                            excelFile.isPipelined() ? excelFile.getQueueDepth() : 0);
+                    pipeline.setMetrics(metrics);
+                    long rows = pipeline.run(cursor.getResultSet(), readers, spool);
+                    spool.finish();
+                    cursor.logStatistics(rows);
+                    if (cache != null) {
+                        return new SpooledWorksheet(layout, spool, cache, cache.put(cacheKey, layout, spool));
+                    }
+                    return new SpooledWorksheet(layout, spool);
+                } catch (SQLException | IOException | RuntimeException e) {
+                    spool.delete();
+                    throw e;
+                }
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            metrics.addFetchThreadAllocated(ExportMetrics.threadAllocatedBytes() - allocatedAtStart);
+        }
+    }
+
+    private static SpooledWorksheet get(Future<SpooledWorksheet> future) throws SQLException, IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a worksheet query", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new SQLException("Worksheet query failed", cause);
+        }
+    }
+
+    /**
+     * Cancel the queries that are not written anymore and remove the spools of those already done.
+     */
+    private static void discard(List<PendingFetch> futures) {
+        for (PendingFetch future : futures) {
+            future.discard();
+        }
+    }
+}
@@ -0,0 +1,556 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * Zip writer which deflates the entry data in independent blocks on several threads, like pigz.
+ * <p>
+ * Every block of 128 KB is deflated with the last 32 KB of the previous block as dictionary and
+ * ends with a sync flush, so the compressed blocks concatenate to one deflate stream and the ratio
+ * stays close to single threaded compression. The CRC is computed on the writing thread. With one
+ * thread the blocks are deflated on the writing thread, the output is the same for any number of
+ * threads.
+ * <p>
+ * Entries use data descriptors, since the sizes are not known up front. An entry which may exceed
+ * 4 GB has to be started as Zip64 entry: its local header gets the Zip64 extra field and its data
+ * descriptor 8 byte sizes, as strict readers expect. Other entries fail when they reach 4 GB. The
+ * central directory gets Zip64 records when an entry or the archive exceeds 4 GB.
+ * <p>
+ * The Deflaters of all threads are ended when the stream is closed, they hold native memory.
+ */
+public class ParallelZipOutputStream extends OutputStream {
+
+    private static final int BLOCK_SIZE = 128 * 1024;
+
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private static final long ZIP64_LIMIT = 0xFFFFFFFFL;
+
+    private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+
+    private static final int FLAG_UTF8 = 0x0800;
+
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+
+    private static final int METHOD_DEFLATED = 8;
+
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+
+    /**
+     * A written entry, kept for the central directory.
+     */
+    private static class Entry {
+
+        final byte[] name;
+
+        final long offset;
+
+        /** true if the local header has the Zip64 extra field and the data descriptor 8 byte sizes */
+        final boolean zip64Descriptor;
+
+        long crc;
+
+        long compressedSize;
+
+        long size;
+
+        Entry(byte[] name, long offset, boolean zip64Descriptor) {
+            this.name = name;
+            this.offset = offset;
+            this.zip64Descriptor = zip64Descriptor;
+        }
+
+        boolean isZip64() {
+            return compressedSize >= ZIP64_LIMIT || size >= ZIP64_LIMIT || offset >= ZIP64_LIMIT;
+        }
+    }
+
+    /**
+     * A block of entry data and its deflated bytes.
+     */
+    private static class Block {
+
+        final byte[] data;
+
+        final int length;
+
+        final byte[] dictionary;
+
+        final boolean last;
+
+        Block(byte[] data, int length, byte[] dictionary, boolean last) {
+            this.data = data;
+            this.length = length;
+            this.dictionary = dictionary;
+            this.last = last;
+        }
+    }
+
+    private final OutputStream out;
+
+    private final int level;
+
+    private final int threads;
+
+    private final int blockSize;
+
+    private final ExecutorService executor;
+
+    private final ThreadLocal<Deflater> deflaters;
+
+    /** every Deflater created by the threads, ended on close */
+    private final List<Deflater> createdDeflaters = new ArrayList<Deflater>();
+
+    private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+
+    private final List<Entry> entries = new ArrayList<Entry>();
+
+    private final CRC32 crc = new CRC32();
+
+    private final byte[] header = new byte[64];
+
+    private final int dosTime;
+
+    private final int dosDate;
+
+    private long written;
+
+    private Entry entry;
+
+    private byte[] block;
+
+    private int blockLength;
+
+    private byte[] dictionary;
+
+    private boolean finished;
+
+    /**
+     * @param out the stream to write the archive to
+     * @param level the deflate level 0-9, -1 for the default
+     * @param threads the number of compression threads
+     */
+    public ParallelZipOutputStream(OutputStream out, int level, int threads) {
+        this(out, level, threads, BLOCK_SIZE);
+    }
+
+    /**
+     * @param out the stream to write the archive to
+     * @param level the deflate level 0-9, -1 for the default
+     * @param threads the number of compression threads
+     * @param blockSize the size of the blocks deflated independently
+     */
+    ParallelZipOutputStream(OutputStream out, int level, int threads, int blockSize) {
+        this.out = out;
+        this.level = level;
+        this.threads = Math.max(1, threads);
+        this.blockSize = blockSize;
+        this.block = new byte[blockSize];
+        this.deflaters = ThreadLocal.withInitial(this::createDeflater);
+        this.executor = this.threads == 1 ? null : Executors.newFixedThreadPool(this.threads, runnable -> {
+            Thread thread = new Thread(runnable, "zip-deflater-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Calendar now = Calendar.getInstance();
+        this.dosTime = (now.get(Calendar.HOUR_OF_DAY) << 11) | (now.get(Calendar.MINUTE) << 5)
+                | (now.get(Calendar.SECOND) >> 1);
+        this.dosDate = ((now.get(Calendar.YEAR) - 1980) << 9) | ((now.get(Calendar.MONTH) + 1) << 5)
+                | now.get(Calendar.DAY_OF_MONTH);
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    private Deflater createDeflater() {
+        Deflater deflater = new Deflater(level, true);
+        synchronized (createdDeflaters) {
+            createdDeflaters.add(deflater);
+        }
+        return deflater;
+    }
+
+    /**
+     * Start a new entry which stays below 4 GB, the previous entry is closed.
+     *
+     * @param name the name of the entry
+     * @throws IOException if any error occurs
+     */
+    public void putNextEntry(String name) throws IOException {
+        putNextEntry(name, false);
+    }
+
+    /**
+     * Start a new entry, the previous entry is closed.
+     *
+     * @param name the name of the entry
+     * @param zip64 true if the entry may exceed 4 GB
+     * @throws IOException if any error occurs
+     */
+    public void putNextEntry(String name, boolean zip64) throws IOException {
+        if (entry != null) {
+            closeEntry();
+        }
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        entry = new Entry(nameBytes, written, zip64);
+        int p = 0;
+        p = putInt(p, 0x04034b50);
+        p = putShort(p, zip64 ? 45 : 20);
+        p = putShort(p, FLAG_DATA_DESCRIPTOR | FLAG_UTF8);
+        p = putShort(p, METHOD_DEFLATED);
+        p = putShort(p, dosTime);
+        p = putShort(p, dosDate);
+        p = putInt(p, 0);
+        // the sizes of a Zip64 entry are in its extra field
+        p = putInt(p, zip64 ? (int) ZIP64_LIMIT : 0);
+        p = putInt(p, zip64 ? (int) ZIP64_LIMIT : 0);
+        p = putShort(p, nameBytes.length);
+        p = putShort(p, zip64 ? 20 : 0);
+        writeRaw(header, 0, p);
+        writeRaw(nameBytes, 0, nameBytes.length);
+        if (zip64) {
+            // the sizes follow in the data descriptor, the zeros only announce their length of 8 bytes
+            p = 0;
+            p = putShort(p, ZIP64_EXTRA_ID);
+            p = putShort(p, 16);
+            p = putLong(p, 0);
+            p = putLong(p, 0);
+            writeRaw(header, 0, p);
+        }
+        crc.reset();
+        dictionary = null;
+        blockLength = 0;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (blockLength == blockSize) {
+            submit(false);
+        }
+        block[blockLength++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        if (entry == null) {
+            throw new IOException("No current zip entry");
+        }
+        while (length > 0) {
+            if (blockLength == blockSize) {
+                submit(false);
+            }
+            int n = Math.min(length, blockSize - blockLength);
+            System.arraycopy(bytes, offset, block, blockLength, n);
+            blockLength += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    /**
+     * Hand the current block to the compression, waiting for older blocks when too many are in flight.
+     */
+    private void submit(boolean last) throws IOException {
+        crc.update(block, 0, blockLength);
+        entry.size += blockLength;
+        if (entry.size >= ZIP64_LIMIT && !entry.zip64Descriptor) {
+            throw new ZipException("Zip entry " + new String(entry.name, StandardCharsets.UTF_8)
+                    + " exceeds 4 GB but was not started as Zip64 entry");
+        }
+        Block task = new Block(block, blockLength, dictionary, last);
+        if (!last) {
+            int dictionaryLength = Math.min(DICTIONARY_SIZE, blockLength);
+            dictionary = new byte[dictionaryLength];
+            System.arraycopy(block, blockLength - dictionaryLength, dictionary, 0, dictionaryLength);
+        }
+        if (executor == null) {
+            byte[] compressed = deflate(task);
+            writeCompressed(compressed);
+        } else {
+            pending.add(executor.submit(() -> deflate(task)));
+            while (pending.size() > threads * 2) {
+                writeCompressed(await(pending.poll()));
+            }
+        }
+        if (executor != null) {
+            // the submitted block is still being read by the compression thread
+            block = new byte[blockSize];
+        }
+        blockLength = 0;
+    }
+
+    private byte[] deflate(Block task) {
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        if (task.dictionary != null) {
+            deflater.setDictionary(task.dictionary);
+        }
+        deflater.setInput(task.data, 0, task.length);
+        byte[] buffer = new byte[Math.max(1024, task.length + task.length / 8 + 64)];
+        int length = 0;
+        if (task.last) {
+            deflater.finish();
+        }
+        while (true) {
+            if (length == buffer.length) {
+                byte[] larger = new byte[buffer.length * 2];
+                System.arraycopy(buffer, 0, larger, 0, length);
+                buffer = larger;
+            }
+            int n = task.last
+                    ? deflater.deflate(buffer, length, buffer.length - length)
+                    : deflater.deflate(buffer, length, buffer.length - length, Deflater.SYNC_FLUSH);
+            length += n;
+            if (task.last ? deflater.finished() : length < buffer.length) {
+                break;
+            }
+        }
+        byte[] compressed = new byte[length];
+        System.arraycopy(buffer, 0, compressed, 0, length);
+        return compressed;
+    }
+
+    private static byte[] await(Future<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing");
+        } catch (ExecutionException e) {
+            throw new IOException("Compression failed", e.getCause());
+        }
+    }
+
+    private void writeCompressed(byte[] compressed) throws IOException {
+        writeRaw(compressed, 0, compressed.length);
+        entry.compressedSize += compressed.length;
+    }
+
+    /**
+     * Complete the current entry: compress the remaining data and write the data descriptor.
+     *
+     * @throws IOException if any error occurs
+     */
+    public void closeEntry() throws IOException {
+        if (entry == null) {
+            return;
+        }
+        submit(true);
+        while (!pending.isEmpty()) {
+            writeCompressed(await(pending.poll()));
+        }
+        if (entry.compressedSize >= ZIP64_LIMIT && !entry.zip64Descriptor) {
+            throw new ZipException("Compressed zip entry " + new String(entry.name, StandardCharsets.UTF_8)
+                    + " exceeds 4 GB but was not started as Zip64 entry");
+        }
+        entry.crc = crc.getValue();
+        int p = 0;
+        p = putInt(p, 0x08074b50);
+        p = putInt(p, (int) entry.crc);
+        if (entry.zip64Descriptor) {
+            p = putLong(p, entry.compressedSize);
+            p = putLong(p, entry.size);
+        } else {
+            p = putInt(p, (int) entry.compressedSize);
+            p = putInt(p, (int) entry.size);
+        }
+        writeRaw(header, 0, p);
+        entries.add(entry);
+        entry = null;
+        dictionary = null;
+    }
+
+    /**
+     * Write the central directory. The underlying stream stays open.
+     *
+     * @throws IOException if any error occurs
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        closeEntry();
+        long directoryOffset = written;
+        boolean zip64 = entries.size() >= 0xFFFF || directoryOffset >= ZIP64_LIMIT;
+        for (Entry e : entries) {
+            zip64 |= e.isZip64();
+            writeDirectoryEntry(e);
+        }
+        long directorySize = written - directoryOffset;
+        zip64 |= directorySize >= ZIP64_LIMIT;
+        if (zip64) {
+            long recordOffset = written;
+            int p = 0;
+            p = putInt(p, 0x06064b50);
+            p = putLong(p, 44);
+            p = putShort(p, 45);
+            p = putShort(p, 45);
+            p = putInt(p, 0);
+            p = putInt(p, 0);
+            p = putLong(p, entries.size());
+            p = putLong(p, entries.size());
+            p = putLong(p, directorySize);
+            p = putLong(p, directoryOffset);
+            writeRaw(header, 0, p);
+            p = 0;
+            p = putInt(p, 0x07064b50);
+            p = putInt(p, 0);
+            p = putLong(p, recordOffset);
+            p = putInt(p, 1);
+            writeRaw(header, 0, p);
+        }
+        int p = 0;
+        p = putInt(p, 0x06054b50);
+        p = putShort(p, 0);
+        p = putShort(p, 0);
+        p = putShort(p, Math.min(entries.size(), 0xFFFF));
+        p = putShort(p, Math.min(entries.size(), 0xFFFF));
+        p = putInt(p, (int) Math.min(directorySize, ZIP64_LIMIT));
+        p = putInt(p, (int) Math.min(directoryOffset, ZIP64_LIMIT));
+        p = putShort(p, 0);
+        writeRaw(header, 0, p);
+        out.flush();
+        finished = true;
+    }
+
+    private void writeDirectoryEntry(Entry e) throws IOException {
+        boolean zip64 = e.isZip64();
+        int extraLength = 0;
+        if (zip64) {
+            extraLength = 4 + (e.size >= ZIP64_LIMIT ? 8 : 0) + (e.compressedSize >= ZIP64_LIMIT ? 8 : 0)
+                    + (e.offset >= ZIP64_LIMIT ? 8 : 0);
+        }
+        int p = 0;
+        p = putInt(p, 0x02014b50);
+        p = putShort(p, zip64 ? 45 : 20);
+        p = putShort(p, zip64 ? 45 : 20);
+        p = putShort(p, FLAG_DATA_DESCRIPTOR | FLAG_UTF8);
+        p = putShort(p, METHOD_DEFLATED);
+        p = putShort(p, dosTime);
+        p = putShort(p, dosDate);
+        p = putInt(p, (int) e.crc);
+        p = putInt(p, (int) Math.min(e.compressedSize, ZIP64_LIMIT));
+        p = putInt(p, (int) Math.min(e.size, ZIP64_LIMIT));
+        p = putShort(p, e.name.length);
+        p = putShort(p, extraLength);
+        p = putShort(p, 0);
+        p = putShort(p, 0);
+        p = putShort(p, 0);
+        p = putInt(p, 0);
+        p = putInt(p, (int) Math.min(e.offset, ZIP64_LIMIT));
+        writeRaw(header, 0, p);
+        writeRaw(e.name, 0, e.name.length);
+        if (zip64) {
+            p = 0;
+            p = putShort(p, 0x0001);
+            p = putShort(p, extraLength - 4);
+            if (e.size >= ZIP64_LIMIT) {
+                p = putLong(p, e.size);
+            }
+            if (e.compressedSize >= ZIP64_LIMIT) {
+                p = putLong(p, e.compressedSize);
+            }
+            if (e.offset >= ZIP64_LIMIT) {
+                p = putLong(p, e.offset);
+            }
+            writeRaw(header, 0, p);
+        }
+    }
+
+    private void writeRaw(byte[] bytes, int offset, int length) throws IOException {
+        out.write(bytes, offset, length);
+        written += length;
+    }
+
+    private int putShort(int p, int value) {
+        header[p] = (byte) value;
+        header[p + 1] = (byte) (value >> 8);
+        return p + 2;
+    }
+
+    private int putInt(int p, int value) {
+        putShort(p, value);
+        putShort(p + 2, value >>> 16);
+        return p + 4;
+    }
+
+    private int putLong(int p, long value) {
+        putInt(p, (int) value);
+        putInt(p + 4, (int) (value >>> 32));
+        return p + 8;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Finish the archive unless it failed, stop the compression threads, end their Deflaters and
+     * close the stream.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (!finished && entry == null) {
+                finish();
+            }
+        } finally {
+            try {
+                stopCompression();
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    private void stopCompression() throws IOException {
+        try {
+            if (executor != null) {
+                executor.shutdownNow();
+                // a block being deflated can not be interrupted, it is done in a moment
+                if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    throw new IOException("The compression threads did not stop");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while stopping the compression");
+        } finally {
+            // a Deflater still in use fails with an exception instead of using freed memory
+            synchronized (createdDeflaters) {
+                for (Deflater deflater : createdDeflaters) {
+                    deflater.end();
+                }
+                createdDeflaters.clear();
+            }
+            deflaters.remove();
+        }
+    }
+
+    /**
+     * @return the number of Deflaters which hold native memory
+     */
+    int getOpenDeflaters() {
+        synchronized (createdDeflaters) {
+            return createdDeflaters.size();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import com.sachinhandiekar.sqltools.excel.model.ExcelFile;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Writes an excel file with an Apache POI workbook: creates the sheets with their header row and
+ * frozen pane, and the SheetRowWriter which appends the data rows. The workbook is written to the
+ * file when it is finished, deflated with the compression level of the excel file (xlsx only).
+ */
+public class PoiWorkbookWriter implements WorkbookWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(PoiWorkbookWriter.class);
+
+    private static final int HEADER_ROW = 0;
+
+    private static final int DATA_ROW = 1;
+
+    private final Workbook workbook;
+
+    private final StyleRegistry styleRegistry;
+
+    private final ExcelFile excelFile;
+
+    private final File file;
+
+    public PoiWorkbookWriter(Workbook workbook, StyleRegistry styleRegistry, ExcelFile excelFile, File file) {
+        this.workbook = workbook;
+        this.styleRegistry = styleRegistry;
+        this.excelFile = excelFile;
+        this.file = file;
+    }
+
+    /**
+     * @param excelFile the excel file
+     * @param typeFormatMapping the mapping of column types to Excel formats
+     * @param file the file to write
+     * @return a writer with an empty workbook of the type given by the file extension and the large option
+     */
+    public static PoiWorkbookWriter create(ExcelFile excelFile, TypeFormatMapping typeFormatMapping, File file) {
+        Workbook workbook = createWorkbook(excelFile, file.getName());
+        return new PoiWorkbookWriter(workbook, new StyleRegistry(workbook, typeFormatMapping), excelFile, file);
+    }
+
+    /**
+     * @param excelFile the excel file
+     * @param fileName the name of the file to write
+     * @return an empty workbook of the type given by the file extension and the large option
+     */
+    static Workbook createWorkbook(ExcelFile excelFile, String fileName) {
+        String lowerCase = fileName.toLowerCase();
+        if (excelFile.isLarge()) {
+            SXSSFWorkbook workbook = new LeveledSXSSFWorkbook(excelFile.getCompressionLevel());
+            workbook.setCompressTempFiles(excelFile.isCompressTempFiles());
+            return workbook;
+        } else if (lowerCase.endsWith(".xlsx")) {
+            return new XSSFWorkbook();
+        } else if (lowerCase.endsWith(".xls")) {
+            return new HSSFWorkbook();
+        }
+        throw new IllegalArgumentException("File name can have extensions xls, xlsx, csv, csv.gz, tsv, jsonl or jsonl.gz only: "
+                + fileName);
+    }
+
+    public Workbook getWorkbook() {
+        return workbook;
+    }
+
+    public StyleRegistry getStyleRegistry() {
+        return styleRegistry;
+    }
+
+    @Override
+    public TypeFormatMapping getTypeFormatMapping() {
+        return styleRegistry.getTypeFormatMapping();
+    }
+
+    @Override
+    public long getMaxSheetRows() {
+        return workbook.getSpreadsheetVersion().getMaxRows() - DATA_ROW;
+    }
+
+    @Override
+    public List<File> getFiles() {
+        return Collections.singletonList(file);
+    }
+
+    @Override
+    public SheetRowWriter startSheet(String workSheetName, ColumnLayout layout) {
+        Sheet sheet = workbook.createSheet(workSheetName);
+
+        Row headerRow = sheet.createRow(HEADER_ROW);
+        String[] names = layout.getNames();
+        for (int i = 0; i < names.length; i++) {
+            Cell cell = headerRow.createCell(i);
+            cell.setCellValue(names[i]);
+        }
+        sheet.createFreezePane(0, 1);
+
+        String[] excelFormats = layout.getExcelFormats();
+        CellStyle[] dataStyles = new CellStyle[excelFormats.length];
+        for (int i = 0; i < excelFormats.length; i++) {
+            dataStyles[i] = styleRegistry.getStyle(excelFormats[i], null);
+        }
+        ColumnWidthEstimator widthEstimator = new ColumnWidthEstimator(names, excelFormats,
+                excelFile.getColumnWidthSampleRows());
+        return new SheetRowWriter(sheet, dataStyles, DATA_ROW, widthEstimator);
+    }
+
+    @Override
+    public void finish() throws IOException {
+        try (FileOutputStream fileOut = new FileOutputStream(file)) {
+            if (workbook instanceof XSSFWorkbook && excelFile.getCompressionLevel() != Deflater.DEFAULT_COMPRESSION) {
+                // POI writes into a given zip stream and finishes it, which lets us choose the level
+                ZipArchiveOutputStream zipOut = new ZipArchiveOutputStream(fileOut);
+                zipOut.setLevel(excelFile.getCompressionLevel());
+                workbook.write(zipOut);
+            } else {
+                workbook.write(fileOut);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (workbook instanceof SXSSFWorkbook) {
+            ((SXSSFWorkbook) workbook).dispose();
+        }
+        try {
+            workbook.close();
+        } catch (IOException e) {
+            logger.warn("Could not close the workbook: " + e);
+        }
+    }
+
+    /**
+     * SXSSF workbook deflating the written file with the given level.
+     */
+    private static class LeveledSXSSFWorkbook extends SXSSFWorkbook {
+
+        private final int level;
+
+        LeveledSXSSFWorkbook(int level) {
+            super(1000);
+            this.level = level;
+        }
+
+        @Override
+        protected ZipArchiveOutputStream createArchiveOutputStream(OutputStream out) {
+            ZipArchiveOutputStream zipOut = super.createArchiveOutputStream(out);
+            zipOut.setLevel(level);
+            return zipOut;
+        }
+    }
+}
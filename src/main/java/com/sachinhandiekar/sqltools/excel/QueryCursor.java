@@ -0,0 +1,191 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import com.sachinhandiekar.sqltools.excel.model.Datasource;
+import com.sachinhandiekar.sqltools.excel.model.Worksheet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An open query with the statement and connection state that has to be restored when it is closed.
+ * <p>
+ * The fetch settings are taken from the worksheet and fall back to the datasource. Queries with
+ * bind parameters can take their statement from a StatementCache, which keeps it open when the
+ * cursor is closed.
+ */
+public class QueryCursor implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(QueryCursor.class);
+
+    private final Connection connection;
+
+    private final Statement statement;
+
+    private final ResultSet resultSet;
+
+    private final boolean restoreAutoCommit;
+
+    private final boolean closeStatement;
+
+    private final int fetchSize;
+
+    private final long openedAt;
+
+    private final long executeNanos;
+
+    private QueryCursor(Connection connection, Statement statement, ResultSet resultSet,
+                        boolean restoreAutoCommit, boolean closeStatement, int fetchSize, long openedAt,
+                        long executeNanos) {
+        this.connection = connection;
+        this.statement = statement;
+        this.resultSet = resultSet;
+        this.restoreAutoCommit = restoreAutoCommit;
+        this.closeStatement = closeStatement;
+        this.fetchSize = fetchSize;
+        this.openedAt = openedAt;
+        this.executeNanos = executeNanos;
+    }
+
+    /**
+     * Execute the query of the worksheet.
+     *
+     * @param connection the connection to run the query on
+     * @param datasource the datasource the connection was created from
+     * @param workSheet the worksheet holding the query and the fetch overrides
+     * @return the open cursor
+     * @throws SQLException if any error occurs
+     */
+    public static QueryCursor open(Connection connection, Datasource datasource, Worksheet workSheet) throws SQLException {
+        return open(connection, datasource, workSheet, WorksheetQuery.of(workSheet));
+    }
+
+    /**
+     * Execute a query with the fetch settings of the worksheet.
+     *
+     * @param connection the connection to run the query on
+     * @param datasource the datasource the connection was created from
+     * @param workSheet the worksheet holding the fetch overrides
+     * @param query the query and its parameters
+     * @return the open cursor
+     * @throws SQLException if any error occurs
+     */
+    public static QueryCursor open(Connection connection, Datasource datasource, Worksheet workSheet,
+                                   WorksheetQuery query) throws SQLException {
+        return open(connection, datasource, workSheet, query, null);
+    }
+
+    /**
+     * Execute a query with the fetch settings of the worksheet, re-executing the statement of the
+     * cache if the query has parameters and was prepared before.
+     *
+     * @param connection the connection to run the query on
+     * @param datasource the datasource the connection was created from
+     * @param workSheet the worksheet holding the fetch overrides
+     * @param query the query and its parameters
+     * @param statements the open statements of the connection, null to close the statement with the cursor
+     * @return the open cursor
+     * @throws SQLException if any error occurs
+     */
+    public static QueryCursor open(Connection connection, Datasource datasource, Worksheet workSheet,
+                                   WorksheetQuery query, StatementCache statements) throws SQLException {
+        boolean streaming = workSheet.getStreaming() != null ? workSheet.getStreaming() : datasource.isStreaming();
+        int configuredFetchSize = workSheet.getFetchSize() != null ? workSheet.getFetchSize() : datasource.getFetchSize();
+        JdbcDialect dialect = JdbcDialect.forJdbcUrl(datasource.getJdbcUrl());
+
+        long openedAt = System.currentTimeMillis();
+        long executeStart = System.nanoTime();
+        boolean restoreAutoCommit = false;
+        if (streaming && dialect.requiresManualCommit() && connection.getAutoCommit()) {
+            connection.setAutoCommit(false);
+            restoreAutoCommit = true;
+        }
+
+        Statement statement = null;
+        boolean closeStatement = true;
+        try {
+            ResultSet resultSet;
+            if (query.getParameters().isEmpty()) {
+                statement = dialect.createStatement(connection, datasource.getJdbcUrl(), streaming, configuredFetchSize);
+                logExecute(dialect, streaming, statement, query);
+                resultSet = statement.executeQuery(query.getSql());
+            } else {
+                PreparedStatement preparedStatement;
+                if (statements != null && statements.isEnabled()) {
+                    preparedStatement = statements.prepare(dialect, query.getSql(), streaming, configuredFetchSize);
+                    closeStatement = false;
+                } else {
+                    preparedStatement = dialect.prepareStatement(connection, datasource.getJdbcUrl(),
+                            query.getSql(), streaming, configuredFetchSize);
+                }
+                statement = preparedStatement;
+                for (int i = 0; i < query.getParameters().size(); i++) {
+                    preparedStatement.setObject(i + 1, query.getParameters().get(i));
+                }
+                logExecute(dialect, streaming, statement, query);
+                resultSet = preparedStatement.executeQuery();
+            }
+            long executeNanos = System.nanoTime() - executeStart;
+            return new QueryCursor(connection, statement, resultSet, restoreAutoCommit, closeStatement,
+                    statement.getFetchSize(), openedAt, executeNanos);
+        } catch (SQLException e) {
+            if (statement != null && closeStatement) {
+                statement.close();
+            }
+            if (restoreAutoCommit) {
+                connection.setAutoCommit(true);
+            }
+            throw e;
+        }
+    }
+
+    private static void logExecute(JdbcDialect dialect, boolean streaming, Statement statement, WorksheetQuery query)
+            throws SQLException {
+        logger.info("Executing " + query + " with dialect " + dialect + " streaming=" + streaming
+                + " fetchSize=" + statement.getFetchSize());
+    }
+
+    public ResultSet getResultSet() {
+        return resultSet;
+    }
+
+    /**
+     * @return the time spent executing the query, until the result set was returned
+     */
+    public long getExecuteNanos() {
+        return executeNanos;
+    }
+
+    /**
+     * Log the execute time, estimated round trips and throughput of the cursor.
+     *
+     * @param rows the number of rows read from the cursor
+     */
+    public void logStatistics(long rows) {
+        long elapsedMillis = Math.max(1, System.currentTimeMillis() - openedAt);
+        String roundTrips = fetchSize > 0 ? String.valueOf(rows / fetchSize + 1) : "n/a";
+        logger.info("Fetched " + rows + " rows in " + elapsedMillis + " ms (execute " + TimeUnit.NANOSECONDS.toMillis(executeNanos)
+                + " ms, fetchSize " + fetchSize + ", ~" + roundTrips + " round trips, "
+                + (rows * 1000 / elapsedMillis) + " rows/sec)");
+    }
+
+    @Override
+    public void close() throws SQLException {
+        try {
+            resultSet.close();
+            if (closeStatement) {
+                statement.close();
+            }
+        } finally {
+            if (restoreAutoCommit) {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import com.sachinhandiekar.sqltools.excel.model.Datasource;
+import com.sachinhandiekar.sqltools.excel.model.ExcelFile;
+import com.sachinhandiekar.sqltools.excel.model.NumericMode;
+import com.sachinhandiekar.sqltools.excel.model.ResultCacheSettings;
+import com.sachinhandiekar.sqltools.excel.model.Worksheet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Query results shared by the worksheets of all excel files, so a query configured for several
+ * worksheets runs once.
+ * <p>
+ * A result is stored as a RowSpool file with the column names and types, keyed by the datasource,
+ * the normalized SQL, the bind parameters and the numeric mode. It is served until its TTL has passed;
+ * when the files exceed the maximum size, the least recently used results are removed. A result
+ * being replayed is removed only after the replay.
+ * <p>
+ * Worksheets of excel files with a preparation procedure are not cached unless the worksheet enables
+ * it, since their queries may depend on the session state the procedure created.
+ */
+public class ResultCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ResultCache.class);
+
+    /** the caches of the process by their settings, configurations with the same settings share one */
+    private static final Map<String, ResultCache> caches = new HashMap<String, ResultCache>();
+
+    private static boolean cleanupRegistered;
+
+    private final File directory;
+
+    private final boolean temporaryDirectory;
+
+    private final long ttlMillis;
+
+    private final long maxBytes;
+
+    /** the entries in least recently used order */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    private long bytes;
+
+    private long hits;
+
+    private long misses;
+
+    private long evictions;
+
+    private ResultCache(ResultCacheSettings settings) throws IOException {
+        if (settings.getDirectory() != null) {
+            this.directory = new File(settings.getDirectory());
+            Files.createDirectories(directory.toPath());
+            this.temporaryDirectory = false;
+        } else {
+            this.directory = Files.createTempDirectory("sqlexport-cache").toFile();
+            this.temporaryDirectory = true;
+        }
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(settings.getTtlSeconds());
+        this.maxBytes = settings.getMaxSizeMb() << 20;
+    }
+
+    /**
+     * The cache of the process with these settings, kept between exports. Configurations with other
+     * settings, e.g. those of a daemon, each keep their own cache.
+     *
+     * @param settings the settings of the cache, null for no cache
+     * @return the cache or null
+     * @throws IOException if the cache directory can not be created
+     */
+    public static synchronized ResultCache forSettings(ResultCacheSettings settings) throws IOException {
+        if (settings == null) {
+            return null;
+        }
+        ResultCache cache = caches.get(settings.toString());
+        if (cache != null) {
+            return cache;
+        }
+        cache = new ResultCache(settings);
+        caches.put(settings.toString(), cache);
+        if (!cleanupRegistered) {
+            Runtime.getRuntime().addShutdownHook(new Thread(ResultCache::closeAll, "result-cache-cleanup"));
+            cleanupRegistered = true;
+        }
+        logger.info("Result cache in " + cache.directory + ", ttl " + settings.getTtlSeconds() + " s, max "
+                + settings.getMaxSizeMb() + " MB");
+        return cache;
+    }
+
+    /**
+     * @param excelFile the excel file of the worksheet
+     * @param workSheet the worksheet
+     * @return true if the results of the worksheet queries may be cached
+     */
+    public boolean covers(ExcelFile excelFile, Worksheet workSheet) {
+        if (workSheet.getCache() != null) {
+            return workSheet.getCache();
+        }
+        String procedure = excelFile.getPreparationProcedureStatement();
+        return procedure == null || procedure.trim().isEmpty();
+    }
+
+    /**
+     * @param datasource the datasource the query runs on
+     * @param query the query with its parameters
+     * @param numericMode the conversion of decimal columns the rows were decoded with
+     * @return the cache key of the query result
+     */
+    public static String key(Datasource datasource, WorksheetQuery query, NumericMode numericMode) {
+        StringBuilder key = new StringBuilder();
+        key.append(datasource.getJdbcUrl()).append('\u0000').append(datasource.getUserName()).append('\u0000')
+                .append(numericMode).append('\u0000').append(normalize(query.getSql()));
+        for (Object parameter : query.getParameters()) {
+            key.append('\u0000').append(parameter == null ? "null" : parameter.getClass().getName() + ':' + parameter);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Collapse whitespace outside of quotes and remove trailing semicolons, so the same query
+     * formatted differently has the same key.
+     */
+    static String normalize(String sql) {
+        StringBuilder normalized = new StringBuilder(sql.length());
+        char quote = 0;
+        boolean space = false;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (quote == 0 && Character.isWhitespace(c)) {
+                space = true;
+                continue;
+            }
+            if (space && normalized.length() > 0) {
+                normalized.append(' ');
+            }
+            space = false;
+            if (quote == 0 && (c == '\'' || c == '"')) {
+                quote = c;
+            } else if (c == quote) {
+                quote = 0;
+            }
+            normalized.append(c);
+        }
+        int end = normalized.length();
+        while (end > 0 && (normalized.charAt(end - 1) == ';' || normalized.charAt(end - 1) == ' ')) {
+            end--;
+        }
+        normalized.setLength(end);
+        return normalized.toString();
+    }
+
+    /**
+     * Look up a result. The entry must be released after its spool was replayed.
+     *
+     * @param key the cache key
+     * @return the entry or null if the result is not cached or expired
+     */
+    public synchronized Entry acquire(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null && System.currentTimeMillis() - entry.createdAt > ttlMillis) {
+            remove(entry);
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        entry.users++;
+        return entry;
+    }
+
+    /**
+     * @param columnCount the number of columns
+     * @param batchCapacity the maximum number of rows of the batches
+     * @return a new spool in the cache directory, to be stored with put or deleted
+     * @throws IOException if the file can not be created
+     */
+    public RowSpool createSpool(int columnCount, int batchCapacity) throws IOException {
+        return RowSpool.createTemp(directory, columnCount, batchCapacity);
+    }
+
+    /**
+     * Store a finished spool, which is owned by the cache from now on. A result stored for the same key
+     * in the meantime is replaced; a result larger than the cache is deleted when it is released.
+     *
+     * @param key the cache key
+     * @param layout the columns of the result
+     * @param spool the finished spool
+     * @return the stored entry, acquired by the caller
+     */
+    public synchronized Entry put(String key, ColumnLayout layout, RowSpool spool) {
+        Entry previous = entries.get(key);
+        if (previous != null) {
+            remove(previous);
+        }
+        Entry entry = new Entry(key, layout, spool, spool.getFile().length());
+        entry.users = 1;
+        if (entry.size > maxBytes) {
+            // larger than the whole cache, keeping it would only evict all other results
+            entry.removed = true;
+            evictions++;
+            return entry;
+        }
+        entries.put(key, entry);
+        bytes += entry.size;
+        evict();
+        return entry;
+    }
+
+    /**
+     * Release an acquired entry, deleting its file if it was removed from the cache meanwhile.
+     *
+     * @param entry the entry
+     */
+    public synchronized void release(Entry entry) {
+        entry.users--;
+        if (entry.removed && entry.users == 0) {
+            entry.spool.delete();
+        }
+    }
+
+    private void evict() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            iterator.remove();
+            discard(entry);
+            evictions++;
+        }
+    }
+
+    private void remove(Entry entry) {
+        entries.remove(entry.key);
+        discard(entry);
+    }
+
+    private void discard(Entry entry) {
+        bytes -= entry.size;
+        entry.removed = true;
+        if (entry.users == 0) {
+            entry.spool.delete();
+        }
+    }
+
+    /**
+     * Remove all results which are not being replayed.
+     */
+    public synchronized void clear() {
+        for (Entry entry : entries.values()) {
+            discard(entry);
+        }
+        entries.clear();
+    }
+
+    private static synchronized void closeAll() {
+        for (ResultCache cache : caches.values()) {
+            cache.close();
+        }
+        caches.clear();
+    }
+
+    /**
+     * Remove all results and the temporary directory of the cache.
+     */
+    synchronized void close() {
+        clear();
+        if (temporaryDirectory) {
+            directory.delete();
+        }
+    }
+
+    /**
+     * @return hits, misses, evictions and size for the log
+     */
+    public synchronized String statistics() {
+        return "Result cache: " + hits + " hits, " + misses + " misses, " + evictions + " evictions, "
+                + entries.size() + " results, " + (bytes >> 20) + " MB";
+    }
+
+    /**
+     * A cached query result.
+     */
+    public static class Entry {
+
+        private final String key;
+
+        private final ColumnLayout layout;
+
+        private final RowSpool spool;
+
+        private final long size;
+
+        private final long createdAt = System.currentTimeMillis();
+
+        private int users;
+
+        private boolean removed;
+
+        Entry(String key, ColumnLayout layout, RowSpool spool, long size) {
+            this.key = key;
+            this.layout = layout;
+            this.spool = spool;
+            this.size = size;
+        }
+
+        /**
+         * @param typeFormatMapping the mapping of the export reading the result
+         * @return the columns of the result
+         */
+        public ColumnLayout getLayout(TypeFormatMapping typeFormatMapping) {
+            return layout.withTypeFormatMapping(typeFormatMapping);
+        }
+
+        public RowSpool getSpool() {
+            return spool;
+        }
+
+        /**
+         * @return the age of the result in seconds
+         */
+        public long getAgeSeconds() {
+            return TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - createdAt);
+        }
+
+        @Override
+        public String toString() {
+            return spool.getRows() + " rows, " + (size >> 10) + " KB, " + getAgeSeconds() + " s old";
+        }
+    }
+}
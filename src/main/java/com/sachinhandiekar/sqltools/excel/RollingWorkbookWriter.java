@@ -0,0 +1,258 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import com.sachinhandiekar.sqltools.excel.model.ExcelFile;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits the rows of an excel file over continuation sheets and files when a limit is reached.
+ * <p>
+ * A worksheet with more rows than fit on a sheet (65535 data rows in xls, 1048575 in xlsx, or
+ * maxRowsPerSheet) continues on the sheets "Name (2)", "Name (3)", ... When a file has
+ * maxRowsPerFile rows, it is written and the rows continue in the next file: ##Part## in the file
+ * name is replaced by the part number, otherwise _2, _3, ... is added before the extension of the
+ * following files (report_2.csv.gz for report.csv.gz). The continuation sheets are created from the already resolved column layout.
+ */
+public class RollingWorkbookWriter implements WorkbookWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(RollingWorkbookWriter.class);
+
+    private static final String PART_PLACEHOLDER = "##Part##";
+
+    /** Excel does not allow sheet names longer than 31 characters */
+    private static final int MAX_SHEET_NAME = 31;
+
+    private final ExcelFile excelFile;
+
+    private final TypeFormatMapping typeFormatMapping;
+
+    private final String fileName;
+
+    /** the files of the completed parts */
+    private final List<File> files = new ArrayList<File>();
+
+    /** the files of the completed parts which did not exist before */
+    private final List<File> createdFiles = new ArrayList<File>();
+
+    private int part;
+
+    private WorkbookWriter current;
+
+    private long fileRows;
+
+    private long maxSheetRows;
+
+    private boolean finished;
+
+    /**
+     * @param excelFile the excel file
+     * @param typeFormatMapping the mapping of column types to Excel formats
+     * @param fileName the resolved name of the first file
+     * @throws IOException if the first file can not be created
+     */
+    public RollingWorkbookWriter(ExcelFile excelFile, TypeFormatMapping typeFormatMapping, String fileName)
+            throws IOException {
+        this.excelFile = excelFile;
+        this.typeFormatMapping = typeFormatMapping;
+        this.fileName = fileName;
+        openPart();
+    }
+
+    /**
+     * @param fileName the resolved file name of the excel file
+     * @param part the number of the file, starting at 1
+     * @return the name of the file
+     */
+    static String partFileName(String fileName, int part) {
+        if (fileName.contains(PART_PLACEHOLDER)) {
+            return fileName.replace(PART_PLACEHOLDER, String.valueOf(part));
+        }
+        if (part == 1) {
+            return fileName;
+        }
+        return TextWorkbookWriter.insertBeforeExtension(fileName, "_" + part);
+    }
+
+    /**
+     * @param workSheetName the configured name of the worksheet
+     * @param part the number of the sheet, starting at 1
+     * @return the name of the sheet, shortened to fit the Excel limit
+     */
+    static String continuationName(String workSheetName, int part) {
+        String name = workSheetName == null ? "Sheet" : workSheetName;
+        if (part == 1) {
+            return name;
+        }
+        String suffix = " (" + part + ")";
+        if (name.length() + suffix.length() > MAX_SHEET_NAME) {
+            name = name.substring(0, MAX_SHEET_NAME - suffix.length());
+        }
+        return name + suffix;
+    }
+
+    private void openPart() throws IOException {
+        part++;
+        File file = new File(partFileName(fileName, part));
+        current = ExcelFileExporter.createWorkbookWriter(excelFile, typeFormatMapping, file);
+        fileRows = 0;
+        maxSheetRows = excelFile.getMaxRowsPerSheet() > 0
+                ? Math.min(excelFile.getMaxRowsPerSheet(), current.getMaxSheetRows()) : current.getMaxSheetRows();
+        if (part > 1) {
+            logger.info("Continuing in file " + file);
+        }
+    }
+
+    private boolean isFileFull() {
+        return excelFile.getMaxRowsPerFile() > 0 && fileRows >= excelFile.getMaxRowsPerFile();
+    }
+
+    private void rollFile() throws IOException {
+        current.finish();
+        current.close();
+        files.addAll(current.getFiles());
+        createdFiles.addAll(current.getCreatedFiles());
+        current = null;
+        openPart();
+    }
+
+
+    @Override
+    public TypeFormatMapping getTypeFormatMapping() {
+        return typeFormatMapping;
+    }
+
+    @Override
+    public long getMaxSheetRows() {
+        return maxSheetRows;
+    }
+
+    /**
+     * @return the files written so far, in order
+     */
+    @Override
+    public List<File> getFiles() {
+        List<File> all = new ArrayList<File>(files);
+        if (current != null) {
+            all.addAll(current.getFiles());
+        }
+        return all;
+    }
+
+    @Override
+    public List<File> getCreatedFiles() {
+        List<File> all = new ArrayList<File>(createdFiles);
+        if (current != null) {
+            all.addAll(current.getCreatedFiles());
+        }
+        return all;
+    }
+
+    @Override
+    public SheetWriter startSheet(String workSheetName, ColumnLayout layout) throws IOException {
+        if (isFileFull()) {
+            rollFile();
+        }
+        return new RollingSheetWriter(workSheetName, layout, current.startSheet(workSheetName, layout));
+    }
+
+    @Override
+    public void finish() throws IOException {
+        current.finish();
+        finished = true;
+    }
+
+    /**
+     * Close the current file. If the export was not finished, the files created so far are removed;
+     * files appended to were cut back to their previous length when they were closed.
+     */
+    @Override
+    public void close() {
+        if (current != null) {
+            current.close();
+        }
+        if (!finished) {
+            for (File file : getCreatedFiles()) {
+                if (file.exists() && !file.delete()) {
+                    logger.warn("Could not remove the incomplete file " + file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the rows of a worksheet, starting a continuation sheet when the current one is full.
+     */
+    private class RollingSheetWriter implements SheetWriter {
+
+        private final String workSheetName;
+
+        private final ColumnLayout layout;
+
+        private SheetWriter target;
+
+        private int part = 1;
+
+        private long sheetRows;
+
+        private long rows;
+
+        RollingSheetWriter(String workSheetName, ColumnLayout layout, SheetWriter target) {
+            this.workSheetName = workSheetName;
+            this.layout = layout;
+            this.target = target;
+        }
+
+        @Override
+        public void accept(RowBatch batch) throws IOException {
+            accept(batch, 0, batch.size());
+        }
+
+        @Override
+        public void accept(RowBatch batch, int from, int to) throws IOException {
+            while (from < to) {
+                long capacity = maxSheetRows - sheetRows;
+                if (excelFile.getMaxRowsPerFile() > 0) {
+                    capacity = Math.min(capacity, excelFile.getMaxRowsPerFile() - fileRows);
+                }
+                if (capacity <= 0) {
+                    continueSheet();
+                    continue;
+                }
+                int count = (int) Math.min(capacity, to - from);
+                target.accept(batch, from, from + count);
+                from += count;
+                sheetRows += count;
+                fileRows += count;
+                rows += count;
+            }
+        }
+
+        private void continueSheet() throws IOException {
+            target.finish();
+            if (isFileFull()) {
+                rollFile();
+            }
+            part++;
+            String name = continuationName(workSheetName, part);
+            logger.info("Worksheet " + workSheetName + " continues on sheet " + name + " after " + rows + " rows");
+            target = current.startSheet(name, layout);
+            sheetRows = 0;
+        }
+
+        @Override
+        public long getRowsWritten() {
+            return rows;
+        }
+
+        @Override
+        public void finish() throws IOException {
+            target.finish();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import java.util.Arrays;
+
+/**
+ * A reusable block of decoded row values.
+ * <p>
+ * Every cell is stored as a kind plus either a double (numbers, dates as Excel serial numbers, booleans)
+ * or a String, so filling and draining a batch does not box or allocate per cell.
+ */
+public class RowBatch {
+
+    public static final byte NULL = 0;
+
+    public static final byte NUMBER = 1;
+
+    public static final byte DATE = 2;
+
+    public static final byte BOOLEAN = 3;
+
+    public static final byte TEXT = 4;
+
+    private final int columnCount;
+
+    private final int capacity;
+
+    private final byte[] kinds;
+
+    private final double[] numbers;
+
+    private final String[] texts;
+
+    private int size;
+
+    public RowBatch(int columnCount, int capacity) {
+        this.columnCount = columnCount;
+        this.capacity = capacity;
+        this.kinds = new byte[columnCount * capacity];
+        this.numbers = new double[columnCount * capacity];
+        this.texts = new String[columnCount * capacity];
+    }
+
+    public int getColumnCount() {
+        return columnCount;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of rows filled in this batch
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * Claim the next free row of the batch.
+     *
+     * @return the index of the row
+     */
+    public int addRow() {
+        return size++;
+    }
+
+    /**
+     * Empty the batch so it can be filled again. Text references are released so the batch does not
+     * keep strings of already written rows alive.
+     */
+    public void clear() {
+        Arrays.fill(texts, 0, size * columnCount, null);
+        size = 0;
+    }
+
+    /**
+     * Append rows of another batch with the same columns.
+     *
+     * @param source the batch to copy from
+     * @param from the first row to copy
+     * @param to the row after the last row to copy
+     */
+    public void copyRows(RowBatch source, int from, int to) {
+        int start = from * columnCount;
+        int length = (to - from) * columnCount;
+        int target = size * columnCount;
+        System.arraycopy(source.kinds, start, kinds, target, length);
+        System.arraycopy(source.numbers, start, numbers, target, length);
+        System.arraycopy(source.texts, start, texts, target, length);
+        size += to - from;
+    }
+
+    public byte getKind(int row, int column) {
+        return kinds[row * columnCount + column];
+    }
+
+    public double getNumber(int row, int column) {
+        return numbers[row * columnCount + column];
+    }
+
+    public boolean getBoolean(int row, int column) {
+        return numbers[row * columnCount + column] != 0;
+    }
+
+    public String getText(int row, int column) {
+        return texts[row * columnCount + column];
+    }
+
+    public void setNull(int row, int column) {
+        kinds[row * columnCount + column] = NULL;
+    }
+
+    public void setNumber(int row, int column, double value) {
+        int index = row * columnCount + column;
+        kinds[index] = NUMBER;
+        numbers[index] = value;
+    }
+
+    public void setDate(int row, int column, double excelDate) {
+        int index = row * columnCount + column;
+        kinds[index] = DATE;
+        numbers[index] = excelDate;
+    }
+
+    public void setBoolean(int row, int column, boolean value) {
+        int index = row * columnCount + column;
+        kinds[index] = BOOLEAN;
+        numbers[index] = value ? 1 : 0;
+    }
+
+    public void setText(int row, int column, String value) {
+        int index = row * columnCount + column;
+        kinds[index] = TEXT;
+        texts[index] = value;
+    }
+}
@@ -0,0 +1,333 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Moves rows from a ResultSet to a BatchConsumer in RowBatches.
+ * <p>
+ * In pipelined mode a fetch thread fills the batches while the calling thread hands them to the
+ * consumer, so waiting for the database overlaps with creating cells and flushing them to disk.
+ * A fixed number of batches circulates between the two threads: when all of them are waiting to be
+ * written the fetch thread blocks, which bounds the memory used. An error on either side stops the
+ * other one and is rethrown to the caller.
+ */
+public class RowPipeline {
+
+    private static final Logger logger = LoggerFactory.getLogger(RowPipeline.class);
+
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+
+    /** Marks the end of the rows in the filled queue */
+    private static final RowBatch END = new RowBatch(0, 0);
+
+    private static final long JOIN_TIMEOUT_MILLIS = 30000;
+
+    private final int columnCount;
+
+    private final int batchRows;
+
+    private final int queueDepth;
+
+    private BlockingQueue<RowBatch> freeBatches;
+
+    private BlockingQueue<RowBatch> filledBatches;
+
+    private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+    private volatile boolean cancelled;
+
+    private WorksheetMetrics metrics;
+
+    // statistics, each field is only written by one thread
+    private long fetchWaitNanos;
+
+    private long writeWaitNanos;
+
+    private long queueDepthSum;
+
+    private long batchesWritten;
+
+    /**
+     * @param columnCount the number of columns of the result set
+     * @param batchRows the number of rows per batch
+     * @param queueDepth the number of batches circulating between fetch and write, 0 to run without a
+     *                   fetch thread
+     */
+    public RowPipeline(int columnCount, int batchRows, int queueDepth) {
+        this.columnCount = columnCount;
+        this.batchRows = Math.max(1, batchRows);
+        this.queueDepth = queueDepth;
+    }
+
+    /**
+     * Time fetching, converting and writing the rows for the metrics of a worksheet.
+     *
+     * @param metrics the metrics to add to, null to not measure
+     */
+    public void setMetrics(WorksheetMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Read all rows of the result set and hand them to the consumer.
+     *
+     * @param rs the result set
+     * @param readers one reader per column
+     * @param consumer the consumer of the batches, called on the calling thread
+     * @return the number of rows
+     * @throws SQLException if reading the rows fails
+     * @throws IOException if the consumer fails
+     */
+    public long run(ResultSet rs, ColumnReader[] readers, BatchConsumer consumer) throws SQLException, IOException {
+        if (queueDepth <= 0) {
+            return runSequential(rs, readers, consumer);
+        }
+        freeBatches = new ArrayBlockingQueue<RowBatch>(queueDepth);
+        filledBatches = new ArrayBlockingQueue<RowBatch>(queueDepth + 1);
+        for (int i = 0; i < queueDepth; i++) {
+            freeBatches.add(new RowBatch(columnCount, batchRows));
+        }
+
+        Thread fetcher = new Thread(() -> fetch(rs, readers), "row-fetcher-" + threadCounter.incrementAndGet());
+        fetcher.setDaemon(true);
+        fetcher.start();
+
+        long rows = 0;
+        boolean completed = false;
+        try {
+            while (true) {
+                queueDepthSum += filledBatches.size();
+                long waitStart = System.nanoTime();
+                RowBatch batch = filledBatches.take();
+                writeWaitNanos += System.nanoTime() - waitStart;
+                if (batch == END) {
+                    break;
+                }
+                rows += batch.size();
+                batchesWritten++;
+                accept(consumer, batch);
+                batch.clear();
+                freeBatches.put(batch);
+            }
+            completed = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for rows", e);
+        } finally {
+            if (!completed) {
+                cancel(fetcher, rs);
+            }
+            join(fetcher);
+        }
+
+        rethrowFailure();
+        logStatistics(rows);
+        return rows;
+    }
+
+    private long runSequential(ResultSet rs, ColumnReader[] readers, BatchConsumer consumer) throws SQLException, IOException {
+        RowBatch batch = new RowBatch(columnCount, batchRows);
+        FetchTimer timer = new FetchTimer(metrics);
+        long rows = 0;
+        while (rs.next()) {
+            timer.fetched();
+            int row = batch.addRow();
+            for (int i = 0; i < readers.length; i++) {
+                readers[i].read(rs, batch, row);
+            }
+            timer.converted();
+            if (batch.isFull()) {
+                rows += batch.size();
+                timer.flush(batch.size());
+                accept(consumer, batch);
+                batch.clear();
+                timer.resume();
+            }
+        }
+        if (batch.size() > 0) {
+            rows += batch.size();
+            timer.flush(batch.size());
+            accept(consumer, batch);
+            batch.clear();
+        }
+        return rows;
+    }
+
+    private void accept(BatchConsumer consumer, RowBatch batch) throws IOException {
+        if (metrics == null) {
+            consumer.accept(batch);
+            return;
+        }
+        long start = System.nanoTime();
+        consumer.accept(batch);
+        metrics.addWrite(System.nanoTime() - start);
+    }
+
+    private void fetch(ResultSet rs, ColumnReader[] readers) {
+        long allocatedAtStart = metrics != null ? ExportMetrics.threadAllocatedBytes() : 0;
+        FetchTimer timer = new FetchTimer(metrics);
+        try {
+            RowBatch batch = takeFreeBatch();
+            timer.resume();
+            while (!cancelled && rs.next()) {
+                timer.fetched();
+                int row = batch.addRow();
+                for (int i = 0; i < readers.length; i++) {
+                    readers[i].read(rs, batch, row);
+                }
+                timer.converted();
+                if (batch.isFull()) {
+                    timer.flush(batch.size());
+                    filledBatches.put(batch);
+                    batch = takeFreeBatch();
+                    timer.resume();
+                }
+            }
+            if (!cancelled && batch.size() > 0) {
+                timer.flush(batch.size());
+                filledBatches.put(batch);
+            }
+        } catch (InterruptedException e) {
+            if (!cancelled) {
+                failure.compareAndSet(null, e);
+            }
+        } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+        } finally {
+            if (metrics != null) {
+                metrics.addFetchThreadAllocated(ExportMetrics.threadAllocatedBytes() - allocatedAtStart);
+            }
+            filledBatches.offer(END);
+        }
+    }
+
+    private RowBatch takeFreeBatch() throws InterruptedException {
+        long waitStart = System.nanoTime();
+        RowBatch batch = freeBatches.take();
+        fetchWaitNanos += System.nanoTime() - waitStart;
+        return batch;
+    }
+
+    /**
+     * Stop the fetch thread after the consumer failed.
+     */
+    private void cancel(Thread fetcher, ResultSet rs) {
+        cancelled = true;
+        fetcher.interrupt();
+        try {
+            Statement statement = rs.getStatement();
+            if (statement != null) {
+                statement.cancel();
+            }
+        } catch (SQLException e) {
+            logger.debug("Could not cancel the statement: " + e);
+        }
+    }
+
+    private void join(Thread fetcher) {
+        try {
+            fetcher.join(JOIN_TIMEOUT_MILLIS);
+            if (fetcher.isAlive()) {
+                logger.warn("Fetch thread " + fetcher.getName() + " did not stop within " + JOIN_TIMEOUT_MILLIS + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void rethrowFailure() throws SQLException {
+        Throwable t = failure.get();
+        if (t == null) {
+            return;
+        }
+        if (t instanceof SQLException) {
+            throw (SQLException) t;
+        } else if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        }
+        throw new SQLException("Fetching rows failed", t);
+    }
+
+    private void logStatistics(long rows) {
+        long batches = Math.max(1, batchesWritten);
+        logger.info("Pipeline moved " + rows + " rows in " + batchesWritten + " batches of " + batchRows
+                + ": fetch waited " + TimeUnit.NANOSECONDS.toMillis(fetchWaitNanos) + " ms for free batches (write bound),"
+                + " write waited " + TimeUnit.NANOSECONDS.toMillis(writeWaitNanos) + " ms for rows (fetch bound),"
+                + " average queue depth " + String.format("%.2f", queueDepthSum / (double) (batches + 1))
+                + " of " + queueDepth);
+    }
+
+    /**
+     * Splits the time of the fetch loop into ResultSet.next and reading the column values, with two
+     * clock reads per row, and adds it to the metrics once per batch. Waiting for a free batch or the
+     * consumer is left out by resuming the clock after it.
+     */
+    private static final class FetchTimer {
+
+        private final WorksheetMetrics metrics;
+
+        private final long startNanos = System.nanoTime();
+
+        private long mark = startNanos;
+
+        private long fetchNanos;
+
+        private long convertNanos;
+
+        private boolean firstRow = true;
+
+        FetchTimer(WorksheetMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        void resume() {
+            if (metrics != null) {
+                mark = System.nanoTime();
+            }
+        }
+
+        void fetched() {
+            if (metrics == null) {
+                return;
+            }
+            long now = System.nanoTime();
+            fetchNanos += now - mark;
+            mark = now;
+            if (firstRow) {
+                firstRow = false;
+                metrics.recordFirstRow(now - startNanos);
+            }
+        }
+
+        void converted() {
+            if (metrics == null) {
+                return;
+            }
+            long now = System.nanoTime();
+            convertNanos += now - mark;
+            mark = now;
+        }
+
+        void flush(int rows) {
+            if (metrics == null) {
+                return;
+            }
+            metrics.addFetch(rows, fetchNanos, convertNanos);
+            fetchNanos = 0;
+            convertNanos = 0;
+        }
+    }
+}
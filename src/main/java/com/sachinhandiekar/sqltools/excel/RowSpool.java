@@ -0,0 +1,236 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Temporary file holding decoded rows, used when rows are fetched before the worksheet they belong
+ * to can be written.
+ * <p>
+ * Every batch is stored column by column: the kinds of all rows of a column, then its values.
+ * Numbers and dates take 8 bytes, booleans one byte and texts their UTF-8 length plus 4 bytes.
+ */
+public class RowSpool implements BatchConsumer {
+
+    private static final int MAGIC = 0x53505231;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final File file;
+
+    private final int columnCount;
+
+    private final int batchCapacity;
+
+    private DataOutputStream out;
+
+    private long rows;
+
+    private RowSpool(File file, int columnCount, int batchCapacity) {
+        this.file = file;
+        this.columnCount = columnCount;
+        this.batchCapacity = batchCapacity;
+    }
+
+    /**
+     * Create a spool in a new temporary file.
+     *
+     * @param directory the directory of the file, null for the default temporary directory
+     * @param columnCount the number of columns
+     * @param batchCapacity the maximum number of rows of the batches that will be written
+     * @return the spool, open for writing
+     * @throws IOException if the file can not be created
+     */
+    public static RowSpool createTemp(File directory, int columnCount, int batchCapacity) throws IOException {
+        File file = File.createTempFile("sqlexport", ".spool", directory);
+        return create(file, columnCount, batchCapacity);
+    }
+
+    /**
+     * Create a spool in the given file, overwriting it.
+     */
+    public static RowSpool create(File file, int columnCount, int batchCapacity) throws IOException {
+        RowSpool spool = new RowSpool(file, columnCount, batchCapacity);
+        spool.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+        spool.out.writeInt(MAGIC);
+        spool.out.writeInt(columnCount);
+        spool.out.writeInt(batchCapacity);
+        return spool;
+    }
+
+    /**
+     * Open an existing, finished spool for replay.
+     *
+     * @param file the spool file
+     * @return the spool
+     * @throws IOException if the file is not a spool
+     */
+    public static RowSpool open(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a row spool: " + file);
+            }
+            return new RowSpool(file, in.readInt(), in.readInt());
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getColumnCount() {
+        return columnCount;
+    }
+
+    /**
+     * @return the number of rows written to this spool
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    @Override
+    public void accept(RowBatch batch) throws IOException {
+        int size = batch.size();
+        if (size == 0) {
+            return;
+        }
+        out.writeInt(size);
+        for (int c = 0; c < columnCount; c++) {
+            for (int r = 0; r < size; r++) {
+                out.writeByte(batch.getKind(r, c));
+            }
+            for (int r = 0; r < size; r++) {
+                switch (batch.getKind(r, c)) {
+                    case RowBatch.NUMBER:
+                    case RowBatch.DATE:
+                        out.writeDouble(batch.getNumber(r, c));
+                        break;
+                    case RowBatch.BOOLEAN:
+                        out.writeBoolean(batch.getBoolean(r, c));
+                        break;
+                    case RowBatch.TEXT:
+                        writeText(batch.getText(r, c));
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+        rows += size;
+    }
+
+    private void writeText(String text) throws IOException {
+        if (text == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Write the end marker and close the file.
+     *
+     * @throws IOException if any error occurs
+     */
+    public void finish() throws IOException {
+        if (out != null) {
+            out.writeInt(0);
+            out.close();
+            out = null;
+        }
+    }
+
+    /**
+     * Read all rows of the finished spool.
+     *
+     * @param consumer receives the rows in the order they were written
+     * @return the number of rows
+     * @throws IOException if any error occurs
+     */
+    public long replay(BatchConsumer consumer) throws IOException {
+        RowBatch batch = new RowBatch(columnCount, Math.max(1, batchCapacity));
+        byte[] kinds = new byte[batch.getCapacity()];
+        byte[] buffer = new byte[256];
+        long replayed = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE))) {
+            in.readInt();
+            in.readInt();
+            in.readInt();
+            int size;
+            while ((size = in.readInt()) > 0) {
+                if (size > batch.getCapacity()) {
+                    batch = new RowBatch(columnCount, size);
+                    kinds = new byte[size];
+                }
+                for (int r = 0; r < size; r++) {
+                    batch.addRow();
+                }
+                for (int c = 0; c < columnCount; c++) {
+                    in.readFully(kinds, 0, size);
+                    for (int r = 0; r < size; r++) {
+                        switch (kinds[r]) {
+                            case RowBatch.NUMBER:
+                                batch.setNumber(r, c, in.readDouble());
+                                break;
+                            case RowBatch.DATE:
+                                batch.setDate(r, c, in.readDouble());
+                                break;
+                            case RowBatch.BOOLEAN:
+                                batch.setBoolean(r, c, in.readBoolean());
+                                break;
+                            case RowBatch.TEXT:
+                                int length = in.readInt();
+                                if (length < 0) {
+                                    batch.setText(r, c, null);
+                                } else {
+                                    if (length > buffer.length) {
+                                        buffer = new byte[Math.max(length, buffer.length * 2)];
+                                    }
+                                    in.readFully(buffer, 0, length);
+                                    batch.setText(r, c, new String(buffer, 0, length, StandardCharsets.UTF_8));
+                                }
+                                break;
+                            default:
+                                batch.setNull(r, c);
+                                break;
+                        }
+                    }
+                }
+                replayed += size;
+                consumer.accept(batch);
+                batch.clear();
+            }
+        } catch (EOFException e) {
+            throw new IOException("Row spool " + file + " is truncated", e);
+        }
+        return replayed;
+    }
+
+    /**
+     * Close and remove the spool file.
+     */
+    public void delete() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // the file is removed anyway
+            }
+            out = null;
+        }
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+}
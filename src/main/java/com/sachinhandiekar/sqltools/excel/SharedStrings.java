@@ -0,0 +1,125 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The shared strings table of a workbook written by the direct engine, bounded in size.
+ * <p>
+ * Only the text columns with few distinct values share their strings: the first batch of a sheet
+ * is the sample, a column qualifies when its values repeat at least four times on average.
+ * Columns like status, currency or country codes then store each value once and reference it by
+ * index, the other columns stay inline strings. When the table holds maxEntries strings, new
+ * values are written inline, so memory stays bounded for any number of rows.
+ */
+public class SharedStrings {
+
+    /** longer texts are never shared, they are rarely repeated and would take most of the memory */
+    static final int MAX_SHARED_LENGTH = 128;
+
+    /** the sampled values of a column must repeat this often on average for the column to share them */
+    private static final int MIN_REPETITIONS = 4;
+
+    private final int maxEntries;
+
+    private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+
+    private final List<String> strings = new ArrayList<String>();
+
+    private long references;
+
+    /**
+     * @param maxEntries the maximum number of distinct strings
+     */
+    public SharedStrings(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * @param batch the first rows of a sheet
+     * @param from the first row of the sample
+     * @param to the row after the sample
+     * @return per column true if its texts should be shared
+     */
+    static boolean[] sampleColumns(RowBatch batch, int from, int to) {
+        boolean[] shared = new boolean[batch.getColumnCount()];
+        Set<String> distinct = new HashSet<String>();
+        for (int column = 0; column < shared.length; column++) {
+            distinct.clear();
+            int values = 0;
+            for (int row = from; row < to; row++) {
+                if (batch.getKind(row, column) == RowBatch.TEXT) {
+                    String text = batch.getText(row, column);
+                    if (text != null && text.length() <= MAX_SHARED_LENGTH) {
+                        values++;
+                        distinct.add(text);
+                    }
+                }
+            }
+            shared[column] = values > 0 && distinct.size() * MIN_REPETITIONS <= values;
+        }
+        return shared;
+    }
+
+    /**
+     * @param text a text of a shared column
+     * @return the index of the text in the table, added if there is room, or -1 to write it inline
+     */
+    public int indexOf(String text) {
+        Integer index = indexes.get(text);
+        if (index == null) {
+            if (strings.size() >= maxEntries || text.length() > MAX_SHARED_LENGTH) {
+                return -1;
+            }
+            index = strings.size();
+            strings.add(text);
+            indexes.put(text, index);
+        }
+        references++;
+        return index;
+    }
+
+    /**
+     * @return the number of distinct strings
+     */
+    public int size() {
+        return strings.size();
+    }
+
+    /**
+     * @return the number of cells referencing a shared string
+     */
+    public long getReferences() {
+        return references;
+    }
+
+    /**
+     * Write the table as xl/sharedStrings.xml.
+     *
+     * @param out the writer of the zip entry
+     * @throws IOException if the entry can not be written
+     */
+    void write(Writer out) throws IOException {
+        XmlWriter xml = new XmlWriter(out);
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n")
+                .append("<sst xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\" count=\"")
+                .append(references).append("\" uniqueCount=\"").append(strings.size()).append("\">");
+        for (String text : strings) {
+            if (!text.isEmpty() && (Character.isWhitespace(text.charAt(0))
+                    || Character.isWhitespace(text.charAt(text.length() - 1)))) {
+                xml.append("<si><t xml:space=\"preserve\">");
+            } else {
+                xml.append("<si><t>");
+            }
+            xml.appendEscaped(text).append("</t></si>");
+        }
+        xml.append("</sst>");
+        xml.flush();
+    }
+}
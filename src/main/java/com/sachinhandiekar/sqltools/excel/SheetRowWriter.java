@@ -0,0 +1,93 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+
+/**
+ * Writes decoded rows of a RowBatch as cells of a POI sheet using the precomputed column styles.
+ * <p>
+ * Rows are appended below the given first row, the values are also passed to the width estimator.
+ */
+public class SheetRowWriter implements SheetWriter {
+
+    private final Sheet sheet;
+
+    private final CellStyle[] dataStyles;
+
+    private final ColumnWidthEstimator widthEstimator;
+
+    private final int firstRow;
+
+    private int nextRow;
+
+    public SheetRowWriter(Sheet sheet, CellStyle[] dataStyles, int firstRow, ColumnWidthEstimator widthEstimator) {
+        this.sheet = sheet;
+        this.dataStyles = dataStyles;
+        this.firstRow = firstRow;
+        this.nextRow = firstRow;
+        this.widthEstimator = widthEstimator;
+    }
+
+    @Override
+    public void accept(RowBatch batch) {
+        accept(batch, 0, batch.size());
+    }
+
+    @Override
+    public void accept(RowBatch batch, int from, int to) {
+        for (int r = from; r < to; r++) {
+            writeRow(nextRow++, batch, r);
+            widthEstimator.sample(batch, r);
+        }
+    }
+
+    public Sheet getSheet() {
+        return sheet;
+    }
+
+    @Override
+    public long getRowsWritten() {
+        return nextRow - firstRow;
+    }
+
+    /**
+     * Complete the sheet after the last row, sets the estimated column widths.
+     */
+    @Override
+    public void finish() {
+        widthEstimator.apply(sheet);
+    }
+
+    /**
+     * Write one row of the batch.
+     *
+     * @param rowIndex the index of the sheet row to create
+     * @param batch the batch holding the values
+     * @param batchRow the row of the batch
+     */
+    public void writeRow(int rowIndex, RowBatch batch, int batchRow) {
+        Row row = sheet.createRow(rowIndex);
+        int columnCount = batch.getColumnCount();
+        for (int i = 0; i < columnCount; i++) {
+            final Cell cell = row.createCell(i);
+            switch (batch.getKind(batchRow, i)) {
+                case RowBatch.NULL:
+                    cell.setCellValue("");
+                    continue;
+                case RowBatch.NUMBER:
+                case RowBatch.DATE:
+                    cell.setCellValue(batch.getNumber(batchRow, i));
+                    break;
+                case RowBatch.BOOLEAN:
+                    cell.setCellValue(batch.getBoolean(batchRow, i));
+                    break;
+                default:
+                    cell.setCellValue(batch.getText(batchRow, i));
+                    break;
+            }
+            cell.setCellStyle(dataStyles[i]);
+        }
+    }
+}
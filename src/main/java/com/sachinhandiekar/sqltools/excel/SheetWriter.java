@@ -0,0 +1,31 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import java.io.IOException;
+
+/**
+ * Appends the data rows of one worksheet.
+ */
+public interface SheetWriter extends BatchConsumer {
+
+    /**
+     * Write the rows from (inclusive) to (exclusive) of the batch.
+     *
+     * @param batch the batch holding the rows
+     * @param from the first row of the batch to write
+     * @param to the row after the last row to write
+     * @throws IOException if the rows can not be written
+     */
+    void accept(RowBatch batch, int from, int to) throws IOException;
+
+    /**
+     * @return the number of data rows written so far
+     */
+    long getRowsWritten();
+
+    /**
+     * Complete the worksheet after the last row.
+     *
+     * @throws IOException if the worksheet can not be written
+     */
+    void finish() throws IOException;
+}
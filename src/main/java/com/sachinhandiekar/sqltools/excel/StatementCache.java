@@ -0,0 +1,113 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import com.sachinhandiekar.sqltools.excel.model.Datasource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The prepared statements of one connection, kept open so the queries of a worksheet with
+ * parameter sets re-execute one statement with new values instead of preparing it per sheet.
+ * <p>
+ * The least recently used statement is closed when more than statementCacheSize of the datasource
+ * are open. A statement is used by one query at a time; the cache is not thread safe and belongs
+ * to the thread using the connection.
+ */
+public class StatementCache implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(StatementCache.class);
+
+    private final Connection connection;
+
+    private final String jdbcUrl;
+
+    private final int maxSize;
+
+    private final LinkedHashMap<String, PreparedStatement> statements =
+            new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true);
+
+    private long prepared;
+
+    private long reused;
+
+    /**
+     * @param connection the connection to prepare the statements on
+     * @param datasource the datasource of the connection
+     */
+    public StatementCache(Connection connection, Datasource datasource) {
+        this.connection = connection;
+        this.jdbcUrl = datasource.getJdbcUrl();
+        this.maxSize = datasource.getStatementCacheSize();
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * @return true if statements are kept open at all
+     */
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * Return the open statement for the query or prepare it.
+     *
+     * @param dialect the dialect of the datasource
+     * @param sql the query
+     * @param streaming true if the result should be streamed
+     * @param configuredFetchSize the fetch size from the configuration, 0 for the default
+     * @return the statement, with its parameters cleared
+     * @throws SQLException if the statement can not be prepared
+     */
+    PreparedStatement prepare(JdbcDialect dialect, String sql, boolean streaming, int configuredFetchSize)
+            throws SQLException {
+        String key = streaming + ":" + configuredFetchSize + ":" + sql;
+        PreparedStatement statement = statements.get(key);
+        if (statement != null && !statement.isClosed()) {
+            statement.clearParameters();
+            reused++;
+            return statement;
+        }
+        statement = dialect.prepareStatement(connection, jdbcUrl, sql, streaming, configuredFetchSize);
+        statements.put(key, statement);
+        prepared++;
+        Iterator<Map.Entry<String, PreparedStatement>> iterator = statements.entrySet().iterator();
+        while (statements.size() > maxSize && iterator.hasNext()) {
+            PreparedStatement eldest = iterator.next().getValue();
+            iterator.remove();
+            closeQuietly(eldest);
+        }
+        return statement;
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            logger.debug("Could not close a cached statement: " + e);
+        }
+    }
+
+    /**
+     * Close all statements; the connection stays open.
+     */
+    @Override
+    public void close() {
+        for (PreparedStatement statement : statements.values()) {
+            closeQuietly(statement);
+        }
+        statements.clear();
+        if (reused > 0) {
+            logger.info("Prepared " + prepared + " statements, re-executed " + reused + " times");
+        }
+    }
+}
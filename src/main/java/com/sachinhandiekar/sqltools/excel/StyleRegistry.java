@@ -0,0 +1,62 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.DataFormat;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.Workbook;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Workbook wide cache of cell styles.
+ * <p>
+ * A style is created once per distinct data format and font and shared by all columns of all
+ * worksheets, which keeps .xls files below the HSSF style limit and styles.xml small.
+ */
+public class StyleRegistry {
+
+    private final Workbook workbook;
+
+    private final TypeFormatMapping typeFormatMapping;
+
+    private final DataFormat dataFormat;
+
+    private final Map<String, CellStyle> styles = new HashMap<String, CellStyle>();
+
+    public StyleRegistry(Workbook workbook, TypeFormatMapping typeFormatMapping) {
+        this.workbook = workbook;
+        this.typeFormatMapping = typeFormatMapping;
+        this.dataFormat = workbook.createDataFormat();
+    }
+
+    public TypeFormatMapping getTypeFormatMapping() {
+        return typeFormatMapping;
+    }
+
+    /**
+     * @param excelFormat the Excel data format
+     * @param font the font of the style or null for the default font
+     * @return the shared style
+     */
+    public CellStyle getStyle(String excelFormat, Font font) {
+        String key = font == null ? excelFormat : excelFormat + '\u0000' + font.getIndexAsInt();
+        CellStyle style = styles.get(key);
+        if (style == null) {
+            style = workbook.createCellStyle();
+            style.setDataFormat(dataFormat.getFormat(excelFormat));
+            if (font != null) {
+                style.setFont(font);
+            }
+            styles.put(key, style);
+        }
+        return style;
+    }
+
+    /**
+     * @return the number of distinct styles created
+     */
+    public int size() {
+        return styles.size();
+    }
+}
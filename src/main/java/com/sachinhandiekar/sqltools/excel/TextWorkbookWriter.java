@@ -0,0 +1,286 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import com.sachinhandiekar.sqltools.excel.model.ExcelFile;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the worksheets of an excel file as UTF-8 text: comma separated with a header record for
+ * .csv and .csv.gz files, tab separated for .tsv files, a JSON object per row for .jsonl and
+ * .jsonl.gz files.
+ * <p>
+ * Text has no sheets, so every worksheet goes to its own file. An excel file with a single
+ * worksheet, counting a worksheet with parameter sets once per set, is written to the fileName,
+ * otherwise the worksheet name is added to the file name before the extension, e.g.
+ * report_Orders.csv. A .gz file is gzipped with the compression level
+ * of the excel file.
+ * <p>
+ * With append the rows are added to the existing files, without a second header record; a .gz
+ * file gets a further gzip member. When the export fails the files are cut back to their previous
+ * length, so a repeated run does not duplicate rows.
+ * <p>
+ * Written to a stream, the excel file has a single worksheet, whose records are passed on as the
+ * buffer fills.
+ */
+public class TextWorkbookWriter implements WorkbookWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(TextWorkbookWriter.class);
+
+    private static final String[] EXTENSIONS = {".csv.gz", ".csv", ".tsv", ".jsonl.gz", ".jsonl"};
+
+    private final ExcelFile excelFile;
+
+    private final TypeFormatMapping typeFormatMapping;
+
+    private final File file;
+
+    /** the stream to write the single worksheet to, null to write files */
+    private final WritableByteChannel stream;
+
+    private final char delimiter;
+
+    private final boolean jsonLines;
+
+    private final List<File> files = new ArrayList<File>();
+
+    /** the length of the appended files before the export */
+    private final Map<File, Long> appendedFrom = new LinkedHashMap<File, Long>();
+
+    private DelimitedWriter currentOut;
+
+    private boolean finished;
+
+    /**
+     * @param excelFile the excel file
+     * @param typeFormatMapping the mapping of column types to Excel formats
+     * @param file the file name of the excel file
+     */
+    public TextWorkbookWriter(ExcelFile excelFile, TypeFormatMapping typeFormatMapping, File file) {
+        this(excelFile, typeFormatMapping, file, null);
+    }
+
+    /**
+     * @param excelFile the excel file
+     * @param typeFormatMapping the mapping of column types to Excel formats
+     * @param file the file name of the excel file, its extension selects the format
+     * @param stream the stream to write the single worksheet to instead of the file, closed with the
+     * worksheet or the writer, or null
+     */
+    public TextWorkbookWriter(ExcelFile excelFile, TypeFormatMapping typeFormatMapping, File file,
+                              WritableByteChannel stream) {
+        this.excelFile = excelFile;
+        this.typeFormatMapping = typeFormatMapping;
+        this.file = file;
+        this.stream = stream;
+        String extension = extensionOf(file.getName());
+        this.delimiter = ".tsv".equals(extension) ? '\t' : ',';
+        this.jsonLines = extension != null && extension.startsWith(".jsonl");
+    }
+
+    /**
+     * @param fileName a file name
+     * @return true if the file is written as text
+     */
+    public static boolean isText(String fileName) {
+        return extensionOf(fileName) != null;
+    }
+
+    /**
+     * @return the text extension of the file name, the longest one if several match, or null
+     */
+    private static String extensionOf(String fileName) {
+        String lowerCase = fileName.toLowerCase();
+        String match = null;
+        for (String extension : EXTENSIONS) {
+            if (lowerCase.endsWith(extension) && (match == null || extension.length() > match.length())) {
+                match = extension;
+            }
+        }
+        return match;
+    }
+
+    /**
+     * @param fileName a file name
+     * @param suffix the text to add to the name
+     * @return the file name with the suffix before its extension, a compound text extension like
+     * .csv.gz counts as one: report.csv.gz becomes report_2.csv.gz, not report.csv_2.gz
+     */
+    static String insertBeforeExtension(String fileName, String suffix) {
+        String extension = extensionOf(fileName);
+        int dot;
+        if (extension != null) {
+            dot = fileName.length() - extension.length();
+        } else {
+            dot = fileName.lastIndexOf('.');
+            int separator = Math.max(fileName.lastIndexOf('/'), fileName.lastIndexOf('\\'));
+            if (dot <= separator) {
+                return fileName + suffix;
+            }
+        }
+        return fileName.substring(0, dot) + suffix + fileName.substring(dot);
+    }
+
+    @Override
+    public TypeFormatMapping getTypeFormatMapping() {
+        return typeFormatMapping;
+    }
+
+    @Override
+    public long getMaxSheetRows() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public List<File> getFiles() {
+        return files;
+    }
+
+    @Override
+    public List<File> getCreatedFiles() {
+        List<File> created = new ArrayList<File>(files);
+        created.removeAll(appendedFrom.keySet());
+        return created;
+    }
+
+    @Override
+    public SheetWriter startSheet(String workSheetName, ColumnLayout layout) throws IOException {
+        if (currentOut != null) {
+            throw new IllegalStateException("The previous worksheet was not finished");
+        }
+        if (stream != null) {
+            return startStreamSheet(workSheetName, layout);
+        }
+        File sheetFile = sheetFile(workSheetName);
+        if (files.contains(sheetFile)) {
+            throw new IllegalArgumentException("The worksheet " + workSheetName + " would overwrite " + sheetFile);
+        }
+        files.add(sheetFile);
+        logger.info("Writing worksheet " + workSheetName + " to " + sheetFile);
+
+        boolean header = true;
+        if (excelFile.isAppend() && sheetFile.exists()) {
+            long length = sheetFile.length();
+            appendedFrom.put(sheetFile, length);
+            header = length == 0;
+        }
+        currentOut = new DelimitedWriter(openChannel(sheetFile), delimiter);
+        if (jsonLines) {
+            return new JsonLinesSheetWriter(this, currentOut, layout);
+        }
+        return new CsvSheetWriter(this, currentOut, layout, delimiter, header);
+    }
+
+    private SheetWriter startStreamSheet(String workSheetName, ColumnLayout layout) throws IOException {
+        if (!stream.isOpen()) {
+            throw new IllegalArgumentException("The worksheet " + workSheetName
+                    + " can not be written, a text stream takes a single worksheet");
+        }
+        logger.info("Writing worksheet " + workSheetName + " to the stream");
+        WritableByteChannel channel = stream;
+        if (file.getName().toLowerCase().endsWith(".gz")) {
+            channel = Channels.newChannel(gzip(Channels.newOutputStream(stream)));
+        }
+        currentOut = new DelimitedWriter(channel, delimiter);
+        if (jsonLines) {
+            return new JsonLinesSheetWriter(this, currentOut, layout);
+        }
+        return new CsvSheetWriter(this, currentOut, layout, delimiter, true);
+    }
+
+    /**
+     * Close the file of the finished worksheet.
+     */
+    void finishSheet() throws IOException {
+        DelimitedWriter out = currentOut;
+        currentOut = null;
+        out.close();
+    }
+
+    private File sheetFile(String workSheetName) {
+        // a worksheet with parameter sets writes a sheet per set, so count the sheets after expanding them
+        if (files.isEmpty() && NamedParameters.expand(excelFile.getWorksheets(), null).size() == 1) {
+            return file;
+        }
+        String name = workSheetName == null ? "Sheet" + (files.size() + 1) : workSheetName;
+        // keep letters, digits, - and _ of the sheet name
+        String safeName = name.replaceAll("[^\\p{L}\\p{N}_-]+", "_").replaceAll("^_+|_+$", "");
+        return new File(insertBeforeExtension(file.getPath(), "_" + safeName));
+    }
+
+    private WritableByteChannel openChannel(File sheetFile) throws IOException {
+        if (sheetFile.getName().toLowerCase().endsWith(".gz")) {
+            return Channels.newChannel(gzip(new FileOutputStream(sheetFile, excelFile.isAppend())));
+        }
+        if (excelFile.isAppend()) {
+            return FileChannel.open(sheetFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+        }
+        return FileChannel.open(sheetFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private OutputStream gzip(OutputStream out) throws IOException {
+        final int level = excelFile.getCompressionLevel();
+        return new GZIPOutputStream(out, 1 << 16) {
+            {
+                def.setLevel(level);
+            }
+        };
+    }
+
+    @Override
+    public void finish() {
+        if (currentOut != null) {
+            throw new IllegalStateException("The last worksheet was not finished");
+        }
+        finished = true;
+    }
+
+    @Override
+    public void close() {
+        if (currentOut != null) {
+            try {
+                currentOut.close();
+            } catch (IOException e) {
+                logger.warn("Could not close the file: " + e);
+            }
+            currentOut = null;
+        }
+        if (stream != null && stream.isOpen()) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                logger.warn("Could not close the stream: " + e);
+            }
+        }
+        if (!finished) {
+            truncateAppended();
+        }
+    }
+
+    private void truncateAppended() {
+        for (Map.Entry<File, Long> entry : appendedFrom.entrySet()) {
+            try (FileChannel channel = FileChannel.open(entry.getKey().toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(entry.getValue());
+                logger.info("Removed the rows appended to " + entry.getKey() + " by the failed export");
+            } catch (IOException e) {
+                logger.warn("Could not remove the rows appended to " + entry.getKey() + " : " + e);
+            }
+        }
+    }
+}
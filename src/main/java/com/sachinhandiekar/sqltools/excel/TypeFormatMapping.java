@@ -0,0 +1,94 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Maps a SQL column type like NUMBER(10,2) to an Excel data format.
+ * <p>
+ * The patterns are compiled once and checked in order, the first match wins. Patterns from the
+ * "typeFormat" section of the JSON config are checked before the built-in ones. The result is cached
+ * per column type since the same types repeat across columns and worksheets.
+ */
+public class TypeFormatMapping {
+
+    /** Format used for column types without a matching pattern */
+    public static final String DEFAULT_FORMAT = "text";
+
+    private static final LinkedHashMap<String, String> DEFAULT_MAPPING = new LinkedHashMap<String, String>();
+
+    static {
+        DEFAULT_MAPPING.put("NUMBER\\(\\d+,2\\)", "0.00");
+        DEFAULT_MAPPING.put("NUMBER\\(\\d+,0\\)", "0");
+        DEFAULT_MAPPING.put("NUMBER.*", "0.###");
+        DEFAULT_MAPPING.put("INT\\(\\d+,0\\)", "0");
+        DEFAULT_MAPPING.put("BIGINT\\(\\d+,0\\)", "0");
+        DEFAULT_MAPPING.put("BIT\\(1,0\\)", "0");
+        DEFAULT_MAPPING.put("DECIMAL\\(\\d+,2\\)", "0.00");
+        DEFAULT_MAPPING.put("DECIMAL\\(\\d+,0\\)", "0");
+        DEFAULT_MAPPING.put("DECIMAL.*", "0.####");
+        DEFAULT_MAPPING.put("NUMERIC.*", "0.####");
+        DEFAULT_MAPPING.put(".*CHAR.*", "text");
+        DEFAULT_MAPPING.put("DATETIME\\(\\d+,3\\)", "dd.MM.yyyy h:mm:ss.000");
+        DEFAULT_MAPPING.put("DATETIME\\(\\d+,0\\)", "dd.MM.yyyy h:mm:ss");
+        DEFAULT_MAPPING.put("DATE.*", "dd.MM.yyyy");
+        DEFAULT_MAPPING.put("TIMESTAMP.*\"", "dd.MM.yyyy h:mm:ss.000");
+    }
+
+    private final List<Pattern> patterns = new ArrayList<Pattern>();
+
+    private final List<String> formats = new ArrayList<String>();
+
+    private final Map<String, String> resolved = new ConcurrentHashMap<String, String>();
+
+    /**
+     * @param customMapping pattern to format entries checked before the built-in ones, may be null
+     */
+    public TypeFormatMapping(Map<String, String> customMapping) {
+        if (customMapping != null) {
+            addAll(customMapping);
+        }
+        addAll(DEFAULT_MAPPING);
+    }
+
+    /**
+     * @return the built-in mapping only
+     */
+    public static TypeFormatMapping defaults() {
+        return new TypeFormatMapping(Collections.<String, String>emptyMap());
+    }
+
+    private void addAll(Map<String, String> mapping) {
+        for (Map.Entry<String, String> entry : mapping.entrySet()) {
+            patterns.add(Pattern.compile(entry.getKey()));
+            formats.add(entry.getValue());
+        }
+    }
+
+    /**
+     * @param columnType the column type name with precision and scale, e.g. NUMBER(10,2)
+     * @return the Excel format of the first matching pattern or "text"
+     */
+    public String getExcelFormat(String columnType) {
+        String format = resolved.get(columnType);
+        if (format == null) {
+            format = match(columnType);
+            resolved.put(columnType, format);
+        }
+        return format;
+    }
+
+    private String match(String columnType) {
+        for (int i = 0; i < patterns.size(); i++) {
+            if (patterns.get(i).matcher(columnType).matches()) {
+                return formats.get(i);
+            }
+        }
+        return DEFAULT_FORMAT;
+    }
+}
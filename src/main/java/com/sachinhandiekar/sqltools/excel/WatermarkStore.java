@@ -0,0 +1,169 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.annotations.SerializedName;
+import com.google.gson.reflect.TypeToken;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A JSON file with the watermark of every incremental worksheet, the largest value of its
+ * watermark column exported so far.
+ * <p>
+ * The file is read before every run and replaced atomically when the watermarks of a finished
+ * export are saved. Exports of the same JVM sharing a state file save one after another, each
+ * merging its watermarks into the current content. A state file must not be shared by several
+ * processes.
+ */
+public class WatermarkStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(WatermarkStore.class);
+
+    private static final Map<String, Object> locks = new ConcurrentHashMap<String, Object>();
+
+    private final File file;
+
+    private final Object lock;
+
+    /**
+     * @param file the state file, created by the first save
+     */
+    public WatermarkStore(File file) {
+        this.file = file.getAbsoluteFile();
+        this.lock = locks.computeIfAbsent(this.file.getPath(), path -> new Object());
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @param key the key of the worksheet
+     * @return the watermark of the worksheet or null if it was never exported
+     * @throws IOException if the state file can not be read
+     */
+    public Watermark get(String key) throws IOException {
+        synchronized (lock) {
+            return read().get(key);
+        }
+    }
+
+    /**
+     * Merge watermarks into the state file.
+     *
+     * @param watermarks the new watermarks by worksheet key
+     * @throws IOException if the state file can not be written
+     */
+    public void save(Map<String, Watermark> watermarks) throws IOException {
+        if (watermarks.isEmpty()) {
+            return;
+        }
+        synchronized (lock) {
+            Map<String, Watermark> state = read();
+            state.putAll(watermarks);
+            File temp = new File(file.getPath() + ".tmp");
+            try (Writer out = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+                new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create().toJson(state, out);
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+        logger.info("Saved " + watermarks.size() + " watermarks to " + file);
+    }
+
+    private Map<String, Watermark> read() throws IOException {
+        if (!file.exists()) {
+            return new TreeMap<String, Watermark>();
+        }
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            Map<String, Watermark> state = new Gson().fromJson(reader,
+                    new TypeToken<TreeMap<String, Watermark>>() { }.getType());
+            return state != null ? state : new TreeMap<String, Watermark>();
+        } catch (JsonParseException e) {
+            // a broken file must not silently restart the incremental worksheets from the beginning
+            throw new IOException("Invalid state file " + file + " : " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * The largest exported value of a watermark column, kept as text with its type.
+     */
+    public static class Watermark {
+
+        private static final String NUMBER = "number";
+
+        private static final String TIMESTAMP = "timestamp";
+
+        @SerializedName("column")
+        private String column;
+
+        @SerializedName("type")
+        private String type;
+
+        @SerializedName("value")
+        private String value;
+
+        @SerializedName("updatedAt")
+        private String updatedAt;
+
+        public Watermark() {
+        }
+
+        /**
+         * @param column the watermark column
+         * @param value the value, a BigDecimal or a Timestamp
+         */
+        public Watermark(String column, Object value) {
+            this.column = column;
+            if (value instanceof Timestamp) {
+                this.type = TIMESTAMP;
+                this.value = value.toString();
+            } else {
+                this.type = NUMBER;
+                this.value = ((BigDecimal) value).toPlainString();
+            }
+            this.updatedAt = LocalDateTime.now().withNano(0).toString();
+        }
+
+        public String getColumn() {
+            return column;
+        }
+
+        /**
+         * @return the value to bind, a BigDecimal or a Timestamp
+         */
+        public Object getValue() {
+            return TIMESTAMP.equals(type) ? Timestamp.valueOf(value) : new BigDecimal(value);
+        }
+
+        public String getUpdatedAt() {
+            return updatedAt;
+        }
+
+        @Override
+        public String toString() {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Writes the worksheets of one excel file, one worksheet after another.
+ * <p>
+ * Implementations are not thread safe, rows of concurrently fetched worksheets are spooled and
+ * written from a single thread.
+ */
+public interface WorkbookWriter extends Closeable {
+
+    /**
+     * @return the mapping of column types to Excel formats used for the worksheets
+     */
+    TypeFormatMapping getTypeFormatMapping();
+
+    /**
+     * @return the maximum number of data rows of a sheet in the file format, the header row excluded
+     */
+    long getMaxSheetRows();
+
+    /**
+     * @return the files written so far, empty when writing to a stream
+     */
+    List<File> getFiles();
+
+    /**
+     * @return the files this writer created, removed when the export fails; files it appended to
+     * are not included
+     */
+    default List<File> getCreatedFiles() {
+        return getFiles();
+    }
+
+    /**
+     * Create a worksheet with a header row for the given columns. The previous worksheet has to
+     * be finished.
+     *
+     * @param workSheetName the name of the worksheet
+     * @param layout the columns of the worksheet
+     * @return the writer for the data rows
+     * @throws IOException if the worksheet can not be started
+     */
+    SheetWriter startSheet(String workSheetName, ColumnLayout layout) throws IOException;
+
+    /**
+     * Complete the file after the last worksheet.
+     *
+     * @throws IOException if the file can not be written
+     */
+    void finish() throws IOException;
+
+    /**
+     * Release the resources of the workbook, also when it was not finished.
+     */
+    @Override
+    void close();
+}
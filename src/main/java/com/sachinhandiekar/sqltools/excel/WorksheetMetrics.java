@@ -0,0 +1,159 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Time spent per phase and rows of one worksheet.
+ * <p>
+ * The counters are added to once per batch or query, from the fetch and write threads of the
+ * worksheet (several fetch threads for a partitioned worksheet), and can be read while the export
+ * is running.
+ */
+public class WorksheetMetrics {
+
+    private final long id;
+
+    private final String name;
+
+    private final ExportMetrics exportMetrics;
+
+    private final AtomicLong queries = new AtomicLong();
+
+    private final AtomicLong cacheHits = new AtomicLong();
+
+    private final AtomicLong rows = new AtomicLong();
+
+    private final AtomicLong executeNanos = new AtomicLong();
+
+    private final AtomicLong firstRowNanos = new AtomicLong();
+
+    private final AtomicLong fetchNanos = new AtomicLong();
+
+    private final AtomicLong convertNanos = new AtomicLong();
+
+    private final AtomicLong writeNanos = new AtomicLong();
+
+    private final AtomicLong finishNanos = new AtomicLong();
+
+    private final AtomicLong allocatedBytes = new AtomicLong();
+
+    private final long startNanos = System.nanoTime();
+
+    private volatile long endNanos;
+
+    WorksheetMetrics(long id, String name, ExportMetrics exportMetrics) {
+        this.id = id;
+        this.name = name;
+        this.exportMetrics = exportMetrics;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param nanos the time of executeQuery of one query of the worksheet
+     */
+    public void addExecute(long nanos) {
+        queries.incrementAndGet();
+        executeNanos.addAndGet(nanos);
+    }
+
+    /**
+     * Count a query served from the result cache.
+     */
+    public void addCacheHit() {
+        cacheHits.incrementAndGet();
+    }
+
+    /**
+     * @param nanos the time until the first row of a query arrived, the slowest query of a
+     *              partitioned worksheet is kept
+     */
+    public void recordFirstRow(long nanos) {
+        long current;
+        do {
+            current = firstRowNanos.get();
+        } while (nanos > current && !firstRowNanos.compareAndSet(current, nanos));
+    }
+
+    /**
+     * @param rowCount the rows fetched
+     * @param fetchNanos the time spent in ResultSet.next
+     * @param convertNanos the time spent reading and converting the column values
+     */
+    public void addFetch(long rowCount, long fetchNanos, long convertNanos) {
+        rows.addAndGet(rowCount);
+        this.fetchNanos.addAndGet(fetchNanos);
+        this.convertNanos.addAndGet(convertNanos);
+    }
+
+    /**
+     * @param nanos the time spent writing rows to the worksheet (or a spool)
+     */
+    public void addWrite(long nanos) {
+        writeNanos.addAndGet(nanos);
+    }
+
+    /**
+     * @param nanos the time spent finishing the worksheet, e.g. writing the buffered rows of the
+     *              width sample or the sheet end
+     */
+    public void addFinish(long nanos) {
+        finishNanos.addAndGet(nanos);
+        endNanos = System.nanoTime();
+    }
+
+    /**
+     * @param bytes memory allocated for the worksheet by the exporting thread
+     */
+    public void addAllocated(long bytes) {
+        if (bytes > 0) {
+            allocatedBytes.addAndGet(bytes);
+        }
+    }
+
+    /**
+     * @param bytes memory allocated by a thread fetching rows of the worksheet, which is counted
+     *              for the excel file as well
+     */
+    public void addFetchThreadAllocated(long bytes) {
+        addAllocated(bytes);
+        exportMetrics.addOtherThreadAllocated(bytes);
+    }
+
+    public long getRows() {
+        return rows.get();
+    }
+
+    Map<String, Object> toReport() {
+        long elapsedNanos = (endNanos != 0 ? endNanos : System.nanoTime()) - startNanos;
+        Map<String, Object> report = new LinkedHashMap<String, Object>();
+        report.put("id", id);
+        report.put("name", name);
+        report.put("queries", queries.get());
+        report.put("cacheHits", cacheHits.get());
+        report.put("rows", rows.get());
+        report.put("elapsedMillis", millis(elapsedNanos));
+        report.put("rowsPerSecond", ExportMetrics.perSecond(rows.get(), elapsedNanos));
+        report.put("executeMillis", millis(executeNanos.get()));
+        report.put("firstRowMillis", millis(firstRowNanos.get()));
+        report.put("fetchMillis", millis(fetchNanos.get()));
+        report.put("convertMillis", millis(convertNanos.get()));
+        report.put("writeMillis", millis(writeNanos.get()));
+        report.put("finishMillis", millis(finishNanos.get()));
+        report.put("allocatedBytes", allocatedBytes.get());
+        return report;
+    }
+
+    static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
@@ -0,0 +1,54 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import com.sachinhandiekar.sqltools.excel.model.Worksheet;
+
+import java.util.List;
+
+/**
+ * A query filling a worksheet or a part of it, with the values of its bind parameters.
+ */
+public class WorksheetQuery {
+
+    private final String sql;
+
+    private final List<Object> parameters;
+
+    private final String description;
+
+    public WorksheetQuery(String sql, List<Object> parameters, String description) {
+        this.sql = sql;
+        this.parameters = parameters;
+        this.description = description;
+    }
+
+    /**
+     * @param workSheet the worksheet
+     * @return the query of the worksheet as configured, with its named parameters bound
+     */
+    public static WorksheetQuery of(Worksheet workSheet) {
+        return NamedParameters.query(workSheet);
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * @return the values of the ? placeholders of the sql, in order
+     */
+    public List<Object> getParameters() {
+        return parameters;
+    }
+
+    /**
+     * @return a short description used in the log, e.g. the key range of a partition
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    @Override
+    public String toString() {
+        return description;
+    }
+}
@@ -0,0 +1,174 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Appends XML markup and values to a reusable char buffer which is flushed to a Writer when full.
+ * <p>
+ * Numbers are formatted into the buffer directly, so writing markup, integers and escaped text
+ * does not allocate.
+ */
+public class XmlWriter {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private final char[] buffer = new char[BUFFER_SIZE];
+
+    private int position;
+
+    private Writer target;
+
+    public XmlWriter(Writer target) {
+        this.target = target;
+    }
+
+    /**
+     * Flush the buffered characters and write to another target from now on.
+     *
+     * @param target the new target
+     * @throws IOException if the buffer can not be flushed
+     */
+    public void setTarget(Writer target) throws IOException {
+        flushBuffer();
+        this.target = target;
+    }
+
+    public XmlWriter append(String markup) throws IOException {
+        int length = markup.length();
+        if (length > buffer.length - position) {
+            flushBuffer();
+            if (length > buffer.length) {
+                target.write(markup);
+                return this;
+            }
+        }
+        markup.getChars(0, length, buffer, position);
+        position += length;
+        return this;
+    }
+
+    public XmlWriter append(char c) throws IOException {
+        if (position == buffer.length) {
+            flushBuffer();
+        }
+        buffer[position++] = c;
+        return this;
+    }
+
+    public XmlWriter append(char[] chars) throws IOException {
+        if (chars.length > buffer.length - position) {
+            flushBuffer();
+        }
+        System.arraycopy(chars, 0, buffer, position, chars.length);
+        position += chars.length;
+        return this;
+    }
+
+    public XmlWriter append(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            return append(Long.toString(value));
+        }
+        if (buffer.length - position < 20) {
+            flushBuffer();
+        }
+        if (value < 0) {
+            buffer[position++] = '-';
+            value = -value;
+        }
+        int end = position + digits(value);
+        int i = end;
+        do {
+            buffer[--i] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        position = end;
+        return this;
+    }
+
+    private static int digits(long value) {
+        int digits = 1;
+        for (long limit = 10; digits < 19 && value >= limit; limit *= 10) {
+            digits++;
+        }
+        return digits;
+    }
+
+    /**
+     * Append a number the way Excel and POI store it: integers without fraction, other values in
+     * the shortest form that reads back to the same double.
+     */
+    public XmlWriter append(double value) throws IOException {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15 && (value != 0 || 1 / value > 0)) {
+            return append((long) value);
+        }
+        return append(Double.toString(value));
+    }
+
+    /**
+     * Append text as element content or attribute value. Markup characters are escaped, characters
+     * which are not allowed in XML are written as _xHHHH_ like Excel does. So is the carriage return,
+     * which an XML parser would otherwise read back as a line feed.
+     */
+    public XmlWriter appendEscaped(String text) throws IOException {
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (buffer.length - position < 8) {
+                flushBuffer();
+            }
+            switch (c) {
+                case '&':
+                    position = put(position, "&amp;");
+                    break;
+                case '<':
+                    position = put(position, "&lt;");
+                    break;
+                case '>':
+                    position = put(position, "&gt;");
+                    break;
+                case '"':
+                    position = put(position, "&quot;");
+                    break;
+                default:
+                    if ((c < 0x20 && c != '\t' && c != '\n') || c == 0xFFFE || c == 0xFFFF) {
+                        buffer[position++] = '_';
+                        buffer[position++] = 'x';
+                        buffer[position++] = HEX[(c >> 12) & 0xF];
+                        buffer[position++] = HEX[(c >> 8) & 0xF];
+                        buffer[position++] = HEX[(c >> 4) & 0xF];
+                        buffer[position++] = HEX[c & 0xF];
+                        buffer[position++] = '_';
+                    } else {
+                        buffer[position++] = c;
+                    }
+                    break;
+            }
+        }
+        return this;
+    }
+
+    private int put(int at, String entity) {
+        entity.getChars(0, entity.length(), buffer, at);
+        return at + entity.length();
+    }
+
+    /**
+     * Write the buffered characters to the target and flush it.
+     *
+     * @throws IOException if any error occurs
+     */
+    public void flush() throws IOException {
+        flushBuffer();
+        target.flush();
+    }
+
+    private void flushBuffer() throws IOException {
+        if (position > 0) {
+            target.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+}
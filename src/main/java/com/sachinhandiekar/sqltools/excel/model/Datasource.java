@@ -11,7 +11,10 @@ import com.google.gson.annotations.SerializedName;
  * "className": "oracle.jdbc.driver.OracleDriver",
  * "jdbcUrl": "jdbc:oracle:thin:@//localhost:1521/orcl",
  * "username": "user1",
- * "password": "pass1"
+ * "password": "pass1",
+ * "streaming": true,
+ * "fetchSize": 5000,
+ * "maxPoolSize": 10
  * }
  */
 public class Datasource {
@@ -28,6 +31,27 @@ public class Datasource {
     @SerializedName("password")
     private String password;
 
+    @SerializedName("streaming")
+    private boolean streaming = false;
+
+    @SerializedName("fetchSize")
+    private int fetchSize = 0;
+
+    @SerializedName("maxConnections")
+    private int maxConnections = 4;
+
+    @SerializedName("statementCacheSize")
+    private int statementCacheSize = 20;
+
+    @SerializedName("maxPoolSize")
+    private int maxPoolSize = 10;
+
+    @SerializedName("connectionTimeoutSeconds")
+    private int connectionTimeoutSeconds = 60;
+
+    @SerializedName("idleTimeoutSeconds")
+    private int idleTimeoutSeconds = 300;
+
     public String getClassName() {
         return className;
     }
@@ -60,12 +84,90 @@ public class Datasource {
         this.password = password;
     }
 
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * @return the maximum number of connections used concurrently on this datasource
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    /**
+     * @return the number of prepared statements kept open per connection, 0 to close them after each query
+     */
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    public void setStatementCacheSize(int statementCacheSize) {
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    /**
+     * @return the maximum number of connections of the pool, in use and idle
+     */
+    public int getMaxPoolSize() {
+        return maxPoolSize;
+    }
+
+    public void setMaxPoolSize(int maxPoolSize) {
+        this.maxPoolSize = maxPoolSize;
+    }
+
+    /**
+     * @return the time to wait for a connection of the pool when all are in use
+     */
+    public int getConnectionTimeoutSeconds() {
+        return connectionTimeoutSeconds;
+    }
+
+    public void setConnectionTimeoutSeconds(int connectionTimeoutSeconds) {
+        this.connectionTimeoutSeconds = connectionTimeoutSeconds;
+    }
+
+    /**
+     * @return the time after which an unused connection of the pool is closed
+     */
+    public int getIdleTimeoutSeconds() {
+        return idleTimeoutSeconds;
+    }
+
+    public void setIdleTimeoutSeconds(int idleTimeoutSeconds) {
+        this.idleTimeoutSeconds = idleTimeoutSeconds;
+    }
+
     @Override
     public String toString() {
         return "Datasource{" +
                 "className='" + className + '\'' +
                 ", jdbcUrl='" + jdbcUrl + '\'' +
                 ", userName='" + userName + '\'' +
+                ", streaming=" + streaming +
+                ", fetchSize=" + fetchSize +
+                ", maxConnections=" + maxConnections +
+                ", statementCacheSize=" + statementCacheSize +
+                ", maxPoolSize=" + maxPoolSize +
+                ", connectionTimeoutSeconds=" + connectionTimeoutSeconds +
+                ", idleTimeoutSeconds=" + idleTimeoutSeconds +
                 '}';
     }
 }
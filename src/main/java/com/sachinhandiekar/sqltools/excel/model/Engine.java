@@ -0,0 +1,25 @@
+package com.sachinhandiekar.sqltools.excel.model;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * The implementation writing an excel file.
+ * <p>
+ * E.g.
+ * <p>
+ * "engine": "direct"
+ */
+public enum Engine {
+
+    /**
+     * Apache POI workbooks, xls and xlsx (default)
+     */
+    @SerializedName("poi")
+    POI,
+
+    /**
+     * SpreadsheetML written straight into the xlsx zip, xlsx only
+     */
+    @SerializedName("direct")
+    DIRECT
+}
@@ -32,6 +32,9 @@ import java.util.List;
  */
 public class ExcelFile {
 
+    /** the watermark file of incremental worksheets when stateFile is not set, relative to the working directory */
+    public static final String DEFAULT_STATE_FILE = "sqlExcelExporter-state.json";
+
     @SerializedName("id")
     private long id;
     
@@ -47,6 +50,66 @@ public class ExcelFile {
     @SerializedName("preparationProcedureStatement")
     private String preparationProcedureStatement;
 
+    @SerializedName("numericMode")
+    private NumericMode numericMode = NumericMode.STRICT;
+
+    @SerializedName("columnWidthSampleRows")
+    private int columnWidthSampleRows = 1000;
+
+    @SerializedName("pipelined")
+    private boolean pipelined = false;
+
+    @SerializedName("batchSize")
+    private int batchSize = 1000;
+
+    @SerializedName("queueDepth")
+    private int queueDepth = 4;
+
+    @SerializedName("parallel")
+    private boolean parallel = false;
+
+    @SerializedName("engine")
+    private Engine engine = Engine.POI;
+
+    @SerializedName("compressionLevel")
+    private int compressionLevel = -1;
+
+    @SerializedName("compressionThreads")
+    private int compressionThreads = 1;
+
+    @SerializedName("compressTempFiles")
+    private boolean compressTempFiles = false;
+
+    @SerializedName("maxRowsPerSheet")
+    private int maxRowsPerSheet = 0;
+
+    @SerializedName("maxRowsPerFile")
+    private long maxRowsPerFile = 0;
+
+    @SerializedName("outputs")
+    private List<String> outputs;
+
+    @SerializedName("report")
+    private boolean report = false;
+
+    @SerializedName("jmx")
+    private boolean jmx = false;
+
+    @SerializedName("parameterSets")
+    private List<ParameterSet> parameterSets;
+
+    @SerializedName("stateFile")
+    private String stateFile = DEFAULT_STATE_FILE;
+
+    @SerializedName("append")
+    private boolean append = false;
+
+    @SerializedName("sharedStrings")
+    private int sharedStrings = 16384;
+
+    @SerializedName("checkpointDirectory")
+    private String checkpointDirectory;
+
     public long getId() {
         return id;
     }
@@ -85,5 +148,227 @@ public class ExcelFile {
 
 	public void setLarge(boolean large) {
 		this.large = large;
-	}    
+	}
+
+    public NumericMode getNumericMode() {
+        return numericMode;
+    }
+
+    public void setNumericMode(NumericMode numericMode) {
+        this.numericMode = numericMode;
+    }
+
+    /**
+     * @return the number of rows used to estimate the column widths, negative for all rows
+     */
+    public int getColumnWidthSampleRows() {
+        return columnWidthSampleRows;
+    }
+
+    public void setColumnWidthSampleRows(int columnWidthSampleRows) {
+        this.columnWidthSampleRows = columnWidthSampleRows;
+    }
+
+    /**
+     * @return true if rows are fetched on a separate thread while the worksheet is written
+     */
+    public boolean isPipelined() {
+        return pipelined;
+    }
+
+    public void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+
+    /**
+     * @return the number of rows handed from fetch to write at once
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return the number of batches in flight between the fetch and the write thread
+     */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    public void setQueueDepth(int queueDepth) {
+        this.queueDepth = queueDepth;
+    }
+
+    /**
+     * @return true if the worksheet queries run concurrently on separate connections
+     */
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * @return the implementation writing the file
+     */
+    public Engine getEngine() {
+        return engine;
+    }
+
+    public void setEngine(Engine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * @return the deflate level of the xlsx zip, 0 (store only) to 9, -1 for the default
+     */
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * @return the number of threads deflating the zip of the direct engine
+     */
+    public int getCompressionThreads() {
+        return compressionThreads;
+    }
+
+    public void setCompressionThreads(int compressionThreads) {
+        this.compressionThreads = compressionThreads;
+    }
+
+    /**
+     * @return true if the temporary sheet files of large (SXSSF) workbooks are gzip compressed
+     */
+    public boolean isCompressTempFiles() {
+        return compressTempFiles;
+    }
+
+    public void setCompressTempFiles(boolean compressTempFiles) {
+        this.compressTempFiles = compressTempFiles;
+    }
+
+    /**
+     * @return the maximum number of data rows of a sheet before the rows continue on a new sheet,
+     * 0 for the limit of the file format
+     */
+    public int getMaxRowsPerSheet() {
+        return maxRowsPerSheet;
+    }
+
+    public void setMaxRowsPerSheet(int maxRowsPerSheet) {
+        this.maxRowsPerSheet = maxRowsPerSheet;
+    }
+
+    /**
+     * @return the maximum number of data rows of a file before the rows continue in a new file,
+     * 0 for no limit
+     */
+    public long getMaxRowsPerFile() {
+        return maxRowsPerFile;
+    }
+
+    public void setMaxRowsPerFile(long maxRowsPerFile) {
+        this.maxRowsPerFile = maxRowsPerFile;
+    }
+
+    /**
+     * @return further file names written from the same query results as fileName, e.g. a csv or
+     * jsonl file next to the xlsx file, or null
+     */
+    public List<String> getOutputs() {
+        return outputs;
+    }
+
+    public void setOutputs(List<String> outputs) {
+        this.outputs = outputs;
+    }
+
+    /**
+     * @return true to write the performance metrics of the export as JSON next to the first file
+     */
+    public boolean isReport() {
+        return report;
+    }
+
+    public void setReport(boolean report) {
+        this.report = report;
+    }
+
+    /**
+     * @return true to register the progress of the export as MBean while it runs
+     */
+    public boolean isJmx() {
+        return jmx;
+    }
+
+    public void setJmx(boolean jmx) {
+        this.jmx = jmx;
+    }
+
+    /**
+     * @return the parameter sets to export a file for each, or null to export the file once
+     */
+    public List<ParameterSet> getParameterSets() {
+        return parameterSets;
+    }
+
+    public void setParameterSets(List<ParameterSet> parameterSets) {
+        this.parameterSets = parameterSets;
+    }
+
+    /**
+     * @return the file keeping the watermarks of the incremental worksheets between runs
+     */
+    public String getStateFile() {
+        return stateFile;
+    }
+
+    public void setStateFile(String stateFile) {
+        this.stateFile = stateFile;
+    }
+
+    /**
+     * @return true to append the rows to existing csv, tsv and jsonl files instead of replacing them
+     */
+    public boolean isAppend() {
+        return append;
+    }
+
+    public void setAppend(boolean append) {
+        this.append = append;
+    }
+
+    /**
+     * @return the maximum number of distinct strings the direct engine shares between the cells of
+     * low cardinality text columns, 0 to write all texts inline
+     */
+    public int getSharedStrings() {
+        return sharedStrings;
+    }
+
+    public void setSharedStrings(int sharedStrings) {
+        this.sharedStrings = sharedStrings;
+    }
+
+    /**
+     * @return the directory keeping the finished worksheets of an export until the file is written,
+     * so a failed export is resumed with the remaining worksheets, or null to not checkpoint
+     */
+    public String getCheckpointDirectory() {
+        return checkpointDirectory;
+    }
+
+    public void setCheckpointDirectory(String checkpointDirectory) {
+        this.checkpointDirectory = checkpointDirectory;
+    }
 }
@@ -0,0 +1,56 @@
+package com.sachinhandiekar.sqltools.excel.model;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * A class to denote the Incremental JSON Model of a worksheet.
+ * <p>
+ * E.g.
+ * <p>
+ * "incremental": {
+ * "column": "AUDIT_ID",
+ * "initialValue": "0"
+ * }
+ * <p>
+ * Each run exports only the rows whose column is above the watermark of the previous run, which is
+ * kept in the state file of the excel file. The initial value is optional; without it the first run
+ * exports all rows. Dates are given as yyyy-MM-dd or yyyy-MM-dd HH:mm:ss.
+ */
+public class Incremental {
+
+    @SerializedName("column")
+    private String column;
+
+    @SerializedName("initialValue")
+    private String initialValue;
+
+    /**
+     * @return the numeric or date column of the query result which increases with every new row
+     */
+    public String getColumn() {
+        return column;
+    }
+
+    public void setColumn(String column) {
+        this.column = column;
+    }
+
+    /**
+     * @return the watermark of the first run, rows up to it are never exported, or null for none
+     */
+    public String getInitialValue() {
+        return initialValue;
+    }
+
+    public void setInitialValue(String initialValue) {
+        this.initialValue = initialValue;
+    }
+
+    @Override
+    public String toString() {
+        return "Incremental{" +
+                "column='" + column + '\'' +
+                ", initialValue='" + initialValue + '\'' +
+                '}';
+    }
+}
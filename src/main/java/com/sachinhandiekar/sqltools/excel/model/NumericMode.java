@@ -0,0 +1,25 @@
+package com.sachinhandiekar.sqltools.excel.model;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * How decimal columns which can not always be represented as double are written.
+ * <p>
+ * E.g.
+ * <p>
+ * "numericMode": "lossy"
+ */
+public enum NumericMode {
+
+    /**
+     * Values which would lose digits as double are written as plain text (default)
+     */
+    @SerializedName("strict")
+    STRICT,
+
+    /**
+     * All finite values are written as numbers, digits beyond double precision are dropped
+     */
+    @SerializedName("lossy")
+    LOSSY
+}
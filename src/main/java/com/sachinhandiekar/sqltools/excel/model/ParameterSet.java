@@ -0,0 +1,62 @@
+package com.sachinhandiekar.sqltools.excel.model;
+
+import com.google.gson.annotations.SerializedName;
+
+import java.util.Map;
+
+/**
+ * A class to denote the ParameterSet JSON Model of a worksheet or an excel file.
+ * <p>
+ * E.g.
+ * <p>
+ * "parameterSets": [
+ * { "name": "North", "values": { "region": "N" } },
+ * { "name": "South", "values": { "region": "S", "minAmount": 100 } }
+ * ]
+ * <p>
+ * The values are bound to the :name placeholders of the worksheet queries. The name replaces the
+ * ##Param## placeholder of the sheet or file name.
+ */
+public class ParameterSet {
+
+    @SerializedName("name")
+    private String name;
+
+    @SerializedName("values")
+    private Map<String, Object> values;
+
+    public ParameterSet() {
+    }
+
+    public ParameterSet(String name, Map<String, Object> values) {
+        this.name = name;
+        this.values = values;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return the parameter values by name
+     */
+    public Map<String, Object> getValues() {
+        return values;
+    }
+
+    public void setValues(Map<String, Object> values) {
+        this.values = values;
+    }
+
+    @Override
+    public String toString() {
+        return "ParameterSet{" +
+                "name='" + name + '\'' +
+                ", values=" + values +
+                '}';
+    }
+}
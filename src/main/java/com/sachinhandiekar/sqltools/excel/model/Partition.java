@@ -0,0 +1,81 @@
+package com.sachinhandiekar.sqltools.excel.model;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * A class to denote the Partition JSON Model of a worksheet.
+ * <p>
+ * E.g.
+ * <p>
+ * "partition": {
+ * "column": "ORDER_ID",
+ * "count": 8,
+ * "lowerBound": "1",
+ * "upperBound": "30000000"
+ * }
+ * <p>
+ * The bounds are optional. Without them the minimum and maximum of the column are queried first.
+ * Dates are given as yyyy-MM-dd or yyyy-MM-dd HH:mm:ss.
+ */
+public class Partition {
+
+    @SerializedName("column")
+    private String column;
+
+    @SerializedName("count")
+    private int count = 4;
+
+    @SerializedName("lowerBound")
+    private String lowerBound;
+
+    @SerializedName("upperBound")
+    private String upperBound;
+
+    /**
+     * @return the numeric or date column of the query result the rows are split by
+     */
+    public String getColumn() {
+        return column;
+    }
+
+    public void setColumn(String column) {
+        this.column = column;
+    }
+
+    /**
+     * @return the number of key ranges
+     */
+    public int getCount() {
+        return count;
+    }
+
+    public void setCount(int count) {
+        this.count = count;
+    }
+
+    public String getLowerBound() {
+        return lowerBound;
+    }
+
+    public void setLowerBound(String lowerBound) {
+        this.lowerBound = lowerBound;
+    }
+
+    public String getUpperBound() {
+        return upperBound;
+    }
+
+    public void setUpperBound(String upperBound) {
+        this.upperBound = upperBound;
+    }
+
+    @Override
+    public String toString() {
+        return "Partition{" +
+                "column='" + column + '\'' +
+                ", count=" + count +
+                ", lowerBound='" + lowerBound + '\'' +
+                ", upperBound='" + upperBound + '\'' +
+                '}';
+    }
+}
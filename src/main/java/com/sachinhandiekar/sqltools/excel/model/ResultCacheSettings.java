@@ -0,0 +1,70 @@
+package com.sachinhandiekar.sqltools.excel.model;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * A class to denote the ResultCache JSON Model of the config.
+ * <p>
+ * E.g.
+ * <p>
+ * "resultCache": {
+ * "directory": "C:/temp/sqlexport-cache",
+ * "ttlSeconds": 3600,
+ * "maxSizeMb": 2048
+ * }
+ * <p>
+ * Without a directory the cache files are created in a new temporary directory.
+ */
+public class ResultCacheSettings {
+
+    @SerializedName("directory")
+    private String directory;
+
+    @SerializedName("ttlSeconds")
+    private long ttlSeconds = 3600;
+
+    @SerializedName("maxSizeMb")
+    private long maxSizeMb = 1024;
+
+    /**
+     * @return the directory of the cache files or null for a temporary directory
+     */
+    public String getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return the time a cached result is served after its query ran
+     */
+    public long getTtlSeconds() {
+        return ttlSeconds;
+    }
+
+    public void setTtlSeconds(long ttlSeconds) {
+        this.ttlSeconds = ttlSeconds;
+    }
+
+    /**
+     * @return the maximum size of all cache files, the least recently used results are removed first
+     */
+    public long getMaxSizeMb() {
+        return maxSizeMb;
+    }
+
+    public void setMaxSizeMb(long maxSizeMb) {
+        this.maxSizeMb = maxSizeMb;
+    }
+
+    @Override
+    public String toString() {
+        return "ResultCacheSettings{" +
+                "directory='" + directory + '\'' +
+                ", ttlSeconds=" + ttlSeconds +
+                ", maxSizeMb=" + maxSizeMb +
+                '}';
+    }
+}
@@ -3,6 +3,7 @@ package com.sachinhandiekar.sqltools.excel.model;
 import com.google.gson.annotations.SerializedName;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  * A class to denote the SQLExcelExporterConfig JSON data model.
@@ -35,7 +36,11 @@ import java.util.List;
  * "fileName": "C:/temp/##Date##-excelFile1.xls",
  * "preparationProcedureStatement": "{ call proc123 }"
  * }
- * ]
+ * ],
+ * "typeFormat": {
+ * "NUMBER\\(\\d+,4\\)": "0.0000"
+ * },
+ * "schedule": "30 6 * * 1-5"
  * }
  */
 public class SQLExcelExporterConfig {
@@ -46,6 +51,18 @@ public class SQLExcelExporterConfig {
     @SerializedName("excelFile")
     private List<ExcelFile> excelFiles;
 
+    @SerializedName("typeFormat")
+    private Map<String, String> typeFormats;
+
+    @SerializedName("maxParallelFiles")
+    private int maxParallelFiles = 1;
+
+    @SerializedName("resultCache")
+    private ResultCacheSettings resultCache;
+
+    @SerializedName("schedule")
+    private String schedule;
+
     public Datasource getDatasource() {
         return datasource;
     }
@@ -62,4 +79,49 @@ public class SQLExcelExporterConfig {
     public void setExcelFiles(List<ExcelFile> excelFiles) {
         this.excelFiles = excelFiles;
     }
+
+    /**
+     * @return column type pattern to Excel format entries checked before the built-in mapping, may be null
+     */
+    public Map<String, String> getTypeFormats() {
+        return typeFormats;
+    }
+
+    public void setTypeFormats(Map<String, String> typeFormats) {
+        this.typeFormats = typeFormats;
+    }
+
+    /**
+     * @return the maximum number of excel files exported at the same time
+     */
+    public int getMaxParallelFiles() {
+        return maxParallelFiles;
+    }
+
+    public void setMaxParallelFiles(int maxParallelFiles) {
+        this.maxParallelFiles = maxParallelFiles;
+    }
+
+    /**
+     * @return the settings of the cache of query results shared by the worksheets, null for no cache
+     */
+    public ResultCacheSettings getResultCache() {
+        return resultCache;
+    }
+
+    public void setResultCache(ResultCacheSettings resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * @return the cron expression (minute hour day-of-month month day-of-week) of the runs in daemon
+     * mode, null if the configuration is not scheduled
+     */
+    public String getSchedule() {
+        return schedule;
+    }
+
+    public void setSchedule(String schedule) {
+        this.schedule = schedule;
+    }
 }
@@ -2,6 +2,9 @@ package com.sachinhandiekar.sqltools.excel.model;
 
 import com.google.gson.annotations.SerializedName;
 
+import java.util.List;
+import java.util.Map;
+
 /**
  * A class to denote the Worksheet JSON Model.
  * <p>
@@ -16,7 +19,27 @@ import com.google.gson.annotations.SerializedName;
  * {
  * "id": "2",
  * "sqlQuery": "Select * from Stock",
- * "workSheetName": "Stock"
+ * "workSheetName": "Stock",
+ * "streaming": false
+ * },
+ * {
+ * "id": "3",
+ * "sqlQuery": "Select * from Orders",
+ * "workSheetName": "Orders",
+ * "partition": { "column": "ORDER_ID", "count": 8 }
+ * },
+ * {
+ * "id": "4",
+ * "sqlQuery": "Select * from Sales where region = :region and sale_date >= :since",
+ * "workSheetName": "Sales ##Param##",
+ * "parameters": { "since": "2024-01-01" },
+ * "parameterSets": [ { "name": "North", "values": { "region": "N" } }, { "name": "South", "values": { "region": "S" } } ]
+ * },
+ * {
+ * "id": "5",
+ * "sqlQuery": "Select * from Audit_Log",
+ * "workSheetName": "Audit",
+ * "incremental": { "column": "AUDIT_ID" }
  * }
  * ]
  */
@@ -31,6 +54,27 @@ public class Worksheet {
     @SerializedName("workSheetName")
     private String workSheetName;
 
+    @SerializedName("streaming")
+    private Boolean streaming;
+
+    @SerializedName("fetchSize")
+    private Integer fetchSize;
+
+    @SerializedName("partition")
+    private Partition partition;
+
+    @SerializedName("cache")
+    private Boolean cache;
+
+    @SerializedName("parameters")
+    private Map<String, Object> parameters;
+
+    @SerializedName("parameterSets")
+    private List<ParameterSet> parameterSets;
+
+    @SerializedName("incremental")
+    private Incremental incremental;
+
     public long getId() {
         return id;
     }
@@ -54,4 +98,101 @@ public class Worksheet {
     public void setWorkSheetName(String workSheetName) {
         this.workSheetName = workSheetName;
     }
+
+    /**
+     * @return the streaming mode for this worksheet or null to use the datasource setting
+     */
+    public Boolean getStreaming() {
+        return streaming;
+    }
+
+    public void setStreaming(Boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    /**
+     * @return the fetch size for this worksheet or null to use the datasource setting
+     */
+    public Integer getFetchSize() {
+        return fetchSize;
+    }
+
+    public void setFetchSize(Integer fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * @return the key ranges to fetch in parallel or null to run the query as a whole
+     */
+    public Partition getPartition() {
+        return partition;
+    }
+
+    public void setPartition(Partition partition) {
+        this.partition = partition;
+    }
+
+    /**
+     * @return whether the query results may be served from and stored in the result cache, null to
+     * cache unless the excel file has a preparation procedure
+     */
+    public Boolean getCache() {
+        return cache;
+    }
+
+    public void setCache(Boolean cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * @return the values of the :name placeholders of the query, overridden by the parameter sets
+     */
+    public Map<String, Object> getParameters() {
+        return parameters;
+    }
+
+    public void setParameters(Map<String, Object> parameters) {
+        this.parameters = parameters;
+    }
+
+    /**
+     * @return the parameter sets to fill a sheet for each, or null to fill the worksheet once
+     */
+    public List<ParameterSet> getParameterSets() {
+        return parameterSets;
+    }
+
+    public void setParameterSets(List<ParameterSet> parameterSets) {
+        this.parameterSets = parameterSets;
+    }
+
+    /**
+     * @return the watermark column to export only the rows added since the previous run, or null to
+     * export all rows
+     */
+    public Incremental getIncremental() {
+        return incremental;
+    }
+
+    public void setIncremental(Incremental incremental) {
+        this.incremental = incremental;
+    }
+
+    /**
+     * @return a copy of the worksheet, sharing the partition and parameter values
+     */
+    public Worksheet copy() {
+        Worksheet copy = new Worksheet();
+        copy.id = id;
+        copy.sqlQuery = sqlQuery;
+        copy.workSheetName = workSheetName;
+        copy.streaming = streaming;
+        copy.fetchSize = fetchSize;
+        copy.partition = partition;
+        copy.cache = cache;
+        copy.parameters = parameters;
+        copy.parameterSets = parameterSets;
+        copy.incremental = incremental;
+        return copy;
+    }
 }
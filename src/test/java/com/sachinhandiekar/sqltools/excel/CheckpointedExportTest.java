@@ -0,0 +1,227 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.sachinhandiekar.sqltools.excel.model.Datasource;
+import com.sachinhandiekar.sqltools.excel.model.ExcelFile;
+import com.sachinhandiekar.sqltools.excel.model.SQLExcelExporterConfig;
+import com.sachinhandiekar.sqltools.excel.model.Worksheet;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Fails the second of three worksheets on a missing table, creates the table and retries: the first
+ * worksheet comes from the checkpoint, only the failed and the pending worksheet query the database.
+ * H2 counts the executions of every statement in INFORMATION_SCHEMA.QUERY_STATISTICS.
+ */
+public class CheckpointedExportTest {
+
+    private static final String JDBC_URL = "jdbc:h2:mem:checkpoint;DB_CLOSE_DELAY=-1";
+
+    private static final String ORDERS = "SELECT ID, CUSTOMER, AMOUNT FROM ORDERS ORDER BY ID";
+
+    private static final String RETURNS = "SELECT ORDER_ID, REASON FROM RETURNS ORDER BY ORDER_ID";
+
+    private static final String CUSTOMERS = "SELECT NAME, CITY FROM CUSTOMERS ORDER BY NAME";
+
+    private static Connection keepAlive;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void createTables() throws SQLException {
+        keepAlive = DriverManager.getConnection(JDBC_URL, "sa", "");
+        try (Statement statement = keepAlive.createStatement()) {
+            statement.execute("SET QUERY_STATISTICS TRUE");
+            statement.execute("CREATE TABLE ORDERS (ID INT PRIMARY KEY, CUSTOMER VARCHAR(20), AMOUNT DECIMAL(10,2))");
+            statement.execute("INSERT INTO ORDERS SELECT X, 'customer ' || MOD(X, 7), X * 1.25 "
+                    + "FROM SYSTEM_RANGE(1, 2500)");
+            statement.execute("CREATE TABLE CUSTOMERS (NAME VARCHAR(20), CITY VARCHAR(20))");
+            statement.execute("INSERT INTO CUSTOMERS VALUES ('customer 0', 'Sofia'), ('customer 1', 'Plovdiv')");
+        }
+    }
+
+    @AfterClass
+    public static void dropTables() throws SQLException {
+        try (Statement statement = keepAlive.createStatement()) {
+            statement.execute("SET QUERY_STATISTICS FALSE");
+            statement.execute("DROP ALL OBJECTS");
+        }
+        keepAlive.close();
+    }
+
+    private static Worksheet worksheet(long id, String name, String sqlQuery) {
+        Worksheet worksheet = new Worksheet();
+        worksheet.setId(id);
+        worksheet.setWorkSheetName(name);
+        worksheet.setSqlQuery(sqlQuery);
+        return worksheet;
+    }
+
+    private SQLExcelExporterConfig ordersWorkbook(File file) {
+        Datasource datasource = new Datasource();
+        datasource.setClassName("org.h2.Driver");
+        datasource.setJdbcUrl(JDBC_URL);
+        datasource.setUserName("sa");
+        datasource.setPassword("");
+        ExcelFile excelFile = new ExcelFile();
+        excelFile.setId(1);
+        excelFile.setFileName(file.getAbsolutePath());
+        excelFile.setCheckpointDirectory(new File(folder.getRoot(), "checkpoints").getAbsolutePath());
+        excelFile.setWorksheets(Arrays.asList(worksheet(1, "Orders", ORDERS), worksheet(2, "Returns", RETURNS),
+                worksheet(3, "Customers", CUSTOMERS)));
+        SQLExcelExporterConfig config = new SQLExcelExporterConfig();
+        config.setDatasource(datasource);
+        config.setExcelFiles(Arrays.asList(excelFile));
+        return config;
+    }
+
+    /** every run in its own engine, like a retry of the scheduled job */
+    private static ExportResult export(SQLExcelExporterConfig config) {
+        try (ExportEngine engine = new ExportEngine()) {
+            return engine.export(config).get(0);
+        }
+    }
+
+    private static Map<String, Integer> executions() throws SQLException {
+        Map<String, Integer> executions = new HashMap<String, Integer>();
+        try (Statement statement = keepAlive.createStatement();
+             ResultSet resultSet = statement.executeQuery(
+                     "SELECT SQL_STATEMENT, EXECUTION_COUNT FROM INFORMATION_SCHEMA.QUERY_STATISTICS")) {
+            while (resultSet.next()) {
+                executions.put(resultSet.getString(1), resultSet.getInt(2));
+            }
+        }
+        return executions;
+    }
+
+    private static int executions(Map<String, Integer> executions, String sql) {
+        Integer count = executions.get(sql);
+        return count != null ? count : 0;
+    }
+
+    @Test
+    public void retryRunsOnlyTheFailedAndThePendingWorksheets() throws IOException, SQLException {
+        File resumed = new File(folder.getRoot(), "resumed.xlsx");
+        SQLExcelExporterConfig config = ordersWorkbook(resumed);
+        File checkpoint = new CheckpointedExport(config.getExcelFiles().get(0), config.getDatasource(), null)
+                .getDirectory();
+
+        ExportResult failed = export(config);
+        assertEquals(ExportResult.Status.FAILED, failed.getStatus());
+        assertTrue(failed.getError(), failed.getError().contains("RETURNS"));
+        JsonObject manifest = new Gson().fromJson(new String(Files.readAllBytes(
+                new File(checkpoint, "checkpoint.json").toPath()), StandardCharsets.UTF_8), JsonObject.class);
+        JsonArray sheets = manifest.getAsJsonArray("worksheets");
+        assertEquals(1, sheets.size());
+        assertEquals("Orders", sheets.get(0).getAsJsonObject().get("name").getAsString());
+        assertEquals(2500, sheets.get(0).getAsJsonObject().get("rows").getAsLong());
+        Map<String, Integer> afterFailure = executions();
+        assertEquals(1, executions(afterFailure, ORDERS));
+        assertEquals(0, executions(afterFailure, CUSTOMERS));
+
+        try (Statement statement = keepAlive.createStatement()) {
+            statement.execute("CREATE TABLE RETURNS (ORDER_ID INT, REASON VARCHAR(40))");
+            statement.execute("INSERT INTO RETURNS VALUES (12, 'damaged'), (7, 'wrong size <L>')");
+        }
+        ExportResult retried = export(config);
+        assertEquals(retried.getError(), ExportResult.Status.SUCCESS, retried.getStatus());
+        assertEquals(2504, retried.getRows());
+        Map<String, Integer> afterRetry = executions();
+        assertEquals("the orders come from the checkpoint", 1, executions(afterRetry, ORDERS));
+        assertEquals(1, executions(afterRetry, RETURNS));
+        assertEquals(1, executions(afterRetry, CUSTOMERS));
+        assertTrue(checkpoint.getParentFile().isDirectory());
+        assertEquals("the checkpoint is removed with the written file", 0, checkpoint.getParentFile().list().length);
+
+        File clean = new File(folder.getRoot(), "clean.xlsx");
+        assertEquals(ExportResult.Status.SUCCESS, export(ordersWorkbook(clean)).getStatus());
+        assertEquals(2, executions(executions(), ORDERS));
+        List<List<List<String>>> expected = cells(clean);
+        assertEquals(Arrays.asList("Orders", "Returns", "Customers"), sheetNames(clean));
+        assertEquals(2501, expected.get(0).size());
+        assertEquals(Arrays.asList("7", "wrong size <L>"), expected.get(1).get(1));
+        assertEquals(sheetNames(clean), sheetNames(resumed));
+        assertEquals(expected, cells(resumed));
+    }
+
+    @Test
+    public void configurationsWithTheSameIdUseTheirOwnDirectory() {
+        SQLExcelExporterConfig orders = ordersWorkbook(new File(folder.getRoot(), "orders.xlsx"));
+        SQLExcelExporterConfig invoices = ordersWorkbook(new File(folder.getRoot(), "orders.xlsx"));
+        invoices.getExcelFiles().get(0).getWorksheets().get(0).setSqlQuery("SELECT * FROM INVOICES");
+        File ordersDirectory = new CheckpointedExport(orders.getExcelFiles().get(0), orders.getDatasource(), null)
+                .getDirectory();
+        File invoicesDirectory = new CheckpointedExport(invoices.getExcelFiles().get(0), invoices.getDatasource(),
+                null).getDirectory();
+        assertEquals(ordersDirectory.getParentFile(), invoicesDirectory.getParentFile());
+        assertNotEquals(ordersDirectory, invoicesDirectory);
+        SQLExcelExporterConfig ordersAgain = ordersWorkbook(new File(folder.getRoot(), "orders.xlsx"));
+        assertEquals(ordersDirectory, new CheckpointedExport(ordersAgain.getExcelFiles().get(0),
+                ordersAgain.getDatasource(), null).getDirectory());
+    }
+
+    private static List<String> sheetNames(File file) throws IOException {
+        List<String> names = new ArrayList<String>();
+        try (InputStream in = new FileInputStream(file); XSSFWorkbook workbook = new XSSFWorkbook(in)) {
+            for (Sheet sheet : workbook) {
+                names.add(sheet.getSheetName());
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @return the formatted cells of every sheet, row by row
+     */
+    private static List<List<List<String>>> cells(File file) throws IOException {
+        DataFormatter formatter = new DataFormatter();
+        List<List<List<String>>> sheets = new ArrayList<List<List<String>>>();
+        try (InputStream in = new FileInputStream(file); XSSFWorkbook workbook = new XSSFWorkbook(in)) {
+            for (Sheet sheet : workbook) {
+                List<List<String>> rows = new ArrayList<List<String>>();
+                for (Row row : sheet) {
+                    List<String> values = new ArrayList<String>();
+                    for (Cell cell : row) {
+                        values.add(formatter.formatCellValue(cell));
+                    }
+                    rows.add(values);
+                }
+                sheets.add(rows);
+            }
+        }
+        return sheets;
+    }
+}
@@ -0,0 +1,56 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Next runs of cron expressions around Saturday 17 October 2026, mostly for the rule combining the day of
+ * month and the day of week.
+ */
+public class CronScheduleTest {
+
+    private static final LocalDateTime SATURDAY_NOON = LocalDateTime.of(2026, 10, 17, 12, 0);
+
+    private static LocalDateTime next(String expression, LocalDateTime after) {
+        return CronSchedule.parse(expression).next(after);
+    }
+
+    @Test
+    public void restrictedDayOfMonthOrDayOfWeek() {
+        // the 13th or a Friday, whichever comes first
+        assertEquals(LocalDateTime.of(2026, 10, 23, 0, 0), next("0 0 13 * 5", SATURDAY_NOON));
+        // an odd day or a Monday: Saturday the 17th counts as odd day
+        assertEquals(LocalDateTime.of(2026, 10, 17, 0, 0), next("0 0 */2 * 1", SATURDAY_NOON.minusDays(1)));
+    }
+
+    @Test
+    public void fullRangesAreUnrestricted() {
+        LocalDateTime thirteenth = LocalDateTime.of(2026, 11, 13, 0, 0);
+        for (String days : new String[] {"*", "?", "0-6", "1-7", "0-7", "SUN-SAT", "*/1", "0,1,2,3,4,5,6"}) {
+            assertEquals(days, thirteenth, next("0 0 13 * " + days, SATURDAY_NOON));
+        }
+        LocalDateTime monday = LocalDateTime.of(2026, 10, 19, 0, 0);
+        for (String days : new String[] {"*", "?", "1-31", "*/1"}) {
+            assertEquals(days, monday, next("0 0 " + days + " * MON", SATURDAY_NOON));
+        }
+        // weekdays leave out the weekend, so they still combine with the day of month
+        assertEquals(LocalDateTime.of(2026, 10, 19, 0, 0), next("0 0 13 * 1-5", SATURDAY_NOON));
+    }
+
+    @Test
+    public void shortcutsAndSteps() {
+        assertEquals(LocalDateTime.of(2026, 10, 18, 0, 0), next("@daily", SATURDAY_NOON));
+        assertEquals(LocalDateTime.of(2026, 10, 18, 0, 0), next("@weekly", SATURDAY_NOON));
+        assertEquals(LocalDateTime.of(2026, 11, 1, 0, 0), next("@monthly", SATURDAY_NOON));
+        assertEquals(LocalDateTime.of(2026, 10, 17, 12, 15), next("*/15 * * * *", SATURDAY_NOON));
+        assertEquals(null, next("0 0 31 2 *", SATURDAY_NOON));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidRange() {
+        CronSchedule.parse("0 0 5-1 * *");
+    }
+}
@@ -0,0 +1,180 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import com.sachinhandiekar.sqltools.excel.model.ExcelFile;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.TimeZone;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Writes workbooks with the direct engine and reads them back with XSSFWorkbook, on one and on several
+ * compression threads, with and without the shared strings table.
+ */
+public class DirectWorkbookWriterTest {
+
+    private static final int ROWS = 5000;
+
+    private static final String[] NAMES = {"ID", "NAME", "STATUS", "CREATED", "PAID", "NOTE"};
+
+    private static final String[] FORMATS = {"0", "text", "text", "dd.MM.yyyy h:mm:ss", "text", "text"};
+
+    /** texts which need escaping, the status column repeats them so they go to the shared strings */
+    private static final String[] TEXTS = {
+            "<&>", "  leading spaces", "trailing space ", "\"quoted\" 'text'", "tab\tnew\nline\r\n",
+            "control \u0001\u0008\u001F chars", "unicode \u00E4\u20AC\uD83D\uDE00", "\uFFFE\uFFFF"
+    };
+
+    private static final long START = 1704067200000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File write(int threads, int sharedStrings) throws IOException {
+        return write(threads, sharedStrings, false);
+    }
+
+    private File write(int threads, int sharedStrings, boolean large) throws IOException {
+        File file = folder.newFile("direct-" + threads + "-" + sharedStrings + "-" + large + ".xlsx");
+        ExcelFile excelFile = new ExcelFile();
+        excelFile.setLarge(large);
+        excelFile.setFileName(file.getPath());
+        excelFile.setCompressionThreads(threads);
+        excelFile.setSharedStrings(sharedStrings);
+        try (DirectWorkbookWriter writer = new DirectWorkbookWriter(excelFile, TypeFormatMapping.defaults(),
+                new FileOutputStream(file), file)) {
+            for (String sheetName : new String[] {"Orders", "More orders"}) {
+                SheetWriter sheet = writer.startSheet(sheetName, new ColumnLayout(NAMES, FORMATS));
+                RowBatch batch = new RowBatch(NAMES.length, 1000);
+                for (int row = 0; row < ROWS; row++) {
+                    fill(batch, batch.addRow(), row);
+                    if (batch.isFull()) {
+                        sheet.accept(batch);
+                        batch.clear();
+                    }
+                }
+                sheet.accept(batch);
+                sheet.finish();
+                assertEquals(ROWS, sheet.getRowsWritten());
+            }
+            writer.finish();
+        }
+        return file;
+    }
+
+    private static void fill(RowBatch batch, int index, int row) {
+        batch.setNumber(index, 0, row);
+        batch.setText(index, 1, TEXTS[row % TEXTS.length] + " " + row);
+        batch.setText(index, 2, TEXTS[row % TEXTS.length]);
+        batch.setDate(index, 3, ExcelDates.toExcelDate(START + row * 61000L, TimeZone.getDefault()));
+        batch.setBoolean(index, 4, row % 2 == 0);
+        if (row % 3 == 0) {
+            batch.setNull(index, 5);
+        } else if (row % 3 == 1) {
+            batch.setText(index, 5, null);
+        } else {
+            batch.setNumber(index, 5, row / 8.0);
+        }
+    }
+
+    private static void assertRoundTrip(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file); XSSFWorkbook workbook = new XSSFWorkbook(in)) {
+            assertEquals(2, workbook.getNumberOfSheets());
+            assertEquals("More orders", workbook.getSheetName(1));
+            for (Sheet sheet : workbook) {
+                Row header = sheet.getRow(0);
+                for (int i = 0; i < NAMES.length; i++) {
+                    assertEquals(NAMES[i], header.getCell(i).getStringCellValue());
+                }
+                assertEquals(ROWS, sheet.getLastRowNum());
+                for (int row = 0; row < ROWS; row++) {
+                    assertRow(sheet.getRow(row + 1), row);
+                }
+            }
+        }
+    }
+
+    private static void assertRow(Row cells, int row) {
+        String message = "row " + row;
+        assertEquals(message, row, cells.getCell(0).getNumericCellValue(), 0);
+        assertEquals(message, TEXTS[row % TEXTS.length] + " " + row, cells.getCell(1).getStringCellValue());
+        assertEquals(message, TEXTS[row % TEXTS.length], cells.getCell(2).getStringCellValue());
+
+        Cell created = cells.getCell(3);
+        assertTrue(message, DateUtil.isCellDateFormatted(created));
+        assertEquals(message, "dd.MM.yyyy h:mm:ss", created.getCellStyle().getDataFormatString());
+        assertEquals(message, START + row * 61000L, created.getDateCellValue().getTime());
+
+        assertEquals(message, row % 2 == 0, cells.getCell(4).getBooleanCellValue());
+
+        Cell note = cells.getCell(5);
+        if (row % 3 == 0) {
+            assertEquals(message, CellType.STRING, note.getCellType());
+            assertEquals(message, "", note.getStringCellValue());
+        } else if (row % 3 == 1) {
+            assertEquals(message, CellType.BLANK, note.getCellType());
+        } else {
+            assertEquals(message, row / 8.0, note.getNumericCellValue(), 0);
+        }
+    }
+
+    @Test
+    public void inlineStringsOnOneThread() throws IOException {
+        File file = write(1, 0);
+        assertRoundTrip(file);
+        try (ZipFile zip = new ZipFile(file)) {
+            assertNull(zip.getEntry("xl/sharedStrings.xml"));
+        }
+    }
+
+    @Test
+    public void inlineStringsOnSeveralThreads() throws IOException {
+        assertRoundTrip(write(4, 0));
+    }
+
+    @Test
+    public void sharedStringsOnOneThread() throws IOException {
+        File file = write(1, 16384);
+        assertRoundTrip(file);
+        try (ZipFile zip = new ZipFile(file)) {
+            assertNotNull(zip.getEntry("xl/sharedStrings.xml"));
+        }
+    }
+
+    @Test
+    public void sharedStringsOnSeveralThreads() throws IOException {
+        assertRoundTrip(write(4, 16384));
+    }
+
+    @Test
+    public void fullSharedStringsTableFallsBackToInlineStrings() throws IOException {
+        File file = write(4, 3);
+        assertRoundTrip(file);
+        try (InputStream in = new FileInputStream(file); XSSFWorkbook workbook = new XSSFWorkbook(in)) {
+            assertEquals(3, workbook.getSharedStringSource().getUniqueCount());
+        }
+    }
+
+    @Test
+    public void zip64SheetsOfLargeWorkbook() throws IOException {
+        assertRoundTrip(write(4, 16384, true));
+    }
+}
@@ -0,0 +1,65 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.sachinhandiekar.sqltools.excel.model.SQLExcelExporterConfig;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks where the report option writes the performance report of file and stream exports.
+ */
+public class ExcelFileExporterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SQLExcelExporterConfig reportedConfig(File file) {
+        return new Gson().fromJson("{\"datasource\": {\"className\": \"org.h2.Driver\", "
+                + "\"jdbcUrl\": \"jdbc:h2:mem:report\", \"username\": \"sa\", \"password\": \"\"}, "
+                + "\"excelFile\": [{\"id\": 7, \"report\": true, \"fileName\": \""
+                + file.getAbsolutePath().replace('\\', '/') + "\", \"worksheet\": [{\"id\": 1, "
+                + "\"sqlQuery\": \"SELECT X FROM SYSTEM_RANGE(1, 3)\", \"workSheetName\": \"Numbers\"}]}]}",
+                SQLExcelExporterConfig.class);
+    }
+
+    private static JsonObject readReport(File file) throws IOException {
+        File report = new File(file.getPath() + ".report.json");
+        assertTrue(report + " exists", report.isFile());
+        return new Gson().fromJson(new String(Files.readAllBytes(report.toPath()), StandardCharsets.UTF_8),
+                JsonObject.class);
+    }
+
+    @Test
+    public void fileExportWritesReportNextToTheFile() throws IOException {
+        File file = new File(folder.getRoot(), "numbers.csv");
+        try (ExportEngine engine = new ExportEngine()) {
+            assertEquals(ExportResult.Status.SUCCESS, engine.export(reportedConfig(file)).get(0).getStatus());
+        }
+        assertEquals(3, readReport(file).get("rows").getAsLong());
+    }
+
+    @Test
+    public void streamExportWritesReportNextToTheConfiguredFileName() throws IOException {
+        File file = new File(folder.getRoot(), "numbers.csv");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ExportEngine engine = new ExportEngine()) {
+            assertEquals(ExportResult.Status.SUCCESS, engine.export(reportedConfig(file), out).getStatus());
+        }
+        assertEquals("X\r\n1\r\n2\r\n3\r\n", new String(out.toByteArray(), StandardCharsets.UTF_8));
+        assertFalse(file.exists());
+        assertEquals(3, readReport(file).get("rows").getAsLong());
+    }
+}
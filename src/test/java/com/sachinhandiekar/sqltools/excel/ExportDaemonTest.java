@@ -0,0 +1,66 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Scans a configuration directory which also holds the status file, a watermark file and a report of
+ * the daemon, as happens when it runs with relative paths in the directory itself.
+ */
+public class ExportDaemonTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File write(String name, String content) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> names(Map<String, Object> status, String key) {
+        if ("jobs".equals(key)) {
+            String[] names = ((List<Map<String, Object>>) status.get(key)).stream()
+                    .map(job -> (String) job.get("config")).toArray(String[]::new);
+            return Arrays.asList(names);
+        }
+        return (List<String>) status.get(key);
+    }
+
+    @Test
+    public void ownFilesAreNoConfigurations() throws IOException {
+        String root = folder.getRoot().getAbsolutePath().replace('\\', '/');
+        write("nightly.json", "{\"schedule\": \"0 2 * * *\", \"datasource\": {\"className\": \"org.h2.Driver\", "
+                + "\"jdbcUrl\": \"jdbc:h2:mem:daemon\", \"username\": \"sa\", \"password\": \"\"}, "
+                + "\"excelFile\": [{\"id\": 1, \"fileName\": \"" + root + "/orders.csv\", \"report\": true, "
+                + "\"stateFile\": \"" + root + "/./watermarks.json\", \"worksheet\": [{\"id\": 1, "
+                + "\"sqlQuery\": \"SELECT 1\", \"workSheetName\": \"Orders\"}]}]}");
+        File statusFile = new File(folder.getRoot(), "status.json");
+        ExportDaemon daemon = new ExportDaemon(folder.getRoot(), statusFile, 1);
+        daemon.scan();
+        assertEquals(Collections.singletonList("nightly.json"), names(daemon.status(), "jobs"));
+
+        // what the daemon and the first run leave behind
+        write("status.json", "{\"startedAt\": 1, \"jobs\": []}");
+        write("watermarks.json", "{\"1/1\": {\"column\": \"ID\", \"value\": \"42\"}}");
+        write("orders.csv.report.json", "{\"rows\": 1}");
+        write("broken.json", "{");
+        daemon.scan();
+        Map<String, Object> status = daemon.status();
+        assertEquals(Collections.singletonList("nightly.json"), names(status, "jobs"));
+        assertEquals(Collections.singletonList("broken.json"), names(status, "invalidConfigs"));
+    }
+}
@@ -0,0 +1,131 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import com.google.gson.Gson;
+import com.sachinhandiekar.sqltools.excel.model.SQLExcelExporterConfig;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Exports text files with parameter sets on the excel file and on a worksheet and checks which files
+ * they write.
+ */
+public class NamedParametersTest {
+
+    private static final String JDBC_URL = "jdbc:h2:mem:parameters;DB_CLOSE_DELAY=-1";
+
+    private static final String SALES_BY_REGION = "{\"id\": 1, \"sqlQuery\": \"SELECT ID, AMOUNT FROM SALES "
+            + "WHERE REGION = :region ORDER BY ID\", \"workSheetName\": \"Sales\", ";
+
+    private static Connection keepAlive;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void createTables() throws SQLException {
+        keepAlive = DriverManager.getConnection(JDBC_URL, "sa", "");
+        try (Statement statement = keepAlive.createStatement()) {
+            statement.execute("CREATE TABLE SALES (ID INT PRIMARY KEY, REGION VARCHAR(4), AMOUNT INT)");
+            statement.execute("INSERT INTO SALES VALUES (1, 'EU', 10), (2, 'US', 20), (3, 'EU', 30), (4, 'APAC', 40)");
+        }
+    }
+
+    @AfterClass
+    public static void dropTables() throws SQLException {
+        try (Statement statement = keepAlive.createStatement()) {
+            statement.execute("DROP ALL OBJECTS");
+        }
+        keepAlive.close();
+    }
+
+    private static List<ExportResult> export(File file, String fileParameterSets, String worksheets) {
+        String json = "{\"datasource\": {\"className\": \"org.h2.Driver\", \"jdbcUrl\": \"" + JDBC_URL
+                + "\", \"username\": \"sa\", \"password\": \"\"}, \"excelFile\": [{\"id\": 1, \"fileName\": \""
+                + file.getAbsolutePath().replace('\\', '/') + "\", " + fileParameterSets
+                + "\"worksheet\": [" + worksheets + "]}]}";
+        try (ExportEngine engine = new ExportEngine()) {
+            List<ExportResult> results = engine.export(new Gson().fromJson(json, SQLExcelExporterConfig.class));
+            for (ExportResult result : results) {
+                assertEquals(result.getError(), ExportResult.Status.SUCCESS, result.getStatus());
+            }
+            return results;
+        }
+    }
+
+    @Test
+    public void fileSetNameGoesBeforeTheWholeExtension() throws IOException {
+        assertEquals("report_EU.csv.gz", NamedParameters.fileName("report.csv.gz", "EU"));
+        assertEquals("out/report_EU.jsonl.gz", NamedParameters.fileName("out/report.jsonl.gz", "EU"));
+        assertEquals("report_EU.xlsx", NamedParameters.fileName("report.xlsx", "EU"));
+        assertEquals("report-EU.csv.gz", NamedParameters.fileName("report-##Param##.csv.gz", "EU"));
+
+        List<ExportResult> results = export(new File(folder.getRoot(), "report.csv.gz"),
+                "\"parameterSets\": [{\"name\": \"EU\", \"values\": {\"region\": \"EU\"}}, "
+                        + "{\"name\": \"US\", \"values\": {\"region\": \"US\"}}], ",
+                SALES_BY_REGION + "\"parameters\": {\"region\": \"none\"}}");
+        assertEquals(2, results.size());
+        assertEquals("ID,AMOUNT\r\n1,10\r\n3,30\r\n", gunzip(new File(folder.getRoot(), "report_EU.csv.gz")));
+        assertEquals("ID,AMOUNT\r\n2,20\r\n", gunzip(new File(folder.getRoot(), "report_US.csv.gz")));
+    }
+
+    @Test
+    public void everySetOfTheOnlyWorksheetGetsItsOwnFile() throws IOException {
+        File file = new File(folder.getRoot(), "sales.csv");
+        export(file, "", SALES_BY_REGION + "\"parameterSets\": [{\"name\": \"EU\", \"values\": {\"region\": \"EU\"}}, "
+                + "{\"name\": \"US\", \"values\": {\"region\": \"US\"}}, "
+                + "{\"name\": \"APAC\", \"values\": {\"region\": \"APAC\"}}]}");
+        assertEquals(Arrays.asList("sales_Sales_APAC.csv", "sales_Sales_EU.csv", "sales_Sales_US.csv"),
+                sortedFileNames());
+        assertEquals("ID,AMOUNT\r\n1,10\r\n3,30\r\n", read(new File(folder.getRoot(), "sales_Sales_EU.csv")));
+        assertEquals("ID,AMOUNT\r\n4,40\r\n", read(new File(folder.getRoot(), "sales_Sales_APAC.csv")));
+    }
+
+    @Test
+    public void singleWorksheetWithoutSetsKeepsTheFileName() throws IOException {
+        export(new File(folder.getRoot(), "sales.csv"), "", SALES_BY_REGION + "\"parameters\": {\"region\": \"US\"}}");
+        assertEquals(Arrays.asList("sales.csv"), sortedFileNames());
+    }
+
+    private List<String> sortedFileNames() {
+        String[] names = folder.getRoot().list();
+        Arrays.sort(names);
+        return Arrays.asList(names);
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    private static String gunzip(File file) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new FileInputStream(file))) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,210 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import com.sachinhandiekar.sqltools.excel.model.NumericMode;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the strict numeric mode writes the same cells as the original conversion, which wrote
+ * a BigDecimal as number if {@code bd.equals(new BigDecimal(d))} or its precision was below 16.
+ */
+public class NumericConversionTest {
+
+    private static boolean legacyIsNumber(BigDecimal bd) {
+        double dbd = bd.doubleValue();
+        return !Double.isNaN(dbd) && Double.isFinite(dbd) && (bd.equals(new BigDecimal(dbd)) || bd.precision() < 16);
+    }
+
+    private static void assertSameCell(BigDecimal bd) {
+        RowBatch batch = new RowBatch(1, 1);
+        batch.addRow();
+        ColumnReader.storeBigDecimal(bd, batch, 0, 0);
+        if (legacyIsNumber(bd)) {
+            assertEquals(bd.toString(), RowBatch.NUMBER, batch.getKind(0, 0));
+            assertEquals(bd.toString(), bd.doubleValue(), batch.getNumber(0, 0), 0);
+        } else {
+            assertEquals(bd.toString(), RowBatch.TEXT, batch.getKind(0, 0));
+            assertEquals(bd.toPlainString(), batch.getText(0, 0));
+        }
+    }
+
+    private static List<BigDecimal> edgeValues() {
+        List<BigDecimal> values = new ArrayList<BigDecimal>();
+        String[] texts = {
+                "0", "0.0", "-0.00", "1", "-1", "0.1", "0.5", "0.25", "0.125", "1.10", "123456789012345",
+                "1234567890123456", "12345678901234567", "123456789012345678", "999999999999999999",
+                "-999999999999999999", "9007199254740991", "9007199254740992", "9007199254740993",
+                "-9007199254740993", "18014398509481984", "18014398509481985", "9223372036854775807",
+                "-9223372036854775808", "9223372036854775808", "0.1000000000000000055511151231257827021181583404541015625",
+                "12345678901234567890123456789012345678", "1234567890123456789012.3456789012345678",
+                "0.00000000000000000000000000000000000001", "1E+20", "1E+308", "1.7976931348623157E+308",
+                "1E+309", "-1E+400", "4.9E-324", "1E-400", "2.5E-3", "1.0E+3"
+        };
+        for (String text : texts) {
+            values.add(new BigDecimal(text));
+        }
+        values.add(new BigDecimal(Double.MAX_VALUE));
+        values.add(new BigDecimal(Double.MIN_VALUE));
+        values.add(new BigDecimal(Math.PI));
+        values.add(new BigDecimal(1L << 60));
+        values.add(new BigDecimal(BigInteger.valueOf(123), -5));
+        values.add(new BigDecimal(BigInteger.valueOf(9007199254740993L), -2));
+        values.add(new BigDecimal("4.50").setScale(-1, RoundingMode.HALF_UP));
+        return values;
+    }
+
+    @Test
+    public void edgeValuesMatchLegacyConversion() {
+        for (BigDecimal bd : edgeValues()) {
+            assertSameCell(bd);
+            assertSameCell(bd.negate());
+        }
+    }
+
+    @Test
+    public void randomValuesMatchLegacyConversion() {
+        Random random = new Random(42);
+        for (int i = 0; i < 200000; i++) {
+            int digits = 1 + random.nextInt(40);
+            BigInteger unscaled = new BigInteger(digits * 4, random);
+            int scale = random.nextInt(50) - 10;
+            BigDecimal bd = new BigDecimal(random.nextBoolean() ? unscaled : unscaled.negate(), scale);
+            assertSameCell(bd);
+            // exact binary fractions are the values whose scale check must pass
+            assertSameCell(new BigDecimal(random.nextDouble() * Math.pow(2, random.nextInt(120) - 60)));
+        }
+    }
+
+    @Test
+    public void binaryScaleIsScaleOfExactExpansion() {
+        Random random = new Random(7);
+        for (int i = 0; i < 100000; i++) {
+            double d = Double.longBitsToDouble(random.nextLong());
+            if (Double.isFinite(d)) {
+                assertEquals(Double.toString(d), new BigDecimal(d).scale(), NumericConversion.binaryScale(d));
+            }
+        }
+        assertEquals(0, NumericConversion.binaryScale(0.0));
+        assertEquals(0, NumericConversion.binaryScale(-0.0));
+        assertEquals(new BigDecimal(Double.MIN_VALUE).scale(), NumericConversion.binaryScale(Double.MIN_VALUE));
+    }
+
+    @Test
+    public void doubleColumnsOnlyHoldNumbers() {
+        assertEquals(NumericConversion.Strategy.DOUBLE, NumericConversion.strategyFor(15, 4, NumericMode.STRICT));
+        Random random = new Random(3);
+        for (int i = 0; i < 100000; i++) {
+            int precision = 1 + random.nextInt(15);
+            int scale = random.nextInt(precision + 1);
+            BigInteger unscaled = new BigInteger(60, random).mod(BigInteger.TEN.pow(precision));
+            assertTrue(legacyIsNumber(new BigDecimal(unscaled, scale)));
+        }
+    }
+
+    @Test
+    public void longColumnsMatchLegacyConversion() {
+        assertEquals(NumericConversion.Strategy.LONG, NumericConversion.strategyFor(18, 0, NumericMode.STRICT));
+        assertEquals(NumericConversion.Strategy.CHECKED, NumericConversion.strategyFor(19, 0, NumericMode.STRICT));
+        assertEquals(NumericConversion.Strategy.CHECKED, NumericConversion.strategyFor(18, 2, NumericMode.STRICT));
+        assertEquals(NumericConversion.Strategy.CHECKED, NumericConversion.strategyFor(0, 0, NumericMode.STRICT));
+        List<Long> values = new ArrayList<Long>();
+        long max = 999999999999999999L;
+        for (long v : new long[] {0, 1, (1L << 53) - 1, 1L << 53, (1L << 53) + 1, (1L << 54) + 2, (1L << 54) + 3,
+                (1L << 59) + 1, max, max - 1, 1000000000000000000L - 128}) {
+            values.add(v);
+            values.add(-v);
+        }
+        Random random = new Random(11);
+        for (int i = 0; i < 100000; i++) {
+            values.add((random.nextLong() % max) >> random.nextInt(10));
+        }
+        for (long value : values) {
+            BigDecimal bd = BigDecimal.valueOf(value);
+            assertEquals(Long.toString(value), legacyIsNumber(bd), NumericConversion.isExactDouble(value));
+            // the text written by the long reader is the legacy plain string
+            assertEquals(bd.toPlainString(), Long.toString(value));
+        }
+    }
+    @Test
+    public void columnReadersMatchLegacyConversion() throws SQLException {
+        try (Connection connection = DriverManager.getConnection("jdbc:h2:mem:numeric", "sa", "");
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE AMOUNTS (PRICE DECIMAL(12,2), QUANTITY DECIMAL(18,0), "
+                    + "WIDE DECIMAL(38,10), ANY_NUMBER NUMERIC, COUNTER BIGINT, RATE DOUBLE PRECISION)");
+            Random random = new Random(5);
+            try (PreparedStatement insert = connection.prepareStatement(
+                    "INSERT INTO AMOUNTS VALUES (?, ?, ?, ?, ?, ?)")) {
+                long[] longs = {0, 1, (1L << 53) + 1, (1L << 54) + 3, 999999999999999999L, -999999999999999999L};
+                for (int i = 0; i < 2000; i++) {
+                    boolean nulls = i % 97 == 0;
+                    long quantity = i < longs.length ? longs[i]
+                            : (random.nextLong() % 999999999999999999L) >> random.nextInt(10);
+                    insert.setBigDecimal(1, nulls ? null : BigDecimal.valueOf(random.nextLong() % 1000000000000L, 2));
+                    insert.setBigDecimal(2, nulls ? null : BigDecimal.valueOf(quantity));
+                    insert.setBigDecimal(3, nulls ? null : new BigDecimal(new BigInteger(120, random), 10));
+                    insert.setBigDecimal(4, nulls ? null : i % 2 == 0 ? new BigDecimal(random.nextDouble() * 1e6)
+                            : new BigDecimal(new BigInteger(70, random), random.nextInt(30) - 5));
+                    insert.setObject(5, nulls ? null : (Object) (random.nextLong() >> random.nextInt(20)));
+                    insert.setObject(6, nulls ? null : (Object) (random.nextDouble() * 1e10));
+                    insert.executeUpdate();
+                }
+            }
+            try (ResultSet rs = statement.executeQuery("SELECT * FROM AMOUNTS")) {
+                ColumnReader[] readers = ColumnReader.forMetaData(rs.getMetaData(), NumericMode.STRICT);
+                assertSame(ColumnReader.DecimalDoubleReader.class, readers[0].getClass());
+                assertSame(ColumnReader.DecimalLongReader.class, readers[1].getClass());
+                assertSame(ColumnReader.BigDecimalReader.class, readers[2].getClass());
+                assertSame(ColumnReader.BigDecimalReader.class, readers[3].getClass());
+                assertSame(ColumnReader.LongReader.class, readers[4].getClass());
+                assertSame(ColumnReader.DoubleReader.class, readers[5].getClass());
+                RowBatch batch = new RowBatch(readers.length, 1);
+                int rows = 0;
+                while (rs.next()) {
+                    batch.clear();
+                    batch.addRow();
+                    for (ColumnReader reader : readers) {
+                        reader.read(rs, batch, 0);
+                    }
+                    for (int i = 0; i < readers.length; i++) {
+                        assertLegacyCell(rs.getObject(i + 1), batch, i);
+                    }
+                    rows++;
+                }
+                assertEquals(2000, rows);
+            }
+        }
+    }
+
+    /**
+     * Check the cell of a column against the getObject based conversion of the original row loop.
+     */
+    private static void assertLegacyCell(Object value, RowBatch batch, int column) {
+        String message = column + ": " + value;
+        if (value == null) {
+            assertEquals(message, RowBatch.NULL, batch.getKind(0, column));
+        } else if (value instanceof BigDecimal && !legacyIsNumber((BigDecimal) value)) {
+            assertEquals(message, RowBatch.TEXT, batch.getKind(0, column));
+            assertEquals(message, ((BigDecimal) value).toPlainString(), batch.getText(0, column));
+        } else {
+            assertEquals(message, RowBatch.NUMBER, batch.getKind(0, column));
+            assertEquals(message, ((Number) value).doubleValue(), batch.getNumber(0, column), 0);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import com.google.gson.Gson;
+import com.sachinhandiekar.sqltools.excel.model.SQLExcelExporterConfig;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the parallel and partitioned worksheet queries write the same workbook as the
+ * sequential path, against an in-memory H2 database.
+ */
+public class ParallelWorksheetExporterTest {
+
+    private static final String JDBC_URL = "jdbc:h2:mem:parallel;DB_CLOSE_DELAY=-1";
+
+    private static final String WORKSHEETS =
+            "{\"id\": 1, \"sqlQuery\": \"SELECT * FROM ORDERS ORDER BY ID\", \"workSheetName\": \"All\"}, "
+            + "{\"id\": 2, \"sqlQuery\": \"SELECT * FROM ORDERS WHERE STATUS = :status ORDER BY ID\", "
+            + "\"workSheetName\": \"New\", \"parameters\": {\"status\": \"NEW\"}}, "
+            + "{\"id\": 3, \"sqlQuery\": \"SELECT ID, AMOUNT FROM ORDERS WHERE ID > 4990\", \"workSheetName\": \"Tail\"}";
+
+    private static final String PARTITIONED =
+            "{\"id\": 1, \"sqlQuery\": \"SELECT * FROM ORDERS ORDER BY ID\", \"workSheetName\": \"All\", "
+            + "\"partition\": {\"column\": \"ID\", \"count\": 4}}";
+
+    private static Connection keepAlive;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void createTables() throws SQLException {
+        keepAlive = DriverManager.getConnection(JDBC_URL, "sa", "");
+        try (Statement statement = keepAlive.createStatement()) {
+            statement.execute("CREATE TABLE ORDERS (ID BIGINT PRIMARY KEY, AMOUNT DECIMAL(12,2), "
+                    + "WIDE DECIMAL(30,10), CREATED TIMESTAMP, STATUS VARCHAR(10), NOTE VARCHAR(100), PAID BOOLEAN)");
+            statement.execute("INSERT INTO ORDERS SELECT X, X * 1.25, CASE WHEN MOD(X, 7) = 0 THEN NULL "
+                    + "ELSE X * 12345678901.0123456789 END, DATEADD('MINUTE', X, TIMESTAMP '2024-01-01 00:00:00'), "
+                    + "CASE MOD(X, 3) WHEN 0 THEN 'NEW' WHEN 1 THEN 'PAID' ELSE NULL END, "
+                    + "'note ' || X, MOD(X, 2) = 0 FROM SYSTEM_RANGE(1, 5000)");
+        }
+    }
+
+    @AfterClass
+    public static void dropTables() throws SQLException {
+        try (Statement statement = keepAlive.createStatement()) {
+            statement.execute("DROP ALL OBJECTS");
+        }
+        keepAlive.close();
+    }
+
+    private SQLExcelExporterConfig config(File file, boolean parallel, String worksheets, String extra) {
+        String json = "{\"datasource\": {\"className\": \"org.h2.Driver\", \"jdbcUrl\": \"" + JDBC_URL + "\", "
+                + "\"username\": \"sa\", \"password\": \"\", \"maxConnections\": 4}, " + extra
+                + "\"excelFile\": [{\"id\": 1, \"fileName\": \"" + file.getAbsolutePath().replace('\\', '/') + "\", "
+                + "\"parallel\": " + parallel + ", \"worksheet\": [" + worksheets + "]}]}";
+        return new Gson().fromJson(json, SQLExcelExporterConfig.class);
+    }
+
+    private File export(boolean parallel, String worksheets) {
+        File file = new File(folder.getRoot(), (parallel ? "parallel" : "sequential") + "-" + worksheets.hashCode()
+                + ".xlsx");
+        try (ExportEngine engine = new ExportEngine()) {
+            List<ExportResult> results = engine.export(config(file, parallel, worksheets, ""));
+            assertEquals(results.get(0).getError(), ExportResult.Status.SUCCESS, results.get(0).getStatus());
+        }
+        return file;
+    }
+
+    @Test
+    public void parallelMatchesSequential() throws IOException {
+        assertEquals(cells(export(false, WORKSHEETS)), cells(export(true, WORKSHEETS)));
+    }
+
+    @Test
+    public void partitionedMatchesSequential() throws IOException {
+        List<String> sequential = cells(export(false, WORKSHEETS.substring(0, WORKSHEETS.indexOf("}") + 1)));
+        assertEquals(sequential, cells(export(false, PARTITIONED)));
+        assertEquals(sequential, cells(export(true, PARTITIONED)));
+    }
+
+    @Test
+    public void failedExportReleasesFetchedWorksheets() throws Exception {
+        File cacheDirectory = folder.newFolder("cache");
+        String worksheets = "{\"id\": 1, \"sqlQuery\": \"SELECT * FROM MISSING\", \"workSheetName\": \"Missing\"}, "
+                + "{\"id\": 2, \"sqlQuery\": \"SELECT A.* FROM ORDERS A, SYSTEM_RANGE(1, 20)\", "
+                + "\"workSheetName\": \"Slow\"}, "
+                + "{\"id\": 3, \"sqlQuery\": \"SELECT * FROM ORDERS\", \"workSheetName\": \"Fast\"}";
+        SQLExcelExporterConfig config = config(new File(folder.getRoot(), "failed.xlsx"), true, worksheets,
+                "\"resultCache\": {\"directory\": \"" + cacheDirectory.getAbsolutePath().replace('\\', '/') + "\"}, ");
+        try (ExportEngine engine = new ExportEngine()) {
+            assertEquals(ExportResult.Status.FAILED, engine.export(config).get(0).getStatus());
+        }
+        // the fetches still running when the export failed release their results when they complete
+        ResultCache cache = ResultCache.forSettings(config.getResultCache());
+        long deadline = System.currentTimeMillis() + 30000;
+        String[] files;
+        do {
+            Thread.sleep(100);
+            cache.clear();
+            files = cacheDirectory.list();
+        } while (files.length > 0 && System.currentTimeMillis() < deadline);
+        assertEquals(0, files.length);
+    }
+
+    /**
+     * @return the sheet names and the type, value and format of every cell
+     */
+    private static List<String> cells(File file) throws IOException {
+        assertTrue(file.getPath(), file.length() > 0);
+        List<String> cells = new ArrayList<String>();
+        try (InputStream in = new FileInputStream(file); Workbook workbook = new XSSFWorkbook(in)) {
+            for (Sheet sheet : workbook) {
+                cells.add("sheet " + sheet.getSheetName());
+                for (Row row : sheet) {
+                    for (Cell cell : row) {
+                        cells.add(row.getRowNum() + "/" + cell.getColumnIndex() + " " + cell.getCellType() + " "
+                                + value(cell) + " " + cell.getCellStyle().getDataFormatString());
+                    }
+                }
+            }
+        }
+        return cells;
+    }
+
+    private static String value(Cell cell) {
+        switch (cell.getCellType()) {
+            case NUMERIC:
+                return Double.toString(cell.getNumericCellValue());
+            case BOOLEAN:
+                return Boolean.toString(cell.getBooleanCellValue());
+            default:
+                return cell.getStringCellValue();
+        }
+    }
+}
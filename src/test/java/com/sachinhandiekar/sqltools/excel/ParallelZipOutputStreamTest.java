@@ -0,0 +1,191 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reads archives of the parallel zip writer back with ZipFile and ZipInputStream. Every block after
+ * the first one of an entry is deflated with the end of the previous block as preset dictionary, so
+ * small block sizes run most of the data through that path.
+ */
+public class ParallelZipOutputStreamTest {
+
+    private static final int[] BLOCK_SIZES = {1024, 32 * 1024, 100000, 128 * 1024};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Map<String, byte[]> entries() {
+        Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+        StringBuilder rows = new StringBuilder();
+        for (int i = 0; i < 40000; i++) {
+            rows.append("<row r=\"").append(i).append("\"><c><v>").append(i * 31 % 977).append("</v></c></row>");
+        }
+        entries.put("xl/worksheets/sheet1.xml", rows.toString().getBytes(StandardCharsets.UTF_8));
+        byte[] random = new byte[300000];
+        new Random(1).nextBytes(random);
+        entries.put("random.bin", random);
+        entries.put("empty.xml", new byte[0]);
+        entries.put("docProps/\u00FCber.xml", "<x/>".getBytes(StandardCharsets.UTF_8));
+        return entries;
+    }
+
+    private File write(Map<String, byte[]> entries, int threads, int blockSize, boolean zip64) throws IOException {
+        File file = folder.newFile("zip-" + threads + "-" + blockSize + "-" + zip64 + ".zip");
+        try (ParallelZipOutputStream zip = new ParallelZipOutputStream(new FileOutputStream(file), 6, threads,
+                blockSize)) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                zip.putNextEntry(entry.getKey(), zip64 && entry.getKey().startsWith("xl/"));
+                byte[] data = entry.getValue();
+                // uneven writes, so entries start and end in the middle of blocks
+                for (int offset = 0; offset < data.length; offset += 7777) {
+                    zip.write(data, offset, Math.min(7777, data.length - offset));
+                }
+            }
+            zip.finish();
+        }
+        return file;
+    }
+
+    /**
+     * @return the compressed size of every entry, after checking its content with ZipFile and ZipInputStream
+     */
+    private static List<Long> assertEntries(Map<String, byte[]> entries, File file) throws IOException {
+        List<Long> compressedSizes = new ArrayList<Long>();
+        try (ZipFile zip = new ZipFile(file)) {
+            assertEquals(entries.size(), zip.size());
+            for (Map.Entry<String, byte[]> expected : entries.entrySet()) {
+                ZipEntry entry = zip.getEntry(expected.getKey());
+                assertNotNull(expected.getKey(), entry);
+                try (InputStream in = zip.getInputStream(entry)) {
+                    assertArrayEquals(expected.getKey(), expected.getValue(), readAll(in));
+                }
+                compressedSizes.add(entry.getCompressedSize());
+            }
+        }
+        try (ZipInputStream in = new ZipInputStream(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, byte[]> expected : entries.entrySet()) {
+                ZipEntry entry = in.getNextEntry();
+                assertEquals(expected.getKey(), entry.getName());
+                assertArrayEquals(expected.getKey(), expected.getValue(), readAll(in));
+                assertEquals(expected.getKey(), expected.getValue().length, entry.getSize());
+            }
+            assertNull(in.getNextEntry());
+        }
+        return compressedSizes;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void severalThreadsWriteTheArchiveOfOneThread() throws IOException {
+        Map<String, byte[]> entries = entries();
+        for (int blockSize : BLOCK_SIZES) {
+            List<Long> singleThreaded = assertEntries(entries, write(entries, 1, blockSize, false));
+            assertEquals("block size " + blockSize, singleThreaded,
+                    assertEntries(entries, write(entries, 4, blockSize, false)));
+        }
+    }
+
+    @Test
+    public void presetDictionaryKeepsTheRatioOfOneBlock() throws IOException {
+        Map<String, byte[]> entries = entries();
+        long oneBlock = assertEntries(entries, write(entries, 1, 1 << 24, false)).get(0);
+        long smallBlocks = assertEntries(entries, write(entries, 4, 1024, false)).get(0);
+        // without the dictionary every 1 KB block would start from scratch
+        assertTrue(smallBlocks + " vs " + oneBlock, smallBlocks < oneBlock * 3 / 2);
+    }
+
+    /**
+     * The local header of a Zip64 entry has the Zip64 extra field and its data descriptor 8 byte sizes.
+     * Checked on the bytes, since ZipInputStream before Java 21 reads 8 byte sizes only beyond 4 GB.
+     */
+    @Test
+    public void zip64EntriesAnnounceTheirDataDescriptor() throws IOException {
+        Map<String, byte[]> entries = entries();
+        for (int threads : new int[] {1, 4}) {
+            File file = write(entries, threads, 32 * 1024, true);
+            long compressedSize;
+            try (ZipFile zip = new ZipFile(file)) {
+                ZipEntry entry = zip.getEntry("xl/worksheets/sheet1.xml");
+                try (InputStream in = zip.getInputStream(entry)) {
+                    assertArrayEquals(entries.get("xl/worksheets/sheet1.xml"), readAll(in));
+                }
+                compressedSize = entry.getCompressedSize();
+            }
+            ByteBuffer archive = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+            assertEquals(0x04034b50, archive.getInt(0));
+            assertEquals(45, archive.getShort(4));
+            assertEquals(0xFFFFFFFF, archive.getInt(18));
+            assertEquals(0xFFFFFFFF, archive.getInt(22));
+            int nameLength = archive.getShort(26);
+            assertEquals(20, archive.getShort(28));
+            int extra = 30 + nameLength;
+            assertEquals(0x0001, archive.getShort(extra));
+            assertEquals(16, archive.getShort(extra + 2));
+            int descriptor = (int) (extra + 20 + compressedSize);
+            assertEquals(0x08074b50, archive.getInt(descriptor));
+            assertEquals(compressedSize, archive.getLong(descriptor + 8));
+            assertEquals(entries.get("xl/worksheets/sheet1.xml").length, archive.getLong(descriptor + 16));
+            // the next entry is a plain one with 4 byte sizes
+            int next = descriptor + 24;
+            assertEquals(0x04034b50, archive.getInt(next));
+            assertEquals(20, archive.getShort(next + 4));
+            assertEquals(0, archive.getShort(next + 28));
+        }
+    }
+
+    @Test
+    public void closeEndsTheDeflatersOfAllThreads() throws IOException {
+        byte[] data = entries().get("xl/worksheets/sheet1.xml");
+        for (int threads : new int[] {1, 4}) {
+            ParallelZipOutputStream zip = new ParallelZipOutputStream(new ByteArrayOutputStream(), 6, threads, 4096);
+            zip.putNextEntry("sheet.xml");
+            zip.write(data, 0, data.length);
+            zip.closeEntry();
+            assertTrue(zip.getOpenDeflaters() > 0);
+            zip.close();
+            assertEquals(0, zip.getOpenDeflaters());
+        }
+        // an archive closed in the middle of an entry, like a failed export
+        ParallelZipOutputStream zip = new ParallelZipOutputStream(new ByteArrayOutputStream(), 6, 4, 4096);
+        zip.putNextEntry("sheet.xml");
+        zip.write(data, 0, data.length);
+        zip.close();
+        assertEquals(0, zip.getOpenDeflaters());
+    }
+}
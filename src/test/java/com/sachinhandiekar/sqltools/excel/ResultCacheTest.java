@@ -0,0 +1,53 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import com.google.gson.Gson;
+import com.sachinhandiekar.sqltools.excel.model.ResultCacheSettings;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that configurations with different cache settings, e.g. in the daemon, keep their caches.
+ */
+public class ResultCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static ResultCacheSettings settings(File directory, long ttlSeconds) {
+        return new Gson().fromJson("{\"directory\": \"" + directory.getAbsolutePath().replace('\\', '/')
+                + "\", \"ttlSeconds\": " + ttlSeconds + "}", ResultCacheSettings.class);
+    }
+
+    @Test
+    public void configurationsWithOtherSettingsKeepTheirCaches() throws IOException {
+        ResultCacheSettings first = settings(folder.newFolder("first"), 3600);
+        ResultCacheSettings second = settings(folder.newFolder("second"), 60);
+        ResultCache cache = ResultCache.forSettings(first);
+
+        RowSpool spool = cache.createSpool(1, 10);
+        RowBatch batch = new RowBatch(1, 10);
+        batch.addRow();
+        batch.setNumber(0, 0, 42);
+        spool.accept(batch);
+        spool.finish();
+        cache.release(cache.put("key", new ColumnLayout(new String[] {"ID"}, new String[] {"text"}), spool));
+
+        ResultCache other = ResultCache.forSettings(second);
+        assertNotSame(cache, other);
+        assertSame(cache, ResultCache.forSettings(settings(new File(folder.getRoot(), "first"), 3600)));
+        ResultCache.Entry entry = cache.acquire("key");
+        assertNotNull(entry);
+        assertEquals(1, entry.getSpool().getRows());
+        cache.release(entry);
+    }
+}
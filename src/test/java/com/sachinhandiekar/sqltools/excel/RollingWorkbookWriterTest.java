@@ -0,0 +1,83 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import com.sachinhandiekar.sqltools.excel.model.ExcelFile;
+import com.sachinhandiekar.sqltools.excel.model.Worksheet;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Rolls text files over at maxRowsPerFile and checks the names of the continuation files.
+ */
+public class RollingWorkbookWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void partNumberGoesBeforeTheWholeExtension() {
+        assertEquals("out.csv.gz", RollingWorkbookWriter.partFileName("out.csv.gz", 1));
+        assertEquals("out_2.csv.gz", RollingWorkbookWriter.partFileName("out.csv.gz", 2));
+        assertEquals("dir.v1/out_3.JSONL.GZ", RollingWorkbookWriter.partFileName("dir.v1/out.JSONL.GZ", 3));
+        assertEquals("out_2.jsonl", RollingWorkbookWriter.partFileName("out.jsonl", 2));
+        assertEquals("out_2.xlsx", RollingWorkbookWriter.partFileName("out.xlsx", 2));
+        assertEquals("archive.tar_2.gz", RollingWorkbookWriter.partFileName("archive.tar.gz", 2));
+        assertEquals("dir.v1/out_2", RollingWorkbookWriter.partFileName("dir.v1/out", 2));
+        assertEquals("out-2.csv.gz", RollingWorkbookWriter.partFileName("out-##Part##.csv.gz", 2));
+    }
+
+    @Test
+    public void gzipCsvRollsOverIntoTwoParts() throws IOException {
+        File file = new File(folder.getRoot(), "orders.csv.gz");
+        ExcelFile excelFile = new ExcelFile();
+        excelFile.setFileName(file.getPath());
+        excelFile.setMaxRowsPerFile(2);
+        Worksheet worksheet = new Worksheet();
+        worksheet.setWorkSheetName("Orders");
+        excelFile.setWorksheets(Collections.singletonList(worksheet));
+
+        File second = new File(folder.getRoot(), "orders_2.csv.gz");
+        try (WorkbookWriter writer = new RollingWorkbookWriter(excelFile, TypeFormatMapping.defaults(),
+                file.getPath())) {
+            SheetWriter sheet = writer.startSheet("Orders", new ColumnLayout(new String[] {"ID", "NAME"},
+                    new String[] {TypeFormatMapping.DEFAULT_FORMAT, TypeFormatMapping.DEFAULT_FORMAT}));
+            RowBatch batch = new RowBatch(2, 3);
+            for (int id = 1; id <= 3; id++) {
+                int row = batch.addRow();
+                batch.setNumber(row, 0, id);
+                batch.setText(row, 1, "order " + id);
+            }
+            sheet.accept(batch);
+            sheet.finish();
+            writer.finish();
+            assertEquals(Arrays.asList(file, second), writer.getFiles());
+        }
+        assertEquals("ID,NAME\r\n1,order 1\r\n2,order 2\r\n", gunzip(file));
+        assertEquals("ID,NAME\r\n3,order 3\r\n", gunzip(second));
+    }
+
+    private static String gunzip(File file) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new FileInputStream(file))) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
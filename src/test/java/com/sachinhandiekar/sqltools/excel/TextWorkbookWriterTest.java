@@ -0,0 +1,82 @@
+package com.sachinhandiekar.sqltools.excel;
+
+import com.google.gson.Gson;
+import com.sachinhandiekar.sqltools.excel.model.ExcelFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Checks that append mode adds to existing text files and that a failed export leaves them as they were.
+ */
+public class TextWorkbookWriterTest {
+
+    private static final String EXISTING = "ID,NAME\r\n1,first\r\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static ExcelFile excelFile(File file) {
+        return new Gson().fromJson("{\"id\": 1, \"append\": true, \"fileName\": \""
+                + file.getAbsolutePath().replace('\\', '/') + "\", \"worksheet\": [{\"id\": 1, \"workSheetName\": \"A\"}]}",
+                ExcelFile.class);
+    }
+
+    private static void writeRow(WorkbookWriter writer, int id, String name) throws IOException {
+        ColumnLayout layout = new ColumnLayout(new String[] {"ID", "NAME"},
+                new String[] {TypeFormatMapping.DEFAULT_FORMAT, TypeFormatMapping.DEFAULT_FORMAT});
+        SheetWriter sheet = writer.startSheet("A", layout);
+        RowBatch batch = new RowBatch(2, 1);
+        batch.addRow();
+        batch.setNumber(0, 0, id);
+        batch.setText(0, 1, name);
+        sheet.accept(batch);
+        sheet.finish();
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void appendAddsRowsWithoutHeader() throws IOException {
+        File file = folder.newFile("audit.csv");
+        Files.write(file.toPath(), EXISTING.getBytes(StandardCharsets.UTF_8));
+        try (WorkbookWriter writer = new RollingWorkbookWriter(excelFile(file), TypeFormatMapping.defaults(),
+                file.getPath())) {
+            writeRow(writer, 2, "second");
+            writer.finish();
+        }
+        assertEquals(EXISTING + "2,second\r\n", read(file));
+    }
+
+    @Test
+    public void failedAppendKeepsExistingRows() throws IOException {
+        File file = folder.newFile("audit.csv");
+        Files.write(file.toPath(), EXISTING.getBytes(StandardCharsets.UTF_8));
+        try (WorkbookWriter writer = new RollingWorkbookWriter(excelFile(file), TypeFormatMapping.defaults(),
+                file.getPath())) {
+            writeRow(writer, 2, "second");
+        }
+        assertEquals(EXISTING, read(file));
+    }
+
+    @Test
+    public void failedAppendRemovesNewFile() throws IOException {
+        File file = new File(folder.getRoot(), "new.csv");
+        try (WorkbookWriter writer = new RollingWorkbookWriter(excelFile(file), TypeFormatMapping.defaults(),
+                file.getPath())) {
+            writeRow(writer, 1, "first");
+        }
+        assertFalse(file.exists());
+    }
+}